@@ -0,0 +1,358 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.xnio.FailedIoFuture;
+import org.xnio.FinishedIoFuture;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.XnioExecutor;
+
+/**
+ * A pool of idle outbound channels belonging to a single connection, keyed by service type and channel options.
+ * Pooled channels still count against the connection's outbound channel limit, so when that limit is reached, the
+ * longest-idle channel is closed to make room for a new one.  The pool is closed along with its connection.
+ */
+public final class ChannelPool implements Closeable {
+
+    private static final Logger log = Logger.getLogger("org.jboss.remoting.channel-pool");
+
+    private final Connection connection;
+    private final Executor executor;
+    private final Map<Key, ArrayDeque<IdleChannel>> idleChannels = new HashMap<Key, ArrayDeque<IdleChannel>>();
+    private final Map<Channel, Key> leasedChannels = new IdentityHashMap<Channel, Key>();
+    private final CloseHandler<Channel> closeHandler = new CloseHandler<Channel>() {
+        public void handleClose(final Channel closed, final IOException exception) {
+            remove(closed);
+        }
+    };
+    private final Runnable trimTask = new Runnable() {
+        public void run() {
+            trim();
+        }
+    };
+    private final HandleableCloseable.Key connectionCloseKey;
+    private XnioExecutor.Key trimKey;
+    private long trimTime;
+    private boolean closed;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param connection the connection to open pooled channels on
+     */
+    public ChannelPool(final Connection connection) {
+        this.connection = connection;
+        executor = connection.getEndpoint().getXnioWorker();
+        connectionCloseKey = connection.addCloseHandler(new CloseHandler<Connection>() {
+            public void handleClose(final Connection closed, final IOException exception) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Lease a channel to a remote service.  If an idle channel which was opened for the same service type and options
+     * is available, it is reused; otherwise a new channel is opened.  Idle channels are closed after the
+     * {@link RemotingOptions#CHANNEL_POOL_IDLE_TIMEOUT} given in the option map, or sooner if room is needed to open
+     * another channel.
+     *
+     * @param serviceType the service type
+     * @param optionMap the option map
+     * @return the future channel
+     */
+    public IoFuture<Channel> lease(final String serviceType, final OptionMap optionMap) {
+        final Key key = new Key(serviceType, optionMap);
+        synchronized (this) {
+            if (closed) {
+                return new FailedIoFuture<Channel>(new NotOpenException("Connection is closed"));
+            }
+            final ArrayDeque<IdleChannel> queue = idleChannels.get(key);
+            if (queue != null) {
+                // most recently used first, so that surplus channels age out
+                final IdleChannel idleChannel = queue.pollLast();
+                if (queue.isEmpty()) {
+                    idleChannels.remove(key);
+                }
+                if (idleChannel != null) {
+                    leasedChannels.put(idleChannel.channel, key);
+                    log.tracef("Leased pooled %s", idleChannel.channel);
+                    return new FinishedIoFuture<Channel>(idleChannel.channel);
+                }
+            }
+        }
+        final FutureResult<Channel> result = new FutureResult<Channel>(executor);
+        open(key, result);
+        return result.getIoFuture();
+    }
+
+    /**
+     * Return a channel obtained from {@link #lease(String, OptionMap)} to the pool.  The caller must not use the
+     * channel afterwards, and must not leave any message open or any receiver registered on it.  Closed channels, and
+     * channels which were not leased from this pool, are ignored.
+     *
+     * @param channel the channel to return
+     */
+    public void release(final Channel channel) {
+        final List<Channel> toClose;
+        synchronized (this) {
+            final Key key = leasedChannels.remove(channel);
+            if (key == null) {
+                // closed in the meantime, or not ours
+                return;
+            }
+            if (! closed) {
+                ArrayDeque<IdleChannel> queue = idleChannels.get(key);
+                if (queue == null) {
+                    idleChannels.put(key, queue = new ArrayDeque<IdleChannel>());
+                }
+                final long now = System.nanoTime();
+                queue.addLast(new IdleChannel(channel, now + TimeUnit.MILLISECONDS.toNanos(key.idleTimeout)));
+                log.tracef("Returned %s to pool", channel);
+                scheduleTrim(now, key.idleTimeout);
+                return;
+            }
+            toClose = new ArrayList<Channel>(1);
+            toClose.add(channel);
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Close this pool and all of its idle channels.  Leased channels are left open, and are closed instead of being
+     * pooled when they are released.
+     */
+    public void close() {
+        final List<Channel> toClose = new ArrayList<Channel>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (ArrayDeque<IdleChannel> queue : idleChannels.values()) {
+                for (IdleChannel idleChannel : queue) {
+                    toClose.add(idleChannel.channel);
+                }
+            }
+            idleChannels.clear();
+            // leased channels stay tracked so that they are closed when released
+            if (trimKey != null) {
+                trimKey.remove();
+                trimKey = null;
+            }
+        }
+        connectionCloseKey.remove();
+        closeAll(toClose);
+    }
+
+    private void open(final Key key, final FutureResult<Channel> result) {
+        final IoFuture<Channel> future = connection.openChannel(key.serviceType, key.optionMap);
+        result.addCancelHandler(future);
+        future.addNotifier(new IoFuture.HandlingNotifier<Channel, Void>() {
+            public void handleCancelled(final Void attachment) {
+                result.setCancelled();
+            }
+
+            public void handleFailed(final IOException exception, final Void attachment) {
+                if (exception instanceof TooManyChannelsException && evictIdleChannel(new Runnable() {
+                    public void run() {
+                        open(key, result);
+                    }
+                })) {
+                    return;
+                }
+                result.setException(exception);
+            }
+
+            public void handleDone(final Channel channel, final Void attachment) {
+                channel.addCloseHandler(closeHandler);
+                synchronized (ChannelPool.this) {
+                    // tracked even if the pool has closed, so that releasing it closes it
+                    leasedChannels.put(channel, key);
+                }
+                if (! result.setResult(channel)) {
+                    // the lease was cancelled; keep the channel for the next one
+                    release(channel);
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * Close the longest-idle channel, and run a task once it is closed.
+     *
+     * @param task the task to run once the channel is closed
+     * @return {@code true} if a channel was evicted, {@code false} if there were no idle channels
+     */
+    private boolean evictIdleChannel(final Runnable task) {
+        final Channel channel;
+        synchronized (this) {
+            ArrayDeque<IdleChannel> oldestQueue = null;
+            for (ArrayDeque<IdleChannel> queue : idleChannels.values()) {
+                if (oldestQueue == null || queue.peekFirst().expiry - oldestQueue.peekFirst().expiry < 0L) {
+                    oldestQueue = queue;
+                }
+            }
+            if (oldestQueue == null) {
+                return false;
+            }
+            channel = oldestQueue.pollFirst().channel;
+            if (oldestQueue.isEmpty()) {
+                idleChannels.values().remove(oldestQueue);
+            }
+        }
+        log.tracef("Evicting pooled %s to make room for a new channel", channel);
+        channel.addCloseHandler(new CloseHandler<Channel>() {
+            public void handleClose(final Channel closed, final IOException exception) {
+                task.run();
+            }
+        });
+        channel.closeAsync();
+        return true;
+    }
+
+    private void scheduleTrim(final long now, final int delay) {
+        assert Thread.holdsLock(this);
+        final long time = now + TimeUnit.MILLISECONDS.toNanos(delay);
+        if (trimKey != null) {
+            if (trimTime - time <= 0L) {
+                // an earlier trim is already scheduled
+                return;
+            }
+            trimKey.remove();
+        }
+        trimTime = time;
+        trimKey = connection.getEndpoint().getXnioWorker().getIoThread().executeAfter(trimTask, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void trim() {
+        final List<Channel> toClose = new ArrayList<Channel>();
+        synchronized (this) {
+            trimKey = null;
+            if (closed) {
+                return;
+            }
+            final long now = System.nanoTime();
+            long next = Long.MAX_VALUE;
+            final Iterator<ArrayDeque<IdleChannel>> iterator = idleChannels.values().iterator();
+            while (iterator.hasNext()) {
+                final ArrayDeque<IdleChannel> queue = iterator.next();
+                IdleChannel idleChannel;
+                while ((idleChannel = queue.peekFirst()) != null && idleChannel.expiry - now <= 0L) {
+                    toClose.add(queue.pollFirst().channel);
+                }
+                if (idleChannel == null) {
+                    iterator.remove();
+                } else {
+                    next = Math.min(next, idleChannel.expiry - now);
+                }
+            }
+            if (next != Long.MAX_VALUE) {
+                scheduleTrim(now, (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(next) + 1L));
+            }
+        }
+        if (! toClose.isEmpty()) {
+            log.tracef("Closing %d idle pooled channels", Integer.valueOf(toClose.size()));
+        }
+        closeAll(toClose);
+    }
+
+    private void remove(final Channel channel) {
+        synchronized (this) {
+            if (leasedChannels.remove(channel) != null) {
+                return;
+            }
+            final Iterator<ArrayDeque<IdleChannel>> iterator = idleChannels.values().iterator();
+            while (iterator.hasNext()) {
+                final ArrayDeque<IdleChannel> queue = iterator.next();
+                final Iterator<IdleChannel> queueIterator = queue.iterator();
+                while (queueIterator.hasNext()) {
+                    if (queueIterator.next().channel == channel) {
+                        queueIterator.remove();
+                        if (queue.isEmpty()) {
+                            iterator.remove();
+                        }
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void closeAll(final List<Channel> channels) {
+        for (Channel channel : channels) {
+            IoUtils.safeClose(channel);
+        }
+    }
+
+    static final class IdleChannel {
+        private final Channel channel;
+        private final long expiry;
+
+        IdleChannel(final Channel channel, final long expiry) {
+            this.channel = channel;
+            this.expiry = expiry;
+        }
+    }
+
+    static final class Key {
+        private final String serviceType;
+        private final OptionMap optionMap;
+        private final int idleTimeout;
+        private final int hashCode;
+
+        Key(final String serviceType, final OptionMap optionMap) {
+            this.serviceType = serviceType;
+            this.optionMap = optionMap;
+            idleTimeout = optionMap.get(RemotingOptions.CHANNEL_POOL_IDLE_TIMEOUT, RemotingOptions.DEFAULT_CHANNEL_POOL_IDLE_TIMEOUT);
+            hashCode = serviceType.hashCode() * 31 + optionMap.hashCode();
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        boolean equals(final Key other) {
+            return this == other || other != null && serviceType.equals(other.serviceType) && optionMap.equals(other.optionMap);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.jboss.logging.Logger;
+import org.jboss.remoting3.security.UserInfo;
+import org.jboss.remoting3.spi.AbstractHandleableCloseable;
+import org.xnio.Cancellable;
+import org.xnio.FinishedIoFuture;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.OptionMap;
+import org.xnio.ssl.JsseXnioSsl;
+import org.xnio.ssl.XnioSsl;
+
+/**
+ * A cache of shared outbound connections, keyed by destination, connect options and identity.  Each connect request
+ * receives its own lease; the shared connection is closed once the last lease is closed.
+ */
+final class ConnectionCache {
+
+    private static final Logger log = Logger.getLogger("org.jboss.remoting.connection-cache");
+
+    private final Executor executor;
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    ConnectionCache(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Lease an existing or in-progress connection.
+     *
+     * @param key the connection key
+     * @return the future lease, or {@code null} if there is no connection for the key
+     */
+    synchronized IoFuture<Connection> join(final Key key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        log.tracef("Joining shared connection to %s", key.destination);
+        return entry.lease();
+    }
+
+    /**
+     * Register a new connection attempt and lease it.
+     *
+     * @param key the connection key
+     * @param future the future connection
+     * @return the future lease
+     */
+    IoFuture<Connection> add(final Key key, final IoFuture<Connection> future) {
+        final Entry entry = new Entry(key, future);
+        final IoFuture<Connection> lease;
+        synchronized (this) {
+            entries.put(key, entry);
+            lease = entry.lease();
+        }
+        future.addNotifier(entry, null);
+        return lease;
+    }
+
+    private void remove(final Entry entry) {
+        assert Thread.holdsLock(this);
+        if (entries.get(entry.key) == entry) {
+            entries.remove(entry.key);
+        }
+    }
+
+    final class Entry extends IoFuture.HandlingNotifier<Connection, Void> implements CloseHandler<Connection> {
+        private final Key key;
+        private final IoFuture<Connection> future;
+        private final List<FutureResult<Connection>> waiters = new ArrayList<FutureResult<Connection>>();
+        private final List<Lease> leases = new ArrayList<Lease>();
+        private Connection connection;
+        private int references;
+
+        Entry(final Key key, final IoFuture<Connection> future) {
+            this.key = key;
+            this.future = future;
+        }
+
+        IoFuture<Connection> lease() {
+            assert Thread.holdsLock(ConnectionCache.this);
+            references++;
+            if (connection != null) {
+                final Lease lease = new Lease(executor, this, connection);
+                leases.add(lease);
+                return new FinishedIoFuture<Connection>(lease);
+            }
+            final FutureResult<Connection> result = new FutureResult<Connection>(executor);
+            waiters.add(result);
+            result.addCancelHandler(new Cancellable() {
+                public Cancellable cancel() {
+                    cancelWaiter(result);
+                    return this;
+                }
+            });
+            return result.getIoFuture();
+        }
+
+        private void cancelWaiter(final FutureResult<Connection> result) {
+            synchronized (ConnectionCache.this) {
+                if (! waiters.remove(result)) {
+                    return;
+                }
+                result.setCancelled();
+                if (--references > 0) {
+                    return;
+                }
+                // nobody else is waiting for this connection
+                remove(this);
+            }
+            future.cancel();
+        }
+
+        void release(final Lease lease) {
+            final Connection connection;
+            synchronized (ConnectionCache.this) {
+                if (! leases.remove(lease) || --references > 0) {
+                    return;
+                }
+                remove(this);
+                connection = this.connection;
+            }
+            log.tracef("Closing shared %s with no remaining leases", connection);
+            connection.closeAsync();
+        }
+
+        public void handleCancelled(final Void attachment) {
+            final List<FutureResult<Connection>> waiters;
+            synchronized (ConnectionCache.this) {
+                remove(this);
+                waiters = new ArrayList<FutureResult<Connection>>(this.waiters);
+                this.waiters.clear();
+            }
+            for (FutureResult<Connection> waiter : waiters) {
+                waiter.setCancelled();
+            }
+        }
+
+        public void handleFailed(final IOException exception, final Void attachment) {
+            final List<FutureResult<Connection>> waiters;
+            synchronized (ConnectionCache.this) {
+                remove(this);
+                waiters = new ArrayList<FutureResult<Connection>>(this.waiters);
+                this.waiters.clear();
+            }
+            for (FutureResult<Connection> waiter : waiters) {
+                waiter.setException(exception);
+            }
+        }
+
+        public void handleDone(final Connection connection, final Void attachment) {
+            connection.addCloseHandler(this);
+            final List<FutureResult<Connection>> waiters;
+            final List<Lease> leases;
+            synchronized (ConnectionCache.this) {
+                this.connection = connection;
+                waiters = new ArrayList<FutureResult<Connection>>(this.waiters);
+                this.waiters.clear();
+                leases = new ArrayList<Lease>(waiters.size());
+                for (int i = 0; i < waiters.size(); i ++) {
+                    leases.add(new Lease(executor, this, connection));
+                }
+                this.leases.addAll(leases);
+                if (references == 0) {
+                    // every lease was cancelled while the connection was being established
+                    remove(this);
+                }
+            }
+            if (waiters.isEmpty()) {
+                connection.closeAsync();
+                return;
+            }
+            for (int i = 0; i < waiters.size(); i ++) {
+                if (! waiters.get(i).setResult(leases.get(i))) {
+                    leases.get(i).closeAsync();
+                }
+            }
+        }
+
+        public void handleClose(final Connection closed, final IOException exception) {
+            final List<Lease> leases;
+            synchronized (ConnectionCache.this) {
+                remove(this);
+                leases = new ArrayList<Lease>(this.leases);
+            }
+            for (Lease lease : leases) {
+                lease.closeAsync();
+            }
+        }
+    }
+
+    /**
+     * A single holder's view of a shared connection.
+     */
+    static final class Lease extends AbstractHandleableCloseable<Connection> implements Connection {
+        private final Entry entry;
+        private final Connection connection;
+
+        Lease(final Executor executor, final Entry entry, final Connection connection) {
+            super(executor, true);
+            this.entry = entry;
+            this.connection = connection;
+        }
+
+        protected void closeAction() throws IOException {
+            try {
+                entry.release(this);
+            } finally {
+                closeComplete();
+            }
+        }
+
+        public Collection<Principal> getPrincipals() {
+            return connection.getPrincipals();
+        }
+
+        public UserInfo getUserInfo() {
+            return connection.getUserInfo();
+        }
+
+        public IoFuture<Channel> openChannel(final String serviceType, final OptionMap optionMap) {
+            return connection.openChannel(serviceType, optionMap);
+        }
+
+        public String getRemoteEndpointName() {
+            return connection.getRemoteEndpointName();
+        }
+
+        public Endpoint getEndpoint() {
+            return connection.getEndpoint();
+        }
+
+        public Attachments getAttachments() {
+            return connection.getAttachments();
+        }
+
+        public String toString() {
+            return String.format("Lease <%x> on %s", Integer.valueOf(hashCode()), connection);
+        }
+    }
+
+    /**
+     * Get an identity for a user name and password, without retaining the password itself.
+     *
+     * @param userName the user name, or {@code null}
+     * @param realmName the realm name, or {@code null}
+     * @param password the password, or {@code null}
+     * @return the identity
+     */
+    static Object passwordIdentity(final String userName, final String realmName, final char[] password) {
+        return new PasswordIdentity(userName, realmName, password == null ? null : digest(password));
+    }
+
+    private static byte[] digest(final char[] password) {
+        final ByteBuffer buffer = Charset.forName("UTF-8").encode(CharBuffer.wrap(password));
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    private static boolean equal(final Object a, final Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int hash(final Object o) {
+        return o == null ? 0 : o.hashCode();
+    }
+
+    static final class PasswordIdentity {
+        private final String userName;
+        private final String realmName;
+        private final byte[] digest;
+
+        PasswordIdentity(final String userName, final String realmName, final byte[] digest) {
+            this.userName = userName;
+            this.realmName = realmName;
+            this.digest = digest;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof PasswordIdentity && equals((PasswordIdentity) obj);
+        }
+
+        boolean equals(final PasswordIdentity other) {
+            return this == other || other != null && equal(userName, other.userName) && equal(realmName, other.realmName) && MessageDigest.isEqual(digest, other.digest);
+        }
+
+        public int hashCode() {
+            return hash(userName) * 31 + hash(realmName);
+        }
+    }
+
+    static final class Key {
+        private final String scheme;
+        private final SocketAddress bindAddress;
+        private final SocketAddress destination;
+        private final OptionMap optionMap;
+        private final Object identity;
+        private final Object ssl;
+        private final int hashCode;
+
+        /**
+         * Construct a new instance.
+         *
+         * @param scheme the URI scheme
+         * @param bindAddress the bind address, or {@code null}
+         * @param destination the destination address
+         * @param optionMap the connect options
+         * @param identity the identity, compared with {@code equals()}; a password identity compares by its contents, and a
+         *      callback handler normally by identity
+         * @param xnioSsl the SSL provider; a JSSE provider is compared by its SSL context, any other by identity
+         */
+        Key(final String scheme, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap optionMap, final Object identity, final XnioSsl xnioSsl) {
+            this.scheme = scheme;
+            this.bindAddress = bindAddress;
+            this.destination = destination;
+            this.optionMap = optionMap;
+            this.identity = identity;
+            // the endpoint wraps an SSL context in a new provider for every connect
+            ssl = xnioSsl instanceof JsseXnioSsl ? ((JsseXnioSsl) xnioSsl).getSslContext() : xnioSsl;
+            hashCode = ((((hash(scheme) * 31 + hash(bindAddress)) * 31 + hash(destination)) * 31 + optionMap.hashCode()) * 31 + hash(identity)) * 31 + System.identityHashCode(ssl);
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        boolean equals(final Key other) {
+            return this == other || other != null && hashCode == other.hashCode && equal(scheme, other.scheme) && equal(bindAddress, other.bindAddress) && equal(destination, other.destination) && optionMap.equals(other.optionMap) && equal(identity, other.identity) && ssl == other.ssl;
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
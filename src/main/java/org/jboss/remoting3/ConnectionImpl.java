@@ -41,9 +41,10 @@ class ConnectionImpl extends AbstractHandleableCloseable<Connection> implements
 
     private final ConnectionHandler connectionHandler;
     private final Endpoint endpoint;
+    private volatile Connection owner = this;
 
     ConnectionImpl(final EndpointImpl endpoint, final ConnectionHandlerFactory connectionHandlerFactory, final ConnectionProviderContext connectionProviderContext) {
-        super(endpoint.getExecutor(), true);
+        super(endpoint.getExecutor(), true, endpoint);
         this.endpoint = endpoint;
         connectionHandler = connectionHandlerFactory.createInstance(endpoint.new LocalConnectionContext(connectionProviderContext, this));
     }
@@ -61,6 +62,20 @@ class ConnectionImpl extends AbstractHandleableCloseable<Connection> implements
         return connectionHandler;
     }
 
+    /**
+     * Get the connection which the channels of this connection report as theirs.  This is the connection itself,
+     * unless it is one stripe of a {@link StripedConnection}.
+     *
+     * @return the owning connection
+     */
+    Connection getOwner() {
+        return owner;
+    }
+
+    void setOwner(final Connection owner) {
+        this.owner = owner;
+    }
+
     public Collection<Principal> getPrincipals() {
         return connectionHandler.getPrincipals();
     }
@@ -88,6 +103,22 @@ class ConnectionImpl extends AbstractHandleableCloseable<Connection> implements
         return attachments;
     }
 
+    public void close() throws IOException {
+        if (! isOpen()) {
+            // closing again ends a drain of the handler
+            connectionHandler.closeAsync();
+        }
+        super.close();
+    }
+
+    public void closeAsync() {
+        if (isOpen()) {
+            super.closeAsync();
+        } else {
+            connectionHandler.closeAsync();
+        }
+    }
+
     public String toString() {
         return String.format("Remoting connection <%x>", Integer.valueOf(hashCode()));
     }
@@ -27,12 +27,17 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.SSLContext;
@@ -47,6 +52,7 @@ import org.jboss.remoting3.spi.ConnectionHandlerFactory;
 import org.jboss.remoting3.spi.ConnectionProvider;
 import org.jboss.remoting3.spi.ConnectionProviderContext;
 import org.jboss.remoting3.spi.ConnectionProviderFactory;
+import org.jboss.remoting3.spi.NetworkServerProvider;
 import org.jboss.remoting3.spi.RegisteredService;
 import org.jboss.remoting3.spi.SpiUtils;
 import org.xnio.Cancellable;
@@ -79,7 +85,10 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
     private static final int COUNT_MASK = ~(CLOSED_FLAG);
     private static final String FQCN = EndpointImpl.class.getName();
 
-    private final Set<ConnectionImpl> connections = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<ConnectionImpl, Boolean>()));
+    /**
+     * The open connections; iteration is weakly consistent, so closing the endpoint does not block connection churn.
+     */
+    private final Set<ConnectionImpl> connections = Collections.newSetFromMap(new ConcurrentHashMap<ConnectionImpl, Boolean>());
 
     private final Attachments attachments = new Attachments();
 
@@ -89,7 +98,15 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
     private final Xnio xnio;
     private final XnioWorker worker;
 
+    /**
+     * Makes looking up and adding a shared connection in the connection cache atomic.
+     */
     private final Object connectionLock = new Object();
+    /**
+     * Held shared while an outbound connection is started and exclusively while the endpoint starts closing, so that
+     * a connection attempt is either refused or cancelled by the close.  Connects do not contend with each other.
+     */
+    private final ReadWriteLock connectCloseLock = new ReentrantReadWriteLock();
 
     private static final AtomicIntegerFieldUpdater<EndpointImpl> resourceCountUpdater = AtomicIntegerFieldUpdater.newUpdater(EndpointImpl.class, "resourceCount");
 
@@ -102,7 +119,6 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
      * The name of this endpoint.
      */
     private final String name;
-    @SuppressWarnings("unused")
     private final OptionMap optionMap;
     private final ConnectionProviderContext connectionProviderContext;
     private final CloseHandler<Object> resourceCloseHandler = new CloseHandler<Object>() {
@@ -111,6 +127,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         }
     };
     private final EndpointImpl.ConnectionCloseHandler connectionCloseHandler = new EndpointImpl.ConnectionCloseHandler();
+    private final ConnectionCache connectionCache;
     private final boolean ourWorker;
 
     private EndpointImpl(final XnioWorker xnioWorker, final boolean ourWorker, final String name, final OptionMap optionMap) throws IOException {
@@ -120,6 +137,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         this.xnio = xnioWorker.getXnio();
         this.name = name;
         this.optionMap = optionMap;
+        connectionCache = new ConnectionCache(xnioWorker);
         // initialize CPC
         connectionProviderContext = new ConnectionProviderContextImpl();
         // add default connection providers
@@ -190,7 +208,9 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
     }
 
     protected void closeAction() throws IOException {
-        synchronized (connectionLock) {
+        final Lock lock = connectCloseLock.writeLock();
+        lock.lock();
+        try {
             // Commence phase one shutdown actions
             int res;
             do {
@@ -199,13 +219,27 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
             if (res == 0) {
                 finishPhase1();
             } else {
-                for (Object connection : connections.toArray()) {
-                    ((ConnectionImpl)connection).closeAsync();
+                // a connection registered concurrently is either seen here or sees the flag in registerConnection
+                for (ConnectionImpl connection : connections) {
+                    connection.closeAsync();
                 }
                 for (ConnectionProvider connectionProvider : connectionProviders.values()) {
                     connectionProvider.closeAsync();
                 }
             }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void registerConnection(final ConnectionImpl connection) {
+        connections.add(connection);
+        connection.getConnectionHandler().addCloseHandler(SpiUtils.asyncClosingCloseHandler(connection));
+        connection.addCloseHandler(resourceCloseHandler);
+        connection.addCloseHandler(connectionCloseHandler);
+        if ((resourceCount & CLOSED_FLAG) != 0) {
+            // the endpoint started closing after this connection took its tick
+            connection.closeAsync();
         }
     }
 
@@ -240,7 +274,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         return registration;
     }
 
-    private IoFuture<Connection> doConnect(final URI uri, final OptionMap connectOptions, final CallbackHandler callbackHandler, final XnioSsl xnioSsl) throws IOException {
+    private IoFuture<Connection> doConnect(final URI uri, final OptionMap connectOptions, final CallbackHandler callbackHandler, final Object identity, final XnioSsl xnioSsl) throws IOException {
         final String scheme = uri.getScheme();
         final String destinationHost = uri.getHost();
         final SocketAddress destination;
@@ -250,15 +284,53 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         } else {
             destination = null;
         }
-        return doConnect(scheme, null, destination, connectOptions, callbackHandler, xnioSsl);
+        return doConnect(scheme, null, destination, connectOptions, callbackHandler, identity, xnioSsl);
     }
 
-    private IoFuture<Connection> doConnect(final String scheme, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final CallbackHandler callbackHandler, final XnioSsl xnioSsl) throws IOException {
+    private IoFuture<Connection> doConnect(final String scheme, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final CallbackHandler callbackHandler, final Object identity, final XnioSsl xnioSsl) throws IOException {
         final SecurityManager sm = System.getSecurityManager();
         if (sm != null) {
             sm.checkPermission(CONNECT_PERM);
         }
+        if (! connectOptions.get(RemotingOptions.SHARE_CONNECTION, optionMap.get(RemotingOptions.SHARE_CONNECTION, false))) {
+            return doConnectStriped(scheme, bindAddress, destination, connectOptions, callbackHandler, xnioSsl);
+        }
+        final ConnectionCache.Key key = new ConnectionCache.Key(scheme, bindAddress, destination, connectOptions, identity, xnioSsl);
         synchronized (connectionLock) {
+            final IoFuture<Connection> lease = connectionCache.join(key);
+            if (lease != null) {
+                return lease;
+            }
+            return connectionCache.add(key, doConnectStriped(scheme, bindAddress, destination, connectOptions, callbackHandler, xnioSsl));
+        }
+    }
+
+    private IoFuture<Connection> doConnectStriped(final String scheme, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final CallbackHandler callbackHandler, final XnioSsl xnioSsl) throws IOException {
+        final int stripes = connectOptions.get(RemotingOptions.CONNECTION_STRIPES, RemotingOptions.DEFAULT_CONNECTION_STRIPES);
+        if (stripes <= 1) {
+            return doConnect(scheme, bindAddress, destination, connectOptions, callbackHandler, xnioSsl);
+        }
+        final List<IoFuture<Connection>> futures = new ArrayList<IoFuture<Connection>>(stripes);
+        boolean ok = false;
+        try {
+            for (int i = 0; i < stripes; i ++) {
+                futures.add(doConnect(scheme, bindAddress, destination, connectOptions, callbackHandler, xnioSsl));
+            }
+            ok = true;
+        } finally {
+            if (! ok) {
+                for (IoFuture<Connection> future : futures) {
+                    future.cancel();
+                }
+            }
+        }
+        return StripedConnection.create(this, getExecutor(), futures);
+    }
+
+    private IoFuture<Connection> doConnect(final String scheme, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final CallbackHandler callbackHandler, final XnioSsl xnioSsl) throws IOException {
+        final Lock lock = connectCloseLock.readLock();
+        lock.lock();
+        try {
             boolean ok = false;
             resourceUntick("Connection to " + destination);
             try {
@@ -295,7 +367,14 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
                         futureResult.setResult(connection);
                     }
                 }, null);
-                final Cancellable connect = connectionProvider.connect(bindAddress, destination, connectOptions,  connHandlerFuture, callbackHandler, xnioSsl);
+                final LocalServer localServer = connectOptions.get(RemotingOptions.LOCAL_SHORT_CIRCUIT, false) ? LocalServer.find(scheme, destination) : null;
+                final Cancellable connect;
+                if (localServer != null) {
+                    log.tracef("Connecting directly to the server at %s in this JVM", destination);
+                    connect = localServer.connect(connectionProviderContext, (LocalConnectionProvider) connectionProviders.get("local"), (InetSocketAddress) destination, connectOptions, connHandlerFuture, callbackHandler, connectionProvider, bindAddress, xnioSsl);
+                } else {
+                    connect = connectionProvider.connect(bindAddress, destination, connectOptions,  connHandlerFuture, callbackHandler, xnioSsl);
+                }
                 ok = true;
                 futureResult.addCancelHandler(connect);
                 return futureResult.getIoFuture();
@@ -304,6 +383,8 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
                     closeTick1("a failed connection (1)");
                 }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -316,7 +397,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         if (uriUserName != null) builder.set(RemotingOptions.AUTHORIZE_ID, uriUserName);
         if (uriUserRealm != null) builder.set(RemotingOptions.AUTH_REALM, uriUserRealm);
         finalMap = builder.getMap();
-        return doConnect(destination, finalMap, new PasswordClientCallbackHandler(finalMap.get(RemotingOptions.AUTHORIZE_ID), finalMap.get(RemotingOptions.AUTH_REALM), null), null);
+        return doConnect(destination, finalMap, new PasswordClientCallbackHandler(finalMap.get(RemotingOptions.AUTHORIZE_ID), finalMap.get(RemotingOptions.AUTH_REALM), null), ConnectionCache.passwordIdentity(finalMap.get(RemotingOptions.AUTHORIZE_ID), finalMap.get(RemotingOptions.AUTH_REALM), null), null);
     }
 
     public IoFuture<Connection> connect(final URI destination, final OptionMap connectOptions) throws IOException {
@@ -328,7 +409,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         if (uriUserName != null) builder.set(RemotingOptions.AUTHORIZE_ID, uriUserName);
         if (uriUserRealm != null) builder.set(RemotingOptions.AUTH_REALM, uriUserRealm);
         finalMap = builder.getMap();
-        return doConnect(destination, finalMap, new PasswordClientCallbackHandler(finalMap.get(RemotingOptions.AUTHORIZE_ID), finalMap.get(RemotingOptions.AUTH_REALM), null), null);
+        return doConnect(destination, finalMap, new PasswordClientCallbackHandler(finalMap.get(RemotingOptions.AUTHORIZE_ID), finalMap.get(RemotingOptions.AUTH_REALM), null), ConnectionCache.passwordIdentity(finalMap.get(RemotingOptions.AUTHORIZE_ID), finalMap.get(RemotingOptions.AUTH_REALM), null), null);
     }
 
     public IoFuture<Connection> connect(final URI destination, final OptionMap connectOptions, final CallbackHandler callbackHandler) throws IOException {
@@ -348,7 +429,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         if (uriUserName != null) builder.set(RemotingOptions.AUTHORIZE_ID, uriUserName);
         if (uriUserRealm != null) builder.set(RemotingOptions.AUTH_REALM, uriUserRealm);
         finalMap = builder.getMap();
-        return doConnect(destination, finalMap, callbackHandler, xnioSsl);
+        return doConnect(destination, finalMap, callbackHandler, callbackHandler, xnioSsl);
     }
 
     public IoFuture<Connection> connect(final URI destination, final OptionMap connectOptions, final String userName, final String realmName, final char[] password) throws IOException {
@@ -369,27 +450,27 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         if (actualUserName != null) builder.set(RemotingOptions.AUTHORIZE_ID, actualUserName);
         if (actualUserRealm != null) builder.set(RemotingOptions.AUTH_REALM, actualUserRealm);
         final OptionMap finalMap = builder.getMap();
-        return doConnect(destination, finalMap, new PasswordClientCallbackHandler(actualUserName, actualUserRealm, password), xnioSsl);
+        return doConnect(destination, finalMap, new PasswordClientCallbackHandler(actualUserName, actualUserRealm, password), ConnectionCache.passwordIdentity(actualUserName, actualUserRealm, password), xnioSsl);
     }
 
     public IoFuture<Connection> connect(final String protocol, final SocketAddress bindAddress, final SocketAddress destination) throws IOException {
-        return doConnect(protocol, bindAddress, destination, OptionMap.EMPTY, null, null);
+        return doConnect(protocol, bindAddress, destination, OptionMap.EMPTY, null, null, null);
     }
 
     public IoFuture<Connection> connect(final String protocol, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions) throws IOException {
-        return doConnect(protocol, bindAddress, destination, connectOptions, null, null);
+        return doConnect(protocol, bindAddress, destination, connectOptions, null, null, null);
     }
 
     public IoFuture<Connection> connect(final String protocol, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final CallbackHandler callbackHandler) throws IOException {
-        return doConnect(protocol, bindAddress, destination, connectOptions, callbackHandler, null);
+        return doConnect(protocol, bindAddress, destination, connectOptions, callbackHandler, callbackHandler, null);
     }
 
     public IoFuture<Connection> connect(final String protocol, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final CallbackHandler callbackHandler, final SSLContext sslContext) throws IOException {
-        return doConnect(protocol, bindAddress, destination, connectOptions, callbackHandler, sslContext == null ? (XnioSsl) null : new JsseXnioSsl(xnio, optionMap, sslContext));
+        return doConnect(protocol, bindAddress, destination, connectOptions, callbackHandler, callbackHandler, sslContext == null ? (XnioSsl) null : new JsseXnioSsl(xnio, optionMap, sslContext));
     }
 
     public IoFuture<Connection> connect(final String protocol, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final CallbackHandler callbackHandler, final XnioSsl xnioSsl) throws IOException {
-        return doConnect(protocol, bindAddress, destination, connectOptions, callbackHandler, xnioSsl);
+        return doConnect(protocol, bindAddress, destination, connectOptions, callbackHandler, callbackHandler, xnioSsl);
     }
 
     public IoFuture<Connection> connect(final String protocol, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, String userName, String realmName, final char[] password) throws IOException {
@@ -405,7 +486,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         if (userName != null) builder.set(RemotingOptions.AUTHORIZE_ID, userName); else userName = optionMap.get(RemotingOptions.AUTHORIZE_ID);
         if (realmName != null) builder.set(RemotingOptions.AUTH_REALM, realmName); else realmName = optionMap.get(RemotingOptions.AUTH_REALM);
         final OptionMap finalMap = builder.getMap();
-        return doConnect(protocol, bindAddress, destination, finalMap, new PasswordClientCallbackHandler(userName, realmName, password), xnioSsl);
+        return doConnect(protocol, bindAddress, destination, finalMap, new PasswordClientCallbackHandler(userName, realmName, password), ConnectionCache.passwordIdentity(userName, realmName, password), xnioSsl);
     }
 
     public Registration addConnectionProvider(final String uriScheme, final ConnectionProviderFactory providerFactory, final OptionMap optionMap) throws IOException {
@@ -417,7 +498,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         resourceUntick("Connection provider for " + uriScheme);
         try {
             final ConnectionProviderContextImpl context = new ConnectionProviderContextImpl();
-            final ConnectionProvider provider = providerFactory.createInstance(context, optionMap);
+            final ConnectionProvider provider = providerFactory.createInstance(context, inheritOptions(optionMap));
             try {
                 if (connectionProviders.putIfAbsent(uriScheme, provider) != null) {
                     throw new DuplicateRegistrationException("URI scheme '" + uriScheme + "' is already registered to a provider");
@@ -453,6 +534,19 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         }
     }
 
+    /**
+     * Add the endpoint options which a connection provider inherits, unless the provider options set them.
+     *
+     * @param providerOptions the provider options
+     * @return the provider options with the inherited endpoint options
+     */
+    private OptionMap inheritOptions(final OptionMap providerOptions) {
+        if (providerOptions.contains(RemotingOptions.GRACEFUL_CLOSE_TIMEOUT) || ! optionMap.contains(RemotingOptions.GRACEFUL_CLOSE_TIMEOUT)) {
+            return providerOptions;
+        }
+        return OptionMap.builder().addAll(providerOptions).set(RemotingOptions.GRACEFUL_CLOSE_TIMEOUT, optionMap.get(RemotingOptions.GRACEFUL_CLOSE_TIMEOUT, RemotingOptions.DEFAULT_GRACEFUL_CLOSE_TIMEOUT)).getMap();
+    }
+
     public <T> T getConnectionProviderInterface(final String uriScheme, final Class<T> expectedType) throws UnknownURISchemeException, ClassCastException {
         final SecurityManager sm = System.getSecurityManager();
         if (sm != null) {
@@ -465,7 +559,12 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         if (provider == null) {
             throw new UnknownURISchemeException("No connection provider for URI scheme \"" + uriScheme + "\" is installed");
         }
-        return expectedType.cast(provider.getProviderInterface());
+        final Object providerInterface = provider.getProviderInterface();
+        if (expectedType == NetworkServerProvider.class && providerInterface instanceof NetworkServerProvider) {
+            // servers created through the endpoint may be reached directly by connections from this JVM
+            return expectedType.cast(LocalServer.wrap(uriScheme, (NetworkServerProvider) providerInterface, this, connectionProviderContext, (LocalConnectionProvider) connectionProviders.get("local")));
+        }
+        return expectedType.cast(providerInterface);
     }
 
     public boolean isValidUriScheme(final String uriScheme) {
@@ -574,9 +673,9 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
 
     final class LocalConnectionContext implements ConnectionHandlerContext {
         private final ConnectionProviderContext connectionProviderContext;
-        private final Connection connection;
+        private final ConnectionImpl connection;
 
-        LocalConnectionContext(final ConnectionProviderContext connectionProviderContext, final Connection connection) {
+        LocalConnectionContext(final ConnectionProviderContext connectionProviderContext, final ConnectionImpl connection) {
             this.connectionProviderContext = connectionProviderContext;
             this.connection = connection;
         }
@@ -596,7 +695,7 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         }
 
         public Connection getConnection() {
-            return connection;
+            return connection.getOwner();
         }
 
         public void remoteClosed() {
@@ -610,23 +709,17 @@ final class EndpointImpl extends AbstractHandleableCloseable<Endpoint> implement
         }
 
         public void accept(final ConnectionHandlerFactory connectionHandlerFactory) {
-            synchronized (connectionLock) {
-                try {
-                    resourceUntick("an inbound connection");
-                } catch (NotOpenException e) {
-                    throw new IllegalStateException("Accept after endpoint close", e);
-                }
-                boolean ok = false;
-                try {
-                    final ConnectionImpl connection = new ConnectionImpl(EndpointImpl.this, connectionHandlerFactory, this);
-                    connections.add(connection);
-                    connection.getConnectionHandler().addCloseHandler(SpiUtils.asyncClosingCloseHandler(connection));
-                    connection.addCloseHandler(connectionCloseHandler);
-                    connection.addCloseHandler(resourceCloseHandler);
-                    ok = true;
-                } finally {
-                    if (! ok) closeTick1("a failed inbound connection");
-                }
+            try {
+                resourceUntick("an inbound connection");
+            } catch (NotOpenException e) {
+                throw new IllegalStateException("Accept after endpoint close", e);
+            }
+            boolean ok = false;
+            try {
+                registerConnection(new ConnectionImpl(EndpointImpl.this, connectionHandlerFactory, this));
+                ok = true;
+            } finally {
+                if (! ok) closeTick1("a failed inbound connection");
             }
         }
 
@@ -23,17 +23,15 @@
 package org.jboss.remoting3;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.io.OutputStream;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Queue;
 import java.util.concurrent.Executor;
 import org.jboss.remoting3.spi.AbstractHandleableCloseable;
 import org.jboss.remoting3.spi.ConnectionHandlerContext;
-import org.xnio.IoUtils;
 import org.xnio.Option;
-import org.xnio.streams.Pipe;
+import org.xnio.OptionMap;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -46,60 +44,76 @@ final class LocalChannel extends AbstractHandleableCloseable<Channel> implements
     private final Object lock = new Object();
     private final int queueLength;
     private final int bufferSize;
+    private final LocalConnectionProvider provider;
 
     private Receiver messageHandler;
 
     private boolean closed;
 
-    LocalChannel(final Executor executor, final LocalChannel otherSide, final ConnectionHandlerContext connectionHandlerContext) {
-        super(executor, true);
+    LocalChannel(final Executor executor, final LocalChannel otherSide, final ConnectionHandlerContext connectionHandlerContext, final LocalConnectionProvider provider, final OptionMap optionMap) {
+        super(executor, true, connectionHandlerContext.getConnection());
         this.otherSide = otherSide;
         this.connectionHandlerContext = connectionHandlerContext;
-        queueLength = 8;
+        this.provider = provider;
+        queueLength = Math.max(1, optionMap.get(RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH, RemotingOptions.DEFAULT_LOCAL_CHANNEL_QUEUE_LENGTH));
         messageQueue = new ArrayDeque<In>(queueLength);
-        bufferSize = 8192;
+        bufferSize = Math.max(1, optionMap.get(RemotingOptions.LOCAL_CHANNEL_BUFFER_SIZE, RemotingOptions.DEFAULT_LOCAL_CHANNEL_BUFFER_SIZE));
     }
 
-    LocalChannel(final Executor executor, final ConnectionHandlerContext connectionHandlerContext) {
-        super(executor, true);
+    LocalChannel(final Executor executor, final ConnectionHandlerContext connectionHandlerContext, final LocalConnectionProvider provider, final OptionMap optionMap, final OptionMap otherSideOptionMap) {
+        this(executor, connectionHandlerContext, provider, optionMap, connectionHandlerContext, otherSideOptionMap);
+    }
+
+    LocalChannel(final Executor executor, final ConnectionHandlerContext connectionHandlerContext, final LocalConnectionProvider provider, final OptionMap optionMap, final ConnectionHandlerContext otherSideContext, final OptionMap otherSideOptionMap) {
+        super(executor, true, connectionHandlerContext.getConnection());
         this.connectionHandlerContext = connectionHandlerContext;
-        otherSide = new LocalChannel(executor, this, connectionHandlerContext);
-        queueLength = 8;
+        this.provider = provider;
+        otherSide = new LocalChannel(executor, this, otherSideContext, provider, otherSideOptionMap);
+        queueLength = Math.max(1, optionMap.get(RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH, RemotingOptions.DEFAULT_LOCAL_CHANNEL_QUEUE_LENGTH));
         messageQueue = new ArrayDeque<In>(queueLength);
-        bufferSize = 8192;
+        bufferSize = Math.max(1, optionMap.get(RemotingOptions.LOCAL_CHANNEL_BUFFER_SIZE, RemotingOptions.DEFAULT_LOCAL_CHANNEL_BUFFER_SIZE));
     }
 
     public MessageOutputStream writeMessage() throws IOException {
         final LocalChannel otherSide = this.otherSide;
         final Queue<In> otherSideQueue = otherSide.messageQueue;
+        long blockedSince = 0L;
         synchronized (otherSide.lock) {
-            for (;;) {
-                if (otherSide.closed) {
-                    throw new NotOpenException("Writes have been shut down");
-                }
-                final int size = otherSideQueue.size();
-                if (size == queueLength) {
-                    try {
-                        otherSide.lock.wait();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        throw new InterruptedIOException();
+            try {
+                for (;;) {
+                    if (otherSide.closed) {
+                        throw new NotOpenException("Writes have been shut down");
                     }
-                } else {
-                    final Pipe pipe = new Pipe(bufferSize);
-                    In in = new In(pipe.getIn());
-                    if (size == 0) {
-                        final Receiver handler = otherSide.messageHandler;
-                        if (handler != null) {
-                            otherSide.messageHandler = null;
-                            otherSide.lock.notify();
-                            executeMessageTask(handler, in);
-                            return new Out(pipe.getOut(), in);
+                    final int size = otherSideQueue.size();
+                    if (size >= otherSide.queueLength) {
+                        if (blockedSince == 0L) {
+                            blockedSince = System.nanoTime();
+                        }
+                        try {
+                            otherSide.lock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
                         }
+                    } else {
+                        final In in = new In(otherSide.bufferSize, provider);
+                        if (size == 0) {
+                            final Receiver handler = otherSide.messageHandler;
+                            if (handler != null) {
+                                otherSide.messageHandler = null;
+                                otherSide.lock.notify();
+                                otherSide.executeMessageTask(handler, in);
+                                return new Out(in, otherSide.bufferSize);
+                            }
+                        }
+                        otherSideQueue.add(in);
+                        otherSide.lock.notify();
+                        return new Out(in, otherSide.bufferSize);
                     }
-                    otherSideQueue.add(in);
-                    otherSide.lock.notify();
-                    return new Out(pipe.getOut(), in);
+                }
+            } finally {
+                if (blockedSince != 0L) {
+                    provider.queueBlocked(System.nanoTime() - blockedSince);
                 }
             }
         }
@@ -112,7 +126,7 @@ final class LocalChannel extends AbstractHandleableCloseable<Channel> implements
                 otherSide.closed = true;
                 final Receiver messageHandler = otherSide.messageHandler;
                 if (messageHandler != null && otherSide.messageQueue.isEmpty()) {
-                    executeEndTask(messageHandler);
+                    otherSide.executeEndTask(messageHandler);
                 } else {
                     otherSide.lock.notify();
                 }
@@ -131,6 +145,8 @@ final class LocalChannel extends AbstractHandleableCloseable<Channel> implements
             } else {
                 final In in = messageQueue.poll();
                 if (in != null) {
+                    // a writer may be waiting for room in the queue
+                    lock.notifyAll();
                     executeMessageTask(handler, in);
                 } else {
                     messageHandler = handler;
@@ -141,11 +157,17 @@ final class LocalChannel extends AbstractHandleableCloseable<Channel> implements
     }
 
     public boolean supportsOption(final Option<?> option) {
-        return false;
+        return option == RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH || option == RemotingOptions.LOCAL_CHANNEL_BUFFER_SIZE;
     }
 
     public <T> T getOption(final Option<T> option) {
-        return null;
+        if (option == RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH) {
+            return option.cast(Integer.valueOf(queueLength));
+        } else if (option == RemotingOptions.LOCAL_CHANNEL_BUFFER_SIZE) {
+            return option.cast(Integer.valueOf(bufferSize));
+        } else {
+            return null;
+        }
     }
 
     public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException {
@@ -176,12 +198,17 @@ final class LocalChannel extends AbstractHandleableCloseable<Channel> implements
         return connectionHandlerContext.getConnection();
     }
 
+    public String toString() {
+        return String.format("Local channel %08x of %s", Integer.valueOf(hashCode()), getConnection());
+    }
+
     protected void closeAction() throws IOException {
         synchronized (lock) {
             closed = true;
             lock.notifyAll();
         }
-        otherSide.connectionHandlerContext.remoteClosed();
+        // like a remote channel, closing one side closes the other, but leaves the connection open
+        otherSide.closeAsync();
         closeComplete();
     }
 
@@ -189,109 +216,307 @@ final class LocalChannel extends AbstractHandleableCloseable<Channel> implements
         return otherSide;
     }
 
+    /**
+     * The writing side of a message.  Small writes are gathered into a chunk which is handed to the reader whole when
+     * it fills up or the message is flushed; the reader then owns it and no further copy is made.  A write at least as
+     * large as the buffer size is not copied at all: the reader reads straight out of the caller's array, and the
+     * write returns once it has done so.
+     */
     static final class Out extends MessageOutputStream {
-        private final OutputStream outputStream;
         private final In in;
+        private final int bufferSize;
+        private byte[] buffer;
+        private int count;
+        private boolean closed;
 
-        Out(final OutputStream outputStream, final In in) {
-            this.outputStream = outputStream;
+        Out(final In in, final int bufferSize) {
             this.in = in;
+            this.bufferSize = bufferSize;
+        }
+
+        private void checkClosed() throws IOException {
+            if (closed) {
+                throw new NotOpenException("Message has been closed");
+            }
+        }
+
+        private void handOver() throws IOException {
+            if (count > 0) {
+                final byte[] buffer = this.buffer;
+                final int count = this.count;
+                this.buffer = null;
+                this.count = 0;
+                in.offer(buffer, count);
+            }
         }
 
         public void flush() throws IOException {
-            outputStream.flush();
+            handOver();
         }
 
         public void close() throws IOException {
-            outputStream.close();
+            if (! closed) {
+                try {
+                    handOver();
+                } finally {
+                    closed = true;
+                    in.writeDone();
+                }
+            }
         }
 
         public void write(final int b) throws IOException {
-            outputStream.write(b);
-        }
-
-        public void write(final byte[] b) throws IOException {
-            outputStream.write(b);
+            checkClosed();
+            if (buffer == null) {
+                buffer = new byte[bufferSize];
+            }
+            buffer[count ++] = (byte) b;
+            if (count == bufferSize) {
+                handOver();
+            }
         }
 
-        public void write(final byte[] b, final int off, final int len) throws IOException {
-            outputStream.write(b, off, len);
+        public void write(final byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            if (len >= bufferSize) {
+                handOver();
+                in.lend(b, off, len);
+                return;
+            }
+            while (len > 0) {
+                if (buffer == null) {
+                    buffer = new byte[bufferSize];
+                }
+                final int cnt = Math.min(len, bufferSize - count);
+                System.arraycopy(b, off, buffer, count, cnt);
+                count += cnt;
+                off += cnt;
+                len -= cnt;
+                if (count == bufferSize) {
+                    handOver();
+                }
+            }
         }
 
         public Out cancel() {
-            in.doCancel();
-            IoUtils.safeClose(outputStream);
+            if (! closed) {
+                closed = true;
+                buffer = null;
+                count = 0;
+                in.doCancel();
+            }
             return this;
         }
     }
 
+    /**
+     * The reading side of a message, which holds the chunks handed over by the writer.  The writer waits while more
+     * than the buffer size is queued.
+     */
     static final class In extends MessageInputStream {
-        private final InputStream inputStream;
+        private final Queue<Chunk> chunks = new ArrayDeque<Chunk>();
+        private final int bufferSize;
+        private final LocalConnectionProvider provider;
+        // bytes queued in chunks which the reader owns
+        private int queued;
+        private boolean writeDone;
+        private boolean readDone;
         private volatile boolean cancelled;
 
-        In(final InputStream inputStream) {
-            this.inputStream = inputStream;
+        In(final int bufferSize, final LocalConnectionProvider provider) {
+            this.bufferSize = bufferSize;
+            this.provider = provider;
         }
 
-        public InputStream getInputStream() throws IOException {
-            return inputStream;
+        synchronized void offer(final byte[] bytes, final int len) throws IOException {
+            if (queued > 0 && queued + len > bufferSize && ! readDone && ! cancelled) {
+                final long start = System.nanoTime();
+                try {
+                    do {
+                        wait();
+                    } while (queued > 0 && queued + len > bufferSize && ! readDone && ! cancelled);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } finally {
+                    provider.bufferBlocked(System.nanoTime() - start);
+                }
+            }
+            if (readDone || cancelled) {
+                // nobody is going to read it
+                return;
+            }
+            chunks.add(new Chunk(bytes, 0, len, false));
+            queued += len;
+            notifyAll();
+        }
+
+        synchronized void lend(final byte[] bytes, final int off, final int len) {
+            if (readDone || cancelled) {
+                return;
+            }
+            final Chunk chunk = new Chunk(bytes, off, off + len, true);
+            chunks.add(chunk);
+            notifyAll();
+            boolean intr = false;
+            final long start = System.nanoTime();
+            try {
+                while (chunk.pos < chunk.limit && ! readDone && ! cancelled) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        intr = true;
+                        if (chunk.pos < chunk.limit && ! readDone && ! cancelled) {
+                            // the caller may reuse its array once we return, so give the reader a copy of the rest
+                            final int remaining = chunk.limit - chunk.pos;
+                            chunk.bytes = Arrays.copyOfRange(bytes, chunk.pos, chunk.limit);
+                            chunk.pos = 0;
+                            chunk.limit = remaining;
+                            chunk.borrowed = false;
+                            queued += remaining;
+                        }
+                        return;
+                    }
+                }
+            } finally {
+                provider.bufferBlocked(System.nanoTime() - start);
+                if (intr) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        synchronized void writeDone() {
+            writeDone = true;
+            notifyAll();
         }
 
         synchronized void doCancel() {
             cancelled = true;
+            chunks.clear();
+            queued = 0;
+            notifyAll();
         }
 
-        public synchronized boolean wasCancelled() {
+        public boolean wasCancelled() {
             return cancelled;
         }
 
-        public int read() throws IOException {
-            checkCancel();
-            return inputStream.read();
-        }
-
-        private synchronized void checkCancel() throws MessageCancelledException {
+        private void checkCancel() throws MessageCancelledException {
             if (cancelled) {
                 throw new MessageCancelledException();
             }
         }
 
-        public int read(final byte[] b) throws IOException {
-            checkCancel();
-            return inputStream.read(b);
+        // call with lock held; returns the head chunk, or null at the end of the message
+        private Chunk awaitChunk() throws IOException {
+            for (;;) {
+                checkCancel();
+                final Chunk chunk = chunks.peek();
+                if (chunk != null) {
+                    return chunk;
+                }
+                if (writeDone || readDone) {
+                    return null;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
         }
 
-        public int read(final byte[] b, final int off, final int len) throws IOException {
-            checkCancel();
-            return inputStream.read(b, off, len);
+        // call with lock held
+        private void consumed(final Chunk chunk, final int cnt) {
+            chunk.pos += cnt;
+            if (! chunk.borrowed) {
+                queued -= cnt;
+            }
+            if (chunk.pos == chunk.limit) {
+                chunks.remove();
+                notifyAll();
+            }
         }
 
-        public long skip(final long n) throws IOException {
-            checkCancel();
-            return inputStream.skip(n);
+        public synchronized int read() throws IOException {
+            final Chunk chunk = awaitChunk();
+            if (chunk == null) {
+                return -1;
+            }
+            final int b = chunk.bytes[chunk.pos] & 0xff;
+            consumed(chunk, 1);
+            return b;
         }
 
-        public int available() throws IOException {
-            checkCancel();
-            return inputStream.available();
+        public int read(final byte[] b) throws IOException {
+            return read(b, 0, b.length);
         }
 
-        public void close() throws IOException {
-            checkCancel();
-            inputStream.close();
+        public synchronized int read(final byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                checkCancel();
+                return 0;
+            }
+            Chunk chunk = awaitChunk();
+            if (chunk == null) {
+                return -1;
+            }
+            int total = 0;
+            do {
+                final int cnt = Math.min(len, chunk.limit - chunk.pos);
+                System.arraycopy(chunk.bytes, chunk.pos, b, off, cnt);
+                consumed(chunk, cnt);
+                off += cnt;
+                len -= cnt;
+                total += cnt;
+            } while (len > 0 && (chunk = chunks.peek()) != null);
+            return total;
         }
 
-        public void mark(final int readlimit) {
-            inputStream.mark(readlimit);
+        public synchronized long skip(long n) throws IOException {
+            long total = 0;
+            Chunk chunk;
+            while (n > 0 && (chunk = awaitChunk()) != null) {
+                final int cnt = (int) Math.min(n, (long) (chunk.limit - chunk.pos));
+                consumed(chunk, cnt);
+                n -= cnt;
+                total += cnt;
+            }
+            return total;
         }
 
-        public void reset() throws IOException {
+        public synchronized int available() throws IOException {
             checkCancel();
-            inputStream.reset();
+            int available = 0;
+            for (Chunk chunk : chunks) {
+                available += chunk.limit - chunk.pos;
+            }
+            return available;
         }
 
-        public boolean markSupported() {
-            return inputStream.markSupported();
+        public synchronized void close() throws IOException {
+            checkCancel();
+            readDone = true;
+            chunks.clear();
+            queued = 0;
+            notifyAll();
+        }
+    }
+
+    static final class Chunk {
+        byte[] bytes;
+        int pos;
+        int limit;
+        // true if the bytes still belong to a writer blocked in lend()
+        boolean borrowed;
+
+        Chunk(final byte[] bytes, final int pos, final int limit, final boolean borrowed) {
+            this.bytes = bytes;
+            this.pos = pos;
+            this.limit = limit;
+            this.borrowed = borrowed;
         }
     }
 }
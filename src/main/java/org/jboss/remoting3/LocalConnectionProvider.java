@@ -22,11 +22,18 @@
 
 package org.jboss.remoting3;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.SocketAddress;
 import java.security.Principal;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.jboss.remoting3.security.UserInfo;
 import org.jboss.remoting3.spi.AbstractHandleableCloseable;
@@ -35,6 +42,7 @@ import org.jboss.remoting3.spi.ConnectionHandlerContext;
 import org.jboss.remoting3.spi.ConnectionHandlerFactory;
 import org.jboss.remoting3.spi.ConnectionProvider;
 import org.jboss.remoting3.spi.ConnectionProviderContext;
+import org.jboss.remoting3.spi.RegisteredService;
 import org.jboss.remoting3.spi.SpiUtils;
 import org.xnio.Cancellable;
 import org.xnio.OptionMap;
@@ -49,15 +57,46 @@ final class LocalConnectionProvider extends AbstractHandleableCloseable<Connecti
 
     private final Executor executor;
     private final ConnectionProviderContext context;
+    private final AtomicLong queueBlockedTime = new AtomicLong();
+    private final AtomicLong bufferBlockedTime = new AtomicLong();
+    private final MBeanServer server;
+    private final ObjectName objectName;
 
     LocalConnectionProvider(final ConnectionProviderContext context, final Executor executor) {
         super(executor);
         this.context = context;
         this.executor = executor;
+        MBeanServer server = null;
+        ObjectName objectName = null;
+        try {
+            server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("jboss.remoting.handler", "name", context.getEndpoint().getName() + "-local-" + hashCode());
+            server.registerMBean(new LocalConnectionProviderMXBean() {
+                public long getQueueBlockedTime() {
+                    return TimeUnit.NANOSECONDS.toMicros(queueBlockedTime.get());
+                }
+
+                public long getBufferBlockedTime() {
+                    return TimeUnit.NANOSECONDS.toMicros(bufferBlockedTime.get());
+                }
+            }, objectName);
+        } catch (Exception e) {
+            // ignore
+        }
+        this.server = server;
+        this.objectName = objectName;
+    }
+
+    void queueBlocked(final long nanos) {
+        queueBlockedTime.addAndGet(nanos);
+    }
+
+    void bufferBlocked(final long nanos) {
+        bufferBlockedTime.addAndGet(nanos);
     }
 
     public Cancellable connect(final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final Result<ConnectionHandlerFactory> result, final CallbackHandler callbackHandler, final XnioSsl xnioSsl) throws IllegalArgumentException {
-        context.accept(new ConnectionHandlerFactory() {
+        result.setResult(new ConnectionHandlerFactory() {
             public ConnectionHandler createInstance(final ConnectionHandlerContext connectionContext) {
                 return new LoopbackConnectionHandler(connectionContext);
             }
@@ -79,13 +118,14 @@ final class LocalConnectionProvider extends AbstractHandleableCloseable<Connecti
         }
 
         public Cancellable open(final String serviceType, final Result<Channel> result, final OptionMap optionMap) {
-            LocalChannel channel = new LocalChannel(executor, context);
+            final LocalChannel channel;
             try {
-                final OpenListener openListener = context.getServiceOpenListener(serviceType);
-                if (openListener == null) {
+                final RegisteredService registeredService = context.getRegisteredService(serviceType);
+                if (registeredService == null) {
                     throw new ServiceNotFoundException("Unable to find service type '" + serviceType + "'");
                 }
-                context.getConnectionProviderContext().getExecutor().execute(SpiUtils.getServiceOpenTask(channel.getOtherSide(), openListener));
+                channel = new LocalChannel(executor, context, LocalConnectionProvider.this, optionMap, registeredService.getOptionMap());
+                context.getConnectionProviderContext().getExecutor().execute(SpiUtils.getServiceOpenTask(channel.getOtherSide(), registeredService.getOpenListener()));
             } catch (ServiceNotFoundException e) {
                 result.setException(e);
                 return nullCancellable();
@@ -113,6 +153,19 @@ final class LocalConnectionProvider extends AbstractHandleableCloseable<Connecti
         }
     }
 
+    protected void closeAction() throws IOException {
+        try {
+            closeComplete();
+        } finally {
+            if (server != null && objectName != null) {
+                try {
+                    server.unregisterMBean(objectName);
+                } catch (Throwable ignored) {
+                }
+            }
+        }
+    }
+
     public String toString() {
         return String.format("Remoting local connection provider %x for %s", Integer.valueOf(hashCode()), context.getEndpoint());
     }
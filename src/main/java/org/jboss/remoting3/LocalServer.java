@@ -0,0 +1,633 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.Principal;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.sasl.SaslClient;
+import javax.security.sasl.SaslClientFactory;
+import javax.security.sasl.SaslException;
+import javax.security.sasl.SaslServer;
+import javax.security.sasl.SaslServerFactory;
+
+import org.jboss.logging.Logger;
+import org.jboss.remoting3.security.AuthorizingCallbackHandler;
+import org.jboss.remoting3.security.InetAddressPrincipal;
+import org.jboss.remoting3.security.ServerAuthenticationProvider;
+import org.jboss.remoting3.security.SimpleUserInfo;
+import org.jboss.remoting3.security.UserInfo;
+import org.jboss.remoting3.security.UserPrincipal;
+import org.jboss.remoting3.spi.AbstractHandleableCloseable;
+import org.jboss.remoting3.spi.ConnectionHandler;
+import org.jboss.remoting3.spi.ConnectionHandlerContext;
+import org.jboss.remoting3.spi.ConnectionHandlerFactory;
+import org.jboss.remoting3.spi.ConnectionProvider;
+import org.jboss.remoting3.spi.ConnectionProviderContext;
+import org.jboss.remoting3.spi.NetworkServerProvider;
+import org.jboss.remoting3.spi.RegisteredService;
+import org.jboss.remoting3.spi.SpiUtils;
+import org.xnio.Cancellable;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Result;
+import org.xnio.Sequence;
+import org.xnio.SslClientAuthMode;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.sasl.SaslUtils;
+import org.xnio.ssl.XnioSsl;
+
+/**
+ * A network server of an endpoint in this JVM, which connections to its address may reach directly.  Such a
+ * connection still authenticates against the server's authentication provider, but the SASL exchange is carried out in
+ * memory, and its channels are local channels to the services of the server's endpoint.
+ */
+final class LocalServer {
+
+    private static final Logger log = Logger.getLogger("org.jboss.remoting.endpoint");
+
+    private static final ConcurrentMap<Key, LocalServer> servers = new ConcurrentHashMap<Key, LocalServer>();
+
+    private final AcceptingChannel<? extends ConnectedStreamChannel> channel;
+    private final ConnectionProviderContext providerContext;
+    private final LocalConnectionProvider localProvider;
+    private final OptionMap optionMap;
+    private final ServerAuthenticationProvider authenticationProvider;
+    private final AccessControlContext accessControlContext;
+    private final boolean ssl;
+
+    private LocalServer(final AcceptingChannel<? extends ConnectedStreamChannel> channel, final ConnectionProviderContext providerContext, final LocalConnectionProvider localProvider, final OptionMap optionMap, final ServerAuthenticationProvider authenticationProvider, final AccessControlContext accessControlContext) {
+        this.channel = channel;
+        this.providerContext = providerContext;
+        this.localProvider = localProvider;
+        this.optionMap = optionMap;
+        this.authenticationProvider = authenticationProvider;
+        this.accessControlContext = accessControlContext;
+        // only SSL servers support the SSL options
+        ssl = channel.supportsOption(Options.SSL_ENABLED_PROTOCOLS);
+    }
+
+    /**
+     * Wrap a network server provider so that the servers it creates can be reached directly from this JVM.
+     *
+     * @param scheme the URI scheme of the provider
+     * @param delegate the provider
+     * @param endpoint the endpoint of the provider
+     * @param providerContext the connection provider context of the endpoint
+     * @param localProvider the local connection provider of the endpoint
+     * @return the wrapped provider
+     */
+    static NetworkServerProvider wrap(final String scheme, final NetworkServerProvider delegate, final EndpointImpl endpoint, final ConnectionProviderContext providerContext, final LocalConnectionProvider localProvider) {
+        return new NetworkServerProvider() {
+            public AcceptingChannel<? extends ConnectedStreamChannel> createServer(final SocketAddress bindAddress, final OptionMap optionMap, final ServerAuthenticationProvider authenticationProvider, final XnioSsl xnioSsl) throws IOException {
+                final AcceptingChannel<? extends ConnectedStreamChannel> channel = delegate.createServer(bindAddress, optionMap, authenticationProvider, xnioSsl);
+                final SocketAddress localAddress = channel.getLocalAddress();
+                if (optionMap.get(RemotingOptions.LOCAL_SHORT_CIRCUIT, true) && optionMap.get(Options.SSL_CLIENT_AUTH_MODE, SslClientAuthMode.NOT_REQUESTED) != SslClientAuthMode.REQUIRED && localAddress instanceof InetSocketAddress) {
+                    final Key key = new Key(scheme, (InetSocketAddress) localAddress);
+                    final LocalServer server = new LocalServer(channel, providerContext, localProvider, optionMap, authenticationProvider, AccessController.getContext());
+                    servers.put(key, server);
+                    endpoint.addCloseHandler(new CloseHandler<Endpoint>() {
+                        public void handleClose(final Endpoint closed, final IOException exception) {
+                            servers.remove(key, server);
+                        }
+                    });
+                }
+                return channel;
+            }
+        };
+    }
+
+    /**
+     * Find the server in this JVM which is listening on the given address.
+     *
+     * @param scheme the URI scheme
+     * @param destination the destination address
+     * @return the server, or {@code null} if there is none
+     */
+    static LocalServer find(final String scheme, final SocketAddress destination) {
+        if (servers.isEmpty() || ! (destination instanceof InetSocketAddress)) {
+            return null;
+        }
+        final InetSocketAddress address = (InetSocketAddress) destination;
+        final InetAddress inetAddress = address.getAddress();
+        if (inetAddress == null) {
+            return null;
+        }
+        LocalServer server = get(new Key(scheme, address));
+        if (server == null && isLocalAddress(inetAddress)) {
+            // a server bound to the wildcard address accepts connections to any local address
+            server = get(new Key(scheme, new InetSocketAddress("0.0.0.0", address.getPort())));
+            if (server == null) {
+                server = get(new Key(scheme, new InetSocketAddress("::", address.getPort())));
+            }
+        }
+        return server;
+    }
+
+    private static LocalServer get(final Key key) {
+        final LocalServer server = servers.get(key);
+        if (server != null && ! server.channel.isOpen()) {
+            servers.remove(key, server);
+            return null;
+        }
+        return server;
+    }
+
+    private static boolean isLocalAddress(final InetAddress address) {
+        if (address.isLoopbackAddress() || address.isAnyLocalAddress()) {
+            return true;
+        }
+        try {
+            return NetworkInterface.getByInetAddress(address) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Connect to this server directly.  If no SASL mechanism can be used in memory, the connection is made by the given
+     * connection provider instead.
+     *
+     * @param clientProviderContext the connection provider context of the connecting endpoint
+     * @param clientLocalProvider the local connection provider of the connecting endpoint
+     * @param destination the destination address
+     * @param connectOptions the connection options
+     * @param result the result of the connection
+     * @param callbackHandler the client callback handler
+     * @param fallback the connection provider to connect with otherwise
+     * @param bindAddress the local bind address, for the fallback
+     * @param xnioSsl the XNIO SSL provider, for the fallback
+     * @return the handle to cancel the connection attempt
+     */
+    Cancellable connect(final ConnectionProviderContext clientProviderContext, final LocalConnectionProvider clientLocalProvider, final InetSocketAddress destination, final OptionMap connectOptions, final Result<ConnectionHandlerFactory> result, final CallbackHandler callbackHandler, final ConnectionProvider fallback, final SocketAddress bindAddress, final XnioSsl xnioSsl) {
+        final Attempt attempt = new Attempt();
+        // as over the network, the client side runs with the context of the connecting caller
+        final AccessControlContext clientContext = AccessController.getContext();
+        clientProviderContext.getExecutor().execute(new Runnable() {
+            public void run() {
+                final Authentication authentication;
+                try {
+                    authentication = authenticate(destination, connectOptions, callbackHandler, clientContext);
+                } catch (IOException e) {
+                    result.setException(e);
+                    return;
+                }
+                if (authentication == null) {
+                    log.tracef("No SASL mechanism can be used in memory for %s, connecting over the network", destination);
+                    attempt.setDelegate(fallback.connect(bindAddress, destination, connectOptions, result, callbackHandler, xnioSsl));
+                    return;
+                }
+                if (attempt.isCancelled()) {
+                    result.setCancelled();
+                    return;
+                }
+                final Set<Principal> principals = new LinkedHashSet<Principal>();
+                final String authorizationId = authentication.getAuthorizationId();
+                if (authorizationId != null) {
+                    principals.add(new UserPrincipal(authorizationId));
+                }
+                final Collection<Principal> clientPrincipals = Collections.unmodifiableCollection(new ArrayList<Principal>(principals));
+                principals.add(new InetAddressPrincipal(getClientAddress(bindAddress)));
+                final Collection<Principal> serverPrincipals = Collections.unmodifiableCollection(principals);
+                final UserInfo serverUserInfo;
+                try {
+                    serverUserInfo = doPrivileged(new PrivilegedExceptionAction<UserInfo>() {
+                        public UserInfo run() throws IOException {
+                            return authentication.getCallbackHandler().createUserInfo(serverPrincipals);
+                        }
+                    }, accessControlContext);
+                } catch (IOException e) {
+                    result.setException(e);
+                    return;
+                }
+                final HandlerFactory serverFactory = new HandlerFactory(localProvider, serverPrincipals, serverUserInfo, null);
+                try {
+                    providerContext.accept(serverFactory);
+                } catch (IllegalStateException e) {
+                    result.setException(new NotOpenException("Endpoint of the server at " + destination + " is closed"));
+                    return;
+                }
+                if (! result.setResult(new HandlerFactory(clientLocalProvider, clientPrincipals, new SimpleUserInfo(clientPrincipals), serverFactory.handler))) {
+                    IoUtils.safeClose(serverFactory.handler);
+                }
+            }
+        });
+        return attempt;
+    }
+
+    /**
+     * Get the address which a connection from the given bind address would come from.
+     *
+     * @param bindAddress the local bind address of the client, or {@code null} for none
+     * @return the client address
+     */
+    private static InetAddress getClientAddress(final SocketAddress bindAddress) {
+        if (bindAddress instanceof InetSocketAddress) {
+            final InetAddress address = ((InetSocketAddress) bindAddress).getAddress();
+            if (address != null && ! address.isAnyLocalAddress()) {
+                return address;
+            }
+        }
+        try {
+            // the loopback address
+            return InetAddress.getByName(null);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Authentication authenticate(final InetSocketAddress destination, final OptionMap clientOptions, final CallbackHandler callbackHandler, final AccessControlContext clientContext) throws IOException {
+        final String protocol = optionMap.contains(RemotingOptions.SASL_PROTOCOL) ? optionMap.get(RemotingOptions.SASL_PROTOCOL) : RemotingOptions.DEFAULT_SASL_PROTOCOL;
+        final String serverName = optionMap.contains(RemotingOptions.SERVER_NAME) ? optionMap.get(RemotingOptions.SERVER_NAME) : destination.getHostName();
+        // the same policy as over the network, where authentication only runs over TLS if both sides set it up first
+        final boolean secure = ssl && clientOptions.get(Options.SSL_ENABLED, true) && clientOptions.get(Options.SSL_STARTTLS, true);
+        final Map<String, ?> serverProperties = SaslUtils.createPropertyMap(optionMap, secure);
+        final Map<String, ?> clientProperties = SaslUtils.createPropertyMap(clientOptions, secure);
+        final ClassLoader classLoader = LocalServer.class.getClassLoader();
+        final List<String> mechanisms = new ArrayList<String>();
+        final Sequence<String> serverMechanisms = optionMap.get(Options.SASL_MECHANISMS);
+        if (serverMechanisms != null) {
+            mechanisms.addAll(serverMechanisms);
+        } else {
+            final Iterator<SaslServerFactory> iterator = SaslUtils.getSaslServerFactories(classLoader, true);
+            while (iterator.hasNext()) {
+                for (String name : iterator.next().getMechanismNames(serverProperties)) {
+                    if (! mechanisms.contains(name)) {
+                        mechanisms.add(name);
+                    }
+                }
+            }
+        }
+        final Sequence<String> clientMechanisms = clientOptions.get(Options.SASL_MECHANISMS);
+        if (clientMechanisms != null) {
+            mechanisms.retainAll(clientMechanisms);
+        }
+        removeAll(mechanisms, optionMap.get(Options.SASL_DISALLOWED_MECHANISMS));
+        removeAll(mechanisms, clientOptions.get(Options.SASL_DISALLOWED_MECHANISMS));
+        // EXTERNAL relies on the SSL session
+        mechanisms.remove("EXTERNAL");
+        SaslException failure = null;
+        final String authorizationId = clientOptions.get(RemotingOptions.AUTHORIZE_ID);
+        for (final String mechanism : mechanisms) {
+            // the server side runs with the context of the server's creator, the client side with the connecting caller's
+            final AuthorizingCallbackHandler serverCallbackHandler = doPrivileged(new PrivilegedExceptionAction<AuthorizingCallbackHandler>() {
+                public AuthorizingCallbackHandler run() {
+                    return authenticationProvider.getCallbackHandler(mechanism);
+                }
+            }, accessControlContext);
+            if (serverCallbackHandler == null) {
+                continue;
+            }
+            final SaslServer saslServer = doPrivileged(new PrivilegedExceptionAction<SaslServer>() {
+                public SaslServer run() {
+                    return createSaslServer(classLoader, mechanism, protocol, serverName, serverProperties, serverCallbackHandler);
+                }
+            }, accessControlContext);
+            if (saslServer == null) {
+                continue;
+            }
+            try {
+                final SaslClient saslClient = doPrivileged(new PrivilegedExceptionAction<SaslClient>() {
+                    public SaslClient run() {
+                        return createSaslClient(classLoader, mechanism, authorizationId, protocol, serverName, clientProperties, callbackHandler);
+                    }
+                }, clientContext);
+                if (saslClient == null) {
+                    continue;
+                }
+                try {
+                    exchange(saslClient, clientContext, saslServer, accessControlContext);
+                    return new Authentication(saslServer.getAuthorizationID(), serverCallbackHandler);
+                } catch (SaslException e) {
+                    log.tracef(e, "In-memory authentication with %s failed", mechanism);
+                    failure = e;
+                } finally {
+                    dispose(saslClient);
+                }
+            } finally {
+                dispose(saslServer);
+            }
+        }
+        if (failure != null) {
+            throw new SaslException("Authentication failed: all available authentication mechanisms failed", failure);
+        }
+        return null;
+    }
+
+    private static void removeAll(final List<String> mechanisms, final Sequence<String> removed) {
+        if (removed != null) {
+            mechanisms.removeAll(removed);
+        }
+    }
+
+    private static SaslServer createSaslServer(final ClassLoader classLoader, final String mechanism, final String protocol, final String serverName, final Map<String, ?> properties, final CallbackHandler callbackHandler) {
+        final Iterator<SaslServerFactory> iterator = SaslUtils.getSaslServerFactories(classLoader, true);
+        while (iterator.hasNext()) {
+            try {
+                final SaslServer saslServer = iterator.next().createSaslServer(mechanism, protocol, serverName, properties, callbackHandler);
+                if (saslServer != null) {
+                    return saslServer;
+                }
+            } catch (SaslException e) {
+                log.tracef(e, "SASL server factory failed for %s", mechanism);
+            }
+        }
+        return null;
+    }
+
+    private static SaslClient createSaslClient(final ClassLoader classLoader, final String mechanism, final String authorizationId, final String protocol, final String serverName, final Map<String, ?> properties, final CallbackHandler callbackHandler) {
+        final String[] mechanisms = new String[] { mechanism };
+        final Iterator<SaslClientFactory> iterator = SaslUtils.getSaslClientFactories(classLoader, true);
+        while (iterator.hasNext()) {
+            try {
+                final SaslClient saslClient = iterator.next().createSaslClient(mechanisms, authorizationId, protocol, serverName, properties, callbackHandler);
+                if (saslClient != null) {
+                    return saslClient;
+                }
+            } catch (SaslException e) {
+                log.tracef(e, "SASL client factory failed for %s", mechanism);
+            }
+        }
+        return null;
+    }
+
+    private static void exchange(final SaslClient saslClient, final AccessControlContext clientContext, final SaslServer saslServer, final AccessControlContext serverContext) throws IOException {
+        final byte[] empty = new byte[0];
+        byte[] response = saslClient.hasInitialResponse() ? evaluateChallenge(saslClient, empty, clientContext) : empty;
+        for (;;) {
+            final byte[] challenge = evaluateResponse(saslServer, response == null ? empty : response, serverContext);
+            if (saslServer.isComplete()) {
+                if (! saslClient.isComplete() && challenge != null) {
+                    evaluateChallenge(saslClient, challenge, clientContext);
+                }
+                if (! saslClient.isComplete()) {
+                    throw new SaslException("Client did not complete authentication");
+                }
+                return;
+            }
+            response = evaluateChallenge(saslClient, challenge == null ? empty : challenge, clientContext);
+        }
+    }
+
+    private static byte[] evaluateChallenge(final SaslClient saslClient, final byte[] challenge, final AccessControlContext context) throws IOException {
+        return doPrivileged(new PrivilegedExceptionAction<byte[]>() {
+            public byte[] run() throws SaslException {
+                return saslClient.evaluateChallenge(challenge);
+            }
+        }, context);
+    }
+
+    private static byte[] evaluateResponse(final SaslServer saslServer, final byte[] response, final AccessControlContext context) throws IOException {
+        return doPrivileged(new PrivilegedExceptionAction<byte[]>() {
+            public byte[] run() throws SaslException {
+                return saslServer.evaluateResponse(response);
+            }
+        }, context);
+    }
+
+    private static <T> T doPrivileged(final PrivilegedExceptionAction<T> action, final AccessControlContext context) throws IOException {
+        try {
+            return AccessController.doPrivileged(action, context);
+        } catch (PrivilegedActionException e) {
+            final Exception cause = e.getException();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void dispose(final SaslClient saslClient) {
+        try {
+            saslClient.dispose();
+        } catch (SaslException e) {
+            log.trace("Failure disposing of SaslClient", e);
+        }
+    }
+
+    private static void dispose(final SaslServer saslServer) {
+        try {
+            saslServer.dispose();
+        } catch (SaslException e) {
+            log.trace("Failure disposing of SaslServer", e);
+        }
+    }
+
+    static final class Authentication {
+        private final String authorizationId;
+        private final AuthorizingCallbackHandler callbackHandler;
+
+        Authentication(final String authorizationId, final AuthorizingCallbackHandler callbackHandler) {
+            this.authorizationId = authorizationId;
+            this.callbackHandler = callbackHandler;
+        }
+
+        String getAuthorizationId() {
+            return authorizationId;
+        }
+
+        AuthorizingCallbackHandler getCallbackHandler() {
+            return callbackHandler;
+        }
+    }
+
+    static final class Attempt implements Cancellable {
+        private boolean cancelled;
+        private Cancellable delegate;
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        void setDelegate(final Cancellable delegate) {
+            synchronized (this) {
+                this.delegate = delegate;
+                if (! cancelled) {
+                    return;
+                }
+            }
+            delegate.cancel();
+        }
+
+        public Cancellable cancel() {
+            final Cancellable delegate;
+            synchronized (this) {
+                cancelled = true;
+                delegate = this.delegate;
+            }
+            if (delegate != null) {
+                delegate.cancel();
+            }
+            return this;
+        }
+    }
+
+    static final class HandlerFactory implements ConnectionHandlerFactory {
+        private final LocalConnectionProvider localProvider;
+        private final Collection<Principal> principals;
+        private final UserInfo userInfo;
+        private final Handler peer;
+        private Handler handler;
+
+        HandlerFactory(final LocalConnectionProvider localProvider, final Collection<Principal> principals, final UserInfo userInfo, final Handler peer) {
+            this.localProvider = localProvider;
+            this.principals = principals;
+            this.userInfo = userInfo;
+            this.peer = peer;
+        }
+
+        public ConnectionHandler createInstance(final ConnectionHandlerContext connectionContext) {
+            final Handler handler = new Handler(connectionContext, localProvider, principals, userInfo);
+            if (peer != null) {
+                handler.peer = peer;
+                peer.peer = handler;
+            }
+            return this.handler = handler;
+        }
+    }
+
+    /**
+     * One side of a connection made directly to a local server.
+     */
+    static final class Handler extends AbstractHandleableCloseable<ConnectionHandler> implements ConnectionHandler {
+        private final ConnectionHandlerContext context;
+        private final LocalConnectionProvider localProvider;
+        private final Collection<Principal> principals;
+        private final UserInfo userInfo;
+        private final Set<Channel> channels = Collections.synchronizedSet(new HashSet<Channel>());
+        private volatile Handler peer;
+
+        Handler(final ConnectionHandlerContext context, final LocalConnectionProvider localProvider, final Collection<Principal> principals, final UserInfo userInfo) {
+            super(context.getConnectionProviderContext().getExecutor());
+            this.context = context;
+            this.localProvider = localProvider;
+            this.principals = principals;
+            this.userInfo = userInfo;
+        }
+
+        public Cancellable open(final String serviceType, final Result<Channel> result, final OptionMap optionMap) {
+            final Handler peer = this.peer;
+            if (peer == null) {
+                result.setException(new NotOpenException("Connection is not established"));
+                return IoUtils.nullCancellable();
+            }
+            final RegisteredService registeredService = peer.context.getRegisteredService(serviceType);
+            if (registeredService == null) {
+                result.setException(new ServiceNotFoundException("Unable to find service type '" + serviceType + "'"));
+                return IoUtils.nullCancellable();
+            }
+            final LocalChannel channel = new LocalChannel(getExecutor(), context, localProvider, optionMap, peer.context, registeredService.getOptionMap());
+            final LocalChannel otherSide = channel.getOtherSide();
+            addChannel(channel);
+            peer.addChannel(otherSide);
+            peer.context.getConnectionProviderContext().getExecutor().execute(SpiUtils.getServiceOpenTask(otherSide, registeredService.getOpenListener()));
+            result.setResult(channel);
+            return IoUtils.nullCancellable();
+        }
+
+        private void addChannel(final Channel channel) {
+            channels.add(channel);
+            channel.addCloseHandler(new CloseHandler<Channel>() {
+                public void handleClose(final Channel closed, final IOException exception) {
+                    channels.remove(closed);
+                }
+            });
+        }
+
+        public Collection<Principal> getPrincipals() {
+            return principals;
+        }
+
+        public UserInfo getUserInfo() {
+            return userInfo;
+        }
+
+        public String getRemoteEndpointName() {
+            final Handler peer = this.peer;
+            return peer == null ? null : peer.context.getConnectionProviderContext().getEndpoint().getName();
+        }
+
+        protected void closeAction() throws IOException {
+            final Handler peer = this.peer;
+            if (peer != null) {
+                peer.closeAsync();
+            }
+            final Channel[] channels;
+            synchronized (this.channels) {
+                channels = this.channels.toArray(new Channel[this.channels.size()]);
+            }
+            for (Channel channel : channels) {
+                channel.closeAsync();
+            }
+            closeComplete();
+        }
+
+        public String toString() {
+            return String.format("Remoting direct local connection handler %x for %s", Integer.valueOf(hashCode()), context.getConnectionProviderContext().getEndpoint());
+        }
+    }
+
+    static final class Key {
+        private final String scheme;
+        private final InetSocketAddress address;
+
+        Key(final String scheme, final InetSocketAddress address) {
+            this.scheme = scheme;
+            this.address = address;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && scheme.equals(((Key) obj).scheme) && address.equals(((Key) obj).address);
+        }
+
+        public int hashCode() {
+            return scheme.hashCode() * 31 + address.hashCode();
+        }
+    }
+}
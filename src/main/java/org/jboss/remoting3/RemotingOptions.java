@@ -87,6 +87,31 @@ public final class RemotingOptions {
      */
     public static final int OUTGOING_CHANNEL_DEFAULT_RECEIVE_WINDOW_SIZE = 0x20000;
 
+    /**
+     * The maximum size to which the receive window of a channel may grow, in bytes.  If this is larger than the
+     * negotiated receive window size, the receive window is automatically tuned to the measured bandwidth-delay product
+     * of the channel, between the negotiated size and this size.  By default the receive window does not grow.
+     */
+    public static final Option<Integer> MAX_RECEIVE_WINDOW_SIZE = Option.simple(RemotingOptions.class, "MAX_RECEIVE_WINDOW_SIZE", Integer.class);
+
+    /**
+     * The size of the connection-wide receive window, in bytes.  This bounds the total amount of message data which the
+     * peer may have in flight to this side across all channels and messages.  A value of zero disables the connection
+     * window; it is also only used if the peer supports it.
+     * <p>
+     * Because the window is shared, a channel whose receiver is slow to consume its messages holds window space which
+     * every other channel on the connection needs, so one stalled channel can block all of the others (head-of-line
+     * blocking across channels).  If a channel may wait on a reply arriving over another channel of the same
+     * connection, this can deadlock.  The window should therefore be larger than the sum of the receive windows of
+     * all channels which may be open at once, or left disabled.
+     */
+    public static final Option<Integer> CONNECTION_RECEIVE_WINDOW_SIZE = Option.simple(RemotingOptions.class, "CONNECTION_RECEIVE_WINDOW_SIZE", Integer.class);
+
+    /**
+     * The default connection-wide receive window size, which disables the connection window.
+     */
+    public static final int DEFAULT_CONNECTION_RECEIVE_WINDOW_SIZE = 0;
+
     /**
      * The maximum number of outbound channels to support for a connection.
      */
@@ -166,10 +191,23 @@ public final class RemotingOptions {
     public static final Option<Integer> HEARTBEAT_INTERVAL = Option.simple(RemotingOptions.class, "HEARTBEAT_INTERVAL", Integer.class);
 
     /**
-     * The default heartbeat interval.
+     * The default heartbeat interval (disabled, unless a {@link #HEARTBEAT_TIMEOUT} is set).
      */
     public static final int DEFAULT_HEARTBEAT_INTERVAL = Integer.MAX_VALUE;
 
+    /**
+     * The amount of time to wait for a reply to a heartbeat message, in milliseconds.  If no reply is received within
+     * this time, the peer is considered dead and the connection is forcibly closed.  A value of zero disables the timeout.
+     * Heartbeats are only sent if {@link #HEARTBEAT_INTERVAL} is set, so if the timeout is set without an interval, the
+     * interval defaults to half the timeout.
+     */
+    public static final Option<Integer> HEARTBEAT_TIMEOUT = Option.simple(RemotingOptions.class, "HEARTBEAT_TIMEOUT", Integer.class);
+
+    /**
+     * The default heartbeat timeout (disabled).
+     */
+    public static final int DEFAULT_HEARTBEAT_TIMEOUT = 0;
+
     /**
      * The maximum inbound message size to be allowed.  Messages exceeding this size will cause an exception to be thrown
      * on the reading side as well as the writing side.
@@ -192,6 +230,172 @@ public final class RemotingOptions {
      */
     public static final long DEFAULT_MAX_OUTBOUND_MESSAGE_SIZE = Long.MAX_VALUE;
 
+    /**
+     * Specify whether an outgoing channel should be opened optimistically.  If the peer supports it, the channel is
+     * returned immediately and the first message may be written before the peer has acknowledged the open request,
+     * saving a round trip.  Until the acknowledgement arrives, only one message with a small window may be in flight.
+     * If the peer refuses the channel, the channel is closed and any data written to it is discarded.
+     */
+    public static final Option<Boolean> OPTIMISTIC_CHANNEL_OPEN = Option.simple(RemotingOptions.class, "OPTIMISTIC_CHANNEL_OPEN", Boolean.class);
+
+    /**
+     * The amount of time, in milliseconds, that a channel returned to a connection's channel pool may stay idle before
+     * it is closed.  Applies to channels leased from a {@link ChannelPool}.
+     */
+    public static final Option<Integer> CHANNEL_POOL_IDLE_TIMEOUT = Option.simple(RemotingOptions.class, "CHANNEL_POOL_IDLE_TIMEOUT", Integer.class);
+
+    /**
+     * The default pooled channel idle timeout.
+     */
+    public static final int DEFAULT_CHANNEL_POOL_IDLE_TIMEOUT = 30000;
+
+    /**
+     * The amount of time, in milliseconds, that a closing connection drains before it is closed.  While draining, no
+     * new channels are opened in either direction and work in progress may complete; the accepting side refuses new
+     * inbound messages and the connecting side refuses new outbound messages, so that replies to requests in progress
+     * still get through.  The connection is closed once no channel has a message in progress or a request which has
+     * not been answered yet, or when the time is up; closing the connection again ends the drain at once.  Taken from
+     * the connect options on the connecting side and from the server options on the accepting side, falling back to
+     * the connection provider options and then to the endpoint options, so that closing an endpoint with this option
+     * drains all of its connections.  Zero closes connections immediately, cancelling any messages in progress.
+     */
+    public static final Option<Integer> GRACEFUL_CLOSE_TIMEOUT = Option.simple(RemotingOptions.class, "GRACEFUL_CLOSE_TIMEOUT", Integer.class);
+
+    /**
+     * The default graceful close timeout (disabled).
+     */
+    public static final int DEFAULT_GRACEFUL_CLOSE_TIMEOUT = 0;
+
+    /**
+     * Specify whether a connection may be shared with other connect requests for the same destination, options and
+     * identity.  Each such request receives its own lease on the shared connection; closing a lease closes the shared
+     * connection only once no other leases remain.  May be given as an endpoint option or as a connect option.
+     */
+    public static final Option<Boolean> SHARE_CONNECTION = Option.simple(RemotingOptions.class, "SHARE_CONNECTION", Boolean.class);
+
+    /**
+     * The number of separately authenticated sockets which back a single outbound connection.  Channels are spread
+     * over the sockets, so that one busy peer pair can make use of more than one I/O thread on each side.
+     */
+    public static final Option<Integer> CONNECTION_STRIPES = Option.simple(RemotingOptions.class, "CONNECTION_STRIPES", Integer.class);
+
+    /**
+     * The default number of connection stripes.
+     */
+    public static final int DEFAULT_CONNECTION_STRIPES = 1;
+
+    /**
+     * Specify whether a connection provider should place new connections on its least-loaded I/O thread, judged by
+     * recent traffic, rather than letting the worker choose.  Outbound non-SSL connections are opened directly on the
+     * chosen thread; for inbound connections, a busy thread leaves a pending accept to the other threads once.
+     */
+    public static final Option<Boolean> BALANCE_IO_THREADS = Option.simple(RemotingOptions.class, "BALANCE_IO_THREADS", Boolean.class);
+
+    /**
+     * The maximum number of SASL authentication steps that a connection provider evaluates at once on behalf of
+     * inbound connections, so that a flood of authenticating connections cannot occupy every worker thread.  A value
+     * of zero or less removes the limit.  The default is the number of available processors.
+     */
+    public static final Option<Integer> AUTHENTICATION_THREADS = Option.simple(RemotingOptions.class, "AUTHENTICATION_THREADS", Integer.class);
+
+    /**
+     * The maximum number of inbound connections which may wait to begin authentication while all authentication
+     * threads are busy.  Further connections are closed with a hint telling the client when to retry.
+     */
+    public static final Option<Integer> AUTHENTICATION_QUEUE_SIZE = Option.simple(RemotingOptions.class, "AUTHENTICATION_QUEUE_SIZE", Integer.class);
+
+    /**
+     * The default authentication queue size.
+     */
+    public static final int DEFAULT_AUTHENTICATION_QUEUE_SIZE = 256;
+
+    /**
+     * The lifetime of the session tickets which a server issues on successful authentication, in milliseconds.  A
+     * client holding a ticket may reconnect from the same address within this time without repeating the SASL
+     * exchange.  Tickets are only issued if this is greater than zero, and only to clients which ask for them with
+     * {@link #SESSION_RESUMPTION}.  Tickets are only issued and accepted on secure channels, such as SSL, and are
+     * bound to the SSL peer's certificate if it presented one, or else to the SSL session, in which case a client can
+     * only resume a connection whose SSL session was resumed as well.  Tickets are not issued for connections which
+     * negotiated a SASL security layer.
+     */
+    public static final Option<Integer> SESSION_TICKET_LIFETIME = Option.simple(RemotingOptions.class, "SESSION_TICKET_LIFETIME", Integer.class);
+
+    /**
+     * Specify whether a client should ask for session tickets and use them to resume later connections with the same
+     * destination, options and credentials.  Only takes effect on secure channels.  A resumed connection takes the
+     * authorization ID the server issued the ticket for.  Defaults to {@code false}.
+     */
+    public static final Option<Boolean> SESSION_RESUMPTION = Option.simple(RemotingOptions.class, "SESSION_RESUMPTION", Boolean.class);
+
+    /**
+     * Specify whether a client should send its capabilities as soon as it connects, rather than after the server
+     * greeting, together with a session resumption request if it holds a ticket, or else with an authentication request
+     * for the first mechanism of {@link org.xnio.Options#SASL_MECHANISMS}.  The server name for that mechanism is
+     * {@link #SERVER_NAME} if given, or else the host name of the server address; if that guess differs from the name
+     * in the server greeting and the mechanism fails, it is tried again under the greeting's name.  No request is sent
+     * ahead if it could precede STARTTLS.  If the server rejects it, the client falls back to the usual sequence.  The
+     * server still requires the capabilities request to come first.  Defaults to {@code false}.
+     */
+    public static final Option<Boolean> PIPELINE_HANDSHAKE = Option.simple(RemotingOptions.class, "PIPELINE_HANDSHAKE", Boolean.class);
+
+    /**
+     * The number of messages which may be queued on the receiving side of a local (in-VM) channel before a writer waits.
+     * Taken from the options given to {@code openChannel()} for the opening side and to {@code registerService()} for the
+     * service side.
+     */
+    public static final Option<Integer> LOCAL_CHANNEL_QUEUE_LENGTH = Option.simple(RemotingOptions.class, "LOCAL_CHANNEL_QUEUE_LENGTH", Integer.class);
+
+    /**
+     * The default local channel queue length.
+     */
+    public static final int DEFAULT_LOCAL_CHANNEL_QUEUE_LENGTH = 8;
+
+    /**
+     * The number of bytes of a message which may be queued on the receiving side of a local (in-VM) channel before a
+     * writer waits.  Writes at least this large are passed to the reader without being buffered.  Taken from the options
+     * given to {@code openChannel()} for the opening side and to {@code registerService()} for the service side.
+     */
+    public static final Option<Integer> LOCAL_CHANNEL_BUFFER_SIZE = Option.simple(RemotingOptions.class, "LOCAL_CHANNEL_BUFFER_SIZE", Integer.class);
+
+    /**
+     * The default local channel buffer size.
+     */
+    public static final int DEFAULT_LOCAL_CHANNEL_BUFFER_SIZE = 8192;
+
+    /**
+     * Specify whether a connection to a network server of an endpoint in this JVM should bypass the network.  The
+     * connection still authenticates against the server, with the SASL exchange carried out in memory, and its channels
+     * are local channels.  If no mechanism can be used in memory, the connection is made over the network as usual.
+     * Defaults to {@code false} on a connection.  On a server, set to {@code false} to make every client connect over
+     * the network; servers which require SSL client authentication are never bypassed.
+     */
+    public static final Option<Boolean> LOCAL_SHORT_CIRCUIT = Option.simple(RemotingOptions.class, "LOCAL_SHORT_CIRCUIT", Boolean.class);
+
+    /**
+     * The directory in which shared memory servers and connections are created.  Clients and servers must agree on it.
+     * Set on the shared memory connection provider; defaults to {@code /dev/shm} where it exists, otherwise to the
+     * system temporary directory.  Each server directory in it is accessible to its owner only, so clients must run as
+     * the same user as the server.
+     */
+    public static final Option<String> SHARED_MEMORY_DIRECTORY = Option.simple(RemotingOptions.class, "SHARED_MEMORY_DIRECTORY", String.class);
+
+    /**
+     * The size in bytes of each of the two ring buffers of a shared memory connection, rounded up to a power of two.
+     * Chosen by the connecting side, from its connect options or else the connection provider options.
+     */
+    public static final Option<Integer> SHARED_MEMORY_BUFFER_SIZE = Option.simple(RemotingOptions.class, "SHARED_MEMORY_BUFFER_SIZE", Integer.class);
+
+    /**
+     * The default shared memory buffer size.
+     */
+    public static final int DEFAULT_SHARED_MEMORY_BUFFER_SIZE = 0x40000;
+
+    /**
+     * The directory in which Unix domain socket servers create their sockets.  Clients and servers must agree on it.
+     * Set on the Unix domain socket connection provider; defaults to the system temporary directory.
+     */
+    public static final Option<String> UNIX_SOCKET_DIRECTORY = Option.simple(RemotingOptions.class, "UNIX_SOCKET_DIRECTORY", String.class);
+
     /**
      * The server side of the connection passes it's name to the client in the initial greeting, by default the name is
      * automatically discovered from the local address of the connection or it can be overridden using this {@code Option}.
@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.jboss.logging.Logger;
+import org.jboss.remoting3.security.UserInfo;
+import org.jboss.remoting3.spi.AbstractHandleableCloseable;
+import org.xnio.Cancellable;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+/**
+ * A logical connection backed by several independently authenticated connections to the same peer, so that the
+ * traffic of one peer pair is spread over several sockets and I/O threads.  Each channel lives on a single stripe;
+ * new channels are opened on the stripe with the fewest open channels.  If any stripe closes, the whole connection
+ * is closed.  All stripes must have authenticated as the same peer; the channels of every stripe report the striped
+ * connection as their connection.
+ */
+final class StripedConnection extends AbstractHandleableCloseable<Connection> implements Connection {
+
+    private static final Logger log = Logger.getLogger("org.jboss.remoting.striped-connection");
+
+    private final Endpoint endpoint;
+    private final Connection[] stripes;
+    private final int[] channelCounts;
+    private final Attachments attachments = new Attachments();
+    private int closedStripes;
+    private boolean closing;
+
+    private StripedConnection(final Endpoint endpoint, final Executor executor, final Connection[] stripes) {
+        super(executor, true);
+        this.endpoint = endpoint;
+        this.stripes = stripes;
+        channelCounts = new int[stripes.length];
+        final CloseHandler<Connection> stripeCloseHandler = new CloseHandler<Connection>() {
+            public void handleClose(final Connection closed, final IOException exception) {
+                stripeClosed();
+            }
+        };
+        for (Connection stripe : stripes) {
+            if (stripe instanceof ConnectionImpl) {
+                ((ConnectionImpl) stripe).setOwner(this);
+            }
+            stripe.addCloseHandler(stripeCloseHandler);
+        }
+    }
+
+    /**
+     * Combine the given connection attempts into one striped connection.  If any attempt fails, the successful ones
+     * are closed again.
+     *
+     * @param endpoint the endpoint
+     * @param executor the executor to use
+     * @param futures the connection attempts, one per stripe
+     * @return the future striped connection
+     */
+    static IoFuture<Connection> create(final Endpoint endpoint, final Executor executor, final List<IoFuture<Connection>> futures) {
+        final FutureResult<Connection> result = new FutureResult<Connection>(executor);
+        final Connection[] stripes = new Connection[futures.size()];
+        result.addCancelHandler(new Cancellable() {
+            public Cancellable cancel() {
+                for (IoFuture<Connection> future : futures) {
+                    future.cancel();
+                }
+                return this;
+            }
+        });
+        final IoFuture.HandlingNotifier<Connection, Integer> notifier = new IoFuture.HandlingNotifier<Connection, Integer>() {
+            private int remaining = stripes.length;
+            private IOException failure;
+            private boolean cancelled;
+
+            public void handleCancelled(final Integer index) {
+                synchronized (this) {
+                    cancelled = true;
+                }
+                complete();
+            }
+
+            public void handleFailed(final IOException exception, final Integer index) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = exception;
+                    }
+                }
+                complete();
+            }
+
+            public void handleDone(final Connection connection, final Integer index) {
+                synchronized (this) {
+                    stripes[index.intValue()] = connection;
+                }
+                complete();
+            }
+
+            private void complete() {
+                synchronized (this) {
+                    if (--remaining > 0) {
+                        if (failure != null || cancelled) {
+                            // no point in waiting for the rest
+                            for (IoFuture<Connection> future : futures) {
+                                future.cancel();
+                            }
+                        }
+                        return;
+                    }
+                }
+                if (failure == null && ! cancelled) {
+                    for (int i = 1; i < stripes.length; i ++) {
+                        if (! samePeer(stripes[0], stripes[i])) {
+                            failure = new ProtocolException("Stripes of a striped connection authenticated as different peers");
+                            break;
+                        }
+                    }
+                }
+                if (failure == null && ! cancelled) {
+                    final StripedConnection connection = new StripedConnection(endpoint, executor, stripes);
+                    log.tracef("Established %s", connection);
+                    if (! result.setResult(connection)) {
+                        IoUtils.safeClose(connection);
+                    }
+                    return;
+                }
+                for (Connection stripe : stripes) {
+                    IoUtils.safeClose(stripe);
+                }
+                if (failure != null) {
+                    result.setException(failure);
+                } else {
+                    result.setCancelled();
+                }
+            }
+        };
+        for (int i = 0; i < stripes.length; i ++) {
+            futures.get(i).addNotifier(notifier, Integer.valueOf(i));
+        }
+        return result.getIoFuture();
+    }
+
+    private static boolean samePeer(final Connection first, final Connection other) {
+        final String name = first.getRemoteEndpointName();
+        if (name == null ? other.getRemoteEndpointName() != null : ! name.equals(other.getRemoteEndpointName())) {
+            return false;
+        }
+        final UserInfo userInfo = first.getUserInfo();
+        final UserInfo otherUserInfo = other.getUserInfo();
+        final String userName = userInfo == null ? null : userInfo.getUserName();
+        final String otherUserName = otherUserInfo == null ? null : otherUserInfo.getUserName();
+        if (userName == null ? otherUserName != null : ! userName.equals(otherUserName)) {
+            return false;
+        }
+        return new HashSet<Principal>(first.getPrincipals()).equals(new HashSet<Principal>(other.getPrincipals()));
+    }
+
+    protected void closeAction() throws IOException {
+        synchronized (this) {
+            closing = true;
+            if (closedStripes == stripes.length) {
+                closeComplete();
+                return;
+            }
+        }
+        for (Connection stripe : stripes) {
+            stripe.closeAsync();
+        }
+    }
+
+    private void stripeClosed() {
+        synchronized (this) {
+            if (++closedStripes == stripes.length && closing) {
+                closeComplete();
+                return;
+            }
+            if (closing) {
+                // the remaining stripes are closing already, and may still be draining
+                return;
+            }
+        }
+        // losing one stripe takes the whole connection down
+        closeAsync();
+    }
+
+    public Collection<Principal> getPrincipals() {
+        // all stripes share the same identity, see samePeer()
+        return stripes[0].getPrincipals();
+    }
+
+    public UserInfo getUserInfo() {
+        return stripes[0].getUserInfo();
+    }
+
+    public IoFuture<Channel> openChannel(final String serviceType, final OptionMap optionMap) {
+        final int index;
+        synchronized (this) {
+            int best = 0;
+            for (int i = 1; i < channelCounts.length; i ++) {
+                if (channelCounts[i] < channelCounts[best]) {
+                    best = i;
+                }
+            }
+            index = best;
+            channelCounts[index] ++;
+        }
+        final IoFuture<Channel> future = stripes[index].openChannel(serviceType, optionMap);
+        future.addNotifier(new IoFuture.HandlingNotifier<Channel, Void>() {
+            public void handleCancelled(final Void attachment) {
+                channelClosed(index);
+            }
+
+            public void handleFailed(final IOException exception, final Void attachment) {
+                channelClosed(index);
+            }
+
+            public void handleDone(final Channel channel, final Void attachment) {
+                channel.addCloseHandler(new CloseHandler<Channel>() {
+                    public void handleClose(final Channel closed, final IOException exception) {
+                        channelClosed(index);
+                    }
+                });
+            }
+        }, null);
+        return future;
+    }
+
+    private synchronized void channelClosed(final int index) {
+        channelCounts[index] --;
+    }
+
+    public String getRemoteEndpointName() {
+        return stripes[0].getRemoteEndpointName();
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public Attachments getAttachments() {
+        return attachments;
+    }
+
+    public String toString() {
+        return String.format("Remoting striped connection <%x> (%d stripes)", Integer.valueOf(hashCode()), Integer.valueOf(stripes.length));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.jboss.remoting3.remote.RemoteLogger.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor for server authentication steps which runs at most a fixed number of steps at once on the endpoint
+ * executor, so that a storm of authenticating connections leaves worker threads free for established traffic.  Steps
+ * beyond that number wait in a queue.  New authentications are only admitted while the queue has room; steps of
+ * authentications which are already under way are always accepted, so that admitted connections can finish.
+ */
+final class AuthenticationExecutor {
+
+    private static final long MIN_RETRY_HINT = TimeUnit.MILLISECONDS.toNanos(100L);
+    private static final long MAX_RETRY_HINT = TimeUnit.SECONDS.toNanos(30L);
+
+    private final Executor delegate;
+    private final int maxRunning;
+    private final int maxQueued;
+    private final Queue<Runnable> queue = new ArrayDeque<Runnable>();
+    private int running;
+    // smoothed duration of one step
+    private long stepTime;
+
+    AuthenticationExecutor(final Executor delegate, final int maxRunning, final int maxQueued) {
+        this.delegate = delegate;
+        this.maxRunning = maxRunning <= 0 ? Integer.MAX_VALUE : maxRunning;
+        this.maxQueued = Math.max(0, maxQueued);
+    }
+
+    /**
+     * Execute the first step of a new authentication, if there is room for it.
+     *
+     * @param task the step
+     * @return {@code true} if the step was accepted, {@code false} if the caller should turn the connection away
+     */
+    boolean admit(final Runnable task) {
+        synchronized (this) {
+            if (running >= maxRunning) {
+                if (queue.size() >= maxQueued) {
+                    return false;
+                }
+                queue.add(task);
+                return true;
+            }
+            running ++;
+        }
+        start(task);
+        return true;
+    }
+
+    /**
+     * Execute a further step of an authentication which was already admitted.
+     *
+     * @param task the step
+     */
+    void execute(final Runnable task) {
+        synchronized (this) {
+            if (running >= maxRunning) {
+                queue.add(task);
+                return;
+            }
+            running ++;
+        }
+        start(task);
+    }
+
+    /**
+     * Estimate when a turned-away client should retry, from the queued work and the recent step time.
+     *
+     * @return the retry delay in milliseconds
+     */
+    synchronized int getRetryHint() {
+        final long threads = Math.min(maxRunning, Math.max(running, 1));
+        final long estimate = stepTime * (queue.size() + running) / threads;
+        return (int) TimeUnit.NANOSECONDS.toMillis(Math.min(MAX_RETRY_HINT, Math.max(MIN_RETRY_HINT, estimate)));
+    }
+
+    private void start(final Runnable task) {
+        try {
+            delegate.execute(new Runner(task));
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                running --;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A step which holds resources while it waits in the queue, and which need not run once its connection is gone.
+     */
+    interface Step extends Runnable {
+
+        /**
+         * Determine whether the connection of this step is still open.
+         *
+         * @return {@code true} if the step should run
+         */
+        boolean isLive();
+
+        /**
+         * Release the resources of a step which will not run.
+         */
+        void discard();
+    }
+
+    final class Runner implements Runnable {
+        private Runnable task;
+
+        Runner(final Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            for (;;) {
+                long elapsed = -1L;
+                if (task instanceof Step && ! ((Step) task).isLive()) {
+                    // the connection closed while the step was queued
+                    server.tracef("Discarding authentication step %s of a closed connection", task);
+                    ((Step) task).discard();
+                } else {
+                    final long start = System.nanoTime();
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        // keep draining; handing the queue to another thread could be rejected and strand its steps
+                        server.authenticationStepFailed(t);
+                    }
+                    elapsed = System.nanoTime() - start;
+                }
+                synchronized (AuthenticationExecutor.this) {
+                    if (elapsed >= 0L) {
+                        stepTime = stepTime == 0L ? elapsed : stepTime - (stepTime >> 3) + (elapsed >> 3);
+                    }
+                    task = queue.poll();
+                    if (task == null) {
+                        running --;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -30,14 +30,16 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.security.AccessControlContext;
 import java.security.AccessController;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.Principal;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -85,6 +87,16 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
     private final Map<String, String> failedMechs = new LinkedHashMap<String, String>();
     private final Set<String> allowedMechs;
     private final Set<String> disallowedMechs;
+    private final boolean sessionResumption;
+    /**
+     * The authentication which was sent along with the capabilities request, awaiting the capabilities response.
+     */
+    private volatile SaslClient pipelinedSaslClient;
+    private volatile String pipelinedServerName;
+    /**
+     * The resumption which was sent along with the capabilities request, if any.
+     */
+    private volatile ResumeRequest pipelinedResume;
 
     ClientConnectionOpenListener(final RemoteConnection connection, final ConnectionProviderContext connectionProviderContext, final CallbackHandler callbackHandler, final AccessControlContext accessControlContext, final OptionMap optionMap) {
         this.connection = connection;
@@ -96,10 +108,133 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
         final Sequence<String> disallowedMechs = optionMap.get(Options.SASL_DISALLOWED_MECHANISMS);
         this.allowedMechs = allowedMechs == null ? null : new HashSet<String>(allowedMechs);
         this.disallowedMechs = disallowedMechs == null ? Collections.<String>emptySet() : new HashSet<String>(disallowedMechs);
+        sessionResumption = optionMap.get(RemotingOptions.SESSION_RESUMPTION, false);
     }
 
     public void handleEvent(final ConnectedMessageChannel channel) {
-        connection.setReadListener(new Greeting(), true);
+        if (optionMap.get(RemotingOptions.PIPELINE_HANDSHAKE, false)) {
+            connection.setReadListener(new Greeting(true), true);
+            connection.getExecutor().execute(new Runnable() {
+                public void run() {
+                    sendPipelinedHandshake(channel);
+                }
+            });
+            return;
+        }
+        connection.setReadListener(new Greeting(false), true);
+    }
+
+    /**
+     * Send the capabilities request without waiting for the greeting, followed by a resumption request or by an
+     * authentication request for the preferred mechanism, so that the server can answer all of them at once.  If the
+     * server disagrees, it rejects the request and the client falls back to the classic sequence.
+     *
+     * @param channel the channel
+     */
+    void sendPipelinedHandshake(final ConnectedMessageChannel channel) {
+        final InetSocketAddress peerAddress = channel.getPeerAddress(InetSocketAddress.class);
+        // anything sent now would precede STARTTLS
+        final boolean mayAuthenticate = peerAddress != null && (connection.getSslChannel() == null || Channels.getOption(channel, Options.SECURE, false) || ! optionMap.get(Options.SSL_STARTTLS, true));
+        SessionTicketCache.Ticket ticket = null;
+        String mechanismName = null;
+        SaslClient pipelinedSaslClient = null;
+        byte[] response = null;
+        if (mayAuthenticate && sessionResumption && isSecure()) {
+            ticket = connection.getRemoteConnectionProvider().getSessionTicketCache().get(getSessionTicketKey(peerAddress));
+        }
+        final Sequence<String> preferredMechs = optionMap.get(Options.SASL_MECHANISMS);
+        if (mayAuthenticate && ticket == null && preferredMechs != null && ! preferredMechs.isEmpty()) {
+            mechanismName = preferredMechs.get(0);
+            // the greeting has not arrived, so the server name is configured or guessed
+            final String serverName = optionMap.contains(RemotingOptions.SERVER_NAME) ? optionMap.get(RemotingOptions.SERVER_NAME) : peerAddress.getHostName();
+            final SaslClient saslClient = createSaslClient(mechanismName, serverName, Channels.getOption(channel, Options.SECURE, false));
+            if (saslClient != null) {
+                try {
+                    if (saslClient.hasInitialResponse()) {
+                        response = AccessController.doPrivileged(new PrivilegedExceptionAction<byte[]>() {
+                            public byte[] run() throws Exception {
+                                return saslClient.evaluateChallenge(EMPTY_BYTES);
+                            }
+                        }, accessControlContext);
+                    }
+                    // published before the capabilities request, whose answer clears it again
+                    pipelinedServerName = serverName;
+                    this.pipelinedSaslClient = pipelinedSaslClient = saslClient;
+                } catch (PrivilegedActionException e) {
+                    client.tracef("Client not pipelining authentication: %s", e.getCause());
+                    saslDispose(saslClient);
+                }
+            }
+        }
+        final ResumeRequest resumeRequest = ticket == null ? null : new ResumeRequest(getSessionTicketKey(peerAddress), ticket);
+        // published before the capabilities request, whose answer clears it again
+        pipelinedResume = resumeRequest;
+        sendCapabilities(null);
+        if (resumeRequest != null) {
+            client.trace("Client sending pipelined session resumption request");
+            final Pooled<ByteBuffer> pooledSendBuffer = connection.allocate();
+            boolean ok = false;
+            try {
+                final ByteBuffer sendBuffer = pooledSendBuffer.getResource();
+                resumeRequest.write(sendBuffer);
+                sendBuffer.flip();
+                connection.send(pooledSendBuffer);
+                ok = true;
+            } finally {
+                if (! ok) pooledSendBuffer.free();
+            }
+        } else if (pipelinedSaslClient != null) {
+            client.tracef("Client sending pipelined authentication request for mechanism %s", mechanismName);
+            final Pooled<ByteBuffer> pooledSendBuffer = connection.allocate();
+            boolean ok = false;
+            try {
+                final ByteBuffer sendBuffer = pooledSendBuffer.getResource();
+                sendBuffer.put(Protocol.AUTH_REQUEST);
+                ProtocolUtils.writeString(sendBuffer, mechanismName);
+                if (response != null) {
+                    sendBuffer.put(response);
+                }
+                sendBuffer.flip();
+                connection.send(pooledSendBuffer);
+                ok = true;
+            } finally {
+                if (! ok) pooledSendBuffer.free();
+            }
+        }
+    }
+
+    private boolean isSecure() {
+        return Channels.getOption(connection.getChannel(), Options.SECURE, false);
+    }
+
+    private SessionTicketCache.Key getSessionTicketKey(final InetSocketAddress peerAddress) {
+        return new SessionTicketCache.Key(peerAddress, optionMap, SessionTicketCache.identity(callbackHandler));
+    }
+
+    private SaslClient createSaslClient(final String mechanismName, final String serverName, final boolean secure) {
+        final Map<String, ?> propertyMap = SaslUtils.createPropertyMap(optionMap, secure);
+        final Set<SaslClientFactory> factorySet = connection.getRemoteConnectionProvider().getClientMechanismCache().getFactories(getClass().getClassLoader(), propertyMap).get(mechanismName);
+        if (factorySet == null || disallowedMechs.contains(mechanismName)) {
+            return null;
+        }
+        final String userName = optionMap.get(RemotingOptions.AUTHORIZE_ID);
+        final String protocol = optionMap.contains(RemotingOptions.SASL_PROTOCOL) ? optionMap.get(RemotingOptions.SASL_PROTOCOL) : RemotingOptions.DEFAULT_SASL_PROTOCOL;
+        final String[] strings = new String[] { mechanismName };
+        for (final SaslClientFactory factory : factorySet) {
+            try {
+                final SaslClient saslClient = AccessController.doPrivileged(new PrivilegedExceptionAction<SaslClient>() {
+                    public SaslClient run() throws SaslException {
+                        return factory.createSaslClient(strings, userName, protocol, serverName, propertyMap, callbackHandler);
+                    }
+                }, accessControlContext);
+                if (saslClient != null) {
+                    return saslClient;
+                }
+            } catch (PrivilegedActionException e) {
+                client.tracef("SASL client factory %s failed: %s", factory, e.getCause());
+            }
+        }
+        return null;
     }
 
     SaslException allMechanismsFailed() {
@@ -114,6 +249,10 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
     }
 
     void sendCapRequest(final String remoteServerName) {
+        sendCapabilities(new Capabilities(remoteServerName));
+    }
+
+    private void sendCapabilities(final Capabilities next) {
         client.trace("Client sending capabilities request");
         // Prepare the request message body
         final Pooled<ByteBuffer> pooledSendBuffer = connection.allocate();
@@ -130,8 +269,19 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
             ProtocolUtils.writeString(sendBuffer, Protocol.CAP_VERSION_STRING, Version.getVersionString());
             ProtocolUtils.writeInt(sendBuffer, Protocol.CAP_CHANNELS_IN, optionMap.get(RemotingOptions.MAX_INBOUND_CHANNELS, RemotingOptions.DEFAULT_MAX_INBOUND_CHANNELS));
             ProtocolUtils.writeInt(sendBuffer, Protocol.CAP_CHANNELS_OUT, optionMap.get(RemotingOptions.MAX_OUTBOUND_CHANNELS, RemotingOptions.DEFAULT_MAX_OUTBOUND_CHANNELS));
+            final int connectionWindow = optionMap.get(RemotingOptions.CONNECTION_RECEIVE_WINDOW_SIZE, RemotingOptions.DEFAULT_CONNECTION_RECEIVE_WINDOW_SIZE);
+            if (connectionWindow > 0) {
+                ProtocolUtils.writeInt(sendBuffer, Protocol.CAP_CONNECTION_WINDOW, connectionWindow);
+            }
+            ProtocolUtils.writeEmpty(sendBuffer, Protocol.CAP_OPTIMISTIC_OPEN);
+            if (sessionResumption && isSecure()) {
+                // tickets are bearer credentials, so they only travel on secure channels
+                ProtocolUtils.writeEmpty(sendBuffer, Protocol.CAP_SESSION_TICKET);
+            }
             sendBuffer.flip();
-            connection.setReadListener(new Capabilities(remoteServerName), true);
+            if (next != null) {
+                connection.setReadListener(next, true);
+            }
             connection.send(pooledSendBuffer);
             ok = true;
             // all set
@@ -153,8 +303,56 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
         }
     }
 
+    private Collection<Principal> definePrincipals(final String authorizationID) {
+        final Set<Principal> principals = new LinkedHashSet<Principal>();
+
+        final SslChannel sslChannel = connection.getSslChannel();
+        if (sslChannel != null) {
+            // It might be STARTTLS, in which case we can still opt out of SSL
+            final SSLSession session = sslChannel.getSslSession();
+            if (session != null) {
+                try {
+                    principals.add(session.getPeerPrincipal());
+                } catch (SSLPeerUnverifiedException ignored) {
+                }
+            }
+        }
+        if (authorizationID != null) {
+            principals.add(new UserPrincipal(authorizationID));
+        }
+        final ConnectedMessageChannel channel = connection.getChannel();
+        final InetSocketAddress address = channel.getPeerAddress(InetSocketAddress.class);
+        if (address != null) {
+            principals.add(new InetAddressPrincipal(address.getAddress()));
+        }
+
+        return principals;
+    }
+
+    private ConnectionHandlerFactory createConnectionHandlerFactory(final String authorizationID, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels, final int connectionWindow) {
+        return new ConnectionHandlerFactory() {
+            public ConnectionHandler createInstance(final ConnectionHandlerContext connectionContext) {
+                Collection<Principal> principals = definePrincipals(authorizationID);
+
+                // this happens immediately.
+                final RemoteConnectionHandler connectionHandler = new RemoteConnectionHandler(connectionContext, connection, principals, new SimpleUserInfo(principals), maxInboundChannels, maxOutboundChannels, remoteEndpointName, behavior, connectionWindow, false);
+                connection.setReadListener(new RemoteReadListener(connectionHandler, connection), false);
+                connection.getRemoteConnectionProvider().addConnectionHandler(connectionHandler);
+                // get an initial round trip time estimate
+                connection.sendAlive();
+                return connectionHandler;
+            }
+        };
+    }
+
     final class Greeting implements ChannelListener<ConnectedMessageChannel> {
 
+        private final boolean capabilitiesSent;
+
+        Greeting(final boolean capabilitiesSent) {
+            this.capabilitiesSent = capabilitiesSent;
+        }
+
         public void handleEvent(final ConnectedMessageChannel channel) {
             final Pooled<ByteBuffer> pooledReceiveBuffer = connection.allocate();
             try {
@@ -174,6 +372,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                     if (res == 0) {
                         return;
                     }
+                    connection.countReceived(res);
                 }
                 client.tracef("Received %s", receiveBuffer);
                 receiveBuffer.flip();
@@ -182,11 +381,12 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                 switch (msgType) {
                     case Protocol.CONNECTION_ALIVE: {
                         client.trace("Client received connection alive");
-                        connection.sendAliveResponse();
+                        connection.sendAliveResponse(receiveBuffer);
                         return;
                     }
                     case Protocol.CONNECTION_ALIVE_ACK: {
                         client.trace("Client received connection alive ack");
+                        connection.handleAliveResponse(receiveBuffer);
                         return;
                     }
                     case Protocol.CONNECTION_CLOSE: {
@@ -217,6 +417,11 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                             // they didn't give their name; guess it from the IP
                             remoteServerName = channel.getPeerAddress(InetSocketAddress.class).getHostName();
                         }
+                        if (capabilitiesSent) {
+                            // the capabilities response follows
+                            connection.setReadListener(new Capabilities(remoteServerName), true);
+                            return;
+                        }
                         sendCapRequest(remoteServerName);
                         return;
                     }
@@ -266,6 +471,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                     if (res == 0) {
                         return;
                     }
+                    connection.countReceived(res);
                 }
                 receiveBuffer.flip();
                 boolean starttls = false;
@@ -274,11 +480,12 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                 switch (msgType) {
                     case Protocol.CONNECTION_ALIVE: {
                         client.trace("Client received connection alive");
-                        connection.sendAliveResponse();
+                        connection.sendAliveResponse(receiveBuffer);
                         return;
                     }
                     case Protocol.CONNECTION_ALIVE_ACK: {
                         client.trace("Client received connection alive ack");
+                        connection.handleAliveResponse(receiveBuffer);
                         return;
                     }
                     case Protocol.CONNECTION_CLOSE: {
@@ -294,6 +501,8 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                         boolean useDefaultChannels = true;
                         int channelsIn = 40;
                         int channelsOut = 40;
+                        int connectionWindow = 0;
+                        boolean sessionTickets = false;
                         while (receiveBuffer.hasRemaining()) {
                             final byte type = receiveBuffer.get();
                             final int len = receiveBuffer.get() & 0xff;
@@ -352,6 +561,22 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                                     client.tracef("Client received capability: remote channels out is \"%d\"", channelsIn);
                                     break;
                                 }
+                                case Protocol.CAP_CONNECTION_WINDOW: {
+                                    // their connection receive window is our connection transmit window
+                                    connectionWindow = ProtocolUtils.readIntData(data, len);
+                                    client.tracef("Client received capability: remote connection window is \"%d\"", connectionWindow);
+                                    break;
+                                }
+                                case Protocol.CAP_OPTIMISTIC_OPEN: {
+                                    behavior |= Protocol.BH_OPTIMISTIC_OPEN;
+                                    client.tracef("Client received capability: optimistic channel open supported");
+                                    break;
+                                }
+                                case Protocol.CAP_SESSION_TICKET: {
+                                    sessionTickets = true;
+                                    client.tracef("Client received capability: session tickets issued");
+                                    break;
+                                }
                                 default: {
                                     client.tracef("Client received unknown capability %02x", Integer.valueOf(type & 0xff));
                                     // unknown, skip it for forward compatibility.
@@ -363,6 +588,32 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                             channelsIn = 40;
                             channelsOut = 40;
                         }
+                        if (connectionWindow > 0 && optionMap.get(RemotingOptions.CONNECTION_RECEIVE_WINDOW_SIZE, RemotingOptions.DEFAULT_CONNECTION_RECEIVE_WINDOW_SIZE) > 0) {
+                            // only if both sides want it
+                            behavior |= Protocol.BH_CONNECTION_WINDOW;
+                        }
+                        final InetSocketAddress peerAddress = channel.getPeerAddress(InetSocketAddress.class);
+                        final boolean useTickets = sessionResumption && sessionTickets && peerAddress != null && isSecure();
+                        final ResumeRequest pipelinedResume = ClientConnectionOpenListener.this.pipelinedResume;
+                        final SaslClient pipelinedSaslClient = ClientConnectionOpenListener.this.pipelinedSaslClient;
+                        if (pipelinedResume != null || pipelinedSaslClient != null) {
+                            // the server is already answering the request we sent along with our capabilities
+                            ClientConnectionOpenListener.this.pipelinedResume = null;
+                            ClientConnectionOpenListener.this.pipelinedSaslClient = null;
+                            if (useTickets) {
+                                connection.setSessionTicketKey(getSessionTicketKey(peerAddress));
+                            }
+                            final String userName = optionMap.get(RemotingOptions.AUTHORIZE_ID);
+                            if (pipelinedResume != null) {
+                                connection.setReadListener(new Resumption(pipelinedResume, remoteServerName, remoteEndpointName, behavior, channelsIn, channelsOut, connectionWindow), true);
+                            } else {
+                                // a mechanism which fails for a wrongly guessed server name gets another try under the real one
+                                final boolean retry = ! optionMap.contains(RemotingOptions.SERVER_NAME) && ! remoteServerName.equals(pipelinedServerName);
+                                connection.setReadListener(new Authentication(pipelinedSaslClient, remoteServerName, userName, remoteEndpointName, behavior, channelsIn, channelsOut, connectionWindow, retry), true);
+                            }
+                            return;
+                        }
+
                         if (starttls) {
                             // only initiate starttls if not forbidden by config
                             if (optionMap.get(Options.SSL_STARTTLS, true)) {
@@ -384,6 +635,30 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                             }
                         }
 
+                        if (useTickets) {
+                            final SessionTicketCache.Key key = getSessionTicketKey(peerAddress);
+                            // any ticket issued on this connection is filed under this key
+                            connection.setSessionTicketKey(key);
+                            final SessionTicketCache.Ticket ticket = connection.getRemoteConnectionProvider().getSessionTicketCache().get(key);
+                            if (ticket != null) {
+                                client.trace("Client sending session resumption request");
+                                final ResumeRequest resumeRequest = new ResumeRequest(key, ticket);
+                                final Pooled<ByteBuffer> pooledSendBuffer = connection.allocate();
+                                boolean ok = false;
+                                try {
+                                    final ByteBuffer sendBuffer = pooledSendBuffer.getResource();
+                                    resumeRequest.write(sendBuffer);
+                                    sendBuffer.flip();
+                                    connection.setReadListener(new Resumption(resumeRequest, remoteServerName, remoteEndpointName, behavior, channelsIn, channelsOut, connectionWindow), true);
+                                    connection.send(pooledSendBuffer);
+                                    ok = true;
+                                    return;
+                                } finally {
+                                    if (! ok) pooledSendBuffer.free();
+                                }
+                            }
+                        }
+
                         if (serverSaslMechs.isEmpty()) {
                             connection.handleException(new SaslException("Authentication failed: the server presented no authentication mechanisms"));
                             return;
@@ -402,18 +677,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                         final String userName = optionMap.get(RemotingOptions.AUTHORIZE_ID);
                         final Map<String, ?> propertyMap = SaslUtils.createPropertyMap(optionMap, Channels.getOption(channel, Options.SECURE, false));
                         SaslClient saslClient = null;
-                        final Iterator<SaslClientFactory> iterator = SaslUtils.getSaslClientFactories(getClass().getClassLoader(), true);
-                        final LinkedHashMap<String, Set<SaslClientFactory>> factories = new LinkedHashMap<String, Set<SaslClientFactory>>();
-                        while (iterator.hasNext()) {
-                            final SaslClientFactory factory = iterator.next();
-                            for (String name : factory.getMechanismNames(propertyMap)) {
-                                if (! factories.containsKey(name)) {
-                                    factories.put(name, new LinkedHashSet<SaslClientFactory>(Collections.singleton(factory)));
-                                } else {
-                                    factories.get(name).add(factory);
-                                }
-                            }
-                        }
+                        final Map<String, Set<SaslClientFactory>> factories = connection.getRemoteConnectionProvider().getClientMechanismCache().getFactories(getClass().getClassLoader(), propertyMap);
                         FOUND: for (String mechanism : saslMechs) {
                             final Set<SaslClientFactory> factorySet = factories.get(mechanism);
                             final String protocol = optionMap.contains(RemotingOptions.SASL_PROTOCOL) ? optionMap.get(RemotingOptions.SASL_PROTOCOL) : RemotingOptions.DEFAULT_SASL_PROTOCOL;
@@ -450,7 +714,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                         connection.getChannel().suspendReads();
                         final int negotiatedVersion = version;
                         final SaslClient usedSaslClient = saslClient;
-                        final Authentication authentication = new Authentication(usedSaslClient, remoteServerName, userName, theRemoteEndpointName, behavior, channelsIn, channelsOut);
+                        final Authentication authentication = new Authentication(usedSaslClient, remoteServerName, userName, theRemoteEndpointName, behavior, channelsIn, channelsOut, connectionWindow, false);
                         connection.getExecutor().execute(new Runnable() {
                             public void run() {
                                 final byte[] response;
@@ -545,6 +809,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                     if (res == 0) {
                         return;
                     }
+                    connection.countReceived(res);
                 }
                 client.tracef("Received %s", receiveBuffer);
                 receiveBuffer.flip();
@@ -552,11 +817,12 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                 switch (msgType) {
                     case Protocol.CONNECTION_ALIVE: {
                         client.trace("Client received connection alive");
-                        connection.sendAliveResponse();
+                        connection.sendAliveResponse(receiveBuffer);
                         return;
                     }
                     case Protocol.CONNECTION_ALIVE_ACK: {
                         client.trace("Client received connection alive ack");
+                        connection.handleAliveResponse(receiveBuffer);
                         return;
                     }
                     case Protocol.CONNECTION_CLOSE: {
@@ -613,8 +879,10 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
         private final int behavior;
         private final int maxInboundChannels;
         private final int maxOutboundChannels;
+        private final int connectionWindow;
+        private final boolean retry;
 
-        Authentication(final SaslClient saslClient, final String serverName, final String authorizationID, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels) {
+        Authentication(final SaslClient saslClient, final String serverName, final String authorizationID, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels, final int connectionWindow, final boolean retry) {
             this.saslClient = saslClient;
             this.serverName = serverName;
             this.authorizationID = authorizationID;
@@ -622,6 +890,18 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
             this.behavior = behavior;
             this.maxInboundChannels = maxInboundChannels;
             this.maxOutboundChannels = maxOutboundChannels;
+            this.connectionWindow = connectionWindow;
+            this.retry = retry;
+        }
+
+        private void failed(final String mechanismName, final String reason) {
+            if (retry) {
+                client.tracef("Client retrying mechanism %s under the server's name", mechanismName);
+            } else {
+                failedMechs.put(mechanismName, reason);
+            }
+            saslDispose(saslClient);
+            sendCapRequest(serverName);
         }
 
         public void handleEvent(final ConnectedMessageChannel channel) {
@@ -646,23 +926,30 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                         saslDispose(saslClient);
                         return;
                     }
+                    connection.countReceived(res);
                 }
                 buffer.flip();
                 final byte msgType = buffer.get();
                 switch (msgType) {
                     case Protocol.CONNECTION_ALIVE: {
                         client.trace("Client received connection alive");
-                        connection.sendAliveResponse();
+                        connection.sendAliveResponse(buffer);
                         return;
                     }
                     case Protocol.CONNECTION_ALIVE_ACK: {
                         client.trace("Client received connection alive ack");
+                        connection.handleAliveResponse(buffer);
                         return;
                     }
                     case Protocol.CONNECTION_CLOSE: {
                         client.trace("Client received connection close request");
-                        connection.handlePreAuthCloseRequest();
                         saslDispose(saslClient);
+                        if (buffer.remaining() >= 4) {
+                            // the server is too busy to authenticate us
+                            connection.handleException(client.serverBusy(buffer.getInt()), false);
+                            return;
+                        }
+                        connection.handlePreAuthCloseRequest();
                         return;
                     }
                     case Protocol.AUTH_CHALLENGE: {
@@ -683,9 +970,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                                     } catch (Throwable e) {
                                         final String mechanismName = saslClient.getMechanismName();
                                         client.debugf("Client authentication failed for mechanism %s: %s", mechanismName, e);
-                                        failedMechs.put(mechanismName, e.toString());
-                                        saslDispose(saslClient);
-                                        sendCapRequest(serverName);
+                                        failed(mechanismName, e.toString());
                                         return;
                                     }
                                     client.trace("Client sending authentication response");
@@ -734,9 +1019,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                                     } catch (Throwable e) {
                                         final String mechanismName = saslClient.getMechanismName();
                                         client.debugf("Client authentication failed for mechanism %s: %s", mechanismName, e);
-                                        failedMechs.put(mechanismName, e.toString());
-                                        saslDispose(saslClient);
-                                        sendCapRequest(serverName);
+                                        failed(mechanismName, e.toString());
                                         return;
                                     }
                                     final Object qop = saslClient.getNegotiatedProperty(Sasl.QOP);
@@ -744,18 +1027,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                                         connection.setSaslWrapper(SaslWrapper.create(saslClient));
                                     }
                                     // auth complete.
-                                    final ConnectionHandlerFactory connectionHandlerFactory = new ConnectionHandlerFactory() {
-                                        public ConnectionHandler createInstance(final ConnectionHandlerContext connectionContext) {
-                                            Collection<Principal> principals = definePrincipals();
-
-                                            // this happens immediately.
-                                            final RemoteConnectionHandler connectionHandler = new RemoteConnectionHandler(connectionContext, connection, principals, new SimpleUserInfo(principals), maxInboundChannels, maxOutboundChannels, remoteEndpointName, behavior);
-                                            connection.setReadListener(new RemoteReadListener(connectionHandler, connection), false);
-                                            connection.getRemoteConnectionProvider().addConnectionHandler(connectionHandler);
-                                            return connectionHandler;
-                                        }
-                                    };
-                                    connection.getResult().setResult(connectionHandlerFactory);
+                                    connection.getResult().setResult(createConnectionHandlerFactory(authorizationID, remoteEndpointName, behavior, maxInboundChannels, maxOutboundChannels, connectionWindow));
                                     channel.resumeReads();
                                     return;
                                 } finally {
@@ -769,9 +1041,7 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                     case Protocol.AUTH_REJECTED: {
                         final String mechanismName = saslClient.getMechanismName();
                         client.debugf("Client received authentication rejected for mechanism %s", mechanismName);
-                        failedMechs.put(mechanismName, "Server rejected authentication");
-                        saslDispose(saslClient);
-                        sendCapRequest(serverName);
+                        failed(mechanismName, "Server rejected authentication");
                         return;
                     }
                     default: {
@@ -785,33 +1055,147 @@ final class ClientConnectionOpenListener implements ChannelListener<ConnectedMes
                 if (free) pooledBuffer.free();
             }
         }
+    }
+
+    /**
+     * A session resumption request: the ticket to present, and the nonce which the server must prove it can answer.
+     */
+    static final class ResumeRequest {
+        private static final SecureRandom random = new SecureRandom();
+
+        private final SessionTicketCache.Key key;
+        private final SessionTicketCache.Ticket ticket;
+        private final byte[] nonce = new byte[SessionTicketIssuer.NONCE_LENGTH];
 
-        private Collection<Principal> definePrincipals() {
+        ResumeRequest(final SessionTicketCache.Key key, final SessionTicketCache.Ticket ticket) {
+            this.key = key;
+            this.ticket = ticket;
+            random.nextBytes(nonce);
+        }
 
-            final Set<Principal> principals = new LinkedHashSet<Principal>();
+        void write(final ByteBuffer sendBuffer) {
+            sendBuffer.put(Protocol.AUTH_RESUME);
+            sendBuffer.put(nonce);
+            sendBuffer.put(ticket.getBytes());
+        }
 
-            final SslChannel sslChannel = connection.getSslChannel();
-            if (sslChannel != null) {
-                // It might be STARTTLS, in which case we can still opt out of SSL
-                final SSLSession session = sslChannel.getSslSession();
-                if (session != null) {
+        /**
+         * Determine whether a server's proof shows that it holds the key the ticket was issued under.
+         *
+         * @param proof the proof
+         * @return {@code true} if the proof is valid
+         */
+        boolean verify(final byte[] proof) {
+            try {
+                return MessageDigest.isEqual(proof, SessionTicketIssuer.proof(ticket.getSecret(), nonce));
+            } catch (GeneralSecurityException e) {
+                client.tracef(e, "Failed to check the session ticket proof");
+                return false;
+            }
+        }
+    }
+
+    final class Resumption implements ChannelListener<ConnectedMessageChannel> {
+
+        private final ResumeRequest request;
+        private final String serverName;
+        private final String remoteEndpointName;
+        private final int behavior;
+        private final int maxInboundChannels;
+        private final int maxOutboundChannels;
+        private final int connectionWindow;
+
+        Resumption(final ResumeRequest request, final String serverName, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels, final int connectionWindow) {
+            this.request = request;
+            this.serverName = serverName;
+            this.remoteEndpointName = remoteEndpointName;
+            this.behavior = behavior;
+            this.maxInboundChannels = maxInboundChannels;
+            this.maxOutboundChannels = maxOutboundChannels;
+            this.connectionWindow = connectionWindow;
+        }
+
+        public void handleEvent(final ConnectedMessageChannel channel) {
+            final Pooled<ByteBuffer> pooledBuffer = connection.allocate();
+            try {
+                final ByteBuffer buffer = pooledBuffer.getResource();
+                synchronized (connection.getLock()) {
+                    final int res;
                     try {
-                        principals.add(session.getPeerPrincipal());
-                    } catch (SSLPeerUnverifiedException ignored) {
+                        res = channel.receive(buffer);
+                    } catch (IOException e) {
+                        connection.handleException(e);
+                        return;
+                    }
+                    if (res == 0) {
+                        return;
                     }
+                    if (res == -1) {
+                        connection.handleException(client.abruptClose(connection));
+                        return;
+                    }
+                    connection.countReceived(res);
                 }
+                buffer.flip();
+                final byte msgType = buffer.get();
+                switch (msgType) {
+                    case Protocol.CONNECTION_ALIVE: {
+                        client.trace("Client received connection alive");
+                        connection.sendAliveResponse(buffer);
+                        return;
+                    }
+                    case Protocol.CONNECTION_ALIVE_ACK: {
+                        client.trace("Client received connection alive ack");
+                        connection.handleAliveResponse(buffer);
+                        return;
+                    }
+                    case Protocol.CONNECTION_CLOSE: {
+                        client.trace("Client received connection close request");
+                        if (buffer.remaining() >= 4) {
+                            // the server is too busy to authenticate us
+                            connection.handleException(client.serverBusy(buffer.getInt()), false);
+                            return;
+                        }
+                        connection.handlePreAuthCloseRequest();
+                        return;
+                    }
+                    case Protocol.AUTH_COMPLETE: {
+                        client.trace("Client received authentication complete for resumed session");
+                        if (buffer.remaining() < SessionTicketIssuer.SECRET_LENGTH || ! request.verify(Buffers.take(buffer, SessionTicketIssuer.SECRET_LENGTH))) {
+                            connection.getRemoteConnectionProvider().getSessionTicketCache().remove(request.key);
+                            connection.handleException(new SaslException("Server did not prove that it issued the session ticket"));
+                            return;
+                        }
+                        // the identity is the one the ticket was issued for, which the server tells us
+                        final String authorizationID = buffer.hasRemaining() ? Buffers.getModifiedUtf8(buffer) : null;
+                        channel.suspendReads();
+                        connection.getExecutor().execute(new Runnable() {
+                            public void run() {
+                                connection.getResult().setResult(createConnectionHandlerFactory(authorizationID, remoteEndpointName, behavior, maxInboundChannels, maxOutboundChannels, connectionWindow));
+                                channel.resumeReads();
+                            }
+                        });
+                        return;
+                    }
+                    case Protocol.AUTH_REJECTED: {
+                        client.debugf("Client received session resumption rejected; authenticating again");
+                        // start over; without the ticket, the next capabilities response leads to a full authentication
+                        connection.getRemoteConnectionProvider().getSessionTicketCache().remove(request.key);
+                        sendCapRequest(serverName);
+                        return;
+                    }
+                    default: {
+                        client.unknownProtocolId(msgType);
+                        connection.handleException(client.invalidMessage(connection));
+                        return;
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                connection.handleException(client.invalidMessage(connection));
+                return;
+            } finally {
+                pooledBuffer.free();
             }
-            if (authorizationID != null) {
-                principals.add(new UserPrincipal(authorizationID));
-            }
-            final ConnectedMessageChannel channel = connection.getChannel();
-            final InetSocketAddress address = channel.getPeerAddress(InetSocketAddress.class);
-            if (address != null) {
-                principals.add(new InetAddressPrincipal(address.getAddress()));
-            }
-
-            return principals;
         }
-
     }
 }
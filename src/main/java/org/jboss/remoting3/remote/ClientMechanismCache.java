@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.jboss.remoting3.remote.RemoteLogger.client;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.sasl.SaslClientFactory;
+
+import org.xnio.sasl.SaslUtils;
+
+/**
+ * A cache of the SASL client factories offering each mechanism, per class loader and SASL property map.  Scanning the
+ * factories costs far more than the rest of the client side of the handshake, so the result is shared by every
+ * connection attempt.  Entries are keyed on the installed security providers as well, so installing or removing a
+ * provider causes a fresh scan; a factory which becomes visible by other means is only found after {@link #clear()}.
+ */
+final class ClientMechanismCache {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private final ConcurrentMap<MechanismCacheKey, Map<String, Set<SaslClientFactory>>> cache = new ConcurrentHashMap<MechanismCacheKey, Map<String, Set<SaslClientFactory>>>();
+    private final boolean enabled;
+
+    ClientMechanismCache(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get the SASL client factories for each mechanism name, in discovery order.
+     *
+     * @param classLoader the class loader to find SASL client factories with
+     * @param propertyMap the SASL properties
+     * @return the factories by mechanism name
+     */
+    Map<String, Set<SaslClientFactory>> getFactories(final ClassLoader classLoader, final Map<String, ?> propertyMap) {
+        if (! enabled) {
+            return findFactories(classLoader, propertyMap);
+        }
+        final Provider[] providers = Security.getProviders();
+        Map<String, Set<SaslClientFactory>> factories = cache.get(new MechanismCacheKey(propertyMap, false, classLoader, providers));
+        if (factories == null) {
+            factories = findFactories(classLoader, propertyMap);
+            if (cache.size() >= MAX_ENTRIES) {
+                // class loaders and property maps are few; so many keys means that the security providers keep changing
+                cache.clear();
+            }
+            // the caller may change its property map later on, so the stored key keeps a copy
+            final MechanismCacheKey key = new MechanismCacheKey(new HashMap<String, Object>(propertyMap), false, classLoader, providers);
+            final Map<String, Set<SaslClientFactory>> appearing = cache.putIfAbsent(key, factories);
+            if (appearing != null) {
+                factories = appearing;
+            }
+        } else {
+            client.trace("Using cached SASL client factories");
+        }
+        return factories;
+    }
+
+    /**
+     * Discard all cached factories.
+     */
+    void clear() {
+        cache.clear();
+    }
+
+    private static Map<String, Set<SaslClientFactory>> findFactories(final ClassLoader classLoader, final Map<String, ?> propertyMap) {
+        final Iterator<SaslClientFactory> iterator = SaslUtils.getSaslClientFactories(classLoader, true);
+        final Map<String, Set<SaslClientFactory>> factories = new LinkedHashMap<String, Set<SaslClientFactory>>();
+        while (iterator.hasNext()) {
+            final SaslClientFactory factory = iterator.next();
+            for (String name : factory.getMechanismNames(propertyMap)) {
+                Set<SaslClientFactory> factorySet = factories.get(name);
+                if (factorySet == null) {
+                    factories.put(name, factorySet = new LinkedHashSet<SaslClientFactory>());
+                }
+                factorySet.add(factory);
+            }
+        }
+        for (Map.Entry<String, Set<SaslClientFactory>> entry : factories.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(factories);
+    }
+}
@@ -39,6 +39,7 @@ import java.security.SecureRandom;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.jboss.remoting3.RemotingOptions;
 import org.jboss.remoting3.security.ServerAuthenticationProvider;
 import org.jboss.remoting3.spi.ConnectionProviderContext;
 import org.jboss.remoting3.spi.ExternalConnectionProvider;
@@ -207,11 +208,14 @@ final class HttpUpgradeConnectionProvider extends RemoteConnectionProvider {
         private final OptionMap optionMap;
         private final ServerAuthenticationProvider authenticationProvider;
         private final AccessControlContext accessControlContext;
+        private final SessionTicketIssuer sessionTicketIssuer;
 
         private ConnectionAdaptorImpl(final OptionMap optionMap, final ServerAuthenticationProvider authenticationProvider, final AccessControlContext accessControlContext) {
             this.optionMap = optionMap;
             this.authenticationProvider = authenticationProvider;
             this.accessControlContext = accessControlContext;
+            final int sessionTicketLifetime = optionMap.get(RemotingOptions.SESSION_TICKET_LIFETIME, 0);
+            sessionTicketIssuer = sessionTicketLifetime > 0 ? new SessionTicketIssuer(sessionTicketLifetime) : null;
         }
 
         @Override
@@ -230,7 +234,7 @@ final class HttpUpgradeConnectionProvider extends RemoteConnectionProvider {
 
             final FramedMessageChannel messageChannel = new FramedMessageChannel(channel, framingBufferPool.allocate(), framingBufferPool.allocate());
             final RemoteConnection connection = new RemoteConnection(messageBufferPool, channel, messageChannel, optionMap, HttpUpgradeConnectionProvider.this);
-            final ServerConnectionOpenListener openListener = new ServerConnectionOpenListener(connection, getConnectionProviderContext(), authenticationProvider, optionMap, accessControlContext);
+            final ServerConnectionOpenListener openListener = new ServerConnectionOpenListener(connection, getConnectionProviderContext(), authenticationProvider, optionMap, accessControlContext, sessionTicketIssuer);
             messageChannel.getWriteSetter().set(connection.getWriteListener());
             RemoteLogger.log.tracef("Accepted connection from %s to %s", channel.getPeerAddress(), channel.getLocalAddress());
             openListener.handleEvent(messageChannel);
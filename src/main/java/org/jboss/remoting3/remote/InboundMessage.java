@@ -31,6 +31,7 @@ import org.xnio.Pooled;
 import org.xnio.streams.BufferPipeInputStream;
 
 import static java.lang.Thread.holdsLock;
+import static org.jboss.remoting3.remote.RemoteLogger.log;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -39,11 +40,29 @@ final class InboundMessage {
     final short messageId;
     final RemoteConnectionChannel channel;
     int inboundWindow;
+    /**
+     * The current total size of the receive window, which grows when auto-tuning is enabled.
+     */
+    int windowSize;
     boolean streamClosed;
     boolean closeSent;
     boolean eofReceived;
     boolean cancelled;
     long remaining;
+    /**
+     * Bytes counted against the connection window which have not yet been returned to the peer.
+     */
+    int connectionWindowHeld;
+    /**
+     * Time at which a window open was sent while the sender was probably window-limited, or zero.  The next data
+     * arrival after this gives a round-trip time sample.
+     */
+    long creditTime;
+    /**
+     * Start time and bytes consumed of the current auto-tuning measurement period.
+     */
+    long periodStart;
+    int periodConsumed;
 
     static final IntIndexer<InboundMessage> INDEXER = new IntIndexer<InboundMessage>() {
         public int getKey(final InboundMessage argument) {
@@ -58,8 +77,9 @@ final class InboundMessage {
     InboundMessage(final short messageId, final RemoteConnectionChannel channel, int inboundWindow, final long maxInboundMessageSize) {
         this.messageId = messageId;
         this.channel = channel;
-        this.inboundWindow = inboundWindow;
+        this.inboundWindow = windowSize = inboundWindow;
         remaining = maxInboundMessageSize;
+        channel.getRemoteConnection().count(Metrics.INBOUND_MESSAGES_OPENED, 1L);
     }
 
     final BufferPipeInputStream inputStream = new BufferPipeInputStream(new BufferPipeInputStream.InputHandler() {
@@ -79,6 +99,8 @@ final class InboundMessage {
             return;
         }
         streamClosed = true;
+        // any unread data is discarded
+        releaseConnectionWindow(connectionWindowHeld);
         // on close, send close message
         doSendCloseMessage();
         // but keep the mapping around until we receive our EOF
@@ -108,19 +130,29 @@ final class InboundMessage {
 
     private void doAcknowledge(final Pooled<ByteBuffer> acked) {
         assert holdsLock(inputStream);
+        final boolean badMsgSize = channel.getConnectionHandler().isFaultyMessageSize();
+        int consumed = acked.getResource().position();
+        if (! badMsgSize) consumed -= 8; // position minus header length (not including framing size)
+        // the connection window is shared by all messages, so it must be opened even after EOF
+        releaseConnectionWindow(Math.min(consumed, connectionWindowHeld));
         if (eofReceived) {
             // no ack needed; also a best-effort to work around broken peers
             return;
         }
-        final boolean badMsgSize = channel.getConnectionHandler().isFaultyMessageSize();
-        int consumed = acked.getResource().position();
-        if (! badMsgSize) consumed -= 8; // position minus header length (not including framing size)
-        inboundWindow += consumed;
+        final int credit = streamClosed ? consumed : consumed + autoTune(consumed);
+        if (credit > 0) {
+            sendWindowOpen(credit);
+        }
+    }
+
+    private void sendWindowOpen(final int count) {
+        assert holdsLock(inputStream);
+        inboundWindow += count;
         Pooled<ByteBuffer> pooled = allocate(Protocol.MESSAGE_WINDOW_OPEN);
         boolean ok = false;
         try {
             ByteBuffer buffer = pooled.getResource();
-            buffer.putInt(consumed); // Open window by buffer size
+            buffer.putInt(count); // Open window by buffer size
             buffer.flip();
             channel.getRemoteConnection().send(pooled);
             ok = true;
@@ -129,6 +161,101 @@ final class InboundMessage {
         }
     }
 
+    /**
+     * Auto-tune the receive window from the rate at which data is being consumed.  Once per round trip, the amount of
+     * data consumed is used to estimate the bandwidth-delay product, and the window is resized with
+     * {@link #tunedWindowSize(int, int, int, long, long, long)}.  A smaller window is reached by withholding credit for
+     * consumed data, as credit which was already granted cannot be revoked.
+     *
+     * @param consumed the number of bytes just consumed
+     * @return the number of bytes by which the window should grow, or a negative number to shrink it
+     */
+    private int autoTune(final int consumed) {
+        assert holdsLock(inputStream);
+        final int minWindow = channel.getInboundWindow();
+        final int maxWindow = channel.getMaxInboundWindow();
+        if (minWindow == maxWindow) {
+            // auto-tuning is disabled
+            return 0;
+        }
+        final long now = System.nanoTime();
+        if (inboundWindow < windowSize >> 2 && creditTime == 0L) {
+            // the sender has (almost) run out of window, so it will react to this window open about a round trip from now
+            creditTime = now;
+        }
+        if (periodStart == 0L) {
+            periodStart = now;
+            periodConsumed = consumed;
+            return 0;
+        }
+        periodConsumed += consumed;
+        long rtt = channel.getWindowRtt();
+        if (rtt == 0L) {
+            // no window sample yet; use the heartbeat estimate if there is one
+            rtt = Math.max(0L, channel.getRemoteConnection().getSmoothedRtt());
+        }
+        final long elapsed = now - periodStart;
+        if (rtt == 0L || elapsed < rtt) {
+            return 0;
+        }
+        final int newSize = tunedWindowSize(windowSize, minWindow, maxWindow, periodConsumed, elapsed, rtt);
+        periodStart = now;
+        periodConsumed = 0;
+        // at most the consumed data can be withheld
+        final int delta = Math.max(newSize - windowSize, -consumed);
+        if (delta == 0) {
+            return 0;
+        }
+        if (log.isTraceEnabled()) {
+            log.tracef("Resizing receive window of message %04x on %s from %d to %d bytes (rtt %d ns)", Integer.valueOf(messageId & 0xffff), channel, Integer.valueOf(windowSize), Integer.valueOf(windowSize + delta), Long.valueOf(rtt));
+        }
+        windowSize += delta;
+        channel.inboundWindowTuned(windowSize);
+        return delta;
+    }
+
+    /**
+     * Compute the receive window size for a measured consumption rate.  If the window is not at least twice the
+     * estimated bandwidth-delay product, it is doubled so that a window-limited sender can keep the pipe full; if it is
+     * more than four times that, it is halved.  The result always lies within the given bounds.
+     *
+     * @param windowSize the current window size
+     * @param minWindow the smallest window size
+     * @param maxWindow the largest window size
+     * @param consumed the number of bytes consumed during the measurement period
+     * @param elapsed the length of the measurement period, in nanoseconds
+     * @param rtt the round trip time, in nanoseconds
+     * @return the new window size
+     */
+    static int tunedWindowSize(final int windowSize, final int minWindow, final int maxWindow, final long consumed, final long elapsed, final long rtt) {
+        final long bdp = consumed * rtt / elapsed;
+        if (bdp << 1 > windowSize) {
+            return (int) Math.min((long) windowSize << 1, (long) maxWindow);
+        } else if (bdp << 2 < windowSize) {
+            return Math.max(windowSize >> 1, minWindow);
+        } else {
+            return windowSize;
+        }
+    }
+
+    private void releaseConnectionWindow(final int count) {
+        assert holdsLock(inputStream);
+        if (count > 0) {
+            connectionWindowHeld -= count;
+            channel.getConnectionHandler().openConnectionWindow(count);
+        }
+    }
+
+    /**
+     * Cancel the message because its channel was closed, returning any unread data to the connection window.
+     */
+    void cancelAndRelease() {
+        synchronized (inputStream) {
+            inputStream.pushException(new MessageCancelledException());
+            releaseConnectionWindow(connectionWindowHeld);
+        }
+    }
+
     final MessageInputStream messageInputStream = new MessageInputStream() {
         public int read() throws IOException {
             synchronized (inputStream) {
@@ -191,6 +318,11 @@ final class InboundMessage {
             if ((inboundWindow -= bufRemaining) < 0) {
                 channel.getRemoteConnection().handleException(new IOException("Input overrun"));
             }
+            connectionWindowHeld += bufRemaining;
+            if (creditTime != 0L) {
+                channel.updateWindowRtt(System.nanoTime() - creditTime);
+                creditTime = 0L;
+            }
             buffer.position(buffer.position() - 1);
             byte flags = buffer.get();
 
@@ -204,6 +336,8 @@ final class InboundMessage {
                 this.cancelled = true;
                 // make sure it goes through
                 inputStream.pushException(new MessageCancelledException());
+                // queued data is discarded along with this buffer
+                releaseConnectionWindow(connectionWindowHeld);
             }
             if (streamClosed) {
                 // ignore, but keep the bits flowing
@@ -212,12 +346,23 @@ final class InboundMessage {
                     buffer.position(buffer.limit()); // "consume" everything
                     doAcknowledge(pooledBuffer);
                 }
+                releaseConnectionWindow(connectionWindowHeld);
                 pooledBuffer.free();
             } else if (! cancelled) {
                 remaining -= bufRemaining;
                 inputStream.push(pooledBuffer);
+                final int tunedWindow = channel.getTunedInboundWindow();
+                if (! eof && windowSize < tunedWindow) {
+                    // another message on this channel already grew the window, so catch up
+                    final int grow = tunedWindow - windowSize;
+                    windowSize = tunedWindow;
+                    sendWindowOpen(grow);
+                }
             }
             if (eof) {
+                if (! this.cancelled) {
+                    channel.getRemoteConnection().count(Metrics.INBOUND_MESSAGES_COMPLETED, 1L);
+                }
                 eofReceived = true;
                 if (!streamClosed) {
                     inputStream.pushEof();
@@ -240,12 +385,13 @@ final class InboundMessage {
                 closeSent = true; // we didn't really, but we should act like we did
                 cancelled = true; // just not the usual way...
                 inputStream.pushException(RemoteLogger.conn.duplicateMessageIdException());
+                releaseConnectionWindow(connectionWindowHeld);
             }
         }
     }
 
     void dumpState(final StringBuilder b) {
-        b.append("            ").append(String.format("Inbound message ID %04x, window %d\n", messageId & 0xFFFF, inboundWindow));
+        b.append("            ").append(String.format("Inbound message ID %04x, window %d of %d, connection window held %d\n", messageId & 0xFFFF, inboundWindow, windowSize, connectionWindowHeld));
         b.append("            ").append("* flags: ");
         if (cancelled) b.append("cancelled ");
         if (closeSent) b.append("close-sent ");
@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+
+/**
+ * Tracks the traffic of the connections on each I/O thread of a worker, so that new connections can be placed on the
+ * least-loaded thread.  Traffic is measured in bytes and frames, and decays with a fixed half-life so that only
+ * recent traffic counts.
+ */
+final class IoThreadBalancer {
+
+    /**
+     * The assumed fixed cost of handling one frame, in bytes.
+     */
+    private static final long FRAME_COST = 256L;
+    private static final long HALF_LIFE = TimeUnit.SECONDS.toNanos(1L);
+
+    private final XnioWorker worker;
+    private final Map<XnioIoThread, Load> loads = new IdentityHashMap<XnioIoThread, Load>();
+    private boolean allThreadsKnown;
+
+    IoThreadBalancer(final XnioWorker worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * Get the load record of an I/O thread.
+     *
+     * @param thread the thread
+     * @return the load record
+     */
+    synchronized Load getLoad(final XnioIoThread thread) {
+        Load load = loads.get(thread);
+        if (load == null) {
+            loads.put(thread, load = new Load());
+        }
+        return load;
+    }
+
+    synchronized void connectionAdded(final Load load) {
+        load.connections ++;
+    }
+
+    synchronized void connectionRemoved(final Load load) {
+        load.connections --;
+    }
+
+    /**
+     * Choose the least-loaded I/O thread.  Ties are broken by the number of connections.
+     *
+     * @return the chosen thread
+     */
+    synchronized XnioIoThread choose() {
+        discoverThreads();
+        final long now = System.nanoTime();
+        XnioIoThread best = null;
+        Load bestLoad = null;
+        for (Map.Entry<XnioIoThread, Load> entry : loads.entrySet()) {
+            final Load load = entry.getValue();
+            load.sample(now);
+            if (bestLoad == null || load.score < bestLoad.score || load.score == bestLoad.score && load.connections < bestLoad.connections) {
+                best = entry.getKey();
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Determine whether the given thread should leave a pending accept to a less-loaded thread.  All threads are
+     * notified of a pending connection, so whichever accepts first wins; a busy thread passes once, which gives an
+     * idle one the chance to take the connection, and accepts it if it is still pending on the next notification.
+     * Once the connection is accepted by any thread, {@link #accepted()} clears the pass for the next connection.
+     *
+     * @param thread the thread which was notified
+     * @return {@code true} to pass on this notification, {@code false} to accept
+     */
+    synchronized boolean deferAccept(final XnioIoThread thread) {
+        final Load load = loads.get(thread);
+        if (load == null) {
+            // no known traffic at all
+            return false;
+        }
+        if (load.deferred) {
+            load.deferred = false;
+            return false;
+        }
+        final long now = System.nanoTime();
+        load.sample(now);
+        long min = load.score;
+        for (Load other : loads.values()) {
+            if (other != load) {
+                other.sample(now);
+                min = Math.min(min, other.score);
+            }
+        }
+        if (! allThreadsKnown && loads.size() < worker.getIoThreadCount()) {
+            // an unknown thread has no traffic yet
+            min = 0L;
+        }
+        // only hand off if this thread carries clearly more than its share
+        load.deferred = load.score > (min << 1) + (FRAME_COST << 4);
+        return load.deferred;
+    }
+
+    /**
+     * Note that a pending connection was accepted, so that passes made on it do not carry over to the next one.
+     */
+    synchronized void accepted() {
+        for (Load load : loads.values()) {
+            load.deferred = false;
+        }
+    }
+
+    private void discoverThreads() {
+        if (allThreadsKnown) {
+            return;
+        }
+        final int count = worker.getIoThreadCount();
+        // the worker only hands out threads one by one
+        for (int i = 0; i < count << 2 && loads.size() < count; i ++) {
+            final XnioIoThread thread = worker.getIoThread();
+            if (! loads.containsKey(thread)) {
+                loads.put(thread, new Load());
+            }
+        }
+        allThreadsKnown = loads.size() >= count;
+    }
+
+    /**
+     * The traffic record of a single I/O thread.  The counters are updated by the connections without locking; the
+     * rest is protected by the balancer.
+     */
+    static final class Load {
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong frames = new AtomicLong();
+        private long sampledBytes;
+        private long sampledFrames;
+        private long sampleTime = System.nanoTime();
+        private long score;
+        private int connections;
+        private boolean deferred;
+
+        void record(final int bytes) {
+            this.bytes.addAndGet(bytes);
+            frames.incrementAndGet();
+        }
+
+        void sample(final long now) {
+            final long bytes = this.bytes.get();
+            final long frames = this.frames.get();
+            final long delta = bytes - sampledBytes + (frames - sampledFrames) * FRAME_COST;
+            final long elapsed = now - sampleTime;
+            score = (long) (score * Math.pow(0.5, (double) elapsed / HALF_LIFE)) + delta;
+            sampledBytes = bytes;
+            sampledFrames = frames;
+            sampleTime = now;
+        }
+    }
+}
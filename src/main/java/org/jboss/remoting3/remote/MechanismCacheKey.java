@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.security.Provider;
+
+/**
+ * The key of the client and server SASL mechanism caches.  Besides the configuration which the mechanisms were
+ * selected for, the key holds the class loader and the security providers which were installed at the time, so that
+ * installing or removing a provider causes a miss.
+ */
+final class MechanismCacheKey {
+    private final Object configuration;
+    private final boolean channelSecure;
+    private final ClassLoader classLoader;
+    private final Provider[] providers;
+    private final int hashCode;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param configuration the SASL property map or server option map, compared with {@code equals()}
+     * @param channelSecure {@code true} if the channel is already secure
+     * @param classLoader the class loader to find SASL factories with
+     * @param providers the installed security providers
+     */
+    MechanismCacheKey(final Object configuration, final boolean channelSecure, final ClassLoader classLoader, final Provider[] providers) {
+        this.configuration = configuration;
+        this.channelSecure = channelSecure;
+        this.classLoader = classLoader;
+        this.providers = providers;
+        int hashCode = configuration.hashCode() * 31 + (channelSecure ? 1 : 0);
+        hashCode = hashCode * 31 + System.identityHashCode(classLoader);
+        for (Provider provider : providers) {
+            hashCode = hashCode * 31 + System.identityHashCode(provider);
+        }
+        this.hashCode = hashCode;
+    }
+
+    public boolean equals(final Object obj) {
+        return obj instanceof MechanismCacheKey && equals((MechanismCacheKey) obj);
+    }
+
+    boolean equals(final MechanismCacheKey other) {
+        if (this == other) {
+            return true;
+        }
+        if (other == null || hashCode != other.hashCode || channelSecure != other.channelSecure || classLoader != other.classLoader || providers.length != other.providers.length || ! configuration.equals(other.configuration)) {
+            return false;
+        }
+        // providers are compared by identity, as their own equality compares all of their properties
+        for (int i = 0; i < providers.length; i ++) {
+            if (providers[i] != other.providers[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        return hashCode;
+    }
+}
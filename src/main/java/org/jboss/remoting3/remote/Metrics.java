@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+/**
+ * The indices of the connection counters, as kept by each {@link RemoteConnection} and summed over all connections of
+ * a {@link RemoteConnectionProvider}.
+ */
+final class Metrics {
+
+    static final int BYTES_SENT = 0;
+    static final int BYTES_RECEIVED = 1;
+    static final int FRAMES_SENT = 2;
+    static final int FRAMES_RECEIVED = 3;
+    static final int OUTBOUND_MESSAGES_OPENED = 4;
+    static final int OUTBOUND_MESSAGES_COMPLETED = 5;
+    static final int INBOUND_MESSAGES_OPENED = 6;
+    static final int INBOUND_MESSAGES_COMPLETED = 7;
+    /**
+     * Writes which had to wait for the message or connection window to open.
+     */
+    static final int WINDOW_STALLS = 8;
+    static final int BUFFERS_ALLOCATED = 9;
+
+    static final int COUNT = 10;
+
+    private Metrics() {
+    }
+}
@@ -45,7 +45,7 @@ final class OutboundMessage extends MessageOutputStream {
     final short messageId;
     final RemoteConnectionChannel channel;
     final BufferPipeOutputStream pipeOutputStream;
-    final int maximumWindow;
+    int maximumWindow;
     int window;
     boolean closeCalled;
     boolean closeReceived;
@@ -65,8 +65,8 @@ final class OutboundMessage extends MessageOutputStream {
                 buffer.limit(buffer.limit() - 4);
 
                 buffer.put(firstBuffer ? Protocol.MSG_FLAG_NEW : 0); // flags
-                // header size plus window size
-                int windowPlusHeader = maximumWindow + 8;
+                // header size plus window size; never use more than half of the shared connection window at once
+                int windowPlusHeader = Math.min(maximumWindow, channel.getConnectionHandler().getConnectionTransmitWindowSize() >>> 1) + 8;
                 if (buffer.remaining() > windowPlusHeader) {
                     // never try to write more than the maximum window size
                     buffer.limit(windowPlusHeader);
@@ -80,6 +80,7 @@ final class OutboundMessage extends MessageOutputStream {
 
         public void accept(final Pooled<ByteBuffer> pooledBuffer, final boolean eof) throws IOException {
             boolean ok = false;
+            boolean release = false;
             try {
                 assert holdsLock(pipeOutputStream);
                 if (closeCalled) {
@@ -98,34 +99,55 @@ final class OutboundMessage extends MessageOutputStream {
                 }
                 final ByteBuffer buffer = pooledBuffer.getResource();
                 final ConnectedMessageChannel messageChannel = channel.getRemoteConnection().getChannel();
-                final boolean badMsgSize = channel.getConnectionHandler().isFaultyMessageSize();
+                final RemoteConnectionHandler connectionHandler = channel.getConnectionHandler();
+                final boolean badMsgSize = connectionHandler.isFaultyMessageSize();
                 final int msgSize = badMsgSize ? buffer.remaining() : buffer.remaining() - 8;
                 boolean sendCancel = cancelled && ! cancelSent;
                 boolean intr = false;
                 if (msgSize > 0 && ! sendCancel) {
                     // empty messages and cancellation both bypass the transmit window check
-                    for (;;) {
-                        if (window >= msgSize) {
-                            window -= msgSize;
-                            log.trace("Message window is open, proceeding with send");
-                            break;
+                    boolean connectionWaiter = false;
+                    boolean stalled = false;
+                    try {
+                        for (;;) {
+                            if (window >= msgSize) {
+                                if (connectionHandler.takeConnectionWindow(msgSize)) {
+                                    window -= msgSize;
+                                    log.trace("Message window is open, proceeding with send");
+                                    break;
+                                }
+                                if (! connectionWaiter) {
+                                    // register first, then check again so we cannot miss the wakeup
+                                    connectionWaiter = true;
+                                    connectionHandler.addConnectionWindowWaiter();
+                                    continue;
+                                }
+                            }
+                            if (! stalled) {
+                                stalled = true;
+                                channel.getRemoteConnection().count(Metrics.WINDOW_STALLS, 1L);
+                            }
+                            try {
+                                log.trace("Message window is closed, waiting");
+                                pipeOutputStream.wait();
+                            } catch (InterruptedException e) {
+                                cancelled = true;
+                                intr = true;
+                                break;
+                            }
+                            if (closeReceived) {
+                                throw new BrokenPipeException("Remote side closed the message stream");
+                            }
+                            if (closeCalled && ! eof) {
+                                throw new NotOpenException("Message was closed asynchronously by another thread");
+                            }
+                            if (cancelSent) {
+                                throw new MessageCancelledException("Message was cancelled");
+                            }
                         }
-                        try {
-                            log.trace("Message window is closed, waiting");
-                            pipeOutputStream.wait();
-                        } catch (InterruptedException e) {
-                            cancelled = true;
-                            intr = true;
-                            break;
-                        }
-                        if (closeReceived) {
-                            throw new BrokenPipeException("Remote side closed the message stream");
-                        }
-                        if (closeCalled && ! eof) {
-                            throw new NotOpenException("Message was closed asynchronously by another thread");
-                        }
-                        if (cancelSent) {
-                            throw new MessageCancelledException("Message was cancelled");
+                    } finally {
+                        if (connectionWaiter) {
+                            connectionHandler.removeConnectionWindowWaiter();
                         }
                     }
                 }
@@ -140,7 +162,10 @@ final class OutboundMessage extends MessageOutputStream {
                     }
                     if (! released) {
                         released = true;
-                        channel.closeOutboundMessage();
+                        release = true;
+                    }
+                    if (! sendCancel && ! intr) {
+                        channel.getRemoteConnection().count(Metrics.OUTBOUND_MESSAGES_COMPLETED, 1L);
                     }
                 }
                 if (sendCancel || intr) {
@@ -157,6 +182,10 @@ final class OutboundMessage extends MessageOutputStream {
                 }
             } finally {
                 if (! ok) pooledBuffer.free();
+                if (release) {
+                    // only once the last frame is queued, as a draining connection may send its close request now
+                    channel.closeOutboundMessage();
+                }
             }
         }
 
@@ -181,6 +210,7 @@ final class OutboundMessage extends MessageOutputStream {
         this.channel = channel;
         this.window = maximumWindow = window;
         this.remaining = maxOutboundMessageSize;
+        channel.getRemoteConnection().count(Metrics.OUTBOUND_MESSAGES_OPENED, 1L);
         try {
             pipeOutputStream = new BufferPipeOutputStream(bufferWriter);
         } catch (IOException e) {
@@ -207,6 +237,26 @@ final class OutboundMessage extends MessageOutputStream {
         }
     }
 
+    /**
+     * Grow the window of a message which was started on an optimistically opened channel, once the negotiated
+     * window is known.
+     *
+     * @param count the number of bytes to grow the window by
+     */
+    void growWindow(int count) {
+        synchronized (pipeOutputStream) {
+            window += count;
+            maximumWindow += count;
+            pipeOutputStream.notifyAll();
+        }
+    }
+
+    void wakeUp() {
+        synchronized (pipeOutputStream) {
+            pipeOutputStream.notifyAll();
+        }
+    }
+
     void remoteClosed() {
         synchronized (pipeOutputStream) {
             closeReceived = true;
@@ -32,21 +32,25 @@ final class PendingChannel {
     private final int id;
     private final int outboundWindowSize;
     private final int inboundWindowSize;
+    private final int maxInboundWindowSize;
     private final int outboundMessageCount;
     private final int inboundMessageCount;
     private final long outboundMessageSize;
     private final long inboundMessageSize;
     private final Result<Channel> result;
+    private final RemoteConnectionChannel optimisticChannel;
 
-    PendingChannel(final int id, final int outboundWindowSize, final int inboundWindowSize, final int outboundMessageCount, final int inboundMessageCount, final long outboundMessageSize, final long inboundMessageSize, final Result<Channel> result) {
+    PendingChannel(final int id, final int outboundWindowSize, final int inboundWindowSize, final int maxInboundWindowSize, final int outboundMessageCount, final int inboundMessageCount, final long outboundMessageSize, final long inboundMessageSize, final Result<Channel> result, final RemoteConnectionChannel optimisticChannel) {
         this.id = id;
         this.outboundWindowSize = outboundWindowSize;
         this.inboundWindowSize = inboundWindowSize;
+        this.maxInboundWindowSize = maxInboundWindowSize;
         this.outboundMessageCount = outboundMessageCount;
         this.inboundMessageCount = inboundMessageCount;
         this.outboundMessageSize = outboundMessageSize;
         this.inboundMessageSize = inboundMessageSize;
         this.result = result;
+        this.optimisticChannel = optimisticChannel;
     }
 
     int getId() {
@@ -61,6 +65,10 @@ final class PendingChannel {
         return inboundWindowSize;
     }
 
+    int getMaxInboundWindowSize() {
+        return maxInboundWindowSize;
+    }
+
     int getOutboundMessageCount() {
         return outboundMessageCount;
     }
@@ -81,6 +89,15 @@ final class PendingChannel {
         return result;
     }
 
+    /**
+     * Get the channel which was already handed out for an optimistic open.
+     *
+     * @return the channel, or {@code null} if the open is not optimistic
+     */
+    RemoteConnectionChannel getOptimisticChannel() {
+        return optimisticChannel;
+    }
+
     static final IntIndexer<PendingChannel> INDEXER = new IntIndexer<PendingChannel>() {
         public int getKey(final PendingChannel argument) {
             return argument.id;
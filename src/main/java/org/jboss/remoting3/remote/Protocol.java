@@ -53,6 +53,24 @@ final class Protocol {
      */
     static final int BH_FAULTY_MSG_SIZE = 1 << 1;
 
+    /**
+     * Connection window flag.  If {@code true}, both sides have agreed to bound the total amount of message data in
+     * flight across all channels using {@link #CONNECTION_WINDOW_OPEN} messages, in addition to the per-message windows.
+     */
+    static final int BH_CONNECTION_WINDOW = 1 << 2;
+
+    /**
+     * Optimistic channel open flag.  If {@code true}, the remote side accepts message data for a channel which
+     * immediately follows its {@link #CHANNEL_OPEN_REQUEST}, before the {@link #CHANNEL_OPEN_ACK} has been sent.
+     */
+    static final int BH_OPTIMISTIC_OPEN = 1 << 3;
+
+    /**
+     * The largest per-message window which may be used on an optimistically opened channel before the open is
+     * acknowledged.
+     */
+    static final int OPTIMISTIC_OPEN_WINDOW_SIZE = 0x4000;
+
     /**
      * The highest-supported version of the remote protocol supported by this implementation.
      */
@@ -111,6 +129,16 @@ final class Protocol {
      * byte 0: NAK
      */
     static final byte NAK = 8;
+    /**
+     * Sent by client in place of an authentication request, only if the server sent {@link #CAP_SESSION_TICKET}.
+     * byte 0: AUTH_RESUME
+     * byte 1..16: client nonce
+     * byte 17..n: session ticket
+     *
+     * The server replies with {@link #AUTH_REJECTED}, or with {@link #AUTH_COMPLETE} followed by the 32-byte MAC of the
+     * nonce under the ticket secret and then by the authorization ID in modified UTF-8, if there is one.
+     */
+    static final byte AUTH_RESUME = 9;
 
     // Messages for opening channels
 
@@ -200,16 +228,36 @@ final class Protocol {
 
     /**
      * byte 0: CONNECTION_ALIVE
-     * byte 1..n: random padding (optional)
+     * byte 1..8: sender timestamp (optional, opaque to the recipient)
+     * byte 9..n: random padding (optional)
      */
     static final byte CONNECTION_ALIVE = (byte) 0xF0;
     /**
-     * byte 0: CONNECTION_ALIVE
-     * byte 1..n: random padding (optional)
+     * byte 0: CONNECTION_ALIVE_ACK
+     * byte 1..n: echo of the CONNECTION_ALIVE payload, or random padding (older peers)
      */
     static final byte CONNECTION_ALIVE_ACK = (byte) 0xF1;
+    /**
+     * byte 0: CONNECTION_WINDOW_OPEN
+     * byte 1..4: window open amount
+     *
+     * Only sent if both peers sent {@link #CAP_CONNECTION_WINDOW}.  Always flows from message recipient to message
+     * sender, and opens the connection-wide window which is shared by all messages on all channels.
+     */
+    static final byte CONNECTION_WINDOW_OPEN = (byte) 0xF2;
+    /**
+     * byte 0: SESSION_TICKET
+     * byte 1..4: ticket lifetime in milliseconds
+     * byte 5..36: ticket secret
+     * byte 37..n: session ticket
+     *
+     * Sent by server right after {@link #AUTH_COMPLETE}, only if both peers sent {@link #CAP_SESSION_TICKET}, which
+     * they only do on secure channels.
+     */
+    static final byte SESSION_TICKET = (byte) 0xF3;
     /**
      * byte 0: CONNECTION_CLOSE
+     * byte 1-4: (optional) milliseconds after which the client may retry, sent by a server too busy to authenticate
      *
      * No packets may be sent afterwards.  Connection is closed when message is sent and received.
      */
@@ -251,6 +299,13 @@ final class Protocol {
      * Max responder-bound message size; mandatory uint63 content.
      */
     static final int O_MAX_OUTBOUND_MSG_SIZE = 0x85;
+    /**
+     * Optimistic open window size; mandatory uint31 content.  Only sent on channel open requests, and only if the
+     * peer sent {@link #CAP_OPTIMISTIC_OPEN}.  The requester may send a single message with up to this many bytes
+     * (capped at {@link #OPTIMISTIC_OPEN_WINDOW_SIZE}) before the reply arrives; the responder must grant at least
+     * this window if it accepts the channel, and discard the data otherwise.
+     */
+    static final int O_OPTIMISTIC_WINDOW_SIZE = 0x86;
 
     // Capabilities
 
@@ -262,6 +317,9 @@ final class Protocol {
     static final byte CAP_VERSION_STRING = 5; // sent by client & server
     static final byte CAP_CHANNELS_IN = 6; // sent by client & server, if missing peer does not support it
     static final byte CAP_CHANNELS_OUT = 7; // sent by client & server, if missing peer does not support it
+    static final byte CAP_CONNECTION_WINDOW = 8; // sent by client & server - initial connection receive window; if missing on either side, not used
+    static final byte CAP_OPTIMISTIC_OPEN = 9; // sent by client & server - if present, peer accepts message data ahead of the channel open reply
+    static final byte CAP_SESSION_TICKET = 10; // sent by client & server - if present, client wants / server issues session tickets
 
     // Greeting messages
 
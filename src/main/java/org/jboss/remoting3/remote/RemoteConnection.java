@@ -28,9 +28,11 @@ import java.util.ArrayDeque;
 import java.util.Queue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import org.jboss.logging.Logger;
 import org.jboss.remoting3.RemotingOptions;
 import org.jboss.remoting3.spi.ConnectionHandlerFactory;
+import org.jboss.remoting3.spi.LeakDetector;
 import org.xnio.Buffers;
 import org.xnio.ChannelListener;
 import org.xnio.IoUtils;
@@ -57,22 +59,78 @@ final class RemoteConnection {
     private final RemoteWriteListener writeListener = new RemoteWriteListener();
     private final Executor executor;
     private final int heartbeatInterval;
+    private final int heartbeatTimeout;
     private volatile Result<ConnectionHandlerFactory> result;
     private volatile SaslWrapper saslWrapper;
     private final RemoteConnectionProvider remoteConnectionProvider;
+    /**
+     * The timestamp of the outstanding alive message, or zero if there is none.
+     */
+    private volatile long aliveTime;
+    /**
+     * Smoothed round trip time and its variance, in nanoseconds, or -1 if not yet measured.  Only updated from the read thread.
+     */
+    private volatile long smoothedRtt = -1L;
+    private volatile long rttVariance = -1L;
+    /**
+     * The pending heartbeat timeout task, if any.  Protected by {@link #getLock()}.
+     */
+    private XnioExecutor.Key aliveTimeoutKey;
+    /**
+     * The traffic record of this connection's I/O thread, or {@code null} if I/O thread balancing is disabled.
+     */
+    private final IoThreadBalancer.Load ioThreadLoad;
+    /**
+     * The key under which session tickets received on this connection are stored, or {@code null} if none are expected.
+     */
+    private volatile SessionTicketCache.Key sessionTicketKey;
+    /**
+     * The counters of this connection, indexed as in {@link Metrics}.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(Metrics.COUNT);
+    /**
+     * The counters of all connections of the provider.
+     */
+    private final StripedCounters totals;
 
     RemoteConnection(final Pool<ByteBuffer> messageBufferPool, final ConnectedStreamChannel underlyingChannel, final ConnectedMessageChannel channel, final OptionMap optionMap, final RemoteConnectionProvider remoteConnectionProvider) {
         this.messageBufferPool = messageBufferPool;
         this.underlyingChannel = underlyingChannel;
         this.channel = channel;
         this.optionMap = optionMap;
-        heartbeatInterval = optionMap.get(RemotingOptions.HEARTBEAT_INTERVAL, RemotingOptions.DEFAULT_HEARTBEAT_INTERVAL);
+        heartbeatTimeout = optionMap.get(RemotingOptions.HEARTBEAT_TIMEOUT, RemotingOptions.DEFAULT_HEARTBEAT_TIMEOUT);
+        if (heartbeatTimeout > 0 && ! optionMap.contains(RemotingOptions.HEARTBEAT_INTERVAL)) {
+            // a timeout is useless without heartbeats to time out, so send them at half the timeout
+            heartbeatInterval = Math.max(1, heartbeatTimeout >> 1);
+            RemoteLogger.conn.debugf("Using a heartbeat interval of %d ms for the heartbeat timeout of %d ms", Integer.valueOf(heartbeatInterval), Integer.valueOf(heartbeatTimeout));
+        } else {
+            heartbeatInterval = optionMap.get(RemotingOptions.HEARTBEAT_INTERVAL, RemotingOptions.DEFAULT_HEARTBEAT_INTERVAL);
+        }
         this.executor = remoteConnectionProvider.getExecutor();
         this.remoteConnectionProvider = remoteConnectionProvider;
+        final IoThreadBalancer ioThreadBalancer = remoteConnectionProvider.getIoThreadBalancer();
+        ioThreadLoad = ioThreadBalancer == null ? null : ioThreadBalancer.getLoad(underlyingChannel.getIoThread());
+        totals = remoteConnectionProvider.getCounters();
     }
 
     Pooled<ByteBuffer> allocate() {
-        return messageBufferPool.allocate();
+        final Pooled<ByteBuffer> pooled = messageBufferPool.allocate();
+        count(Metrics.BUFFERS_ALLOCATED, 1L);
+        return track(pooled, this);
+    }
+
+    /**
+     * Let the leak detector decide whether a newly allocated buffer should be tracked.
+     *
+     * @param pooled the buffer
+     * @param connection the connection which allocated it, to name in leak reports
+     * @return the buffer to use in place of the given one
+     */
+    static Pooled<ByteBuffer> track(final Pooled<ByteBuffer> pooled, final RemoteConnection connection) {
+        if (LeakDetector.sample()) {
+            return new TrackedPooled(pooled, connection);
+        }
+        return pooled;
     }
 
     void setReadListener(ChannelListener<? super ConnectedMessageChannel> listener, final boolean resume) {
@@ -85,6 +143,14 @@ final class RemoteConnection {
         }
     }
 
+    SessionTicketCache.Key getSessionTicketKey() {
+        return sessionTicketKey;
+    }
+
+    void setSessionTicketKey(final SessionTicketCache.Key sessionTicketKey) {
+        this.sessionTicketKey = sessionTicketKey;
+    }
+
     RemoteConnectionProvider getRemoteConnectionProvider() {
         return remoteConnectionProvider;
     }
@@ -106,10 +172,7 @@ final class RemoteConnection {
         if (log) {
             RemoteLogger.conn.connectionError(e);
         }
-        final XnioExecutor.Key key = writeListener.heartKey;
-        if (key != null) {
-            key.remove();
-        }
+        terminateHeartbeat();
         IoUtils.safeClose(channel);
         final Result<ConnectionHandlerFactory> result = this.result;
         if (result != null) {
@@ -119,17 +182,67 @@ final class RemoteConnection {
     }
 
     void send(final Pooled<ByteBuffer> pooled) {
-        writeListener.send(pooled, false);
+        send(pooled, false);
     }
 
     void send(final Pooled<ByteBuffer> pooled, boolean close) {
+        recordTraffic(pooled.getResource().remaining());
         writeListener.send(pooled, close);
     }
 
+    IoThreadBalancer.Load getIoThreadLoad() {
+        return ioThreadLoad;
+    }
+
+    void recordTraffic(final int bytes) {
+        final IoThreadBalancer.Load ioThreadLoad = this.ioThreadLoad;
+        if (ioThreadLoad != null) {
+            ioThreadLoad.record(bytes);
+        }
+    }
+
     void shutdownWrites() {
         writeListener.shutdownWrites();
     }
 
+    void count(final int counter, final long delta) {
+        counts.getAndAdd(counter, delta);
+        totals.add(counter, delta);
+    }
+
+    /**
+     * Add to a counter which is only updated under the connection lock, so that no atomic update is needed.
+     */
+    private void countLocked(final int counter, final long delta) {
+        assert Thread.holdsLock(getLock());
+        counts.lazySet(counter, counts.get(counter) + delta);
+        totals.add(counter, delta);
+    }
+
+    /**
+     * Record a received frame.  The caller must hold the connection lock.
+     *
+     * @param bytes the frame size
+     */
+    void countReceived(final int bytes) {
+        countLocked(Metrics.FRAMES_RECEIVED, 1L);
+        countLocked(Metrics.BYTES_RECEIVED, bytes);
+    }
+
+    long[] getCounts() {
+        final long[] values = new long[Metrics.COUNT];
+        for (int i = 0; i < values.length; i ++) {
+            values[i] = counts.get(i);
+        }
+        return values;
+    }
+
+    int getWriteQueueDepth() {
+        synchronized (getLock()) {
+            return writeListener.queue.size();
+        }
+    }
+
     OptionMap getOptionMap() {
         return optionMap;
     }
@@ -173,24 +286,31 @@ final class RemoteConnection {
         try {
             final ByteBuffer buffer = pooled.getResource();
             buffer.put(Protocol.CONNECTION_ALIVE);
+            long time = System.nanoTime();
+            if (time == 0L) time = 1L; // zero means "none"
+            aliveTime = time;
+            buffer.putLong(time);
             buffer.limit(80);
             Buffers.addRandom(buffer);
             buffer.flip();
             send(pooled);
             ok = true;
+            scheduleAliveTimeout();
             channel.wakeupReads();
         } finally {
             if (! ok) pooled.free();
         }
     }
 
-    void sendAliveResponse() {
+    void sendAliveResponse(final ByteBuffer payload) {
         final Pooled<ByteBuffer> pooled = allocate();
         boolean ok = false;
         try {
             final ByteBuffer buffer = pooled.getResource();
             buffer.put(Protocol.CONNECTION_ALIVE_ACK);
             buffer.limit(80);
+            // echo the payload back so the peer can measure the round trip time
+            Buffers.copy(buffer, payload);
             Buffers.addRandom(buffer);
             buffer.flip();
             send(pooled);
@@ -200,11 +320,74 @@ final class RemoteConnection {
         }
     }
 
+    /**
+     * Handle an alive acknowledgement, updating the round trip time estimate if the acknowledgement echoes the
+     * timestamp of our outstanding alive message.
+     *
+     * @param payload the acknowledgement payload
+     * @return {@code true} if the round trip time estimate was updated
+     */
+    boolean handleAliveResponse(final ByteBuffer payload) {
+        final long time = aliveTime;
+        if (time == 0L) {
+            // unsolicited
+            return false;
+        }
+        // any reply shows that the peer is still alive
+        aliveTime = 0L;
+        cancelAliveTimeout();
+        if (payload.remaining() < 8 || payload.getLong() != time) {
+            // an older peer which sends random bytes, or a reply to an earlier alive message
+            return false;
+        }
+        final long sample = System.nanoTime() - time;
+        final long oldRtt = smoothedRtt;
+        if (oldRtt == -1L) {
+            rttVariance = sample >> 1;
+            smoothedRtt = sample;
+        } else {
+            // RFC 6298 with alpha = 1/8 and beta = 1/4
+            rttVariance = (3L * rttVariance + Math.abs(oldRtt - sample)) >> 2;
+            smoothedRtt = (7L * oldRtt + sample) >> 3;
+        }
+        return true;
+    }
+
+    long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    long getRttVariance() {
+        return rttVariance;
+    }
+
     void terminateHeartbeat() {
         final XnioExecutor.Key key = writeListener.heartKey;
         if (key != null) {
             key.remove();
         }
+        cancelAliveTimeout();
+    }
+
+    private void scheduleAliveTimeout() {
+        if (heartbeatTimeout <= 0) {
+            return;
+        }
+        synchronized (getLock()) {
+            if (aliveTimeoutKey == null && aliveTime != 0L) {
+                aliveTimeoutKey = channel.getWriteThread().executeAfter(aliveTimeoutCommand, heartbeatTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void cancelAliveTimeout() {
+        synchronized (getLock()) {
+            final XnioExecutor.Key key = aliveTimeoutKey;
+            if (key != null) {
+                aliveTimeoutKey = null;
+                key.remove();
+            }
+        }
     }
 
     Object getLock() {
@@ -295,8 +478,13 @@ final class RemoteConnection {
                 XnioExecutor.Key heartKey = this.heartKey;
                 if (heartKey != null) heartKey.remove();
                 if (closed) { pooled.free(); return; }
-                if (close) { closed = true; }
                 final ConnectedMessageChannel channel = getChannel();
+                if (close) {
+                    closed = true;
+                } else {
+                    // schedule even if the message cannot be flushed, so that a stalled peer is detected as well
+                    this.heartKey = channel.getWriteThread().executeAfter(heartbeatCommand, heartbeatInterval, TimeUnit.MILLISECONDS);
+                }
                 boolean free = true;
                 try {
                     final SaslWrapper wrapper = saslWrapper;
@@ -307,6 +495,8 @@ final class RemoteConnection {
                         wrapper.wrap(buffer, source);
                         buffer.flip();
                     }
+                    countLocked(Metrics.FRAMES_SENT, 1L);
+                    countLocked(Metrics.BYTES_SENT, pooled.getResource().remaining());
                     if (queue.isEmpty()) {
                         final ByteBuffer buffer = pooled.getResource();
                         if (! channel.send(buffer)) {
@@ -327,9 +517,6 @@ final class RemoteConnection {
                             return;
                         }
                         RemoteLogger.conn.logf(FQCN, Logger.Level.TRACE, null, "Flushed channel (direct)");
-                        if (! close) {
-                            this.heartKey = channel.getWriteThread().executeAfter(heartbeatCommand, heartbeatInterval, TimeUnit.MILLISECONDS);
-                        }
                     } else {
                         queue.add(pooled);
                         free = false;
@@ -356,7 +543,51 @@ final class RemoteConnection {
         }
     };
 
+    private final Runnable aliveTimeoutCommand = new Runnable() {
+        public void run() {
+            synchronized (getLock()) {
+                aliveTimeoutKey = null;
+                if (aliveTime == 0L) {
+                    // the reply raced with us
+                    return;
+                }
+            }
+            handleException(RemoteLogger.conn.heartbeatTimeout(channel.getPeerAddress(), heartbeatTimeout));
+        }
+    };
+
     public String toString() {
         return String.format("Remoting connection %08x to %s", Integer.valueOf(hashCode()), channel.getPeerAddress());
     }
+
+    /**
+     * A buffer chosen by the leak detector, which is reported if it is never freed.
+     */
+    static final class TrackedPooled implements Pooled<ByteBuffer> {
+        private final Pooled<ByteBuffer> pooled;
+        private final LeakDetector.Tracker tracker;
+
+        TrackedPooled(final Pooled<ByteBuffer> pooled, final RemoteConnection connection) {
+            this.pooled = pooled;
+            tracker = LeakDetector.track(this, connection);
+        }
+
+        public void discard() {
+            tracker.close();
+            pooled.discard();
+        }
+
+        public void free() {
+            tracker.close();
+            pooled.free();
+        }
+
+        public ByteBuffer getResource() throws IllegalStateException {
+            return pooled.getResource();
+        }
+
+        public String toString() {
+            return pooled.toString();
+        }
+    }
 }
@@ -41,6 +41,7 @@ import org.jboss.remoting3.MessageCancelledException;
 import org.jboss.remoting3.MessageOutputStream;
 import org.jboss.remoting3.NotOpenException;
 import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.ServiceOpenException;
 import org.jboss.remoting3.spi.AbstractHandleableCloseable;
 import org.jboss.remoting3.spi.ConnectionHandlerContext;
 import org.xnio.Bits;
@@ -70,17 +71,41 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
     private final int channelId;
     private final IntIndexMap<OutboundMessage> outboundMessages = new IntIndexHashMap<OutboundMessage>(OutboundMessage.INDEXER, Equaller.IDENTITY, 512, 0.5f);
     private final IntIndexMap<InboundMessage> inboundMessages = new IntIndexHashMap<InboundMessage>(InboundMessage.INDEXER, Equaller.IDENTITY, 512, 0.5f);
-    private final int outboundWindow;
+    private volatile int outboundWindow;
     private final int inboundWindow;
+    private final int maxInboundWindow;
+    /**
+     * The auto-tuned receive window size for new messages, between {@code inboundWindow} and {@code maxInboundWindow}.
+     */
+    private volatile int tunedInboundWindow;
+    /**
+     * The smoothed round trip time of window opens, in nanoseconds, or zero if it has not been measured yet.
+     */
+    private volatile long windowRtt;
     private final Attachments attachments = new Attachments();
     private final Queue<InboundMessage> inboundMessageQueue = new ArrayDeque<InboundMessage>();
-    private final int maxOutboundMessages;
+    private volatile int maxOutboundMessages;
     private final int maxInboundMessages;
-    private final long maxOutboundMessageSize;
+    private volatile long maxOutboundMessageSize;
     private final long maxInboundMessageSize;
     private volatile int channelState = 0;
+    /**
+     * {@code true} while an optimistically opened channel awaits the peer's open acknowledgement.  Set before the
+     * channel is published and read without locking; it is only cleared under {@link #openLock}, which waiters in
+     * {@link #awaitOpen()} use to be notified.
+     */
+    private volatile boolean openPending;
+    private volatile IOException openFailure;
+    private final Object openLock = new Object();
+    /**
+     * The number of requests which have not been answered yet: inbound messages which no outbound message has followed
+     * on the accepting side of the connection, and the reverse on the connecting side.  A draining connection waits
+     * for these as well as for the messages in progress.
+     */
+    private volatile int unansweredRequests;
 
     private static final AtomicIntegerFieldUpdater<RemoteConnectionChannel> channelStateUpdater = AtomicIntegerFieldUpdater.newUpdater(RemoteConnectionChannel.class, "channelState");
+    private static final AtomicIntegerFieldUpdater<RemoteConnectionChannel> unansweredRequestsUpdater = AtomicIntegerFieldUpdater.newUpdater(RemoteConnectionChannel.class, "unansweredRequests");
 
     private Receiver nextReceiver;
 
@@ -91,8 +116,8 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
     private static final int INBOUND_MESSAGES_MASK = ((1 << 30) - 1) & ~OUTBOUND_MESSAGES_MASK;
     private static final int ONE_INBOUND_MESSAGE = (1 << 15);
 
-    RemoteConnectionChannel(final RemoteConnectionHandler connectionHandler, final RemoteConnection connection, final int channelId, final int outboundWindow, final int inboundWindow, final int maxOutboundMessages, final int maxInboundMessages, final long maxOutboundMessageSize, final long maxInboundMessageSize) {
-        super(connectionHandler.getConnectionContext().getConnectionProviderContext().getExecutor(), true);
+    RemoteConnectionChannel(final RemoteConnectionHandler connectionHandler, final RemoteConnection connection, final int channelId, final int outboundWindow, final int inboundWindow, final int maxInboundWindow, final int maxOutboundMessages, final int maxInboundMessages, final long maxOutboundMessageSize, final long maxInboundMessageSize) {
+        super(connectionHandler.getConnectionContext().getConnectionProviderContext().getExecutor(), true, connectionHandler.getConnectionContext().getConnection());
         this.maxOutboundMessageSize = maxOutboundMessageSize;
         this.maxInboundMessageSize = maxInboundMessageSize;
         connectionHandlerContext = connectionHandler.getConnectionContext();
@@ -101,26 +126,124 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
         this.channelId = channelId;
         this.outboundWindow = outboundWindow;
         this.inboundWindow = inboundWindow;
+        this.maxInboundWindow = Math.max(inboundWindow, maxInboundWindow);
+        tunedInboundWindow = inboundWindow;
         this.maxOutboundMessages = maxOutboundMessages;
         this.maxInboundMessages = maxInboundMessages;
     }
 
     void openOutboundMessage() throws IOException {
         int oldState, newState;
-        do {
+        for (;;) {
             oldState = channelState;
             if ((oldState & WRITE_CLOSED) != 0) {
+                final IOException openFailure = this.openFailure;
+                if (openFailure != null) {
+                    throw new ServiceOpenException("Channel open was refused", openFailure);
+                }
                 throw new NotOpenException("Writes closed");
             }
+            if (! connectionHandler.isAcceptingOutboundMessages()) {
+                throw new NotOpenException("Connection is closing");
+            }
             final int outboundCount = oldState & OUTBOUND_MESSAGES_MASK;
-            if (outboundCount == maxOutboundMessages) {
+            if (outboundCount >= maxOutboundMessages) {
+                if (openPending) {
+                    // the real limit is not known yet
+                    awaitOpen();
+                    continue;
+                }
                 throw new ChannelBusyException("Too many open outbound writes");
             }
             newState = oldState + ONE_OUTBOUND_MESSAGE;
-        } while (!casState(oldState, newState));
+            if (casState(oldState, newState)) {
+                break;
+            }
+        }
+        if (connectionHandler.isServer()) {
+            answerStarted();
+        } else {
+            requestStarted();
+        }
         log.tracef("Opened outbound message on %s", this);
     }
 
+    private void requestStarted() {
+        unansweredRequestsUpdater.incrementAndGet(this);
+    }
+
+    private void answerStarted() {
+        int oldCount;
+        do {
+            oldCount = unansweredRequests;
+            if (oldCount == 0) {
+                // not the answer to a request
+                return;
+            }
+        } while (! unansweredRequestsUpdater.compareAndSet(this, oldCount, oldCount - 1));
+    }
+
+    private void awaitOpen() throws IOException {
+        synchronized (openLock) {
+            while (openPending) {
+                try {
+                    openLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw log.writeInterrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark this channel as optimistically opened.  Must be called before the channel is published.
+     */
+    void setOpenPending() {
+        openPending = true;
+    }
+
+    /**
+     * Handle the acknowledgement of an optimistic open, applying the negotiated outbound parameters.
+     *
+     * @param outboundWindow the negotiated outbound window
+     * @param maxOutboundMessages the negotiated outbound message count
+     * @param maxOutboundMessageSize the negotiated outbound message size
+     */
+    void handleOpenAck(final int outboundWindow, final int maxOutboundMessages, final long maxOutboundMessageSize) {
+        final int grow = outboundWindow - this.outboundWindow;
+        this.outboundWindow = outboundWindow;
+        this.maxOutboundMessageSize = maxOutboundMessageSize;
+        this.maxOutboundMessages = maxOutboundMessages;
+        if (grow > 0) {
+            // a message started concurrently with this update may keep the smaller window, which is harmless
+            for (OutboundMessage outboundMessage : outboundMessages) {
+                outboundMessage.growWindow(grow);
+            }
+        }
+        synchronized (openLock) {
+            openPending = false;
+            openLock.notifyAll();
+        }
+        log.tracef("Optimistic open of %s acknowledged", this);
+    }
+
+    /**
+     * Handle the refusal of an optimistic open.  The peer has discarded any data sent so far, so everything is
+     * cancelled and the channel is closed.
+     *
+     * @param reason the refusal reason
+     */
+    void handleOpenRefused(final IOException reason) {
+        log.tracef(reason, "Optimistic open of %s refused", this);
+        openFailure = reason;
+        synchronized (openLock) {
+            openPending = false;
+            openLock.notifyAll();
+        }
+        closeAsync();
+    }
+
     private int incrementState(final int count) {
         final int oldState = channelStateUpdater.getAndAdd(this, count);
         if (log.isTraceEnabled()) {
@@ -165,6 +288,7 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
         } else {
             log.tracef("Closed outbound message on %s", this);
         }
+        connectionHandler.checkDrained();
     }
 
     boolean openInboundMessage() {
@@ -175,6 +299,10 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
                 log.tracef("Refusing inbound message on %s (reads closed)", this);
                 return false;
             }
+            if (! connectionHandler.isAcceptingInboundMessages()) {
+                log.tracef("Refusing inbound message on %s (connection draining)", this);
+                return false;
+            }
             final int inboundCount = oldState & INBOUND_MESSAGES_MASK;
             if (inboundCount == maxInboundMessages) {
                 log.tracef("Refusing inbound message on %s (too many concurrent reads)", this);
@@ -182,6 +310,11 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
             }
             newState = oldState + ONE_INBOUND_MESSAGE;
         } while (!casState(oldState, newState));
+        if (connectionHandler.isServer()) {
+            requestStarted();
+        } else {
+            answerStarted();
+        }
         log.tracef("Opened inbound message on %s", this);
         return true;
     }
@@ -195,6 +328,17 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
         } else {
             log.tracef("Closed inbound message on %s", this);
         }
+        connectionHandler.checkDrained();
+    }
+
+    /**
+     * Determine whether this channel has work in progress, that is, a message in progress or a request which has not
+     * been answered yet.
+     *
+     * @return {@code true} if the channel is busy
+     */
+    boolean isBusy() {
+        return (channelState & (INBOUND_MESSAGES_MASK | OUTBOUND_MESSAGES_MASK)) != 0 || unansweredRequests != 0;
     }
 
     void closeReads() {
@@ -393,6 +537,7 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
             .add(RemotingOptions.MAX_OUTBOUND_MESSAGES)
             .add(RemotingOptions.TRANSMIT_WINDOW_SIZE)
             .add(RemotingOptions.RECEIVE_WINDOW_SIZE)
+            .add(RemotingOptions.MAX_RECEIVE_WINDOW_SIZE)
             .add(RemotingOptions.MAX_INBOUND_MESSAGE_SIZE)
             .add(RemotingOptions.MAX_OUTBOUND_MESSAGE_SIZE)
             .create();
@@ -408,6 +553,8 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
             return option.cast(maxOutboundMessages);
         } else if (option == RemotingOptions.RECEIVE_WINDOW_SIZE) {
             return option.cast(inboundWindow);
+        } else if (option == RemotingOptions.MAX_RECEIVE_WINDOW_SIZE) {
+            return option.cast(maxInboundWindow);
         } else if (option == RemotingOptions.TRANSMIT_WINDOW_SIZE) {
             return option.cast(outboundWindow);
         } else if (option == RemotingOptions.MAX_INBOUND_MESSAGE_SIZE) {
@@ -429,9 +576,12 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
             ByteBuffer buffer = message.getResource();
             int id = buffer.getShort() & 0xffff;
             int flags = buffer.get() & 0xff;
+            final int dataSize = buffer.remaining();
+            connectionHandler.handleConnectionWindowReceived(dataSize);
             final InboundMessage inboundMessage;
             if ((flags & Protocol.MSG_FLAG_NEW) != 0) {
                 if (! openInboundMessage()) {
+                    connectionHandler.openConnectionWindow(dataSize);
                     asyncCloseMessage(id);
                     return;
                 }
@@ -469,6 +619,7 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
                 inboundMessage = inboundMessages.get(id);
                 if (inboundMessage == null) {
                     log.tracef("Ignoring message on channel %s for unknown message ID %04x", this, Integer.valueOf(id));
+                    connectionHandler.openConnectionWindow(dataSize);
                     return;
                 }
             }
@@ -506,6 +657,48 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
         outboundMessage.acknowledge(buffer.getInt() & 0x7FFFFFFF);
     }
 
+    int getMaxInboundWindow() {
+        return maxInboundWindow;
+    }
+
+    int getInboundWindow() {
+        return inboundWindow;
+    }
+
+    int getTunedInboundWindow() {
+        return tunedInboundWindow;
+    }
+
+    void inboundWindowTuned(final int newSize) {
+        // racy; the next measurement will fix it up anyway
+        tunedInboundWindow = newSize;
+    }
+
+    long getWindowRtt() {
+        return windowRtt;
+    }
+
+    void updateWindowRtt(final long sample) {
+        windowRtt = smoothRtt(windowRtt, sample);
+    }
+
+    /**
+     * Fold a round trip time sample into a smoothed estimate, weighting the sample by 1/8.
+     *
+     * @param oldRtt the previous estimate, or zero if there is none
+     * @param sample the new sample
+     * @return the new estimate
+     */
+    static long smoothRtt(final long oldRtt, final long sample) {
+        return oldRtt == 0L ? sample : (7L * oldRtt + sample) >> 3;
+    }
+
+    void wakeOutboundMessages() {
+        for (OutboundMessage outboundMessage : outboundMessages) {
+            outboundMessage.wakeUp();
+        }
+    }
+
     void handleAsyncClose(final Pooled<ByteBuffer> pooled) {
         ByteBuffer buffer = pooled.getResource();
         int id = buffer.getShort() & 0xffff;
@@ -537,7 +730,7 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
         for (final InboundMessage message : inboundMessages) {
             executor.execute(new Runnable() {
                 public void run() {
-                    message.inputStream.pushException(new MessageCancelledException());
+                    message.cancelAndRelease();
                 }
             });
         }
@@ -581,6 +774,10 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
     }
 
     void dumpState(final StringBuilder b) {
+        final InboundMessage[] pendingInboundMessages;
+        synchronized (connection.getLock()) {
+            pendingInboundMessages = inboundMessageQueue.toArray(new InboundMessage[inboundMessageQueue.size()]);
+        }
         final int state = channelState;
         final int inboundMessageCnt = (state & INBOUND_MESSAGES_MASK) >>> (Integer.numberOfTrailingZeros(ONE_INBOUND_MESSAGE));
         final int outboundMessageCnt = (state & OUTBOUND_MESSAGES_MASK) >>> (Integer.numberOfTrailingZeros(ONE_OUTBOUND_MESSAGE));
@@ -589,11 +786,11 @@ final class RemoteConnectionChannel extends AbstractHandleableCloseable<Channel>
         if (Bits.allAreSet(state, READ_CLOSED)) b.append("read-closed ");
         if (Bits.allAreSet(state, WRITE_CLOSED)) b.append("write-closed ");
         b.append('\n');
-        b.append("        ").append("* ").append(inboundMessageQueue.size()).append(" pending inbound messages\n");
+        b.append("        ").append("* ").append(pendingInboundMessages.length).append(" pending inbound messages\n");
         b.append("        ").append("* ").append(inboundMessageCnt).append(" (max ").append(maxInboundMessages).append(") inbound messages\n");
         b.append("        ").append("* ").append(outboundMessageCnt).append(" (max ").append(maxOutboundMessages).append(") outbound messages\n");
         b.append("        ").append("* Pending inbound messages:\n");
-        for (InboundMessage inboundMessage : inboundMessageQueue) {
+        for (InboundMessage inboundMessage : pendingInboundMessages) {
             inboundMessage.dumpState(b);
         }
         b.append("        ").append("* Inbound messages:\n");
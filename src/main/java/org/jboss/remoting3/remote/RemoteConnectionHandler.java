@@ -29,13 +29,16 @@ import java.security.Principal;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+import org.jboss.remoting3.Attachments;
 import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.ConnectionAttributes;
 import org.jboss.remoting3.NotOpenException;
-import org.jboss.remoting3.ProtocolException;
 import org.jboss.remoting3.RemotingOptions;
 import org.jboss.remoting3.ServiceOpenException;
+import org.jboss.remoting3.TooManyChannelsException;
 import org.jboss.remoting3.security.UserInfo;
 import org.jboss.remoting3.spi.AbstractHandleableCloseable;
 import org.jboss.remoting3.spi.ConnectionHandler;
@@ -46,6 +49,7 @@ import org.xnio.IoUtils;
 import org.xnio.OptionMap;
 import org.xnio.Pooled;
 import org.xnio.Result;
+import org.xnio.XnioExecutor;
 import org.xnio.channels.ConnectedMessageChannel;
 
 final class RemoteConnectionHandler extends AbstractHandleableCloseable<ConnectionHandler> implements ConnectionHandler {
@@ -74,10 +78,50 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
     private final String remoteEndpointName;
 
     private final int behavior;
+    private final boolean server;
+
+    /**
+     * The initial size of the connection-wide transmit window, as given to us by the peer.
+     */
+    private final int connectionTransmitWindowSize;
+    /**
+     * The size of the connection-wide receive window which we advertised to the peer.
+     */
+    private final int connectionReceiveWindowSize;
 
     private volatile int channelState = 0;
 
+    /**
+     * The number of bytes which may still be sent across all channels before the peer must open the connection window.
+     */
+    private volatile int connectionTransmitWindow;
+    /**
+     * The number of bytes which the peer may still send across all channels before we open the connection window.
+     */
+    private volatile int connectionReceiveWindow;
+    /**
+     * The number of consumed bytes which have not yet been returned to the peer via a connection window open.
+     */
+    private volatile int connectionWindowPending;
+    /**
+     * The number of outbound messages which are waiting for the connection window to open.
+     */
+    private volatile int connectionWindowWaiters;
+    /**
+     * The drain state; one of {@link #DRAIN_NONE}, {@link #DRAIN_ACTIVE} or {@link #DRAIN_DONE}.
+     */
+    private volatile int drainState = DRAIN_NONE;
+    /**
+     * The key of the drain deadline task.  Protected by the connection lock.
+     */
+    private XnioExecutor.Key drainKey;
+
     private static final AtomicIntegerFieldUpdater<RemoteConnectionHandler> channelStateUpdater = AtomicIntegerFieldUpdater.newUpdater(RemoteConnectionHandler.class, "channelState");
+    private static final AtomicIntegerFieldUpdater<RemoteConnectionHandler> connectionTransmitWindowUpdater = AtomicIntegerFieldUpdater.newUpdater(RemoteConnectionHandler.class, "connectionTransmitWindow");
+    private static final AtomicIntegerFieldUpdater<RemoteConnectionHandler> connectionReceiveWindowUpdater = AtomicIntegerFieldUpdater.newUpdater(RemoteConnectionHandler.class, "connectionReceiveWindow");
+    private static final AtomicIntegerFieldUpdater<RemoteConnectionHandler> connectionWindowPendingUpdater = AtomicIntegerFieldUpdater.newUpdater(RemoteConnectionHandler.class, "connectionWindowPending");
+    private static final AtomicIntegerFieldUpdater<RemoteConnectionHandler> connectionWindowWaitersUpdater = AtomicIntegerFieldUpdater.newUpdater(RemoteConnectionHandler.class, "connectionWindowWaiters");
+    private static final AtomicIntegerFieldUpdater<RemoteConnectionHandler> drainStateUpdater = AtomicIntegerFieldUpdater.newUpdater(RemoteConnectionHandler.class, "drainState");
 
     /** Sending close request, now shutting down the write side of all channels and refusing new channels. Once send, received = true and count == 0, shut down writes on the socket. */
     private static final int SENT_CLOSE_REQ = (1 << 31);
@@ -88,7 +132,23 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
     private static final int INBOUND_CHANNELS_MASK = ((1 << 30) - 1) & ~OUTBOUND_CHANNELS_MASK;
     private static final int ONE_INBOUND_CHANNEL = (1 << 15);
 
-    RemoteConnectionHandler(final ConnectionHandlerContext connectionContext, final RemoteConnection remoteConnection, final Collection<Principal> principals, final UserInfo userInfo, final int maxInboundChannels, final int maxOutboundChannels, final String remoteEndpointName, final int behavior) {
+    /** Not draining. */
+    private static final int DRAIN_NONE = 0;
+    /** Draining; new channels and new requests are refused until the messages in progress are done or the deadline passes. */
+    private static final int DRAIN_ACTIVE = 1;
+    /** The drain is over and the close request was sent, or is about to be. */
+    private static final int DRAIN_DONE = 2;
+
+    private final Runnable drainDeadlineTask = new Runnable() {
+        public void run() {
+            if (endDrain()) {
+                log.tracef("Drain deadline passed on %s", RemoteConnectionHandler.this);
+                sendCloseRequest();
+            }
+        }
+    };
+
+    RemoteConnectionHandler(final ConnectionHandlerContext connectionContext, final RemoteConnection remoteConnection, final Collection<Principal> principals, final UserInfo userInfo, final int maxInboundChannels, final int maxOutboundChannels, final String remoteEndpointName, final int behavior, final int connectionTransmitWindowSize, final boolean server) {
         super(remoteConnection.getExecutor());
         this.connectionContext = connectionContext;
         this.remoteConnection = remoteConnection;
@@ -96,6 +156,14 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
         this.maxOutboundChannels = maxOutboundChannels;
         this.remoteEndpointName = remoteEndpointName;
         this.behavior = behavior;
+        this.server = server;
+        if (Bits.allAreSet(behavior, Protocol.BH_CONNECTION_WINDOW)) {
+            this.connectionTransmitWindowSize = connectionTransmitWindow = connectionTransmitWindowSize;
+            this.connectionReceiveWindowSize = connectionReceiveWindow = remoteConnection.getOptionMap().get(RemotingOptions.CONNECTION_RECEIVE_WINDOW_SIZE, RemotingOptions.DEFAULT_CONNECTION_RECEIVE_WINDOW_SIZE);
+        } else {
+            this.connectionTransmitWindowSize = connectionTransmitWindow = Integer.MAX_VALUE;
+            this.connectionReceiveWindowSize = connectionReceiveWindow = Integer.MAX_VALUE;
+        }
 
         this.principals = Collections.unmodifiableCollection(principals);
         this.userInfo = userInfo;
@@ -109,11 +177,8 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
         closeAllChannels();
         remoteConnection.shutdownWrites();
         IoUtils.safeShutdownReads(remoteConnection.getChannel());
-        try {
-            closeAction();
-        } catch (IOException ignored) {
-            log.tracef(ignored, "Failure to close after forced connection close");
-        }
+        endDrain();
+        sendCloseRequest();
         remoteConnection.getRemoteConnectionProvider().removeConnectionHandler(this);
         closeComplete();
     }
@@ -132,6 +197,7 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
         } else {
             handleOutboundChannelClosed();
         }
+        checkDrained();
     }
 
     void handleInboundChannelClosed() {
@@ -169,6 +235,10 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
                 log.tracef("Refused inbound channel request on %s because close request was sent", this);
                 return false;
             }
+            if (drainState != DRAIN_NONE) {
+                log.tracef("Refused inbound channel request on %s because the connection is draining", this);
+                return false;
+            }
             newState = oldState + ONE_INBOUND_CHANNEL;
         } while (!casState(oldState, newState));
         log.tracef("Opened inbound channel on %s", this);
@@ -182,12 +252,16 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
             int oldCount = oldState & OUTBOUND_CHANNELS_MASK;
             if (oldCount == maxOutboundChannels) {
                 log.tracef("Refused outbound channel open on %s because too many outbound channels are open", this);
-                throw new ProtocolException("Too many channels open");
+                throw new TooManyChannelsException("Too many channels open");
             }
             if ((oldState & SENT_CLOSE_REQ) != 0) {
                 log.tracef("Refused outbound channel open on %s because close request was sent", this);
                 throw new NotOpenException("Cannot open new channel because close was initiated");
             }
+            if (drainState != DRAIN_NONE) {
+                log.tracef("Refused outbound channel open on %s because the connection is draining", this);
+                throw new NotOpenException("Cannot open new channel because the connection is closing");
+            }
             newState = oldState + ONE_OUTBOUND_CHANNEL;
         } while (!casState(oldState, newState));
         log.tracef("Opened outbound channel on %s", this);
@@ -309,10 +383,14 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
         final int outboundMessageCount = optionMap.get(RemotingOptions.MAX_OUTBOUND_MESSAGES, connectionOptionMap.get(RemotingOptions.MAX_OUTBOUND_MESSAGES, RemotingOptions.OUTGOING_CHANNEL_DEFAULT_MAX_OUTBOUND_MESSAGES));
         // Restrict the inbound value to defaults if none was specified.
         final int inboundWindowSize = optionMap.get(RemotingOptions.RECEIVE_WINDOW_SIZE, connectionOptionMap.get(RemotingOptions.RECEIVE_WINDOW_SIZE, RemotingOptions.OUTGOING_CHANNEL_DEFAULT_RECEIVE_WINDOW_SIZE));
+        final int maxInboundWindowSize = optionMap.get(RemotingOptions.MAX_RECEIVE_WINDOW_SIZE, connectionOptionMap.get(RemotingOptions.MAX_RECEIVE_WINDOW_SIZE, inboundWindowSize));
         final int inboundMessageCount = optionMap.get(RemotingOptions.MAX_INBOUND_MESSAGES, connectionOptionMap.get(RemotingOptions.MAX_INBOUND_MESSAGES, RemotingOptions.DEFAULT_MAX_INBOUND_MESSAGES));
         // Request the maximum message size to defaults if none was specified.
         final long outboundMessageSize = optionMap.get(RemotingOptions.MAX_OUTBOUND_MESSAGE_SIZE, connectionOptionMap.get(RemotingOptions.MAX_OUTBOUND_MESSAGE_SIZE, RemotingOptions.DEFAULT_MAX_OUTBOUND_MESSAGE_SIZE));
         final long inboundMessageSize = optionMap.get(RemotingOptions.MAX_INBOUND_MESSAGE_SIZE, connectionOptionMap.get(RemotingOptions.MAX_INBOUND_MESSAGE_SIZE, RemotingOptions.DEFAULT_MAX_INBOUND_MESSAGE_SIZE));
+        final boolean optimistic = isOptimisticOpen() && optionMap.get(RemotingOptions.OPTIMISTIC_CHANNEL_OPEN, connectionOptionMap.get(RemotingOptions.OPTIMISTIC_CHANNEL_OPEN, false));
+        // until the open is acknowledged, only one message with a small window may be sent
+        final int optimisticWindowSize = Math.min(outboundWindowSize, Protocol.OPTIMISTIC_OPEN_WINDOW_SIZE);
         final IntIndexMap<PendingChannel> pendingChannels = this.pendingChannels;
         try {
             handleOutboundChannelOpen();
@@ -326,7 +404,14 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
             for (;;) {
                 id = random.nextInt() | 0x80000000;
                 if (! pendingChannels.containsKey(id)) {
-                    PendingChannel pendingChannel = new PendingChannel(id, outboundWindowSize, inboundWindowSize, outboundMessageCount, inboundMessageCount, outboundMessageSize, inboundMessageSize, result);
+                    final RemoteConnectionChannel optimisticChannel;
+                    if (optimistic) {
+                        optimisticChannel = new RemoteConnectionChannel(this, remoteConnection, id, optimisticWindowSize, inboundWindowSize, maxInboundWindowSize, 1, inboundMessageCount, outboundMessageSize, inboundMessageSize);
+                        optimisticChannel.setOpenPending();
+                    } else {
+                        optimisticChannel = null;
+                    }
+                    PendingChannel pendingChannel = new PendingChannel(id, outboundWindowSize, inboundWindowSize, maxInboundWindowSize, outboundMessageCount, inboundMessageCount, outboundMessageSize, inboundMessageSize, result, optimisticChannel);
                     if (pendingChannels.putIfAbsent(pendingChannel) == null) {
                         Pooled<ByteBuffer> pooled = remoteConnection.allocate();
                         try {
@@ -344,11 +429,21 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
                             if (outboundMessageSize != Long.MAX_VALUE) {
                                 ProtocolUtils.writeLong(buffer, Protocol.O_MAX_OUTBOUND_MSG_SIZE, outboundMessageSize);
                             }
+                            if (optimisticChannel != null) {
+                                ProtocolUtils.writeInt(buffer, Protocol.O_OPTIMISTIC_WINDOW_SIZE, optimisticWindowSize);
+                            }
                             buffer.put((byte) 0);
                             buffer.flip();
+                            if (optimisticChannel != null) {
+                                // register first so that replies to the first message can be routed
+                                putChannel(optimisticChannel);
+                            }
                             remoteConnection.send(pooled);
                             ok = true;
                             log.tracef("Completed initiation of service open of type %s on %s", serviceType, this);
+                            if (optimisticChannel != null) {
+                                result.setResult(optimisticChannel);
+                            }
                             // TODO: allow cancel
                             return IoUtils.nullCancellable();
                         } finally {
@@ -374,8 +469,127 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
         return remoteEndpointName;
     }
 
+    public void close() throws IOException {
+        cutDrain();
+        super.close();
+    }
+
+    public void closeAsync() {
+        cutDrain();
+        super.closeAsync();
+    }
+
+    /**
+     * End a drain started by an earlier close, so that closing again closes the connection without further waiting.
+     */
+    private void cutDrain() {
+        if (! isOpen() && endDrain()) {
+            log.tracef("Drain of %s cut short", this);
+            sendCloseRequest();
+        }
+    }
+
     protected void closeAction() throws IOException {
-        sendCloseRequest();
+        final int drainTimeout = remoteConnection.getOptionMap().get(RemotingOptions.GRACEFUL_CLOSE_TIMEOUT, remoteConnection.getRemoteConnectionProvider().getGracefulCloseTimeout());
+        if (drainTimeout > 0) {
+            startDrain(drainTimeout);
+        } else {
+            sendCloseRequest();
+        }
+    }
+
+    /**
+     * Start draining the connection.  The close request is sent once no work is left in progress, or once the
+     * timeout expires, whichever comes first.
+     *
+     * @param timeout the drain timeout in milliseconds
+     */
+    private void startDrain(final long timeout) {
+        if (! drainStateUpdater.compareAndSet(this, DRAIN_NONE, DRAIN_ACTIVE)) {
+            return;
+        }
+        log.tracef("Draining %s for up to %d ms", this, Long.valueOf(timeout));
+        final XnioExecutor.Key key = remoteConnection.getChannel().getWriteThread().executeAfter(drainDeadlineTask, timeout, TimeUnit.MILLISECONDS);
+        synchronized (remoteConnection.getLock()) {
+            if (drainState == DRAIN_ACTIVE) {
+                drainKey = key;
+            } else {
+                key.remove();
+            }
+        }
+        if ((channelState & SENT_CLOSE_REQ) != 0) {
+            // already closing
+            endDrain();
+        } else {
+            checkDrained();
+        }
+    }
+
+    /**
+     * End the drain if one is active.
+     *
+     * @return {@code true} if the caller ended the drain and so must finish the close
+     */
+    private boolean endDrain() {
+        if (! drainStateUpdater.compareAndSet(this, DRAIN_ACTIVE, DRAIN_DONE)) {
+            return false;
+        }
+        synchronized (remoteConnection.getLock()) {
+            final XnioExecutor.Key key = drainKey;
+            if (key != null) {
+                drainKey = null;
+                key.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A message or channel was closed or a request was answered; if the connection is draining and no work is left in
+     * progress, close it.
+     */
+    void checkDrained() {
+        if (drainState != DRAIN_ACTIVE) {
+            return;
+        }
+        for (RemoteConnectionChannel channel : channels) {
+            if (channel.isBusy()) {
+                return;
+            }
+        }
+        if (endDrain()) {
+            log.tracef("Drained %s", this);
+            sendCloseRequest();
+        }
+    }
+
+    /**
+     * Determine whether this is the accepting side of the connection.
+     *
+     * @return {@code true} for the accepting side, {@code false} for the connecting side
+     */
+    boolean isServer() {
+        return server;
+    }
+
+    /**
+     * Determine whether a new inbound message may be accepted.  While draining, the accepting side of the connection
+     * refuses new inbound messages, as these are new requests.
+     *
+     * @return {@code true} if new inbound messages are accepted
+     */
+    boolean isAcceptingInboundMessages() {
+        return ! server || drainState == DRAIN_NONE;
+    }
+
+    /**
+     * Determine whether a new outbound message may be started.  While draining, the connecting side of the connection
+     * refuses new outbound messages, as these are new requests.
+     *
+     * @return {@code true} if new outbound messages are accepted
+     */
+    boolean isAcceptingOutboundMessages() {
+        return server || drainState == DRAIN_NONE;
     }
 
     private void closePendingChannels() {
@@ -422,34 +636,179 @@ final class RemoteConnectionHandler extends AbstractHandleableCloseable<Connecti
         return Bits.allAreSet(behavior, Protocol.BH_FAULTY_MSG_SIZE);
     }
 
+    boolean isOptimisticOpen() {
+        return Bits.allAreSet(behavior, Protocol.BH_OPTIMISTIC_OPEN);
+    }
+
+    boolean isConnectionWindow() {
+        return Bits.allAreSet(behavior, Protocol.BH_CONNECTION_WINDOW);
+    }
+
+    int getConnectionTransmitWindowSize() {
+        return connectionTransmitWindowSize;
+    }
+
+    /**
+     * Try to reserve room in the connection-wide transmit window.  Always succeeds if the connection window is not in use.
+     *
+     * @param count the number of bytes to send
+     * @return {@code true} if the bytes were reserved, {@code false} if the window is too small
+     */
+    boolean takeConnectionWindow(final int count) {
+        if (! isConnectionWindow()) {
+            return true;
+        }
+        int oldVal;
+        do {
+            oldVal = connectionTransmitWindow;
+            if (oldVal < count) {
+                return false;
+            }
+        } while (! connectionTransmitWindowUpdater.compareAndSet(this, oldVal, oldVal - count));
+        return true;
+    }
+
+    /**
+     * Register an outbound message which is about to wait for the connection window.  The caller must hold the
+     * message's stream lock, and must retry {@link #takeConnectionWindow(int)} before waiting.
+     */
+    void addConnectionWindowWaiter() {
+        connectionWindowWaitersUpdater.getAndIncrement(this);
+    }
+
+    void removeConnectionWindowWaiter() {
+        connectionWindowWaitersUpdater.getAndDecrement(this);
+    }
+
+    /**
+     * The peer opened the connection-wide transmit window.
+     *
+     * @param count the number of bytes by which the window was opened
+     */
+    void handleConnectionWindowOpen(final int count) {
+        if (! isConnectionWindow()) {
+            log.tracef("Ignoring unexpected connection window open on %s", this);
+            return;
+        }
+        int oldVal, newVal;
+        do {
+            oldVal = connectionTransmitWindow;
+            newVal = (int) Math.min((long) oldVal + (long) count, (long) Integer.MAX_VALUE);
+        } while (! connectionTransmitWindowUpdater.compareAndSet(this, oldVal, newVal));
+        if (log.isTraceEnabled()) {
+            log.tracef("Connection window opened by %d bytes on %s", Integer.valueOf(count), this);
+        }
+        if (connectionWindowWaiters != 0) {
+            for (RemoteConnectionChannel channel : channels) {
+                channel.wakeOutboundMessages();
+            }
+        }
+    }
+
+    /**
+     * Message data was received from the peer, reducing the connection-wide receive window.
+     *
+     * @param count the number of bytes received
+     */
+    void handleConnectionWindowReceived(final int count) {
+        if (! isConnectionWindow() || count == 0) {
+            return;
+        }
+        if (connectionReceiveWindowUpdater.addAndGet(this, -count) < 0) {
+            remoteConnection.handleException(new IOException("Connection input overrun"));
+        }
+    }
+
+    /**
+     * Received message data was consumed or discarded, so the peer may send more.  Window opens are deferred until a
+     * reasonable amount of data has been consumed to avoid flooding the peer with small window messages.
+     *
+     * @param count the number of bytes consumed
+     */
+    void openConnectionWindow(final int count) {
+        if (! isConnectionWindow() || count == 0) {
+            return;
+        }
+        if (connectionWindowPendingUpdater.addAndGet(this, count) < connectionReceiveWindowSize >>> 4) {
+            return;
+        }
+        final int pending = connectionWindowPendingUpdater.getAndSet(this, 0);
+        if (pending == 0) {
+            // someone else got it
+            return;
+        }
+        connectionReceiveWindowUpdater.getAndAdd(this, pending);
+        final Pooled<ByteBuffer> pooled = remoteConnection.allocate();
+        boolean ok = false;
+        try {
+            final ByteBuffer buffer = pooled.getResource();
+            buffer.put(Protocol.CONNECTION_WINDOW_OPEN);
+            buffer.putInt(pending);
+            buffer.flip();
+            remoteConnection.send(pooled);
+            ok = true;
+        } finally {
+            if (! ok) pooled.free();
+        }
+    }
+
+    /**
+     * The round trip time estimate of the connection was updated; publish it on the connection.
+     */
+    void handleRttUpdate() {
+        final Attachments attachments = connectionContext.getConnection().getAttachments();
+        attachments.attach(ConnectionAttributes.ROUND_TRIP_TIME, Long.valueOf(remoteConnection.getSmoothedRtt() / 1000L));
+        attachments.attach(ConnectionAttributes.ROUND_TRIP_TIME_VARIANCE, Long.valueOf(remoteConnection.getRttVariance() / 1000L));
+    }
+
+    RemoteConnection getRemoteConnection() {
+        return remoteConnection;
+    }
+
+    RemoteConnectionMetrics getMetrics() {
+        final int state = channelState;
+        final int inboundChannels = (state & INBOUND_CHANNELS_MASK) >>> Integer.numberOfTrailingZeros(ONE_INBOUND_CHANNEL);
+        final int outboundChannels = (state & OUTBOUND_CHANNELS_MASK) >>> Integer.numberOfTrailingZeros(ONE_OUTBOUND_CHANNEL);
+        return RemoteConnectionMetrics.create(remoteConnection.toString(), remoteConnection.getCounts(), remoteConnection.getWriteQueueDepth(), inboundChannels, outboundChannels);
+    }
+
     public String toString() {
         return String.format("Connection handler for %s", remoteConnection);
     }
 
     void dumpState(final StringBuilder b) {
-        synchronized (remoteConnection.getLock()) {
-            final int state = this.channelState;
-            final boolean sentCloseReq = Bits.allAreSet(state, SENT_CLOSE_REQ);
-            final boolean receivedCloseReq = Bits.allAreSet(state, RECEIVED_CLOSE_REQ);
-            final int inboundChannels = (state & INBOUND_CHANNELS_MASK) >>> Integer.numberOfTrailingZeros(ONE_INBOUND_CHANNEL);
-            final int outboundChannels = (state & OUTBOUND_CHANNELS_MASK) >>> Integer.numberOfTrailingZeros(ONE_OUTBOUND_CHANNEL);
-            final ConnectedMessageChannel channel = remoteConnection.getChannel();
-            final SocketAddress localAddress = channel.getLocalAddress();
-            final SocketAddress peerAddress = channel.getPeerAddress();
-            b.append("    ").append("Connection ").append(localAddress).append(" <-> ").append(peerAddress).append('\n');
-            b.append("    ").append("Channel: ").append(channel).append('\n');
-            b.append("    ").append("* Flags: ");
-            if (Bits.allAreSet(behavior, Protocol.BH_MESSAGE_CLOSE)) b.append("supports-message-close ");
-            if (Bits.allAreSet(behavior, Protocol.BH_FAULTY_MSG_SIZE)) b.append("remote-faulty-message-size ");
-            if (receivedCloseReq) b.append("received-close-req ");
-            if (sentCloseReq) b.append("set-close-req ");
-            b.append('\n');
-            b.append("    ").append("* ").append(inboundChannels).append(" (max ").append(maxInboundChannels).append(") inbound channels\n");
-            b.append("    ").append("* ").append(outboundChannels).append(" (max ").append(maxOutboundChannels).append(") outbound channels\n");
-            b.append("    ").append("* Channels:\n");
-            for (RemoteConnectionChannel connectionChannel : channels) {
-                connectionChannel.dumpState(b);
-            }
+        // only volatile and lock-free state is read, so that a dump never holds up the connection
+        final int state = this.channelState;
+        final boolean sentCloseReq = Bits.allAreSet(state, SENT_CLOSE_REQ);
+        final boolean receivedCloseReq = Bits.allAreSet(state, RECEIVED_CLOSE_REQ);
+        final int inboundChannels = (state & INBOUND_CHANNELS_MASK) >>> Integer.numberOfTrailingZeros(ONE_INBOUND_CHANNEL);
+        final int outboundChannels = (state & OUTBOUND_CHANNELS_MASK) >>> Integer.numberOfTrailingZeros(ONE_OUTBOUND_CHANNEL);
+        final ConnectedMessageChannel channel = remoteConnection.getChannel();
+        final SocketAddress localAddress = channel.getLocalAddress();
+        final SocketAddress peerAddress = channel.getPeerAddress();
+        b.append("    ").append("Connection ").append(localAddress).append(" <-> ").append(peerAddress).append('\n');
+        b.append("    ").append("Channel: ").append(channel).append('\n');
+        b.append("    ").append("* Flags: ");
+        if (Bits.allAreSet(behavior, Protocol.BH_MESSAGE_CLOSE)) b.append("supports-message-close ");
+        if (Bits.allAreSet(behavior, Protocol.BH_FAULTY_MSG_SIZE)) b.append("remote-faulty-message-size ");
+        if (Bits.allAreSet(behavior, Protocol.BH_CONNECTION_WINDOW)) b.append("connection-window ");
+        if (receivedCloseReq) b.append("received-close-req ");
+        if (sentCloseReq) b.append("set-close-req ");
+        if (drainState == DRAIN_ACTIVE) b.append("draining ");
+        b.append('\n');
+        final long rtt = remoteConnection.getSmoothedRtt();
+        if (rtt != -1L) {
+            b.append("    ").append("* Round trip time ").append(rtt / 1000L).append(" us (variance ").append(remoteConnection.getRttVariance() / 1000L).append(" us)\n");
+        }
+        b.append("    ").append("* ").append(inboundChannels).append(" (max ").append(maxInboundChannels).append(") inbound channels\n");
+        b.append("    ").append("* ").append(outboundChannels).append(" (max ").append(maxOutboundChannels).append(") outbound channels\n");
+        if (Bits.allAreSet(behavior, Protocol.BH_CONNECTION_WINDOW)) {
+            b.append("    ").append("* Transmit window ").append(connectionTransmitWindow).append(" of ").append(connectionTransmitWindowSize).append('\n');
+            b.append("    ").append("* Receive window ").append(connectionReceiveWindow).append(" of ").append(connectionReceiveWindowSize).append(" (").append(connectionWindowPending).append(" pending)\n");
+        }
+        b.append("    ").append("* Channels:\n");
+        for (RemoteConnectionChannel connectionChannel : channels) {
+            connectionChannel.dumpState(b);
         }
     }
 }
@@ -0,0 +1,209 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the counters of one connection, or of all connections of a connection provider.  Message counts
+ * cover messages started on either side; a message which was cancelled or broken off is opened but never completed.
+ * Byte and frame counts include the connection handshake, in both directions.
+ * Exposed as {@code CompositeData} through {@link RemoteConnectionProviderMXBean}.
+ */
+public final class RemoteConnectionMetrics {
+    private final String name;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long framesSent;
+    private final long framesReceived;
+    private final long outboundMessagesOpened;
+    private final long outboundMessagesCompleted;
+    private final long inboundMessagesOpened;
+    private final long inboundMessagesCompleted;
+    private final long windowStalls;
+    private final long buffersAllocated;
+    private final int writeQueueDepth;
+    private final int inboundChannels;
+    private final int outboundChannels;
+
+    @ConstructorProperties({"name", "bytesSent", "bytesReceived", "framesSent", "framesReceived", "outboundMessagesOpened", "outboundMessagesCompleted", "inboundMessagesOpened", "inboundMessagesCompleted", "windowStalls", "buffersAllocated", "writeQueueDepth", "inboundChannels", "outboundChannels"})
+    public RemoteConnectionMetrics(final String name, final long bytesSent, final long bytesReceived, final long framesSent, final long framesReceived, final long outboundMessagesOpened, final long outboundMessagesCompleted, final long inboundMessagesOpened, final long inboundMessagesCompleted, final long windowStalls, final long buffersAllocated, final int writeQueueDepth, final int inboundChannels, final int outboundChannels) {
+        this.name = name;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.framesSent = framesSent;
+        this.framesReceived = framesReceived;
+        this.outboundMessagesOpened = outboundMessagesOpened;
+        this.outboundMessagesCompleted = outboundMessagesCompleted;
+        this.inboundMessagesOpened = inboundMessagesOpened;
+        this.inboundMessagesCompleted = inboundMessagesCompleted;
+        this.windowStalls = windowStalls;
+        this.buffersAllocated = buffersAllocated;
+        this.writeQueueDepth = writeQueueDepth;
+        this.inboundChannels = inboundChannels;
+        this.outboundChannels = outboundChannels;
+    }
+
+    static RemoteConnectionMetrics create(final String name, final long[] counts, final int writeQueueDepth, final int inboundChannels, final int outboundChannels) {
+        return new RemoteConnectionMetrics(name,
+                counts[Metrics.BYTES_SENT], counts[Metrics.BYTES_RECEIVED],
+                counts[Metrics.FRAMES_SENT], counts[Metrics.FRAMES_RECEIVED],
+                counts[Metrics.OUTBOUND_MESSAGES_OPENED], counts[Metrics.OUTBOUND_MESSAGES_COMPLETED],
+                counts[Metrics.INBOUND_MESSAGES_OPENED], counts[Metrics.INBOUND_MESSAGES_COMPLETED],
+                counts[Metrics.WINDOW_STALLS], counts[Metrics.BUFFERS_ALLOCATED],
+                writeQueueDepth, inboundChannels, outboundChannels);
+    }
+
+    /**
+     * Get the description of the connection, or {@code "total"} for the provider-wide totals.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of bytes handed to the connection for sending, including framing and any SASL wrapping.
+     *
+     * @return the number of bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Get the number of bytes received, including framing and any SASL wrapping.
+     *
+     * @return the number of bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Get the number of protocol frames handed to the connection for sending.
+     *
+     * @return the number of frames sent
+     */
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * Get the number of protocol frames received.
+     *
+     * @return the number of frames received
+     */
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * Get the number of outbound messages started.
+     *
+     * @return the number of outbound messages started
+     */
+    public long getOutboundMessagesOpened() {
+        return outboundMessagesOpened;
+    }
+
+    /**
+     * Get the number of outbound messages which were sent in full.
+     *
+     * @return the number of outbound messages completed
+     */
+    public long getOutboundMessagesCompleted() {
+        return outboundMessagesCompleted;
+    }
+
+    /**
+     * Get the number of inbound messages accepted.
+     *
+     * @return the number of inbound messages accepted
+     */
+    public long getInboundMessagesOpened() {
+        return inboundMessagesOpened;
+    }
+
+    /**
+     * Get the number of inbound messages which were received in full.
+     *
+     * @return the number of inbound messages completed
+     */
+    public long getInboundMessagesCompleted() {
+        return inboundMessagesCompleted;
+    }
+
+    /**
+     * Get the number of writes which had to wait for a message window or the connection window to open.
+     *
+     * @return the number of window stalls
+     */
+    public long getWindowStalls() {
+        return windowStalls;
+    }
+
+    /**
+     * Get the number of buffers taken from the message buffer pool.
+     *
+     * @return the number of buffers allocated
+     */
+    public long getBuffersAllocated() {
+        return buffersAllocated;
+    }
+
+    /**
+     * Get the number of frames waiting for the socket to become writable.
+     *
+     * @return the write queue depth
+     */
+    public int getWriteQueueDepth() {
+        return writeQueueDepth;
+    }
+
+    /**
+     * Get the number of open channels which were opened by the peer.
+     *
+     * @return the number of inbound channels
+     */
+    public int getInboundChannels() {
+        return inboundChannels;
+    }
+
+    /**
+     * Get the number of open channels which were opened locally.
+     *
+     * @return the number of outbound channels
+     */
+    public int getOutboundChannels() {
+        return outboundChannels;
+    }
+
+    public String toString() {
+        return String.format("%s: %d/%d bytes, %d/%d frames sent/received, %d/%d outbound and %d/%d inbound messages completed/opened, %d window stalls, %d buffers allocated, %d frames queued, %d inbound and %d outbound channels",
+                name, Long.valueOf(bytesSent), Long.valueOf(bytesReceived), Long.valueOf(framesSent), Long.valueOf(framesReceived),
+                Long.valueOf(outboundMessagesCompleted), Long.valueOf(outboundMessagesOpened), Long.valueOf(inboundMessagesCompleted), Long.valueOf(inboundMessagesOpened),
+                Long.valueOf(windowStalls), Long.valueOf(buffersAllocated), Integer.valueOf(writeQueueDepth), Integer.valueOf(inboundChannels), Integer.valueOf(outboundChannels));
+    }
+}
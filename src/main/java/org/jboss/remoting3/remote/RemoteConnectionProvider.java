@@ -27,21 +27,30 @@ import static org.jboss.remoting3.remote.RemoteLogger.server;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.GeneralSecurityException;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.security.auth.callback.CallbackHandler;
 
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import org.jboss.remoting3.CloseHandler;
 import org.jboss.remoting3.RemotingOptions;
@@ -56,6 +65,7 @@ import org.xnio.Buffers;
 import org.xnio.ByteBufferSlicePool;
 import org.xnio.Cancellable;
 import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
 import org.xnio.FutureResult;
 import org.xnio.IoFuture;
 import org.xnio.IoUtils;
@@ -63,9 +73,12 @@ import org.xnio.OptionMap;
 import org.xnio.Options;
 import org.xnio.Pool;
 import org.xnio.Result;
+import org.xnio.StreamConnection;
 import org.xnio.Xnio;
+import org.xnio.XnioIoThread;
 import org.xnio.XnioWorker;
 import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.AssembledConnectedStreamChannel;
 import org.xnio.channels.ConnectedSslStreamChannel;
 import org.xnio.channels.ConnectedStreamChannel;
 import org.xnio.channels.FramedMessageChannel;
@@ -92,10 +105,23 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
     private final ConnectionProviderContext connectionProviderContext;
     private final boolean sslEnabled;
     private final Collection<Cancellable> pendingInboundConnections = Collections.synchronizedSet(new HashSet<Cancellable>());
-    private final Set<RemoteConnectionHandler> handlers = Collections.synchronizedSet(new HashSet<RemoteConnectionHandler>());
+    /**
+     * The established connections; iteration is weakly consistent, so a state dump does not block connection churn.
+     */
+    private final Set<RemoteConnectionHandler> handlers = Collections.newSetFromMap(new ConcurrentHashMap<RemoteConnectionHandler, Boolean>());
     private final MBeanServer server;
     private final ObjectName objectName;
     private final int defaultBufferSize;
+    private final int gracefulCloseTimeout;
+    private final IoThreadBalancer ioThreadBalancer;
+    private final ServerMechanismCache serverMechanismCache;
+    private final ClientMechanismCache clientMechanismCache;
+    private final AuthenticationExecutor authenticationExecutor;
+    private final SessionTicketCache sessionTicketCache = new SessionTicketCache();
+    /**
+     * The counters of all connections ever established by this provider.
+     */
+    private final StripedCounters counters = new StripedCounters(Metrics.COUNT);
 
     RemoteConnectionProvider(final OptionMap optionMap, final ConnectionProviderContext connectionProviderContext) throws IOException {
         super(connectionProviderContext.getExecutor());
@@ -104,6 +130,22 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
         xnioWorker = connectionProviderContext.getXnioWorker();
         this.connectionProviderContext = connectionProviderContext;
         defaultBufferSize = optionMap.get(RemotingOptions.RECEIVE_BUFFER_SIZE, RemotingOptions.DEFAULT_RECEIVE_BUFFER_SIZE);
+        gracefulCloseTimeout = optionMap.get(RemotingOptions.GRACEFUL_CLOSE_TIMEOUT, RemotingOptions.DEFAULT_GRACEFUL_CLOSE_TIMEOUT);
+        ioThreadBalancer = optionMap.get(RemotingOptions.BALANCE_IO_THREADS, false) ? new IoThreadBalancer(xnioWorker) : null;
+        final boolean cacheSaslMechanisms = AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
+            public Boolean run() {
+                try {
+                    return Boolean.valueOf(System.getProperty("jboss.remoting.cache-sasl-mechanisms", "true"));
+                } catch (SecurityException e) {
+                    return Boolean.TRUE;
+                }
+            }
+        }).booleanValue();
+        serverMechanismCache = new ServerMechanismCache(cacheSaslMechanisms);
+        clientMechanismCache = new ClientMechanismCache(cacheSaslMechanisms);
+        final int authenticationThreads = optionMap.get(RemotingOptions.AUTHENTICATION_THREADS, Runtime.getRuntime().availableProcessors());
+        final int authenticationQueueSize = optionMap.get(RemotingOptions.AUTHENTICATION_QUEUE_SIZE, RemotingOptions.DEFAULT_AUTHENTICATION_QUEUE_SIZE);
+        authenticationExecutor = new AuthenticationExecutor(connectionProviderContext.getExecutor(), authenticationThreads, authenticationQueueSize);
         MBeanServer server = null;
         ObjectName objectName = null;
         try {
@@ -117,6 +159,23 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
                 public String dumpConnectionStateToString() {
                     return doGetConnectionState();
                 }
+
+                public Map<String, Long> getConnectionRoundTripTimes() {
+                    return doGetConnectionRoundTripTimes();
+                }
+
+                public void clearSaslMechanismCaches() {
+                    serverMechanismCache.clear();
+                    clientMechanismCache.clear();
+                }
+
+                public RemoteConnectionMetrics[] getConnectionMetrics() {
+                    return doGetConnectionMetrics();
+                }
+
+                public RemoteConnectionMetrics getTotalMetrics() {
+                    return doGetTotalMetrics();
+                }
             }, objectName);
         } catch (Exception e) {
             // ignore
@@ -133,11 +192,44 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
 
     private void doGetConnectionState(final StringBuilder b) {
         b.append("Connection state for ").append(this).append(':').append('\n');
-        synchronized (handlers) {
-            for (RemoteConnectionHandler handler : handlers) {
-                handler.dumpState(b);
+        for (RemoteConnectionHandler handler : handlers) {
+            handler.dumpState(b);
+        }
+    }
+
+    private Map<String, Long> doGetConnectionRoundTripTimes() {
+        final Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (RemoteConnectionHandler handler : handlers) {
+            final RemoteConnection connection = handler.getRemoteConnection();
+            final long rtt = connection.getSmoothedRtt();
+            if (rtt != -1L) {
+                map.put(connection.toString(), Long.valueOf(rtt / 1000L));
             }
         }
+        return map;
+    }
+
+    private RemoteConnectionMetrics[] doGetConnectionMetrics() {
+        final List<RemoteConnectionMetrics> list = new ArrayList<RemoteConnectionMetrics>();
+        for (RemoteConnectionHandler handler : handlers) {
+            list.add(handler.getMetrics());
+        }
+        return list.toArray(new RemoteConnectionMetrics[list.size()]);
+    }
+
+    private RemoteConnectionMetrics doGetTotalMetrics() {
+        final long[] counts = new long[Metrics.COUNT];
+        for (int i = 0; i < counts.length; i ++) {
+            counts[i] = counters.sum(i);
+        }
+        int writeQueueDepth = 0, inboundChannels = 0, outboundChannels = 0;
+        for (RemoteConnectionHandler handler : handlers) {
+            final RemoteConnectionMetrics metrics = handler.getMetrics();
+            writeQueueDepth += metrics.getWriteQueueDepth();
+            inboundChannels += metrics.getInboundChannels();
+            outboundChannels += metrics.getOutboundChannels();
+        }
+        return RemoteConnectionMetrics.create("total", counts, writeQueueDepth, inboundChannels, outboundChannels);
     }
 
     private String doGetConnectionState() {
@@ -243,9 +335,43 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
     }
 
     protected IoFuture<ConnectedStreamChannel> createConnection(final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final ChannelListener<ConnectedStreamChannel> openListener) {
+        final IoThreadBalancer ioThreadBalancer = this.ioThreadBalancer;
+        if (ioThreadBalancer != null) {
+            return connectBalanced(ioThreadBalancer.choose(), bindAddress, destination, connectOptions, openListener);
+        }
         return bindAddress == null ? xnioWorker.connectStream(destination, openListener, connectOptions) : xnioWorker.connectStream(bindAddress, destination, openListener, null, connectOptions);
     }
 
+    /**
+     * Connect on a specific I/O thread.  This is what {@link XnioWorker#connectStream} does, except that the worker
+     * chooses the thread blindly.
+     */
+    private static IoFuture<ConnectedStreamChannel> connectBalanced(final XnioIoThread thread, final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final ChannelListener<ConnectedStreamChannel> openListener) {
+        final FutureResult<ConnectedStreamChannel> futureResult = new FutureResult<ConnectedStreamChannel>();
+        final ChannelListener<StreamConnection> wrapListener = new ChannelListener<StreamConnection>() {
+            public void handleEvent(final StreamConnection connection) {
+                final ConnectedStreamChannel channel = new AssembledConnectedStreamChannel(connection, connection.getSourceChannel(), connection.getSinkChannel());
+                if (futureResult.setResult(channel)) {
+                    ChannelListeners.invokeChannelListener(channel, openListener);
+                } else {
+                    IoUtils.safeClose(channel);
+                }
+            }
+        };
+        final IoFuture<StreamConnection> future = bindAddress == null ? thread.openStreamConnection(destination, wrapListener, connectOptions) : thread.openStreamConnection(bindAddress, destination, wrapListener, null, connectOptions);
+        future.addNotifier(new IoFuture.HandlingNotifier<StreamConnection, Void>() {
+            public void handleCancelled(final Void attachment) {
+                futureResult.setCancelled();
+            }
+
+            public void handleFailed(final IOException exception, final Void attachment) {
+                futureResult.setException(exception);
+            }
+        }, null);
+        futureResult.addCancelHandler(future);
+        return futureResult.getIoFuture();
+    }
+
     protected IoFuture<ConnectedSslStreamChannel> createSslConnection(final SocketAddress bindAddress, final InetSocketAddress destination, final OptionMap connectOptions, final XnioSsl xnioSsl, final ChannelListener<ConnectedStreamChannel> openListener) {
         return bindAddress == null ? xnioSsl.connectSsl(xnioWorker, (InetSocketAddress) destination, openListener, connectOptions) : xnioSsl.connectSsl(xnioWorker, (InetSocketAddress) bindAddress, (InetSocketAddress) destination, openListener, connectOptions);
     }
@@ -277,31 +403,55 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
 
     void addConnectionHandler(final RemoteConnectionHandler connectionHandler) {
         handlers.add(connectionHandler);
+        final IoThreadBalancer.Load load = connectionHandler.getRemoteConnection().getIoThreadLoad();
+        if (load != null) {
+            ioThreadBalancer.connectionAdded(load);
+        }
     }
 
     void removeConnectionHandler(final RemoteConnectionHandler connectionHandler) {
-        handlers.remove(connectionHandler);
+        if (handlers.remove(connectionHandler)) {
+            final IoThreadBalancer.Load load = connectionHandler.getRemoteConnection().getIoThreadLoad();
+            if (load != null) {
+                ioThreadBalancer.connectionRemoved(load);
+            }
+        }
+    }
+
+    StripedCounters getCounters() {
+        return counters;
+    }
+
+    IoThreadBalancer getIoThreadBalancer() {
+        return ioThreadBalancer;
+    }
+
+    ServerMechanismCache getServerMechanismCache() {
+        return serverMechanismCache;
+    }
+
+    ClientMechanismCache getClientMechanismCache() {
+        return clientMechanismCache;
+    }
+
+    AuthenticationExecutor getAuthenticationExecutor() {
+        return authenticationExecutor;
+    }
+
+    int getGracefulCloseTimeout() {
+        return gracefulCloseTimeout;
+    }
+
+    SessionTicketCache getSessionTicketCache() {
+        return sessionTicketCache;
     }
 
     final class ProviderInterface implements NetworkServerProvider {
 
         public AcceptingChannel<? extends ConnectedStreamChannel> createServer(final SocketAddress bindAddress, final OptionMap optionMap, final ServerAuthenticationProvider authenticationProvider, XnioSsl xnioSsl) throws IOException {
             final AccessControlContext accessControlContext = AccessController.getContext();
-            final boolean sslCapable = sslEnabled;
             final AcceptListener acceptListener = new AcceptListener(optionMap, authenticationProvider, accessControlContext);
-            final AcceptingChannel<? extends ConnectedStreamChannel> result;
-            if (sslCapable && optionMap.get(Options.SSL_ENABLED, true)) {
-                if (xnioSsl == null) {
-                    try {
-                        xnioSsl = xnio.getSslProvider(optionMap);
-                    } catch (GeneralSecurityException e) {
-                        throw sslConfigFailure(e);
-                    }
-                }
-                result = xnioSsl.createSslTcpServer(xnioWorker, (InetSocketAddress) bindAddress, acceptListener, optionMap);
-            } else {
-                result = xnioWorker.createStreamServer(bindAddress, acceptListener, optionMap);
-            }
+            final AcceptingChannel<? extends ConnectedStreamChannel> result = createAcceptingChannel(bindAddress, optionMap, acceptListener, xnioSsl);
             addCloseHandler(new CloseHandler<ConnectionProvider>() {
                 public void handleClose(final ConnectionProvider closed, final IOException exception) {
                     IoUtils.safeClose(result);
@@ -312,6 +462,43 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
         }
     }
 
+    /**
+     * Create the channel on which a server accepts connections.  Accepted connections are handed to the given listener,
+     * which runs the server side of the protocol on them.
+     */
+    protected AcceptingChannel<? extends ConnectedStreamChannel> createAcceptingChannel(final SocketAddress bindAddress, final OptionMap optionMap, final ChannelListener<AcceptingChannel<? extends ConnectedStreamChannel>> acceptListener, XnioSsl xnioSsl) throws IOException {
+        if (sslEnabled && optionMap.get(Options.SSL_ENABLED, true)) {
+            if (xnioSsl == null) {
+                try {
+                    xnioSsl = xnio.getSslProvider(optionMap);
+                } catch (GeneralSecurityException e) {
+                    throw sslConfigFailure(e);
+                }
+            }
+            return xnioSsl.createSslTcpServer(xnioWorker, (InetSocketAddress) bindAddress, acceptListener, optionMap);
+        } else {
+            return xnioWorker.createStreamServer(bindAddress, acceptListener, optionMap);
+        }
+    }
+
+    /**
+     * Check that an address is one of this host, for transports which cannot leave it.
+     */
+    static InetSocketAddress checkLocalAddress(final SocketAddress address) throws IOException {
+        if (! (address instanceof InetSocketAddress)) {
+            throw new IllegalArgumentException("Address must be an InetSocketAddress");
+        }
+        final InetSocketAddress inetSocketAddress = (InetSocketAddress) address;
+        final InetAddress inetAddress = inetSocketAddress.getAddress();
+        if (inetAddress == null) {
+            throw new ConnectException("Unresolved address " + address);
+        }
+        if (! inetAddress.isLoopbackAddress() && ! inetAddress.isAnyLocalAddress() && NetworkInterface.getByInetAddress(inetAddress) == null) {
+            throw new ConnectException("Address " + address + " is not on this host");
+        }
+        return inetSocketAddress;
+    }
+
     protected Executor getExecutor() {
         return super.getExecutor();
     }
@@ -327,6 +514,7 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
         private final AccessControlContext accessControlContext;
         private final Pool<ByteBuffer> messageBufferPool;
         private final Pool<ByteBuffer> framingBufferPool;
+        private final SessionTicketIssuer sessionTicketIssuer;
 
         AcceptListener(final OptionMap serverOptionMap, final ServerAuthenticationProvider serverAuthenticationProvider, final AccessControlContext accessControlContext) {
             this.serverOptionMap = serverOptionMap;
@@ -336,9 +524,20 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
             messageBufferPool = USE_POOLING ? new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, messageBufferSize, messageBufferSize * 2) : Buffers.allocatedBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, messageBufferSize);
             final int framingBufferSize = messageBufferSize + 4;
             framingBufferPool = USE_POOLING ? new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, framingBufferSize, framingBufferSize * 2) : Buffers.allocatedBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, framingBufferSize);
+            final int sessionTicketLifetime = serverOptionMap.get(RemotingOptions.SESSION_TICKET_LIFETIME, 0);
+            // each server has its own ticket key, so a ticket only resumes a connection to the server which issued it
+            sessionTicketIssuer = sessionTicketLifetime > 0 ? new SessionTicketIssuer(sessionTicketLifetime) : null;
         }
 
         public void handleEvent(final AcceptingChannel<? extends ConnectedStreamChannel> channel) {
+            final IoThreadBalancer ioThreadBalancer = RemoteConnectionProvider.this.ioThreadBalancer;
+            if (ioThreadBalancer != null) {
+                final XnioIoThread thread = XnioIoThread.currentThread();
+                if (thread != null && ioThreadBalancer.deferAccept(thread)) {
+                    log.tracef("Leaving pending connection to a less loaded thread than %s", thread);
+                    return;
+                }
+            }
             final ConnectedStreamChannel accepted;
             try {
                 accepted = channel.accept();
@@ -349,6 +548,9 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
                 log.failedToAccept(e);
                 return;
             }
+            if (ioThreadBalancer != null) {
+                ioThreadBalancer.accepted();
+            }
             try {
                 accepted.setOption(Options.TCP_NODELAY, Boolean.TRUE);
             } catch (IOException e) {
@@ -357,7 +559,7 @@ class RemoteConnectionProvider extends AbstractHandleableCloseable<ConnectionPro
 
             final FramedMessageChannel messageChannel = new FramedMessageChannel(accepted, framingBufferPool.allocate(), framingBufferPool.allocate());
             final RemoteConnection connection = new RemoteConnection(messageBufferPool, accepted, messageChannel, serverOptionMap, RemoteConnectionProvider.this);
-            final ServerConnectionOpenListener openListener = new ServerConnectionOpenListener(connection, connectionProviderContext, serverAuthenticationProvider, serverOptionMap, accessControlContext);
+            final ServerConnectionOpenListener openListener = new ServerConnectionOpenListener(connection, connectionProviderContext, serverAuthenticationProvider, serverOptionMap, accessControlContext, sessionTicketIssuer);
             messageChannel.getWriteSetter().set(connection.getWriteListener());
             RemoteLogger.log.tracef("Accepted connection from %s to %s", accepted.getPeerAddress(), accepted.getLocalAddress());
             openListener.handleEvent(messageChannel);
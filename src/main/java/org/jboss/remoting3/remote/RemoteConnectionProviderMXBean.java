@@ -22,6 +22,8 @@
 
 package org.jboss.remoting3.remote;
 
+import java.util.Map;
+
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
@@ -29,4 +31,32 @@ public interface RemoteConnectionProviderMXBean {
     void dumpConnectionState();
 
     String dumpConnectionStateToString();
+
+    /**
+     * Get the smoothed round trip time of each connection which has been measured, in microseconds.
+     *
+     * @return a map of connection description to round trip time
+     */
+    Map<String, Long> getConnectionRoundTripTimes();
+
+    /**
+     * Discard the cached SASL client factories and server mechanisms, so that they are discovered again for the next
+     * connection.  Use this after making new SASL factories available through an existing class loader.
+     */
+    void clearSaslMechanismCaches();
+
+    /**
+     * Get the counters of each established connection.
+     *
+     * @return the metrics of each connection
+     */
+    RemoteConnectionMetrics[] getConnectionMetrics();
+
+    /**
+     * Get the counters summed over every connection this provider has established, including connections which have
+     * since closed.  The write queue depth and the channel counts are summed over the established connections only.
+     *
+     * @return the provider-wide metrics
+     */
+    RemoteConnectionMetrics getTotalMetrics();
 }
@@ -92,6 +92,16 @@ interface RemoteLogger extends BasicLogger {
     @Message(/* id = 210, */value = "Internal Error: received a message with a duplicate ID")
     IOException duplicateMessageIdException();
 
+    @Message(id = 211, value = "No heartbeat reply received from %s within %d milliseconds")
+    IOException heartbeatTimeout(SocketAddress peerAddress, int timeout);
+
+    @Message(id = 212, value = "Server is too busy to authenticate the connection; retry after %d milliseconds")
+    IOException serverBusy(int retryAfter);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 213, value = "An authentication step failed to execute")
+    void authenticationStepFailed(@Cause Throwable throwable);
+
     // non i18n
     @LogMessage(level = TRACE)
     @Message(value = "Message with unknown protocol ID %d received")
@@ -85,7 +85,9 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                             log.trace("No message ready; returning");
                             return;
                         }
+                        connection.countReceived(res);
                     }
+                    connection.recordTraffic(res);
                     buffer.flip();
                     if (saslWrapper != null) {
                         final ByteBuffer source = buffer.duplicate();
@@ -98,13 +100,31 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                         switch (protoId) {
                             case Protocol.CONNECTION_ALIVE: {
                                 log.trace("Received connection alive");
-                                connection.sendAliveResponse();
+                                connection.sendAliveResponse(buffer);
                                 return;
                             }
                             case Protocol.CONNECTION_ALIVE_ACK: {
                                 log.trace("Received connection alive ack");
+                                if (connection.handleAliveResponse(buffer)) {
+                                    handler.handleRttUpdate();
+                                }
                                 return;
                             }
+                            case Protocol.CONNECTION_WINDOW_OPEN: {
+                                log.trace("Received connection window open");
+                                handler.handleConnectionWindowOpen(buffer.getInt() & 0x7FFFFFFF);
+                                break;
+                            }
+                            case Protocol.SESSION_TICKET: {
+                                log.trace("Received session ticket");
+                                final SessionTicketCache.Key key = connection.getSessionTicketKey();
+                                final int lifetime = buffer.getInt();
+                                final byte[] secret = Buffers.take(buffer, SessionTicketIssuer.SECRET_LENGTH);
+                                if (key != null && lifetime > 0) {
+                                    connection.getRemoteConnectionProvider().getSessionTicketCache().put(key, Buffers.take(buffer), secret, lifetime);
+                                }
+                                break;
+                            }
                             case Protocol.CONNECTION_CLOSE: {
                                 log.trace("Received connection close request");
                                 handler.receiveCloseRequest();
@@ -119,6 +139,7 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                                 int outboundMessages = 0xffff;
                                 long inboundMessageSize = Long.MAX_VALUE;
                                 long outboundMessageSize = Long.MAX_VALUE;
+                                int optimisticWindow = 0;
                                 // parse out request
                                 int b;
                                 String serviceType = null;
@@ -154,6 +175,10 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                                             inboundMessageSize = Math.min(inboundMessageSize, ProtocolUtils.readLong(buffer));
                                             break;
                                         }
+                                        case Protocol.O_OPTIMISTIC_WINDOW_SIZE: {
+                                            optimisticWindow = Math.min(Protocol.OPTIMISTIC_OPEN_WINDOW_SIZE, ProtocolUtils.readInt(buffer));
+                                            break;
+                                        }
                                         default: {
                                             Buffers.skip(buffer, buffer.get() & 0xff);
                                             break;
@@ -181,7 +206,15 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                                 outboundWindow = Math.min(outboundWindow, serviceOptionMap.get(RemotingOptions.TRANSMIT_WINDOW_SIZE, RemotingOptions.INCOMING_CHANNEL_DEFAULT_TRANSMIT_WINDOW_SIZE));
                                 outboundMessages = Math.min(outboundMessages, serviceOptionMap.get(RemotingOptions.MAX_OUTBOUND_MESSAGES, RemotingOptions.INCOMING_CHANNEL_DEFAULT_MAX_OUTBOUND_MESSAGES));
                                 inboundWindow = Math.min(inboundWindow, serviceOptionMap.get(RemotingOptions.RECEIVE_WINDOW_SIZE, RemotingOptions.INCOMING_CHANNEL_DEFAULT_RECEIVE_WINDOW_SIZE));
+                                if (optimisticWindow > 0) {
+                                    // the requester may already have sent one message using this window
+                                    inboundWindow = Math.max(inboundWindow, optimisticWindow);
+                                }
+                                final int maxInboundWindow = serviceOptionMap.get(RemotingOptions.MAX_RECEIVE_WINDOW_SIZE, inboundWindow);
                                 inboundMessages = Math.min(inboundMessages, serviceOptionMap.get(RemotingOptions.MAX_INBOUND_MESSAGES, RemotingOptions.DEFAULT_MAX_INBOUND_MESSAGES));
+                                if (optimisticWindow > 0) {
+                                    inboundMessages = Math.max(inboundMessages, 1);
+                                }
                                 outboundMessageSize = Math.min(outboundMessageSize, serviceOptionMap.get(RemotingOptions.MAX_OUTBOUND_MESSAGE_SIZE, RemotingOptions.DEFAULT_MAX_OUTBOUND_MESSAGE_SIZE));
                                 inboundMessageSize = Math.min(inboundMessageSize, serviceOptionMap.get(RemotingOptions.MAX_INBOUND_MESSAGE_SIZE, RemotingOptions.DEFAULT_MAX_INBOUND_MESSAGE_SIZE));
 
@@ -194,7 +227,7 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                                 boolean ok1 = false;
                                 try {
                                     // construct the channel
-                                    RemoteConnectionChannel connectionChannel = new RemoteConnectionChannel(handler, connection, channelId, outboundWindow, inboundWindow, outboundMessages, inboundMessages, outboundMessageSize, inboundMessageSize);
+                                    RemoteConnectionChannel connectionChannel = new RemoteConnectionChannel(handler, connection, channelId, outboundWindow, inboundWindow, maxInboundWindow, outboundMessages, inboundMessages, outboundMessageSize, inboundMessageSize);
                                     RemoteConnectionChannel existing = handler.addChannel(connectionChannel);
                                     if (existing != null) {
                                         log.tracef("Encountered open request for duplicate %s", existing);
@@ -252,6 +285,10 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                                 if (connectionChannel == null) {
                                     // ignore the data
                                     log.tracef("Ignoring message data for expired channel");
+                                    // skip message ID and flags, but give back the window
+                                    final int dataSize = buffer.remaining() - 3;
+                                    handler.handleConnectionWindowReceived(dataSize);
+                                    handler.openConnectionWindow(dataSize);
                                     break;
                                 }
                                 connectionChannel.handleMessageData(pooled);
@@ -356,7 +393,13 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                                         }
                                     }
                                 }
-                                RemoteConnectionChannel newChannel = new RemoteConnectionChannel(handler, connection, channelId, outboundWindow, inboundWindow, outboundMessageCount, inboundMessageCount, outboundMessageSize, inboundMessageSize);
+                                final RemoteConnectionChannel optimisticChannel = pendingChannel.getOptimisticChannel();
+                                if (optimisticChannel != null) {
+                                    // already registered and handed out
+                                    optimisticChannel.handleOpenAck(outboundWindow, outboundMessageCount, outboundMessageSize);
+                                    break;
+                                }
+                                RemoteConnectionChannel newChannel = new RemoteConnectionChannel(handler, connection, channelId, outboundWindow, inboundWindow, pendingChannel.getMaxInboundWindowSize(), outboundMessageCount, inboundMessageCount, outboundMessageSize, inboundMessageSize);
                                 handler.putChannel(newChannel);
                                 pendingChannel.getResult().setResult(newChannel);
                                 break;
@@ -370,6 +413,11 @@ final class RemoteReadListener implements ChannelListener<ConnectedMessageChanne
                                     break;
                                 }
                                 String reason = new String(Buffers.take(buffer), Protocol.UTF_8);
+                                final RemoteConnectionChannel optimisticChannel = pendingChannel.getOptimisticChannel();
+                                if (optimisticChannel != null) {
+                                    optimisticChannel.handleOpenRefused(new IOException(reason));
+                                    break;
+                                }
                                 pendingChannel.getResult().setException(new IOException(reason));
                                 break;
                             }
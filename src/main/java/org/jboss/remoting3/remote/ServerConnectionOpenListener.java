@@ -32,15 +32,14 @@ import java.net.InetSocketAddress;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.security.AccessControlContext;
 import java.security.AccessController;
+import java.security.GeneralSecurityException;
 import java.security.Principal;
 import java.security.PrivilegedAction;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -69,7 +68,6 @@ import org.xnio.ChannelListener;
 import org.xnio.OptionMap;
 import org.xnio.Options;
 import org.xnio.Pooled;
-import org.xnio.Sequence;
 import org.xnio.channels.Channels;
 import org.xnio.channels.ConnectedMessageChannel;
 import org.xnio.channels.SslChannel;
@@ -87,13 +85,19 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
     private final AccessControlContext accessControlContext;
     private final AtomicInteger retryCount = new AtomicInteger(8);
     private final String serverName;
+    private final SessionTicketIssuer sessionTicketIssuer;
+    /**
+     * {@code true} if the client asked for session tickets and this server issues them.
+     */
+    private volatile boolean sessionTickets;
 
-    ServerConnectionOpenListener(final RemoteConnection connection, final ConnectionProviderContext connectionProviderContext, final ServerAuthenticationProvider serverAuthenticationProvider, final OptionMap optionMap, final AccessControlContext accessControlContext) {
+    ServerConnectionOpenListener(final RemoteConnection connection, final ConnectionProviderContext connectionProviderContext, final ServerAuthenticationProvider serverAuthenticationProvider, final OptionMap optionMap, final AccessControlContext accessControlContext, final SessionTicketIssuer sessionTicketIssuer) {
         this.connection = connection;
         this.connectionProviderContext = connectionProviderContext;
         this.serverAuthenticationProvider = serverAuthenticationProvider;
         this.optionMap = optionMap;
         this.accessControlContext = accessControlContext;
+        this.sessionTicketIssuer = sessionTicketIssuer;
         if (optionMap.contains(RemotingOptions.SERVER_NAME)) {
             serverName = optionMap.get(RemotingOptions.SERVER_NAME);
         } else {
@@ -136,6 +140,112 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
         }
     }
 
+    /**
+     * Run the first step of an authentication on the authentication executor, or turn the connection away with a
+     * retry hint if too many connections are authenticating already.
+     *
+     * @param task the first step
+     * @return {@code true} if the step was accepted, {@code false} if the connection was turned away
+     */
+    private boolean admitAuthentication(final Runnable task) {
+        final AuthenticationExecutor authenticationExecutor = connection.getRemoteConnectionProvider().getAuthenticationExecutor();
+        if (authenticationExecutor.admit(task)) {
+            return true;
+        }
+        // too many connections are authenticating; turn this one away so established traffic keeps its threads
+        final int retryAfter = authenticationExecutor.getRetryHint();
+        server.debugf("Turning away %s, too many pending authentications (retry after %d ms)", connection, Integer.valueOf(retryAfter));
+        final Pooled<ByteBuffer> pooled = connection.allocate();
+        boolean ok = false;
+        try {
+            final ByteBuffer sendBuffer = pooled.getResource();
+            sendBuffer.put(Protocol.CONNECTION_CLOSE);
+            sendBuffer.putInt(retryAfter);
+            sendBuffer.flip();
+            connection.send(pooled, true);
+            ok = true;
+            return false;
+        } finally {
+            if (! ok) pooled.free();
+        }
+    }
+
+    /**
+     * Get the binding of this connection's secure channel, to which session tickets are tied: the principal of a TLS
+     * peer which presented a certificate, or else the TLS session.  A channel which is secure without TLS has an empty
+     * binding.
+     *
+     * @return the binding, or {@code null} if the channel is not secure
+     */
+    private byte[] getChannelBinding() {
+        final SslChannel sslChannel = connection.getSslChannel();
+        final SSLSession session = sslChannel == null ? null : sslChannel.getSslSession();
+        if (session != null) {
+            byte[] bytes;
+            byte kind;
+            try {
+                bytes = session.getPeerPrincipal().getName().getBytes(Charset.forName("UTF-8"));
+                kind = 'P';
+            } catch (SSLPeerUnverifiedException e) {
+                bytes = session.getId();
+                kind = 'S';
+            }
+            final byte[] binding = new byte[bytes.length + 1];
+            binding[0] = kind;
+            System.arraycopy(bytes, 0, binding, 1, bytes.length);
+            return binding;
+        }
+        return Channels.getOption(connection.getChannel(), Options.SECURE, false) ? new byte[0] : null;
+    }
+
+    private void sendSessionTicket(final byte[] ticket) {
+        final byte[] secret = sessionTicketIssuer.secret(ticket);
+        if (secret == null) {
+            return;
+        }
+        server.trace("Server sending session ticket");
+        final Pooled<ByteBuffer> pooled = connection.allocate();
+        boolean ok = false;
+        try {
+            final ByteBuffer sendBuffer = pooled.getResource();
+            sendBuffer.put(Protocol.SESSION_TICKET);
+            sendBuffer.putInt(sessionTicketIssuer.getLifetime());
+            sendBuffer.put(secret);
+            sendBuffer.put(ticket);
+            sendBuffer.flip();
+            connection.send(pooled);
+            ok = true;
+        } finally {
+            if (! ok) pooled.free();
+        }
+    }
+
+    private Collection<Principal> createPrincipals(final String authorizationId) {
+        final Set<Principal> principals = new LinkedHashSet<Principal>();
+
+        final SslChannel sslChannel = connection.getSslChannel();
+        if (sslChannel != null) {
+            // It might be STARTTLS, in which case we can still opt out of SSL
+            final SSLSession session = sslChannel.getSslSession();
+            if (session != null) {
+                try {
+                    principals.add(session.getPeerPrincipal());
+                } catch (SSLPeerUnverifiedException ignored) {
+                }
+            }
+        }
+        if (authorizationId != null) {
+            principals.add(new UserPrincipal(authorizationId));
+        }
+        final ConnectedMessageChannel channel = connection.getChannel();
+        final InetSocketAddress address = channel.getPeerAddress(InetSocketAddress.class);
+        if (address != null) {
+            principals.add(new InetAddressPrincipal(address.getAddress()));
+        }
+
+        return Collections.unmodifiableCollection(principals);
+    }
+
     final class Initial implements ChannelListener<ConnectedMessageChannel> {
         private boolean starttls;
         private Map<String, ?> propertyMap;
@@ -143,6 +253,7 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
         private int version;
         private int channelsIn = 40;
         private int channelsOut = 40;
+        private int connectionWindow;
         private String remoteEndpointName;
         private int behavior = Protocol.BH_FAULTY_MSG_SIZE;
 
@@ -155,23 +266,17 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
             final SslChannel sslChannel = connection.getSslChannel();
             final boolean channelSecure = Channels.getOption(connection.getChannel(), Options.SECURE, false);
             starttls = ! (sslChannel == null || channelSecure);
-            final Map<String, ?> propertyMap;
-            final Map<String, SaslServerFactory> foundMechanisms = new LinkedHashMap<String, SaslServerFactory>();
-            propertyMap = SaslUtils.createPropertyMap(optionMap, channelSecure);
-            final Sequence<String> saslMechs = optionMap.get(Options.SASL_MECHANISMS);
-            final Set<String> restrictions = saslMechs == null ? null : new LinkedHashSet<String>(saslMechs);
-            final Sequence<String> saslNoMechs = optionMap.get(Options.SASL_DISALLOWED_MECHANISMS);
-            final Set<String> disallowed = saslNoMechs == null ? Collections.<String>emptySet() : new HashSet<String>(saslNoMechs);
-            final Iterator<SaslServerFactory> factories = SaslUtils.getSaslServerFactories(getClass().getClassLoader(), true);
+            final ServerMechanismCache.Mechanisms mechanisms = connection.getRemoteConnectionProvider().getServerMechanismCache().getMechanisms(optionMap, channelSecure, getClass().getClassLoader());
+            SaslServerFactory external = null;
             try {
-                if ((restrictions == null || restrictions.contains("EXTERNAL")) && ! disallowed.contains("EXTERNAL")) {
+                if (mechanisms.isExternalAllowed()) {
                     // only enable external if there is indeed an external auth layer to be had
                     SSLSession sslSession;
                     if (sslChannel != null && (sslSession = sslChannel.getSslSession()) != null) {
                         final Principal principal = sslSession.getPeerPrincipal();
                         // only enable external auth if there's a peer principal (else it's just ANONYMOUS)
                         if (principal != null) {
-                            foundMechanisms.put("EXTERNAL", new ExternalSaslServerFactory(principal));
+                            external = new ExternalSaslServerFactory(principal);
                         } else {
                             server.trace("No EXTERNAL mechanism due to lack of peer principal");
                         }
@@ -184,36 +289,8 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
             } catch (IOException e) {
                 // ignore
             }
-            while (factories.hasNext()) {
-                SaslServerFactory factory = factories.next();
-                server.tracef("Trying SASL server factory %s", factory);
-                for (String mechName : factory.getMechanismNames(propertyMap)) {
-                    if (restrictions != null && ! restrictions.contains(mechName)) {
-                        server.tracef("Excluding mechanism %s because it is not in the allowed list", mechName);
-                    } else if (disallowed.contains(mechName)) {
-                        server.tracef("Excluding mechanism %s because it is in the disallowed list", mechName);
-                    } else if (foundMechanisms.containsKey(mechName)) {
-                        server.tracef("Excluding repeated occurrence of mechanism %s", mechName);
-                    } else {
-                        server.tracef("Added mechanism %s", mechName);
-                        foundMechanisms.put(mechName, factory);
-                    }
-                }
-            }
-            this.propertyMap = propertyMap;
-            if (restrictions == null) {
-                // No need to re-order as an initial order was not passed in.
-                this.allowedMechanisms = foundMechanisms;
-            } else {
-                final Map<String, SaslServerFactory> allowedMechanisms = new LinkedHashMap<String, SaslServerFactory>();
-                for (String name : restrictions) {
-                    if (foundMechanisms.containsKey(name)) {
-                        allowedMechanisms.put(name, foundMechanisms.get(name));
-                    }
-                }
-
-                this.allowedMechanisms = allowedMechanisms;
-            }
+            this.propertyMap = mechanisms.getPropertyMap();
+            this.allowedMechanisms = mechanisms.getAllowedMechanisms(external);
         }
 
 
@@ -239,6 +316,7 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                         connection.handlePreAuthCloseRequest();
                         return;
                     }
+                    connection.countReceived(res);
                 }
                 receiveBuffer.flip();
                 final byte msgType = receiveBuffer.get();
@@ -250,11 +328,12 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                     }
                     case Protocol.CONNECTION_ALIVE: {
                         server.trace("Server received connection alive");
-                        connection.sendAliveResponse();
+                        connection.sendAliveResponse(receiveBuffer);
                         return;
                     }
                     case Protocol.CONNECTION_ALIVE_ACK: {
                         server.trace("Server received connection alive ack");
+                        connection.handleAliveResponse(receiveBuffer);
                         return;
                     }
                     case Protocol.CAPABILITIES: {
@@ -288,6 +367,11 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                     }
                     case Protocol.AUTH_REQUEST: {
                         server.tracef("Server received authentication request");
+                        if (allowedMechanisms == null) {
+                            // the client must ask for our capabilities first, even when it pipelines
+                            connection.handleException(RemoteLogger.log.invalidMessage(connection));
+                            return;
+                        }
                         if (retryCount.decrementAndGet() < 1) {
                             // no more tries left
                             connection.handleException(new SaslException("Too many authentication failures; connection terminated"), false);
@@ -334,10 +418,30 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                             return;
                         }
                         connection.getChannel().suspendReads();
-                        connection.getExecutor().execute(new AuthStepRunnable(true, saslServer, callbackHandler, pooledBuffer, remoteEndpointName, behavior, channelsIn, channelsOut));
+                        if (! admitAuthentication(new AuthStepRunnable(true, saslServer, callbackHandler, pooledBuffer, remoteEndpointName, behavior, channelsIn, channelsOut, connectionWindow))) {
+                            saslDispose(saslServer);
+                            return;
+                        }
                         free = false;
                         return;
                     }
+                    case Protocol.AUTH_RESUME: {
+                        server.tracef("Server received session resumption request");
+                        if (allowedMechanisms == null) {
+                            connection.handleException(RemoteLogger.log.invalidMessage(connection));
+                            return;
+                        }
+                        if (retryCount.decrementAndGet() < 1) {
+                            // no more tries left
+                            connection.handleException(new SaslException("Too many authentication failures; connection terminated"), false);
+                            return;
+                        }
+                        final byte[] nonce = Buffers.take(receiveBuffer, SessionTicketIssuer.NONCE_LENGTH);
+                        final byte[] ticket = Buffers.take(receiveBuffer);
+                        connection.getChannel().suspendReads();
+                        admitAuthentication(new ResumeRunnable(ticket, nonce, remoteEndpointName, behavior, channelsIn, channelsOut, connectionWindow));
+                        return;
+                    }
                     default: {
                         server.unknownProtocolId(msgType);
                         connection.handleException(RemoteLogger.log.invalidMessage(connection));
@@ -404,6 +508,27 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                         server.tracef("Server received capability: remote channels out is \"%d\"", channelsIn);
                         break;
                     }
+                    case Protocol.CAP_CONNECTION_WINDOW: {
+                        // their connection receive window is our connection transmit window
+                        connectionWindow = ProtocolUtils.readIntData(data, len);
+                        server.tracef("Server received capability: remote connection window is \"%d\"", connectionWindow);
+                        if (connectionWindow > 0 && optionMap.get(RemotingOptions.CONNECTION_RECEIVE_WINDOW_SIZE, RemotingOptions.DEFAULT_CONNECTION_RECEIVE_WINDOW_SIZE) > 0) {
+                            // only if both sides want it
+                            behavior |= Protocol.BH_CONNECTION_WINDOW;
+                        }
+                        break;
+                    }
+                    case Protocol.CAP_OPTIMISTIC_OPEN: {
+                        behavior |= Protocol.BH_OPTIMISTIC_OPEN;
+                        server.tracef("Server received capability: optimistic channel open supported");
+                        break;
+                    }
+                    case Protocol.CAP_SESSION_TICKET: {
+                        // tickets are bearer credentials, so they only travel on secure channels
+                        sessionTickets = sessionTicketIssuer != null && getChannelBinding() != null;
+                        server.tracef("Server received capability: session tickets wanted");
+                        break;
+                    }
                     default: {
                         server.tracef("Server received unknown capability %02x", Integer.valueOf(type & 0xff));
                         // unknown, skip it for forward compatibility.
@@ -444,6 +569,14 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                 ProtocolUtils.writeString(sendBuffer, Protocol.CAP_VERSION_STRING, Version.getVersionString());
                 ProtocolUtils.writeInt(sendBuffer, Protocol.CAP_CHANNELS_IN, optionMap.get(RemotingOptions.MAX_INBOUND_CHANNELS, RemotingOptions.DEFAULT_MAX_INBOUND_CHANNELS));
                 ProtocolUtils.writeInt(sendBuffer, Protocol.CAP_CHANNELS_OUT, optionMap.get(RemotingOptions.MAX_OUTBOUND_CHANNELS, RemotingOptions.DEFAULT_MAX_OUTBOUND_CHANNELS));
+                final int receiveWindow = optionMap.get(RemotingOptions.CONNECTION_RECEIVE_WINDOW_SIZE, RemotingOptions.DEFAULT_CONNECTION_RECEIVE_WINDOW_SIZE);
+                if (receiveWindow > 0) {
+                    ProtocolUtils.writeInt(sendBuffer, Protocol.CAP_CONNECTION_WINDOW, receiveWindow);
+                }
+                ProtocolUtils.writeEmpty(sendBuffer, Protocol.CAP_OPTIMISTIC_OPEN);
+                if (sessionTicketIssuer != null && getChannelBinding() != null) {
+                    ProtocolUtils.writeEmpty(sendBuffer, Protocol.CAP_SESSION_TICKET);
+                }
                 sendBuffer.flip();
                 connection.send(pooled);
                 ok = true;
@@ -454,7 +587,7 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
         }
     }
 
-    final class AuthStepRunnable implements Runnable {
+    final class AuthStepRunnable implements AuthenticationExecutor.Step {
 
         private final boolean isInitial;
         private final SaslServer saslServer;
@@ -464,8 +597,9 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
         private final int behavior;
         private final int maxInboundChannels;
         private final int maxOutboundChannels;
+        private final int connectionWindow;
 
-        AuthStepRunnable(final boolean isInitial, final SaslServer saslServer, final AuthorizingCallbackHandler authorizingCallbackHandler, final Pooled<ByteBuffer> buffer, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels) {
+        AuthStepRunnable(final boolean isInitial, final SaslServer saslServer, final AuthorizingCallbackHandler authorizingCallbackHandler, final Pooled<ByteBuffer> buffer, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels, final int connectionWindow) {
             this.isInitial = isInitial;
             this.saslServer = saslServer;
             this.authorizingCallbackHandler = authorizingCallbackHandler;
@@ -474,12 +608,34 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
             this.behavior = behavior;
             this.maxInboundChannels = maxInboundChannels;
             this.maxOutboundChannels = maxOutboundChannels;
+            this.connectionWindow = connectionWindow;
+        }
+
+        private byte[] issueSessionTicket() {
+            final Object qop = saslServer.getNegotiatedProperty(Sasl.QOP);
+            if ("auth-int".equals(qop) || "auth-conf".equals(qop)) {
+                // a resumed connection could not restore the security layer
+                return null;
+            }
+            final InetSocketAddress address = connection.getChannel().getPeerAddress(InetSocketAddress.class);
+            final byte[] binding = getChannelBinding();
+            return address == null || binding == null ? null : sessionTicketIssuer.issue(saslServer.getMechanismName(), saslServer.getAuthorizationID(), address.getAddress(), binding);
+        }
+
+        public boolean isLive() {
+            return connection.getChannel().isOpen();
+        }
+
+        public void discard() {
+            buffer.free();
+            saslDispose(saslServer);
         }
 
         @Override
         public void run() {
             boolean ok = false;
             boolean close = false;
+            byte[] ticket = null;
             try {
 
                 final Pooled<ByteBuffer> pooled = connection.allocate();
@@ -490,8 +646,11 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                         sendBuffer.put(Protocol.AUTH_COMPLETE);
                         if (SaslUtils.evaluateResponse(saslServer, sendBuffer, buffer.getResource())) {
                             server.tracef("Server sending authentication complete");
-                            final Collection<Principal> principals = createPrincipals();
+                            final Collection<Principal> principals = createPrincipals(saslServer.getAuthorizationID());
                             final UserInfo userInfo = authorizingCallbackHandler.createUserInfo(principals);
+                            if (sessionTickets) {
+                                ticket = issueSessionTicket();
+                            }
                             connectionProviderContext.accept(new ConnectionHandlerFactory() {
                                 public ConnectionHandler createInstance(final ConnectionHandlerContext connectionContext) {
                                     final Object qop = saslServer.getNegotiatedProperty(Sasl.QOP);
@@ -499,7 +658,7 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                                         connection.setSaslWrapper(SaslWrapper.create(saslServer));
                                     }
                                     final RemoteConnectionHandler connectionHandler = new RemoteConnectionHandler(
-                                        connectionContext, connection, principals, userInfo, maxInboundChannels, maxOutboundChannels, remoteEndpointName, behavior);
+                                        connectionContext, connection, principals, userInfo, maxInboundChannels, maxOutboundChannels, remoteEndpointName, behavior, connectionWindow, true);
                                     connection.getRemoteConnectionProvider().addConnectionHandler(connectionHandler);
                                     connection.setReadListener(new RemoteReadListener(connectionHandler, connection), false);
                                     return connectionHandler;
@@ -509,7 +668,7 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                             server.tracef("Server sending authentication challenge");
                             sendBuffer.put(p, Protocol.AUTH_CHALLENGE);
                             if (isInitial) {
-                                connection.setReadListener(new Authentication(saslServer, authorizingCallbackHandler, remoteEndpointName, behavior, maxInboundChannels, maxOutboundChannels), false);
+                                connection.setReadListener(new Authentication(saslServer, authorizingCallbackHandler, remoteEndpointName, behavior, maxInboundChannels, maxOutboundChannels, connectionWindow), false);
                             }
                         }
                     } catch (Throwable e) {
@@ -527,6 +686,9 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                     sendBuffer.flip();
                     connection.send(pooled, close);
                     ok = true;
+                    if (ticket != null) {
+                        sendSessionTicket(ticket);
+                    }
                     connection.getChannel().resumeReads();
                     return;
                 } finally {
@@ -538,35 +700,94 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                 buffer.free();
             }
         }
+    }
 
+    final class ResumeRunnable implements AuthenticationExecutor.Step {
 
-        private Collection<Principal> createPrincipals() {
-            final Set<Principal> principals = new LinkedHashSet<Principal>();
+        private final byte[] ticket;
+        private final byte[] nonce;
+        private final String remoteEndpointName;
+        private final int behavior;
+        private final int maxInboundChannels;
+        private final int maxOutboundChannels;
+        private final int connectionWindow;
 
-            final SslChannel sslChannel = connection.getSslChannel();
-            if (sslChannel != null) {
-                // It might be STARTTLS, in which case we can still opt out of SSL
-                final SSLSession session = sslChannel.getSslSession();
-                if (session != null) {
+        ResumeRunnable(final byte[] ticket, final byte[] nonce, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels, final int connectionWindow) {
+            this.ticket = ticket;
+            this.nonce = nonce;
+            this.remoteEndpointName = remoteEndpointName;
+            this.behavior = behavior;
+            this.maxInboundChannels = maxInboundChannels;
+            this.maxOutboundChannels = maxOutboundChannels;
+            this.connectionWindow = connectionWindow;
+        }
+
+        public boolean isLive() {
+            return connection.getChannel().isOpen();
+        }
+
+        public void discard() {
+        }
+
+        public void run() {
+            final InetSocketAddress address = connection.getChannel().getPeerAddress(InetSocketAddress.class);
+            final byte[] binding = getChannelBinding();
+            final SessionTicketIssuer.Session session = sessionTicketIssuer == null || address == null || binding == null ? null : sessionTicketIssuer.verify(ticket, address.getAddress(), binding);
+            final AuthorizingCallbackHandler authorizingCallbackHandler = session == null ? null : serverAuthenticationProvider.getCallbackHandler(session.getMechanismName());
+            byte[] proof = null;
+            if (authorizingCallbackHandler != null) {
+                final byte[] secret = sessionTicketIssuer.secret(ticket);
+                try {
+                    proof = secret == null ? null : SessionTicketIssuer.proof(secret, nonce);
+                } catch (GeneralSecurityException e) {
+                    server.tracef(e, "Failed to prove the session ticket key");
+                }
+            }
+            final Pooled<ByteBuffer> pooled = connection.allocate();
+            boolean ok = false;
+            try {
+                final ByteBuffer sendBuffer = pooled.getResource();
+                UserInfo userInfo = null;
+                Collection<Principal> principals = null;
+                if (proof != null) {
+                    principals = createPrincipals(session.getAuthorizationId());
                     try {
-                        principals.add(session.getPeerPrincipal());
-                    } catch (SSLPeerUnverifiedException ignored) {
+                        userInfo = authorizingCallbackHandler.createUserInfo(principals);
+                    } catch (IOException e) {
+                        server.tracef(e, "Failed to create user info for resumed session");
                     }
                 }
+                if (userInfo == null) {
+                    server.tracef("Server rejecting session resumption");
+                    sendBuffer.put(Protocol.AUTH_REJECTED);
+                } else {
+                    server.tracef("Server resuming session of %s", session.getAuthorizationId());
+                    final Collection<Principal> finalPrincipals = principals;
+                    final UserInfo finalUserInfo = userInfo;
+                    connectionProviderContext.accept(new ConnectionHandlerFactory() {
+                        public ConnectionHandler createInstance(final ConnectionHandlerContext connectionContext) {
+                            final RemoteConnectionHandler connectionHandler = new RemoteConnectionHandler(
+                                connectionContext, connection, finalPrincipals, finalUserInfo, maxInboundChannels, maxOutboundChannels, remoteEndpointName, behavior, connectionWindow, true);
+                            connection.getRemoteConnectionProvider().addConnectionHandler(connectionHandler);
+                            connection.setReadListener(new RemoteReadListener(connectionHandler, connection), false);
+                            return connectionHandler;
+                        }
+                    });
+                    sendBuffer.put(Protocol.AUTH_COMPLETE);
+                    sendBuffer.put(proof);
+                    final String authorizationId = session.getAuthorizationId();
+                    if (authorizationId != null) {
+                        Buffers.putModifiedUtf8(sendBuffer, authorizationId);
+                    }
+                }
+                sendBuffer.flip();
+                connection.send(pooled);
+                ok = true;
+                connection.getChannel().resumeReads();
+            } finally {
+                if (! ok) pooled.free();
             }
-            String authorizationId = saslServer.getAuthorizationID();
-            if (authorizationId != null) {
-                principals.add(new UserPrincipal(authorizationId));
-            }
-            final ConnectedMessageChannel channel = connection.getChannel();
-            final InetSocketAddress address = channel.getPeerAddress(InetSocketAddress.class);
-            if (address != null) {
-                principals.add(new InetAddressPrincipal(address.getAddress()));
-            }
-
-            return Collections.unmodifiableCollection(principals);
         }
-
     }
 
     final class Authentication implements ChannelListener<ConnectedMessageChannel> {
@@ -577,14 +798,16 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
         private final int behavior;
         private final int maxInboundChannels;
         private final int maxOutboundChannels;
+        private final int connectionWindow;
 
-        Authentication(final SaslServer saslServer, final AuthorizingCallbackHandler authorizingCallbackHandler, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels) {
+        Authentication(final SaslServer saslServer, final AuthorizingCallbackHandler authorizingCallbackHandler, final String remoteEndpointName, final int behavior, final int maxInboundChannels, final int maxOutboundChannels, final int connectionWindow) {
             this.saslServer = saslServer;
             this.authorizingCallbackHandler = authorizingCallbackHandler;
             this.remoteEndpointName = remoteEndpointName;
             this.behavior = behavior;
             this.maxInboundChannels = maxInboundChannels;
             this.maxOutboundChannels = maxOutboundChannels;
+            this.connectionWindow = connectionWindow;
         }
 
         public void handleEvent(final ConnectedMessageChannel channel) {
@@ -610,6 +833,7 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                     if (res == 0) {
                         return;
                     }
+                    connection.countReceived(res);
                 }
                 server.tracef("Received %s", buffer);
                 buffer.flip();
@@ -624,7 +848,7 @@ final class ServerConnectionOpenListener  implements ChannelListener<ConnectedMe
                     case Protocol.AUTH_RESPONSE: {
                         server.tracef("Server received authentication response");
                         connection.getChannel().suspendReads();
-                        connection.getExecutor().execute(new AuthStepRunnable(false, saslServer, authorizingCallbackHandler, pooledBuffer, remoteEndpointName, behavior, maxInboundChannels, maxOutboundChannels));
+                        connection.getRemoteConnectionProvider().getAuthenticationExecutor().execute(new AuthStepRunnable(false, saslServer, authorizingCallbackHandler, pooledBuffer, remoteEndpointName, behavior, maxInboundChannels, maxOutboundChannels, connectionWindow));
                         free = false;
                         return;
                     }
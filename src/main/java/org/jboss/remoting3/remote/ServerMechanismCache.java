@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.jboss.remoting3.remote.RemoteLogger.server;
+
+import java.security.Security;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.sasl.SaslServerFactory;
+
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Sequence;
+import org.xnio.sasl.SaslUtils;
+
+/**
+ * A cache of the SASL server mechanisms offered for a server configuration.  Discovering the mechanisms means scanning
+ * every SASL server factory, which is far more costly than the rest of the connection handshake, yet the result only
+ * depends on the server options, on whether the channel is secure, on the class loader and on the installed security
+ * providers.  The {@code EXTERNAL} mechanism depends on the peer of each connection and is never cached.
+ */
+final class ServerMechanismCache {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private final ConcurrentMap<MechanismCacheKey, Mechanisms> cache = new ConcurrentHashMap<MechanismCacheKey, Mechanisms>();
+    private final boolean enabled;
+
+    ServerMechanismCache(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get the mechanisms for a server configuration.
+     *
+     * @param optionMap the server options
+     * @param channelSecure {@code true} if the channel is already secure
+     * @param classLoader the class loader to find SASL server factories with
+     * @return the mechanisms
+     */
+    Mechanisms getMechanisms(final OptionMap optionMap, final boolean channelSecure, final ClassLoader classLoader) {
+        if (! enabled) {
+            return new Mechanisms(optionMap, channelSecure, classLoader);
+        }
+        final MechanismCacheKey key = new MechanismCacheKey(optionMap, channelSecure, classLoader, Security.getProviders());
+        Mechanisms mechanisms = cache.get(key);
+        if (mechanisms == null) {
+            mechanisms = new Mechanisms(optionMap, channelSecure, classLoader);
+            if (cache.size() >= MAX_ENTRIES) {
+                // configurations are few; so many keys means that the security providers keep changing
+                cache.clear();
+            }
+            final Mechanisms appearing = cache.putIfAbsent(key, mechanisms);
+            if (appearing != null) {
+                mechanisms = appearing;
+            }
+        } else {
+            server.trace("Using cached SASL mechanisms");
+        }
+        return mechanisms;
+    }
+
+    /**
+     * Discard all cached mechanisms.
+     */
+    void clear() {
+        cache.clear();
+    }
+
+    /**
+     * The SASL mechanisms offered for one server configuration, apart from a connection-specific {@code EXTERNAL}
+     * mechanism.
+     */
+    static final class Mechanisms {
+        private final Map<String, ?> propertyMap;
+        private final Set<String> restrictions;
+        private final boolean externalAllowed;
+        private final Map<String, SaslServerFactory> factories;
+
+        Mechanisms(final OptionMap optionMap, final boolean channelSecure, final ClassLoader classLoader) {
+            propertyMap = SaslUtils.createPropertyMap(optionMap, channelSecure);
+            final Sequence<String> saslMechs = optionMap.get(Options.SASL_MECHANISMS);
+            restrictions = saslMechs == null ? null : new LinkedHashSet<String>(saslMechs);
+            final Sequence<String> saslNoMechs = optionMap.get(Options.SASL_DISALLOWED_MECHANISMS);
+            final Set<String> disallowed = saslNoMechs == null ? Collections.<String>emptySet() : new HashSet<String>(saslNoMechs);
+            externalAllowed = (restrictions == null || restrictions.contains("EXTERNAL")) && ! disallowed.contains("EXTERNAL");
+            final Map<String, SaslServerFactory> foundMechanisms = new LinkedHashMap<String, SaslServerFactory>();
+            final Iterator<SaslServerFactory> factories = SaslUtils.getSaslServerFactories(classLoader, true);
+            while (factories.hasNext()) {
+                SaslServerFactory factory = factories.next();
+                server.tracef("Trying SASL server factory %s", factory);
+                for (String mechName : factory.getMechanismNames(propertyMap)) {
+                    if (restrictions != null && ! restrictions.contains(mechName)) {
+                        server.tracef("Excluding mechanism %s because it is not in the allowed list", mechName);
+                    } else if (disallowed.contains(mechName)) {
+                        server.tracef("Excluding mechanism %s because it is in the disallowed list", mechName);
+                    } else if (foundMechanisms.containsKey(mechName)) {
+                        server.tracef("Excluding repeated occurrence of mechanism %s", mechName);
+                    } else {
+                        server.tracef("Added mechanism %s", mechName);
+                        foundMechanisms.put(mechName, factory);
+                    }
+                }
+            }
+            this.factories = order(foundMechanisms);
+        }
+
+        Map<String, ?> getPropertyMap() {
+            return propertyMap;
+        }
+
+        /**
+         * Determine whether the server options allow the {@code EXTERNAL} mechanism.
+         *
+         * @return {@code true} if {@code EXTERNAL} is allowed
+         */
+        boolean isExternalAllowed() {
+            return externalAllowed;
+        }
+
+        /**
+         * Get the allowed mechanisms of a connection, in the order they are offered.
+         *
+         * @param external the factory for the connection's {@code EXTERNAL} mechanism, or {@code null} for none
+         * @return the mechanisms
+         */
+        Map<String, SaslServerFactory> getAllowedMechanisms(final SaslServerFactory external) {
+            if (external == null) {
+                return factories;
+            }
+            final Map<String, SaslServerFactory> foundMechanisms = new LinkedHashMap<String, SaslServerFactory>();
+            // the connection's own EXTERNAL mechanism comes first and supersedes any other
+            foundMechanisms.put("EXTERNAL", external);
+            for (Map.Entry<String, SaslServerFactory> entry : factories.entrySet()) {
+                if (! foundMechanisms.containsKey(entry.getKey())) {
+                    foundMechanisms.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return order(foundMechanisms);
+        }
+
+        private Map<String, SaslServerFactory> order(final Map<String, SaslServerFactory> foundMechanisms) {
+            if (restrictions == null) {
+                // No need to re-order as an initial order was not passed in.
+                return Collections.unmodifiableMap(foundMechanisms);
+            }
+            final Map<String, SaslServerFactory> allowedMechanisms = new LinkedHashMap<String, SaslServerFactory>();
+            for (String name : restrictions) {
+                if (foundMechanisms.containsKey(name)) {
+                    allowedMechanisms.put(name, foundMechanisms.get(name));
+                }
+            }
+            return Collections.unmodifiableMap(allowedMechanisms);
+        }
+    }
+}
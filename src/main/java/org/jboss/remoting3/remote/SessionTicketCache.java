@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.jboss.remoting3.remote.RemoteLogger.client;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.sasl.RealmCallback;
+
+import org.jboss.remoting3.security.PasswordClientCallbackHandler;
+import org.xnio.OptionMap;
+
+/**
+ * The session tickets which servers have issued to the outbound connections of a provider, for resuming a connection
+ * to the same server with the same options and credentials without repeating the SASL exchange.
+ */
+final class SessionTicketCache {
+
+    private static final int MAX_ENTRIES = 256;
+
+    private final ConcurrentMap<Key, Ticket> tickets = new ConcurrentHashMap<Key, Ticket>();
+
+    /**
+     * Get a ticket which has not yet expired.
+     *
+     * @param key the key
+     * @return the ticket, or {@code null} if there is none
+     */
+    Ticket get(final Key key) {
+        final Ticket ticket = tickets.get(key);
+        if (ticket == null) {
+            return null;
+        }
+        if (ticket.expiry - System.nanoTime() <= 0L) {
+            tickets.remove(key, ticket);
+            return null;
+        }
+        return ticket;
+    }
+
+    /**
+     * Store a ticket received from a server.
+     *
+     * @param key the key
+     * @param bytes the ticket
+     * @param secret the secret which goes with the ticket
+     * @param lifetime the ticket lifetime in milliseconds
+     */
+    void put(final Key key, final byte[] bytes, final byte[] secret, final int lifetime) {
+        final long now = System.nanoTime();
+        if (tickets.size() >= MAX_ENTRIES) {
+            final Iterator<Ticket> iterator = tickets.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expiry - now <= 0L) {
+                    iterator.remove();
+                }
+            }
+            if (tickets.size() >= MAX_ENTRIES) {
+                client.trace("Too many session tickets; discarding new ticket");
+                return;
+            }
+        }
+        // leave a margin so that the ticket is not presented just as it expires
+        tickets.put(key, new Ticket(bytes, secret, now + TimeUnit.MILLISECONDS.toNanos(lifetime - (lifetime >> 3))));
+    }
+
+    /**
+     * Forget the ticket for a key, typically because the server did not accept it.
+     *
+     * @param key the key
+     */
+    void remove(final Key key) {
+        tickets.remove(key);
+    }
+
+    /**
+     * Get the identity under which to file the tickets of a client callback handler.  A password handler is created
+     * for every connect, so its credentials stand for it, with the password digested; any other handler stands for
+     * itself.
+     *
+     * @param callbackHandler the client callback handler
+     * @return the identity
+     */
+    static Object identity(final CallbackHandler callbackHandler) {
+        if (callbackHandler instanceof PasswordClientCallbackHandler) {
+            final NameCallback nameCallback = new NameCallback("User name");
+            final RealmCallback realmCallback = new RealmCallback("Realm");
+            final PasswordCallback passwordCallback = new PasswordCallback("Password", false);
+            try {
+                // a password handler answers from its fields and never prompts
+                callbackHandler.handle(new Callback[] { nameCallback, realmCallback, passwordCallback });
+            } catch (Exception e) {
+                return callbackHandler;
+            }
+            final char[] password = passwordCallback.getPassword();
+            passwordCallback.clearPassword();
+            return new PasswordIdentity(nameCallback.getName(), realmCallback.getText(), password == null ? null : digest(password));
+        }
+        return callbackHandler;
+    }
+
+    private static byte[] digest(final char[] password) {
+        final ByteBuffer buffer = Charset.forName("UTF-8").encode(CharBuffer.wrap(password));
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    private static boolean equal(final Object a, final Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int hash(final Object o) {
+        return o == null ? 0 : o.hashCode();
+    }
+
+    static final class Ticket {
+        private final byte[] bytes;
+        private final byte[] secret;
+        private final long expiry;
+
+        Ticket(final byte[] bytes, final byte[] secret, final long expiry) {
+            this.bytes = bytes;
+            this.secret = secret;
+            this.expiry = expiry;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        byte[] getSecret() {
+            return secret;
+        }
+    }
+
+    static final class PasswordIdentity {
+        private final String userName;
+        private final String realmName;
+        private final byte[] digest;
+
+        PasswordIdentity(final String userName, final String realmName, final byte[] digest) {
+            this.userName = userName;
+            this.realmName = realmName;
+            this.digest = digest;
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof PasswordIdentity && equals((PasswordIdentity) obj);
+        }
+
+        boolean equals(final PasswordIdentity other) {
+            return this == other || other != null && equal(userName, other.userName) && equal(realmName, other.realmName) && MessageDigest.isEqual(digest, other.digest);
+        }
+
+        public int hashCode() {
+            return hash(userName) * 31 + hash(realmName);
+        }
+    }
+
+    static final class Key {
+        private final SocketAddress destination;
+        private final OptionMap optionMap;
+        private final Object identity;
+        private final int hashCode;
+
+        /**
+         * Construct a new instance.
+         *
+         * @param destination the server address
+         * @param optionMap the connect options
+         * @param identity the client {@linkplain #identity(CallbackHandler) identity}
+         */
+        Key(final SocketAddress destination, final OptionMap optionMap, final Object identity) {
+            this.destination = destination;
+            this.optionMap = optionMap;
+            this.identity = identity;
+            hashCode = (destination.hashCode() * 31 + optionMap.hashCode()) * 31 + hash(identity);
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && equals((Key) obj);
+        }
+
+        boolean equals(final Key other) {
+            return this == other || other != null && hashCode == other.hashCode && destination.equals(other.destination) && optionMap.equals(other.optionMap) && equal(identity, other.identity);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
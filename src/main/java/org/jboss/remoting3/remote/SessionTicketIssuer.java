@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.jboss.remoting3.remote.RemoteLogger.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Issues and verifies the session tickets of one server.  A ticket lets a client which has authenticated recently
+ * resume with the same authorization identity without repeating the SASL exchange.  It records the mechanism, the
+ * authorization ID, the client address, a binding to the secure channel it was issued on, and an expiry time, and is
+ * protected by a MAC under a random key which never leaves this instance, so tickets are only honoured by the server
+ * which issued them, and only until it is restarted.
+ * <p>
+ * A ticket is a bearer credential for its lifetime, so tickets are only issued and accepted on secure channels.  Along
+ * with each ticket the client receives a secret derived from it under the same key.  A server which accepts a ticket
+ * proves that it holds the key by returning a MAC of the client's nonce under that secret, so that a client cannot be
+ * made to resume with a server which merely claims to accept its ticket.
+ */
+final class SessionTicketIssuer {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    private static final int VERSION = 2;
+    // distinguishes the secret of a ticket from the MAC of its content
+    private static final byte SECRET_LABEL = 1;
+
+    /**
+     * The length of a ticket secret and of a proof.
+     */
+    static final int SECRET_LENGTH = MAC_LENGTH;
+
+    /**
+     * The length of the nonce a client sends with a ticket.
+     */
+    static final int NONCE_LENGTH = 16;
+
+    private final SecretKeySpec key;
+    private final int lifetime;
+
+    SessionTicketIssuer(final int lifetime) {
+        final byte[] bytes = new byte[MAC_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        key = new SecretKeySpec(bytes, MAC_ALGORITHM);
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Get the ticket lifetime.
+     *
+     * @return the lifetime in milliseconds
+     */
+    int getLifetime() {
+        return lifetime;
+    }
+
+    /**
+     * Issue a ticket.
+     *
+     * @param mechanismName the SASL mechanism which authenticated the client
+     * @param authorizationId the authorization ID, or {@code null} for none
+     * @param address the client address
+     * @param binding the binding of the secure channel the client authenticated on
+     * @return the ticket, or {@code null} if no ticket could be issued
+     */
+    byte[] issue(final String mechanismName, final String authorizationId, final InetAddress address, final byte[] binding) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream os = new DataOutputStream(bytes);
+            os.writeByte(VERSION);
+            os.writeLong(System.currentTimeMillis() + lifetime);
+            os.writeUTF(mechanismName);
+            os.writeBoolean(authorizationId != null);
+            if (authorizationId != null) {
+                os.writeUTF(authorizationId);
+            }
+            final byte[] addressBytes = address.getAddress();
+            os.writeByte(addressBytes.length);
+            os.write(addressBytes);
+            os.writeShort(binding.length);
+            os.write(binding);
+            os.write(mac(bytes.toByteArray()));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            server.tracef(e, "Failed to issue a session ticket");
+            return null;
+        } catch (GeneralSecurityException e) {
+            server.tracef(e, "Failed to issue a session ticket");
+            return null;
+        }
+    }
+
+    /**
+     * Get the secret which goes with a ticket.
+     *
+     * @param ticket the ticket
+     * @return the secret, or {@code null} if it could not be computed
+     */
+    byte[] secret(final byte[] ticket) {
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            mac.update(SECRET_LABEL);
+            return mac.doFinal(ticket);
+        } catch (GeneralSecurityException e) {
+            server.tracef(e, "Failed to compute a session ticket secret");
+            return null;
+        }
+    }
+
+    /**
+     * Compute the proof that a server holds the key of a ticket.
+     *
+     * @param secret the ticket secret
+     * @param nonce the client nonce
+     * @return the proof
+     * @throws GeneralSecurityException if the MAC algorithm is not available
+     */
+    static byte[] proof(final byte[] secret, final byte[] nonce) throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+        return mac.doFinal(nonce);
+    }
+
+    /**
+     * Verify a ticket presented by a client.
+     *
+     * @param ticket the ticket
+     * @param address the address the client connected from
+     * @param binding the binding of the secure channel the client connected on
+     * @return the session, or {@code null} if the ticket is not valid
+     */
+    Session verify(final byte[] ticket, final InetAddress address, final byte[] binding) {
+        if (ticket.length <= MAC_LENGTH) {
+            return null;
+        }
+        final byte[] content = Arrays.copyOf(ticket, ticket.length - MAC_LENGTH);
+        try {
+            if (! MessageDigest.isEqual(mac(content), Arrays.copyOfRange(ticket, content.length, ticket.length))) {
+                server.trace("Rejecting session ticket with a bad MAC");
+                return null;
+            }
+            final DataInputStream is = new DataInputStream(new ByteArrayInputStream(content));
+            if (is.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            if (is.readLong() - System.currentTimeMillis() < 0L) {
+                server.trace("Rejecting expired session ticket");
+                return null;
+            }
+            final String mechanismName = is.readUTF();
+            final String authorizationId = is.readBoolean() ? is.readUTF() : null;
+            final byte[] addressBytes = new byte[is.readUnsignedByte()];
+            is.readFully(addressBytes);
+            if (! Arrays.equals(addressBytes, address.getAddress())) {
+                server.trace("Rejecting session ticket issued to another address");
+                return null;
+            }
+            final byte[] bindingBytes = new byte[is.readUnsignedShort()];
+            is.readFully(bindingBytes);
+            if (! MessageDigest.isEqual(bindingBytes, binding)) {
+                server.trace("Rejecting session ticket issued on another secure channel");
+                return null;
+            }
+            return new Session(mechanismName, authorizationId);
+        } catch (IOException e) {
+            return null;
+        } catch (GeneralSecurityException e) {
+            server.tracef(e, "Failed to verify a session ticket");
+            return null;
+        }
+    }
+
+    private byte[] mac(final byte[] content) throws GeneralSecurityException {
+        final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(key);
+        return mac.doFinal(content);
+    }
+
+    /**
+     * The authentication recorded in a valid ticket.
+     */
+    static final class Session {
+        private final String mechanismName;
+        private final String authorizationId;
+
+        Session(final String mechanismName, final String authorizationId) {
+            this.mechanismName = mechanismName;
+            this.authorizationId = authorizationId;
+        }
+
+        String getMechanismName() {
+            return mechanismName;
+        }
+
+        String getAuthorizationId() {
+            return authorizationId;
+        }
+    }
+}
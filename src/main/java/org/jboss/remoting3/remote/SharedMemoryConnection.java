@@ -0,0 +1,525 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.xnio.IoUtils;
+import org.xnio.StreamConnection;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.ReadReadyHandler;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.StreamSourceConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+/**
+ * A stream connection over a pair of rings in a file mapped by both processes.  The connecting side creates the file;
+ * the accepting side maps it and marks it accepted.  Readiness is found by a {@link SharedMemoryPoller}, and the ready
+ * handlers are called on the connection's I/O thread, as they are for a socket.
+ */
+final class SharedMemoryConnection extends StreamConnection {
+
+    private static final int MAGIC = 0x52534d31;
+    private static final int VERSION = 1;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int STATE_OFFSET = 12;
+    // client to server, then server to client
+    private static final int RING_OFFSET = 64;
+    private static final int DATA_OFFSET = RING_OFFSET + 2 * SharedMemoryRing.CONTROL_SIZE;
+
+    private static final int STATE_REQUESTED = 0;
+    private static final int STATE_ACCEPTED = 1;
+
+    private static final long MAX_AWAIT_PARK = TimeUnit.MICROSECONDS.toNanos(500L);
+
+    private final SharedMemoryPoller poller;
+    // keeps the mapping alive for as long as the connection
+    private final MappedByteBuffer buffer;
+    private final SharedMemoryRing in;
+    private final SharedMemoryRing out;
+    private final InetSocketAddress localAddress;
+    private final InetSocketAddress peerAddress;
+    private final Source source = new Source();
+    private final Sink sink = new Sink();
+
+    SharedMemoryConnection(final XnioIoThread thread, final SharedMemoryPoller poller, final MappedByteBuffer buffer, final boolean server, final InetSocketAddress localAddress, final InetSocketAddress peerAddress) {
+        super(thread);
+        this.poller = poller;
+        this.buffer = buffer;
+        final int capacity = buffer.getInt(CAPACITY_OFFSET);
+        final SharedMemoryRing up = new SharedMemoryRing(buffer, RING_OFFSET, DATA_OFFSET, capacity, ! server);
+        final SharedMemoryRing down = new SharedMemoryRing(buffer, RING_OFFSET + SharedMemoryRing.CONTROL_SIZE, DATA_OFFSET + capacity, capacity, server);
+        in = server ? up : down;
+        out = server ? down : up;
+        this.localAddress = localAddress;
+        this.peerAddress = peerAddress;
+        setSourceConduit(source);
+        setSinkConduit(sink);
+    }
+
+    /**
+     * Create and map the file of a new connection.
+     *
+     * @param file the file to create
+     * @param capacity the size of each ring, rounded up to a power of two
+     * @return the mapped file
+     * @throws IOException if the file could not be created
+     */
+    static MappedByteBuffer create(final File file, final int capacity) throws IOException {
+        final int ringSize = Integer.highestOneBit(Math.max(capacity, 4096) - 1) << 1;
+        final MappedByteBuffer buffer = map(file, DATA_OFFSET + 2 * ringSize, true);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, ringSize);
+        buffer.putInt(STATE_OFFSET, STATE_REQUESTED);
+        SharedMemoryRing.initialize(buffer, RING_OFFSET);
+        SharedMemoryRing.initialize(buffer, RING_OFFSET + SharedMemoryRing.CONTROL_SIZE);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        return buffer;
+    }
+
+    /**
+     * Map the file of a connection made by a client.
+     *
+     * @param file the file
+     * @return the mapped file
+     * @throws IOException if the file could not be mapped or is not a connection
+     */
+    static MappedByteBuffer open(final File file) throws IOException {
+        final MappedByteBuffer buffer = map(file, -1, false);
+        if (buffer.capacity() < DATA_OFFSET || buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Invalid shared memory connection file " + file);
+        }
+        final int capacity = buffer.getInt(CAPACITY_OFFSET);
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || buffer.capacity() != DATA_OFFSET + 2 * capacity) {
+            throw new IOException("Invalid shared memory connection file " + file);
+        }
+        return buffer;
+    }
+
+    private static MappedByteBuffer map(final File file, final int size, final boolean create) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (create) {
+                raf.setLength(size);
+            }
+            // the mapping outlives the file and its channel
+            final FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    void accepted() {
+        buffer.putInt(STATE_OFFSET, STATE_ACCEPTED);
+    }
+
+    boolean isAccepted() {
+        return buffer.getInt(STATE_OFFSET) == STATE_ACCEPTED;
+    }
+
+    public SocketAddress getPeerAddress() {
+        return peerAddress;
+    }
+
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    protected void notifyWriteClosed() {
+        sink.terminated();
+    }
+
+    protected void notifyReadClosed() {
+        source.terminated();
+    }
+
+    protected void closeAction() throws IOException {
+        poller.remove(this);
+    }
+
+    /**
+     * Dispatch the ready handlers which should run.  Called by the poller.
+     *
+     * @return {@code true} if a handler was dispatched
+     */
+    boolean poll() {
+        return source.poll() | sink.poll();
+    }
+
+    private void await(final SharedMemoryRing ring, final boolean read, final long time, final TimeUnit timeUnit) throws IOException {
+        final long deadline = time < 0L ? Long.MAX_VALUE : System.nanoTime() + timeUnit.toNanos(time);
+        long park = 1000L;
+        while (! ready(ring, read) && isOpen()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                return;
+            }
+            LockSupport.parkNanos(this, Math.min(park, remaining));
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            park = Math.min(park << 1, MAX_AWAIT_PARK);
+        }
+    }
+
+    private boolean ready(final SharedMemoryRing ring, final boolean read) throws IOException {
+        try {
+            return read ? ring.available() > 0 || ring.isWriterClosed() : ring.space() > 0 || ring.isReaderClosed();
+        } catch (IOException e) {
+            IoUtils.safeClose(this);
+            throw e;
+        }
+    }
+
+    final class Source implements StreamSourceConduit, Runnable {
+
+        private volatile boolean resumed;
+        private volatile boolean wakeup;
+        private volatile boolean scheduled;
+        private volatile boolean shutdown;
+        private ReadReadyHandler handler;
+
+        boolean poll() {
+            if (resumed && ! scheduled && (wakeup || readable() || in.isWriterClosed())) {
+                scheduled = true;
+                thread.execute(this);
+                return true;
+            }
+            return false;
+        }
+
+        private boolean readable() {
+            try {
+                return in.available() > 0;
+            } catch (IOException e) {
+                // let the handler find the error
+                return true;
+            }
+        }
+
+        public void run() {
+            scheduled = false;
+            wakeup = false;
+            final ReadReadyHandler handler = this.handler;
+            if (resumed && ! shutdown && handler != null) {
+                handler.readReady();
+            }
+        }
+
+        void terminated() {
+            if (! shutdown) {
+                shutdown = true;
+                in.closeReads();
+                final ReadReadyHandler handler = this.handler;
+                if (handler != null) {
+                    handler.terminated();
+                }
+            }
+        }
+
+        public int read(final ByteBuffer dst) throws IOException {
+            if (shutdown) {
+                return -1;
+            }
+            try {
+                final int n = in.read(dst);
+                if (n == 0 && dst.hasRemaining() && in.isWriterClosed() && in.available() == 0) {
+                    return -1;
+                }
+                return n;
+            } catch (IOException e) {
+                IoUtils.safeClose(SharedMemoryConnection.this);
+                throw e;
+            }
+        }
+
+        public long read(final ByteBuffer[] dsts, final int offs, final int len) throws IOException {
+            long t = 0L;
+            for (int i = 0; i < len; i++) {
+                final ByteBuffer dst = dsts[offs + i];
+                if (! dst.hasRemaining()) {
+                    continue;
+                }
+                final int n = read(dst);
+                if (n == -1) {
+                    return t == 0L ? -1L : t;
+                }
+                t += n;
+                if (dst.hasRemaining()) {
+                    break;
+                }
+            }
+            return t;
+        }
+
+        public long transferTo(final long position, final long count, final FileChannel target) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 8192L));
+            final int n = read(buffer);
+            if (n <= 0) {
+                return 0L;
+            }
+            buffer.flip();
+            long t = 0L;
+            while (buffer.hasRemaining()) {
+                t += target.write(buffer, position + t);
+            }
+            return t;
+        }
+
+        public long transferTo(final long count, final ByteBuffer throughBuffer, final StreamSinkChannel target) throws IOException {
+            return Conduits.transfer(this, count, throughBuffer, target);
+        }
+
+        public void terminateReads() throws IOException {
+            if (! shutdown) {
+                terminated();
+                readClosed();
+            }
+        }
+
+        public boolean isReadShutdown() {
+            return shutdown;
+        }
+
+        public void resumeReads() {
+            resumed = true;
+            poller.wakeup();
+        }
+
+        public void suspendReads() {
+            resumed = false;
+        }
+
+        public void wakeupReads() {
+            wakeup = true;
+            resumeReads();
+        }
+
+        public boolean isReadResumed() {
+            return resumed;
+        }
+
+        public void awaitReadable() throws IOException {
+            await(in, true, -1L, TimeUnit.NANOSECONDS);
+        }
+
+        public void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
+            await(in, true, time, timeUnit);
+        }
+
+        public XnioIoThread getReadThread() {
+            return thread;
+        }
+
+        public void setReadReadyHandler(final ReadReadyHandler handler) {
+            this.handler = handler;
+        }
+
+        public XnioWorker getWorker() {
+            return thread.getWorker();
+        }
+    }
+
+    final class Sink implements StreamSinkConduit, Runnable {
+
+        private volatile boolean resumed;
+        private volatile boolean wakeup;
+        private volatile boolean scheduled;
+        private volatile boolean shutdown;
+        private WriteReadyHandler handler;
+
+        boolean poll() {
+            if (resumed && ! scheduled && (wakeup || writable() || out.isReaderClosed())) {
+                scheduled = true;
+                thread.execute(this);
+                return true;
+            }
+            return false;
+        }
+
+        private boolean writable() {
+            try {
+                return out.space() > 0;
+            } catch (IOException e) {
+                // let the handler find the error
+                return true;
+            }
+        }
+
+        public void run() {
+            scheduled = false;
+            wakeup = false;
+            final WriteReadyHandler handler = this.handler;
+            if (resumed && ! shutdown && handler != null) {
+                handler.writeReady();
+            }
+        }
+
+        void terminated() {
+            if (! shutdown) {
+                shutdown = true;
+                out.closeWrites();
+                final WriteReadyHandler handler = this.handler;
+                if (handler != null) {
+                    handler.terminated();
+                }
+            }
+        }
+
+        public int write(final ByteBuffer src) throws IOException {
+            if (shutdown) {
+                throw new ClosedChannelException();
+            }
+            if (out.isReaderClosed()) {
+                throw new IOException("Broken pipe");
+            }
+            try {
+                return out.write(src);
+            } catch (IOException e) {
+                IoUtils.safeClose(SharedMemoryConnection.this);
+                throw e;
+            }
+        }
+
+        public long write(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+            long t = 0L;
+            for (int i = 0; i < len; i++) {
+                final ByteBuffer src = srcs[offs + i];
+                if (! src.hasRemaining()) {
+                    continue;
+                }
+                t += write(src);
+                if (src.hasRemaining()) {
+                    break;
+                }
+            }
+            return t;
+        }
+
+        public int writeFinal(final ByteBuffer src) throws IOException {
+            return Conduits.writeFinalBasic(this, src);
+        }
+
+        public long writeFinal(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+            return Conduits.writeFinalBasic(this, srcs, offs, len);
+        }
+
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            final int space;
+            try {
+                space = out.space();
+            } catch (IOException e) {
+                IoUtils.safeClose(SharedMemoryConnection.this);
+                throw e;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Math.min(count, 8192L), space));
+            final int n = src.read(buffer, position);
+            if (n <= 0) {
+                return 0L;
+            }
+            buffer.flip();
+            return write(buffer);
+        }
+
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            return Conduits.transfer(source, count, throughBuffer, this);
+        }
+
+        public boolean flush() throws IOException {
+            // written bytes are visible to the peer at once
+            return true;
+        }
+
+        public void terminateWrites() throws IOException {
+            if (! shutdown) {
+                terminated();
+                writeClosed();
+            }
+        }
+
+        public void truncateWrites() throws IOException {
+            terminateWrites();
+        }
+
+        public boolean isWriteShutdown() {
+            return shutdown;
+        }
+
+        public void resumeWrites() {
+            resumed = true;
+            poller.wakeup();
+        }
+
+        public void suspendWrites() {
+            resumed = false;
+        }
+
+        public void wakeupWrites() {
+            wakeup = true;
+            resumeWrites();
+        }
+
+        public boolean isWriteResumed() {
+            return resumed;
+        }
+
+        public void awaitWritable() throws IOException {
+            await(out, false, -1L, TimeUnit.NANOSECONDS);
+        }
+
+        public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+            await(out, false, time, timeUnit);
+        }
+
+        public XnioIoThread getWriteThread() {
+            return thread;
+        }
+
+        public void setWriteReadyHandler(final WriteReadyHandler handler) {
+            this.handler = handler;
+        }
+
+        public XnioWorker getWorker() {
+            return thread.getWorker();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.MappedByteBuffer;
+import java.util.UUID;
+
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.spi.ConnectionProviderContext;
+import org.xnio.Cancellable;
+import org.xnio.ChannelListener;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.ssl.XnioSsl;
+
+/**
+ * Connection provider for the {@code remote} protocol between processes on the same host, carried over rings in shared
+ * memory instead of a socket.  The port of an address names a server directory under the
+ * {@linkplain RemotingOptions#SHARED_MEMORY_DIRECTORY shared memory directory}; the host must be this host.  SSL is
+ * not supported, since the data never leaves the host.
+ */
+final class SharedMemoryConnectionProvider extends RemoteConnectionProvider {
+
+    private static final long CONNECT_TIMEOUT = 10000L;
+
+    private final File base;
+    private final int bufferSize;
+    private final SharedMemoryPoller poller;
+
+    SharedMemoryConnectionProvider(final OptionMap optionMap, final ConnectionProviderContext connectionProviderContext) throws IOException {
+        super(OptionMap.builder().addAll(optionMap).set(Options.SSL_ENABLED, false).getMap(), connectionProviderContext);
+        if (! SharedMemoryRing.isSupported()) {
+            throw new IOException("Shared memory connections are not supported on this JVM");
+        }
+        final String directory = optionMap.get(RemotingOptions.SHARED_MEMORY_DIRECTORY);
+        if (directory != null) {
+            base = new File(directory);
+        } else {
+            final File shm = new File("/dev/shm");
+            base = shm.isDirectory() && shm.canWrite() ? shm : new File(System.getProperty("java.io.tmpdir"));
+        }
+        bufferSize = optionMap.get(RemotingOptions.SHARED_MEMORY_BUFFER_SIZE, RemotingOptions.DEFAULT_SHARED_MEMORY_BUFFER_SIZE);
+        poller = new SharedMemoryPoller("Remoting \"" + connectionProviderContext.getEndpoint().getName() + "\" shared memory poller");
+    }
+
+    @Override
+    protected IoFuture<ConnectedStreamChannel> createConnection(final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final ChannelListener<ConnectedStreamChannel> openListener) {
+        final FutureResult<ConnectedStreamChannel> futureResult = new FutureResult<ConnectedStreamChannel>();
+        futureResult.addCancelHandler(new Cancellable() {
+            public Cancellable cancel() {
+                futureResult.setCancelled();
+                return this;
+            }
+        });
+        try {
+            final InetSocketAddress address = checkLocalAddress(destination);
+            final File directory = SharedMemoryServer.getDirectory(base, address.getPort());
+            if (! SharedMemoryServer.isRunning(directory)) {
+                throw new ConnectException("Connection refused: no shared memory server in " + directory);
+            }
+            SharedMemoryServer.checkDirectory(directory);
+            final String name = UUID.randomUUID().toString();
+            final File temporary = new File(directory, name + SharedMemoryServer.TEMPORARY_SUFFIX);
+            final File file = new File(directory, name + SharedMemoryServer.CONNECTION_SUFFIX);
+            final MappedByteBuffer buffer;
+            try {
+                buffer = SharedMemoryConnection.create(temporary, connectOptions.get(RemotingOptions.SHARED_MEMORY_BUFFER_SIZE, bufferSize));
+                // the server only ever sees complete files
+                if (! temporary.renameTo(file)) {
+                    throw new IOException("Failed to create shared memory connection file " + file);
+                }
+            } catch (IOException e) {
+                temporary.delete();
+                throw e;
+            }
+            final SharedMemoryConnection connection = new SharedMemoryConnection(getXnioWorker().getIoThread(), poller, buffer, false, new InetSocketAddress(address.getAddress(), 0), address);
+            poller.connect(connection, file, CONNECT_TIMEOUT, futureResult, openListener);
+        } catch (IOException e) {
+            futureResult.setException(e);
+        }
+        return futureResult.getIoFuture();
+    }
+
+    @Override
+    protected AcceptingChannel<? extends ConnectedStreamChannel> createAcceptingChannel(final SocketAddress bindAddress, final OptionMap optionMap, final ChannelListener<AcceptingChannel<? extends ConnectedStreamChannel>> acceptListener, final XnioSsl xnioSsl) throws IOException {
+        final SharedMemoryServer server = SharedMemoryServer.create(poller, getXnioWorker(), base, checkLocalAddress(bindAddress));
+        server.getAcceptSetter().set(acceptListener);
+        return server;
+    }
+
+    protected void closeAction() {
+        try {
+            super.closeAction();
+        } finally {
+            poller.shutdown();
+        }
+    }
+
+    public String toString() {
+        return String.format("Remoting shared memory connection provider %x for %s", Integer.valueOf(hashCode()), getConnectionProviderContext().getEndpoint());
+    }
+}
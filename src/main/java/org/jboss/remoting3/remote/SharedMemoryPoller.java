@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.jboss.remoting3.remote.RemoteLogger.log;
+
+import java.io.File;
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.channels.AssembledConnectedStreamChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * The thread which finds ready shared memory connections, accepts connections on shared memory servers, and completes
+ * connection attempts.  There is no way for one process to wake a thread of another through shared memory, so the
+ * poller spins while there is work, then yields, then parks for exponentially longer times up to a bound, which is
+ * thus the most latency an idle connection sees.  Resuming reads or writes in this process wakes it at once.
+ */
+final class SharedMemoryPoller implements Runnable {
+
+    private static final int SPINS = 1000;
+    private static final int YIELDS = 100;
+    private static final long MIN_PARK = TimeUnit.MICROSECONDS.toNanos(1L);
+    private static final long MAX_PARK = TimeUnit.MICROSECONDS.toNanos(500L);
+    private static final long SCAN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private final String name;
+    private final List<SharedMemoryConnection> connections = new CopyOnWriteArrayList<SharedMemoryConnection>();
+    private final List<SharedMemoryServer> servers = new CopyOnWriteArrayList<SharedMemoryServer>();
+    private final List<Connect> connects = new CopyOnWriteArrayList<Connect>();
+    private volatile Thread thread;
+    private volatile boolean shutdown;
+
+    SharedMemoryPoller(final String name) {
+        this.name = name;
+    }
+
+    void add(final SharedMemoryConnection connection) {
+        connections.add(connection);
+        start();
+    }
+
+    void remove(final SharedMemoryConnection connection) {
+        connections.remove(connection);
+    }
+
+    void add(final SharedMemoryServer server) {
+        servers.add(server);
+        start();
+    }
+
+    void remove(final SharedMemoryServer server) {
+        servers.remove(server);
+    }
+
+    /**
+     * Wait for a server to accept a new connection.
+     *
+     * @param connection the connection
+     * @param file the connection file, which the server removes when it accepts
+     * @param timeout the time to wait in milliseconds
+     * @param futureResult the result to set
+     * @param openListener the listener to call once the connection is accepted
+     */
+    void connect(final SharedMemoryConnection connection, final File file, final long timeout, final FutureResult<ConnectedStreamChannel> futureResult, final ChannelListener<? super ConnectedStreamChannel> openListener) {
+        connects.add(new Connect(connection, file, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout), futureResult, openListener));
+        start();
+    }
+
+    void wakeup() {
+        final Thread thread = this.thread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+        wakeup();
+    }
+
+    private void start() {
+        if (thread == null) {
+            synchronized (this) {
+                if (thread == null && ! shutdown) {
+                    final Thread thread = new Thread(this, name);
+                    thread.setDaemon(true);
+                    thread.start();
+                    this.thread = thread;
+                }
+            }
+        }
+        wakeup();
+    }
+
+    public void run() {
+        int idle = 0;
+        long park = MIN_PARK;
+        long lastScan = System.nanoTime() - SCAN_INTERVAL;
+        while (! shutdown) {
+            boolean busy = false;
+            try {
+                for (SharedMemoryConnection connection : connections) {
+                    busy |= connection.poll();
+                }
+                final long now = System.nanoTime();
+                final boolean scan = now - lastScan >= SCAN_INTERVAL;
+                if (scan) {
+                    lastScan = now;
+                }
+                for (SharedMemoryServer server : servers) {
+                    busy |= server.poll(scan);
+                }
+                for (Connect connect : connects) {
+                    busy |= connect.poll(now);
+                }
+            } catch (Throwable t) {
+                log.tracef(t, "Unexpected failure in %s", name);
+            }
+            if (busy) {
+                idle = 0;
+                park = MIN_PARK;
+            } else if (idle < SPINS) {
+                idle++;
+            } else if (idle < SPINS + YIELDS) {
+                idle++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, park);
+                park = Math.min(park << 1, MAX_PARK);
+            }
+        }
+        for (Connect connect : connects) {
+            connect.fail(new ConnectException("Connection provider closed"));
+        }
+    }
+
+    private final class Connect {
+
+        private final SharedMemoryConnection connection;
+        private final File file;
+        private final long deadline;
+        private final FutureResult<ConnectedStreamChannel> futureResult;
+        private final ChannelListener<? super ConnectedStreamChannel> openListener;
+
+        Connect(final SharedMemoryConnection connection, final File file, final long deadline, final FutureResult<ConnectedStreamChannel> futureResult, final ChannelListener<? super ConnectedStreamChannel> openListener) {
+            this.connection = connection;
+            this.file = file;
+            this.deadline = deadline;
+            this.futureResult = futureResult;
+            this.openListener = openListener;
+        }
+
+        boolean poll(final long now) {
+            if (connection.isAccepted()) {
+                connects.remove(this);
+                final ConnectedStreamChannel channel = new AssembledConnectedStreamChannel(connection, connection.getSourceChannel(), connection.getSinkChannel());
+                if (futureResult.setResult(channel)) {
+                    add(connection);
+                    ChannelListeners.invokeChannelListener(connection.getIoThread(), channel, openListener);
+                } else {
+                    IoUtils.safeClose(connection);
+                }
+                return true;
+            } else if (futureResult.getIoFuture().getStatus() == IoFuture.Status.CANCELLED) {
+                fail(null);
+                return true;
+            } else if (now - deadline >= 0L) {
+                fail(new ConnectException("Connection timed out: no shared memory server accepted " + file));
+                return true;
+            }
+            return false;
+        }
+
+        void fail(final ConnectException e) {
+            connects.remove(this);
+            // if the server accepts regardless, it will find both rings closed
+            file.delete();
+            IoUtils.safeClose(connection);
+            if (e != null) {
+                futureResult.setException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+import sun.misc.Unsafe;
+
+/**
+ * One direction of a shared memory connection: a single-producer, single-consumer ring of bytes in a mapped file,
+ * shared between the writing and the reading process.  Each process uses a ring either for writing or for reading,
+ * never both.
+ * <p>
+ * The control block holds the write and read indices, which only ever increase, and a closed flag for each side.  The
+ * writer's and the reader's fields are on separate cache lines.  A writer copies data in and then publishes the new
+ * write index with an ordered store; a reader copies data out and then publishes the new read index likewise.  The other
+ * side reads each index with a volatile load before touching the data it covers.  Byte buffers offer no such accesses
+ * to mapped memory, so they are made on the mapped address with {@link Unsafe}; where it is not available, the
+ * transport is {@linkplain #isSupported() not supported}.  Indices are on aligned addresses, so that they are read and
+ * written whole.
+ * <p>
+ * The other side's index comes from another process, so it is checked before it is used: the number of unread bytes
+ * must lie between zero and the capacity.  A ring which breaks that is corrupt, and its users get an exception.
+ */
+final class SharedMemoryRing {
+
+    static final int CONTROL_SIZE = 128;
+
+    private static final int WRITE_INDEX = 0;
+    private static final int WRITER_CLOSED = 8;
+    private static final int READ_INDEX = 64;
+    private static final int READER_CLOSED = 72;
+
+    private static final Unsafe unsafe;
+    private static final long addressOffset;
+
+    static {
+        Unsafe theUnsafe = null;
+        long offset = -1L;
+        try {
+            theUnsafe = AccessController.doPrivileged(new PrivilegedAction<Unsafe>() {
+                public Unsafe run() {
+                    try {
+                        final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+                        field.setAccessible(true);
+                        return (Unsafe) field.get(null);
+                    } catch (Exception e) {
+                        return null;
+                    }
+                }
+            });
+            if (theUnsafe != null) {
+                offset = theUnsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+            }
+        } catch (Throwable t) {
+            theUnsafe = null;
+        }
+        unsafe = theUnsafe;
+        addressOffset = offset;
+    }
+
+    // absolute access only, so that it may be shared by all threads; it also keeps the mapping alive
+    private final ByteBuffer control;
+    private final long controlAddress;
+    // the data area; its position and limit belong to the thread using this side of the ring
+    private final ByteBuffer data;
+    private final int capacity;
+    private final int mask;
+    private final boolean writer;
+    // the index of this side, which only this process changes
+    private long index;
+
+    SharedMemoryRing(final ByteBuffer buffer, final int controlOffset, final int dataOffset, final int capacity, final boolean writer) {
+        control = buffer.duplicate();
+        controlAddress = unsafe.getLong(buffer, addressOffset) + controlOffset;
+        final ByteBuffer data = buffer.duplicate();
+        data.limit(dataOffset + capacity).position(dataOffset);
+        this.data = data.slice();
+        this.capacity = capacity;
+        mask = capacity - 1;
+        this.writer = writer;
+        index = load(writer ? WRITE_INDEX : READ_INDEX);
+    }
+
+    /**
+     * Determine whether rings may be used on this JVM.
+     *
+     * @return {@code true} if ordered and volatile accesses to mapped memory are available
+     */
+    static boolean isSupported() {
+        return unsafe != null && addressOffset != -1L;
+    }
+
+    /**
+     * Clear the control block of a ring in a newly created file.
+     */
+    static void initialize(final ByteBuffer buffer, final int controlOffset) {
+        buffer.putLong(controlOffset + WRITE_INDEX, 0L);
+        buffer.putInt(controlOffset + WRITER_CLOSED, 0);
+        buffer.putLong(controlOffset + READ_INDEX, 0L);
+        buffer.putInt(controlOffset + READER_CLOSED, 0);
+    }
+
+    int write(final ByteBuffer src) throws IOException {
+        assert writer;
+        final long writeIndex = index;
+        final int n = Math.min(capacity - check(writeIndex - load(READ_INDEX)), src.remaining());
+        if (n == 0) {
+            return 0;
+        }
+        final int pos = (int) (writeIndex & mask);
+        final int first = Math.min(n, capacity - pos);
+        final int limit = src.limit();
+        try {
+            src.limit(src.position() + first);
+            data.limit(pos + first).position(pos);
+            data.put(src);
+            if (first < n) {
+                src.limit(src.position() + n - first);
+                data.limit(n - first).position(0);
+                data.put(src);
+            }
+        } finally {
+            src.limit(limit);
+        }
+        store(WRITE_INDEX, index = writeIndex + n);
+        return n;
+    }
+
+    int read(final ByteBuffer dst) throws IOException {
+        assert ! writer;
+        final long readIndex = index;
+        final int n = Math.min(check(load(WRITE_INDEX) - readIndex), dst.remaining());
+        if (n == 0) {
+            return 0;
+        }
+        final int pos = (int) (readIndex & mask);
+        final int first = Math.min(n, capacity - pos);
+        data.limit(pos + first).position(pos);
+        dst.put(data);
+        if (first < n) {
+            data.limit(n - first).position(0);
+            dst.put(data);
+        }
+        store(READ_INDEX, index = readIndex + n);
+        return n;
+    }
+
+    /**
+     * Get the number of bytes which may be read.
+     */
+    int available() throws IOException {
+        // our own index is the one this process keeps; only the other one is untrusted
+        return writer ? check(index - load(READ_INDEX)) : check(load(WRITE_INDEX) - index);
+    }
+
+    /**
+     * Get the number of bytes which may be written.
+     */
+    int space() throws IOException {
+        return capacity - available();
+    }
+
+    void closeWrites() {
+        unsafe.putIntVolatile(null, controlAddress + WRITER_CLOSED, 1);
+    }
+
+    boolean isWriterClosed() {
+        return unsafe.getIntVolatile(null, controlAddress + WRITER_CLOSED) != 0;
+    }
+
+    void closeReads() {
+        unsafe.putIntVolatile(null, controlAddress + READER_CLOSED, 1);
+    }
+
+    boolean isReaderClosed() {
+        return unsafe.getIntVolatile(null, controlAddress + READER_CLOSED) != 0;
+    }
+
+    private int check(final long used) throws IOException {
+        if (used < 0L || used > capacity) {
+            throw new IOException("Corrupt shared memory ring: " + used + " unread bytes in a ring of " + capacity);
+        }
+        return (int) used;
+    }
+
+    private long load(final int offset) {
+        return unsafe.getLongVolatile(null, controlAddress + offset);
+    }
+
+    private void store(final int offset, final long value) {
+        unsafe.putOrderedLong(null, controlAddress + offset, value);
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.jboss.remoting3.remote.RemoteLogger.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.Principal;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.Option;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.AssembledConnectedStreamChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * A shared memory server.  A server owns a directory named after its port, which it holds a lock on for as long as it
+ * is open; clients make connections by renaming a new connection file into the directory.  The poller finds such files,
+ * and the server accepts them as it would sockets.
+ * <p>
+ * Since any file in the directory is taken for a connection, the directory must be the server user's own: it may not be
+ * a symbolic link or belong to another user, and it is made accessible to its owner only before the server starts.
+ */
+final class SharedMemoryServer implements AcceptingChannel<ConnectedStreamChannel> {
+
+    static final String CONNECTION_SUFFIX = ".conn";
+    static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final String LOCK_FILE = "server.lock";
+    private static final long MAX_AWAIT_PARK = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private final SharedMemoryPoller poller;
+    private final XnioWorker worker;
+    private final XnioIoThread thread;
+    private final File directory;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private final InetSocketAddress localAddress;
+    private final Queue<SharedMemoryConnection> pending = new ConcurrentLinkedQueue<SharedMemoryConnection>();
+    private final ChannelListener.SimpleSetter<SharedMemoryServer> acceptSetter = new ChannelListener.SimpleSetter<SharedMemoryServer>();
+    private final ChannelListener.SimpleSetter<SharedMemoryServer> closeSetter = new ChannelListener.SimpleSetter<SharedMemoryServer>();
+    private final AtomicBoolean open = new AtomicBoolean(true);
+    private volatile boolean resumed;
+    private volatile boolean wakeup;
+    private volatile boolean scheduled;
+
+    private final Runnable acceptTask = new Runnable() {
+        public void run() {
+            scheduled = false;
+            wakeup = false;
+            if (resumed && open.get()) {
+                ChannelListeners.invokeChannelListener(SharedMemoryServer.this, acceptSetter.get());
+            }
+        }
+    };
+
+    private SharedMemoryServer(final SharedMemoryPoller poller, final XnioWorker worker, final File directory, final RandomAccessFile lockFile, final FileLock lock, final InetSocketAddress localAddress) {
+        this.poller = poller;
+        this.worker = worker;
+        thread = worker.getIoThread();
+        this.directory = directory;
+        this.lockFile = lockFile;
+        this.lock = lock;
+        this.localAddress = localAddress;
+    }
+
+    static File getDirectory(final File base, final int port) {
+        return new File(base, "jboss-remoting-shm-" + port);
+    }
+
+    /**
+     * Create a server on the port of the given address.
+     *
+     * @param poller the poller of the connection provider
+     * @param worker the worker whose threads run the server's connections
+     * @param base the directory containing server directories
+     * @param bindAddress the bind address; its port names the server
+     * @return the server
+     * @throws IOException if the server directory could not be created, or already has a server
+     */
+    static SharedMemoryServer create(final SharedMemoryPoller poller, final XnioWorker worker, final File base, final InetSocketAddress bindAddress) throws IOException {
+        final int port = bindAddress.getPort();
+        if (port <= 0) {
+            throw new IllegalArgumentException("A shared memory server must be given a port number");
+        }
+        final File directory = getDirectory(base, port);
+        if (! directory.exists() && ! directory.mkdirs() && ! directory.isDirectory()) {
+            throw new IOException("Failed to create shared memory server directory " + directory);
+        }
+        checkDirectory(directory);
+        if (! (directory.setReadable(false, false) && directory.setWritable(false, false) && directory.setExecutable(false, false)
+                && directory.setReadable(true, true) && directory.setWritable(true, true) && directory.setExecutable(true, true))) {
+            throw new IOException("Failed to restrict access to shared memory server directory " + directory);
+        }
+        final RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        boolean ok = false;
+        try {
+            FileLock lock;
+            try {
+                lock = lockFile.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new BindException("Address already in use: a shared memory server is running in " + directory);
+            }
+            // connection files left by a server which went away without closing are stale, and any made before access
+            // was restricted are not to be trusted
+            final File[] files = directory.listFiles();
+            if (files != null) for (File file : files) {
+                if (file.getName().endsWith(CONNECTION_SUFFIX)) {
+                    file.delete();
+                }
+            }
+            final SharedMemoryServer server = new SharedMemoryServer(poller, worker, directory, lockFile, lock, bindAddress);
+            poller.add(server);
+            ok = true;
+            return server;
+        } finally {
+            if (! ok) {
+                IoUtils.safeClose(lockFile);
+            }
+        }
+    }
+
+    /**
+     * Check that a server directory belongs to this user.
+     *
+     * @param directory the server directory
+     * @throws IOException if the directory is not a directory, is a symbolic link, or is owned by another user
+     */
+    static void checkDirectory(final File directory) throws IOException {
+        if (! directory.isDirectory()) {
+            throw new IOException("Shared memory server directory " + directory + " is not a directory");
+        }
+        final File absolute = directory.getAbsoluteFile();
+        if (! absolute.getCanonicalFile().equals(new File(absolute.getParentFile().getCanonicalFile(), absolute.getName()))) {
+            throw new IOException("Shared memory server directory " + directory + " is a symbolic link");
+        }
+        final String owner = getOwner(directory);
+        if (owner != null && ! owner.equals(System.getProperty("user.name"))) {
+            throw new IOException("Shared memory server directory " + directory + " is owned by " + owner);
+        }
+    }
+
+    /**
+     * Get the name of the owner of a file.  File owners are only available from Java 7, so they are looked up
+     * reflectively.
+     *
+     * @param file the file
+     * @return the owner's name, or {@code null} if this Java version cannot tell
+     * @throws IOException if the owner could not be read
+     */
+    private static String getOwner(final File file) throws IOException {
+        final Object path;
+        final Method getOwner;
+        final Object noFollow;
+        try {
+            path = File.class.getMethod("toPath").invoke(file);
+            final Class<?> linkOption = Class.forName("java.nio.file.LinkOption");
+            noFollow = Array.newInstance(linkOption, 1);
+            Array.set(noFollow, 0, linkOption.getField("NOFOLLOW_LINKS").get(null));
+            getOwner = Class.forName("java.nio.file.Files").getMethod("getOwner", Class.forName("java.nio.file.Path"), noFollow.getClass());
+        } catch (Exception e) {
+            return null;
+        }
+        try {
+            return ((Principal) getOwner.invoke(null, path, noFollow)).getName();
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UnsupportedOperationException) {
+                // no owners on this file system
+                return null;
+            }
+            throw new IOException("Failed to read the owner of " + file, cause);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Determine whether a server is running in the given directory.
+     *
+     * @param directory the server directory
+     * @return {@code true} if a server holds the directory's lock
+     */
+    static boolean isRunning(final File directory) {
+        final File file = new File(directory, LOCK_FILE);
+        if (! file.exists()) {
+            return false;
+        }
+        RandomAccessFile lockFile = null;
+        try {
+            lockFile = new RandomAccessFile(file, "rw");
+            final FileLock lock = lockFile.getChannel().tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // held in this JVM
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            IoUtils.safeClose(lockFile);
+        }
+    }
+
+    /**
+     * Accept new connections and dispatch the accept listener.  Called by the poller.
+     *
+     * @param scan {@code true} to look for new connection files
+     * @return {@code true} if there was anything to do
+     */
+    boolean poll(final boolean scan) {
+        boolean busy = false;
+        if (scan && open.get()) {
+            busy = scan();
+        }
+        if (resumed && ! scheduled && (wakeup || ! pending.isEmpty())) {
+            scheduled = true;
+            thread.execute(acceptTask);
+            busy = true;
+        }
+        return busy;
+    }
+
+    private boolean scan() {
+        final File[] files = directory.listFiles();
+        boolean found = false;
+        if (files != null) for (File file : files) {
+            if (! file.getName().endsWith(CONNECTION_SUFFIX)) {
+                continue;
+            }
+            found = true;
+            try {
+                final MappedByteBuffer buffer = SharedMemoryConnection.open(file);
+                final SharedMemoryConnection connection = new SharedMemoryConnection(worker.getIoThread(), poller, buffer, true, localAddress, new InetSocketAddress(localAddress.getAddress(), 0));
+                connection.accepted();
+                poller.add(connection);
+                pending.add(connection);
+            } catch (IOException e) {
+                log.failedToAccept(e);
+            } finally {
+                // the mapping, if any, remains
+                file.delete();
+            }
+        }
+        if (! open.get()) {
+            closePending();
+        }
+        return found;
+    }
+
+    public ConnectedStreamChannel accept() throws IOException {
+        final SharedMemoryConnection connection = pending.poll();
+        return connection == null ? null : new AssembledConnectedStreamChannel(connection, connection.getSourceChannel(), connection.getSinkChannel());
+    }
+
+    public ChannelListener.Setter<SharedMemoryServer> getAcceptSetter() {
+        return acceptSetter;
+    }
+
+    public ChannelListener.Setter<SharedMemoryServer> getCloseSetter() {
+        return closeSetter;
+    }
+
+    public void suspendAccepts() {
+        resumed = false;
+    }
+
+    public void resumeAccepts() {
+        resumed = true;
+        poller.wakeup();
+    }
+
+    public boolean isAcceptResumed() {
+        return resumed;
+    }
+
+    public void wakeupAccepts() {
+        wakeup = true;
+        resumeAccepts();
+    }
+
+    public void awaitAcceptable() throws IOException {
+        awaitAcceptable(-1L, TimeUnit.NANOSECONDS);
+    }
+
+    public void awaitAcceptable(final long time, final TimeUnit timeUnit) throws IOException {
+        final long deadline = time < 0L ? Long.MAX_VALUE : System.nanoTime() + timeUnit.toNanos(time);
+        long park = 1000L;
+        while (pending.isEmpty() && open.get()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                return;
+            }
+            LockSupport.parkNanos(this, Math.min(park, remaining));
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            park = Math.min(park << 1, MAX_AWAIT_PARK);
+        }
+    }
+
+    @Deprecated
+    public XnioExecutor getAcceptThread() {
+        return thread;
+    }
+
+    public XnioIoThread getIoThread() {
+        return thread;
+    }
+
+    public XnioWorker getWorker() {
+        return worker;
+    }
+
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public <A extends SocketAddress> A getLocalAddress(final Class<A> type) {
+        return type.isInstance(localAddress) ? type.cast(localAddress) : null;
+    }
+
+    public boolean isOpen() {
+        return open.get();
+    }
+
+    public void close() throws IOException {
+        if (open.compareAndSet(true, false)) {
+            poller.remove(this);
+            closePending();
+            try {
+                new File(directory, LOCK_FILE).delete();
+                lock.release();
+            } finally {
+                IoUtils.safeClose(lockFile);
+                directory.delete();
+                ChannelListeners.invokeChannelListener(this, closeSetter.get());
+            }
+        }
+    }
+
+    private void closePending() {
+        SharedMemoryConnection connection;
+        while ((connection = pending.poll()) != null) {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    public boolean supportsOption(final Option<?> option) {
+        return false;
+    }
+
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return null;
+    }
+
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return null;
+    }
+
+    public String toString() {
+        return "shared memory server in " + directory;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed set of counters which are updated from many threads but seldom read.  Each thread adds to a row of cells
+ * chosen by its thread ID, and rows are padded to whole cache lines, so that threads on different CPUs rarely contend
+ * on the same line.  Reading a counter sums its cells over all rows.
+ */
+final class StripedCounters {
+
+    /**
+     * The number of {@code long} cells in a 64-byte cache line.
+     */
+    private static final int LINE = 8;
+    private static final int STRIPES;
+
+    static {
+        final int cpus = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 64));
+        STRIPES = Integer.highestOneBit((cpus << 1) - 1);
+    }
+
+    private final int count;
+    private final int rowSize;
+    private final AtomicLongArray cells;
+
+    StripedCounters(final int count) {
+        this.count = count;
+        rowSize = (count + LINE - 1) & ~(LINE - 1);
+        // a spare line on either side keeps the outer rows clear of the array header and of neighbouring objects
+        cells = new AtomicLongArray(rowSize * STRIPES + 2 * LINE);
+    }
+
+    void add(final int counter, final long delta) {
+        assert counter >= 0 && counter < count;
+        final int row = (int) Thread.currentThread().getId() & STRIPES - 1;
+        cells.getAndAdd(LINE + row * rowSize + counter, delta);
+    }
+
+    long sum(final int counter) {
+        assert counter >= 0 && counter < count;
+        long sum = 0L;
+        for (int i = LINE + counter; i < LINE + rowSize * STRIPES; i += rowSize) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.xnio.IoUtils;
+import org.xnio.StreamConnection;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.ReadReadyHandler;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.StreamSourceConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+/**
+ * A stream connection over a non-blocking Unix domain socket channel.  Readiness is found by a
+ * {@link UnixSocketSelector}, and the ready handlers are called on the connection's I/O thread, as they are for a
+ * TCP socket.
+ */
+final class UnixSocketConnection extends StreamConnection implements UnixSocketSelector.Registrant {
+
+    private final UnixSocketSelector selector;
+    private final SocketChannel channel;
+    private final InetSocketAddress localAddress;
+    private final InetSocketAddress peerAddress;
+    private final Source source = new Source();
+    private final Sink sink = new Sink();
+
+    UnixSocketConnection(final XnioIoThread thread, final UnixSocketSelector selector, final SocketChannel channel, final InetSocketAddress localAddress, final InetSocketAddress peerAddress) throws IOException {
+        super(thread);
+        this.selector = selector;
+        this.channel = channel;
+        this.localAddress = localAddress;
+        this.peerAddress = peerAddress;
+        channel.configureBlocking(false);
+        setSourceConduit(source);
+        setSinkConduit(sink);
+    }
+
+    public SocketAddress getPeerAddress() {
+        return peerAddress;
+    }
+
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public SelectableChannel getSelectableChannel() {
+        return channel;
+    }
+
+    public int getInterestOps() {
+        return source.getInterestOps() | sink.getInterestOps();
+    }
+
+    public void ready(final int ops) {
+        if ((ops & SelectionKey.OP_READ) != 0) {
+            source.dispatch();
+        }
+        if ((ops & SelectionKey.OP_WRITE) != 0) {
+            sink.dispatch();
+        }
+    }
+
+    protected void notifyWriteClosed() {
+        sink.terminated();
+    }
+
+    protected void notifyReadClosed() {
+        source.terminated();
+    }
+
+    protected void closeAction() throws IOException {
+        channel.close();
+    }
+
+    private void await(final int op, final long time, final TimeUnit timeUnit) throws IOException {
+        // for the rare blocking caller; the channel may be registered with more than one selector
+        final Selector awaitSelector = Selector.open();
+        try {
+            channel.register(awaitSelector, op);
+            if (time < 0L) {
+                awaitSelector.select();
+            } else {
+                final long millis = timeUnit.toMillis(time);
+                if (millis == 0L) {
+                    awaitSelector.selectNow();
+                } else {
+                    awaitSelector.select(millis);
+                }
+            }
+        } catch (ClosedChannelException ignored) {
+        } finally {
+            IoUtils.safeClose(awaitSelector);
+        }
+    }
+
+    public String toString() {
+        return "Unix domain socket connection to " + peerAddress;
+    }
+
+    final class Source implements StreamSourceConduit, Runnable {
+
+        private volatile boolean resumed;
+        private volatile boolean scheduled;
+        private volatile boolean shutdown;
+        private ReadReadyHandler handler;
+
+        int getInterestOps() {
+            return resumed && ! scheduled && ! shutdown ? SelectionKey.OP_READ : 0;
+        }
+
+        void dispatch() {
+            if (resumed && ! scheduled) {
+                scheduled = true;
+                thread.execute(this);
+            }
+        }
+
+        public void run() {
+            scheduled = false;
+            final ReadReadyHandler handler = this.handler;
+            if (resumed && ! shutdown && handler != null) {
+                handler.readReady();
+            }
+            if (resumed && ! shutdown) {
+                selector.update(UnixSocketConnection.this);
+            }
+        }
+
+        void terminated() {
+            if (! shutdown) {
+                shutdown = true;
+                final ReadReadyHandler handler = this.handler;
+                if (handler != null) {
+                    handler.terminated();
+                }
+            }
+        }
+
+        public int read(final ByteBuffer dst) throws IOException {
+            return shutdown ? -1 : channel.read(dst);
+        }
+
+        public long read(final ByteBuffer[] dsts, final int offs, final int len) throws IOException {
+            return shutdown ? -1L : channel.read(dsts, offs, len);
+        }
+
+        public long transferTo(final long position, final long count, final FileChannel target) throws IOException {
+            return shutdown ? 0L : target.transferFrom(channel, position, count);
+        }
+
+        public long transferTo(final long count, final ByteBuffer throughBuffer, final StreamSinkChannel target) throws IOException {
+            return Conduits.transfer(this, count, throughBuffer, target);
+        }
+
+        public void terminateReads() throws IOException {
+            if (! shutdown) {
+                terminated();
+                try {
+                    channel.shutdownInput();
+                } catch (ClosedChannelException ignored) {
+                }
+                readClosed();
+            }
+        }
+
+        public boolean isReadShutdown() {
+            return shutdown;
+        }
+
+        public void resumeReads() {
+            resumed = true;
+            selector.update(UnixSocketConnection.this);
+        }
+
+        public void suspendReads() {
+            resumed = false;
+        }
+
+        public void wakeupReads() {
+            resumed = true;
+            dispatch();
+        }
+
+        public boolean isReadResumed() {
+            return resumed;
+        }
+
+        public void awaitReadable() throws IOException {
+            await(SelectionKey.OP_READ, -1L, TimeUnit.MILLISECONDS);
+        }
+
+        public void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
+            await(SelectionKey.OP_READ, time, timeUnit);
+        }
+
+        public XnioIoThread getReadThread() {
+            return thread;
+        }
+
+        public void setReadReadyHandler(final ReadReadyHandler handler) {
+            this.handler = handler;
+        }
+
+        public XnioWorker getWorker() {
+            return thread.getWorker();
+        }
+    }
+
+    final class Sink implements StreamSinkConduit, Runnable {
+
+        private volatile boolean resumed;
+        private volatile boolean scheduled;
+        private volatile boolean shutdown;
+        private WriteReadyHandler handler;
+
+        int getInterestOps() {
+            return resumed && ! scheduled && ! shutdown ? SelectionKey.OP_WRITE : 0;
+        }
+
+        void dispatch() {
+            if (resumed && ! scheduled) {
+                scheduled = true;
+                thread.execute(this);
+            }
+        }
+
+        public void run() {
+            scheduled = false;
+            final WriteReadyHandler handler = this.handler;
+            if (resumed && ! shutdown && handler != null) {
+                handler.writeReady();
+            }
+            if (resumed && ! shutdown) {
+                selector.update(UnixSocketConnection.this);
+            }
+        }
+
+        void terminated() {
+            if (! shutdown) {
+                shutdown = true;
+                final WriteReadyHandler handler = this.handler;
+                if (handler != null) {
+                    handler.terminated();
+                }
+            }
+        }
+
+        public int write(final ByteBuffer src) throws IOException {
+            if (shutdown) {
+                throw new ClosedChannelException();
+            }
+            return channel.write(src);
+        }
+
+        public long write(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+            if (shutdown) {
+                throw new ClosedChannelException();
+            }
+            return channel.write(srcs, offs, len);
+        }
+
+        public int writeFinal(final ByteBuffer src) throws IOException {
+            return Conduits.writeFinalBasic(this, src);
+        }
+
+        public long writeFinal(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+            return Conduits.writeFinalBasic(this, srcs, offs, len);
+        }
+
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            if (shutdown) {
+                throw new ClosedChannelException();
+            }
+            return src.transferTo(position, count, channel);
+        }
+
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            return Conduits.transfer(source, count, throughBuffer, this);
+        }
+
+        public boolean flush() throws IOException {
+            return true;
+        }
+
+        public void terminateWrites() throws IOException {
+            if (! shutdown) {
+                terminated();
+                try {
+                    channel.shutdownOutput();
+                } catch (ClosedChannelException ignored) {
+                }
+                writeClosed();
+            }
+        }
+
+        public void truncateWrites() throws IOException {
+            terminateWrites();
+        }
+
+        public boolean isWriteShutdown() {
+            return shutdown;
+        }
+
+        public void resumeWrites() {
+            resumed = true;
+            selector.update(UnixSocketConnection.this);
+        }
+
+        public void suspendWrites() {
+            resumed = false;
+        }
+
+        public void wakeupWrites() {
+            resumed = true;
+            dispatch();
+        }
+
+        public boolean isWriteResumed() {
+            return resumed;
+        }
+
+        public void awaitWritable() throws IOException {
+            await(SelectionKey.OP_WRITE, -1L, TimeUnit.MILLISECONDS);
+        }
+
+        public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+            await(SelectionKey.OP_WRITE, time, timeUnit);
+        }
+
+        public XnioIoThread getWriteThread() {
+            return thread;
+        }
+
+        public void setWriteReadyHandler(final WriteReadyHandler handler) {
+            this.handler = handler;
+        }
+
+        public XnioWorker getWorker() {
+            return thread.getWorker();
+        }
+    }
+}
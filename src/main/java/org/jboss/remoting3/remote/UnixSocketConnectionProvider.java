@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.spi.ConnectionProviderContext;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.FailedIoFuture;
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.AssembledConnectedStreamChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.ssl.XnioSsl;
+
+/**
+ * Connection provider for the {@code remote} protocol between processes on the same host, carried over Unix domain
+ * sockets.  The port of an address names a socket file in the {@linkplain RemotingOptions#UNIX_SOCKET_DIRECTORY
+ * socket directory}; the host must be this host.  SSL is not supported, since the data never leaves the host.
+ */
+final class UnixSocketConnectionProvider extends RemoteConnectionProvider {
+
+    private final File directory;
+    private final UnixSocketSelector selector;
+
+    UnixSocketConnectionProvider(final OptionMap optionMap, final ConnectionProviderContext connectionProviderContext) throws IOException {
+        super(OptionMap.builder().addAll(optionMap).set(Options.SSL_ENABLED, false).getMap(), connectionProviderContext);
+        directory = new File(optionMap.get(RemotingOptions.UNIX_SOCKET_DIRECTORY, System.getProperty("java.io.tmpdir")));
+        selector = new UnixSocketSelector("Remoting \"" + connectionProviderContext.getEndpoint().getName() + "\" Unix domain socket selector");
+    }
+
+    @Override
+    protected IoFuture<ConnectedStreamChannel> createConnection(final SocketAddress bindAddress, final SocketAddress destination, final OptionMap connectOptions, final ChannelListener<ConnectedStreamChannel> openListener) {
+        SocketChannel channel = null;
+        try {
+            final InetSocketAddress address = checkLocalAddress(destination);
+            final File file = UnixSocketServer.getFile(directory, address.getPort());
+            if (! file.exists()) {
+                throw new ConnectException("Connection refused: no Unix domain socket " + file);
+            }
+            channel = UnixSockets.openChannel();
+            // connecting to a local socket does not wait on anything remote
+            channel.connect(UnixSockets.getAddress(file));
+            final UnixSocketConnection connection = new UnixSocketConnection(getXnioWorker().getIoThread(), selector, channel, new InetSocketAddress(address.getAddress(), 0), address);
+            channel = null;
+            final ConnectedStreamChannel connectedChannel = new AssembledConnectedStreamChannel(connection, connection.getSourceChannel(), connection.getSinkChannel());
+            ChannelListeners.invokeChannelListener(connection.getIoThread(), connectedChannel, openListener);
+            return new FinishedIoFuture<ConnectedStreamChannel>(connectedChannel);
+        } catch (IOException e) {
+            return new FailedIoFuture<ConnectedStreamChannel>(e);
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+
+    @Override
+    protected AcceptingChannel<? extends ConnectedStreamChannel> createAcceptingChannel(final SocketAddress bindAddress, final OptionMap optionMap, final ChannelListener<AcceptingChannel<? extends ConnectedStreamChannel>> acceptListener, final XnioSsl xnioSsl) throws IOException {
+        if (! directory.isDirectory() && ! directory.mkdirs() && ! directory.isDirectory()) {
+            throw new IOException("Failed to create Unix domain socket directory " + directory);
+        }
+        final UnixSocketServer server = UnixSocketServer.create(selector, getXnioWorker(), directory, checkLocalAddress(bindAddress));
+        server.getAcceptSetter().set(acceptListener);
+        return server;
+    }
+
+    protected void closeAction() {
+        try {
+            super.closeAction();
+        } finally {
+            selector.shutdown();
+        }
+    }
+
+    public String toString() {
+        return String.format("Remoting Unix domain socket connection provider %x for %s", Integer.valueOf(hashCode()), getConnectionProviderContext().getEndpoint());
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.IOException;
+
+import org.jboss.remoting3.spi.ConnectionProvider;
+import org.jboss.remoting3.spi.ConnectionProviderContext;
+import org.jboss.remoting3.spi.ConnectionProviderFactory;
+import org.xnio.OptionMap;
+
+/**
+ * A {@link org.jboss.remoting3.spi.ConnectionProviderFactory} for the {@code remote} protocol carried over Unix
+ * domain sockets between processes on the same host, usually registered under the {@code unix} scheme.  Unix domain
+ * socket channels need Java 16 or later; on older JVMs, creating a provider fails.
+ */
+public final class UnixSocketConnectionProviderFactory implements ConnectionProviderFactory {
+
+    /**
+     * Construct a new instance.
+     */
+    public UnixSocketConnectionProviderFactory() {
+    }
+
+    /** {@inheritDoc} */
+    public ConnectionProvider createInstance(final ConnectionProviderContext context, final OptionMap optionMap) throws IOException {
+        if (! UnixSockets.isSupported()) {
+            throw new IOException("Unix domain sockets are not supported by this JVM");
+        }
+        return new UnixSocketConnectionProvider(optionMap, context);
+    }
+}
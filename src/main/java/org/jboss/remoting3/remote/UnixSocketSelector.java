@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.jboss.remoting3.remote.RemoteLogger.log;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The thread which selects on the Unix domain socket channels of a connection provider.  XNIO cannot register these
+ * channels with its own selectors, so readiness is found here and the handlers are dispatched to the channels' XNIO
+ * I/O threads.  Interest in an operation is dropped while its handler is pending, and restored by the channel.
+ */
+final class UnixSocketSelector implements Runnable {
+
+    /**
+     * A channel registered with the selector.
+     */
+    interface Registrant {
+
+        SelectableChannel getSelectableChannel();
+
+        /**
+         * Get the operations the registrant currently wants to know about.
+         */
+        int getInterestOps();
+
+        /**
+         * Dispatch the handlers for the given ready operations.
+         */
+        void ready(int ops);
+    }
+
+    private final Selector selector;
+    private final Queue<Registrant> changes = new ConcurrentLinkedQueue<Registrant>();
+    private final Thread thread;
+    private volatile boolean shutdown;
+
+    UnixSocketSelector(final String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Bring the registration of a channel up to date with its interest.
+     */
+    void update(final Registrant registrant) {
+        changes.add(registrant);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    public void run() {
+        try {
+            while (! shutdown) {
+                Registrant registrant;
+                while ((registrant = changes.poll()) != null) {
+                    apply(registrant);
+                }
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    log.tracef(e, "Selector failure on %s", thread);
+                }
+                final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+                    iterator.remove();
+                    registrant = (Registrant) key.attachment();
+                    try {
+                        registrant.ready(key.readyOps());
+                        key.interestOps(registrant.getInterestOps());
+                    } catch (Throwable t) {
+                        log.tracef(t, "Failed to dispatch ready channel %s", registrant);
+                    }
+                }
+            }
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void apply(final Registrant registrant) {
+        final SelectableChannel channel = registrant.getSelectableChannel();
+        final SelectionKey key = channel.keyFor(selector);
+        try {
+            if (key == null) {
+                final int ops = registrant.getInterestOps();
+                if (ops != 0 && channel.isOpen()) {
+                    channel.register(selector, ops, registrant);
+                }
+            } else if (key.isValid()) {
+                key.interestOps(registrant.getInterestOps());
+            }
+        } catch (ClosedChannelException ignored) {
+        } catch (RuntimeException e) {
+            // cancelled concurrently
+            log.tracef(e, "Failed to update registration of %s", registrant);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.Option;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.AssembledConnectedStreamChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * A Unix domain socket server.  The socket file is named after the port of the server's address.
+ */
+final class UnixSocketServer implements AcceptingChannel<ConnectedStreamChannel>, UnixSocketSelector.Registrant {
+
+    private final UnixSocketSelector selector;
+    private final XnioWorker worker;
+    private final XnioIoThread thread;
+    private final ServerSocketChannel channel;
+    private final File file;
+    private final InetSocketAddress localAddress;
+    private final ChannelListener.SimpleSetter<UnixSocketServer> acceptSetter = new ChannelListener.SimpleSetter<UnixSocketServer>();
+    private final ChannelListener.SimpleSetter<UnixSocketServer> closeSetter = new ChannelListener.SimpleSetter<UnixSocketServer>();
+    private final AtomicBoolean open = new AtomicBoolean(true);
+    private volatile boolean resumed;
+    private volatile boolean scheduled;
+
+    private final Runnable acceptTask = new Runnable() {
+        public void run() {
+            scheduled = false;
+            if (resumed && open.get()) {
+                ChannelListeners.invokeChannelListener(UnixSocketServer.this, acceptSetter.get());
+                if (resumed) {
+                    selector.update(UnixSocketServer.this);
+                }
+            }
+        }
+    };
+
+    private UnixSocketServer(final UnixSocketSelector selector, final XnioWorker worker, final ServerSocketChannel channel, final File file, final InetSocketAddress localAddress) {
+        this.selector = selector;
+        this.worker = worker;
+        thread = worker.getIoThread();
+        this.channel = channel;
+        this.file = file;
+        this.localAddress = localAddress;
+    }
+
+    static File getFile(final File directory, final int port) {
+        return new File(directory, "jboss-remoting-" + port + ".sock");
+    }
+
+    /**
+     * Create a server on the port of the given address.
+     *
+     * @param selector the selector of the connection provider
+     * @param worker the worker whose threads run the server's connections
+     * @param directory the directory containing socket files
+     * @param bindAddress the bind address; its port names the socket file
+     * @return the server
+     * @throws IOException if the socket could not be bound
+     */
+    static UnixSocketServer create(final UnixSocketSelector selector, final XnioWorker worker, final File directory, final InetSocketAddress bindAddress) throws IOException {
+        final int port = bindAddress.getPort();
+        if (port <= 0) {
+            throw new IllegalArgumentException("A Unix domain socket server must be given a port number");
+        }
+        final File file = getFile(directory, port);
+        if (file.exists()) {
+            // a socket file outlives a server which went away without closing
+            SocketChannel probe = null;
+            try {
+                probe = UnixSockets.openChannel();
+                probe.connect(UnixSockets.getAddress(file));
+                throw new BindException("Address already in use: a Unix domain socket server is listening on " + file);
+            } catch (BindException e) {
+                throw e;
+            } catch (IOException e) {
+                file.delete();
+            } finally {
+                IoUtils.safeClose(probe);
+            }
+        }
+        final ServerSocketChannel channel = UnixSockets.openServerChannel();
+        boolean ok = false;
+        try {
+            channel.bind(UnixSockets.getAddress(file));
+            channel.configureBlocking(false);
+            ok = true;
+            return new UnixSocketServer(selector, worker, channel, file, bindAddress);
+        } finally {
+            if (! ok) {
+                IoUtils.safeClose(channel);
+            }
+        }
+    }
+
+    public SelectableChannel getSelectableChannel() {
+        return channel;
+    }
+
+    public int getInterestOps() {
+        return resumed && ! scheduled && open.get() ? SelectionKey.OP_ACCEPT : 0;
+    }
+
+    public void ready(final int ops) {
+        if (resumed && ! scheduled) {
+            scheduled = true;
+            thread.execute(acceptTask);
+        }
+    }
+
+    public ConnectedStreamChannel accept() throws IOException {
+        final SocketChannel accepted = channel.accept();
+        if (accepted == null) {
+            return null;
+        }
+        boolean ok = false;
+        try {
+            final UnixSocketConnection connection = new UnixSocketConnection(worker.getIoThread(), selector, accepted, localAddress, new InetSocketAddress(localAddress.getAddress(), 0));
+            ok = true;
+            return new AssembledConnectedStreamChannel(connection, connection.getSourceChannel(), connection.getSinkChannel());
+        } finally {
+            if (! ok) {
+                IoUtils.safeClose(accepted);
+            }
+        }
+    }
+
+    public ChannelListener.Setter<UnixSocketServer> getAcceptSetter() {
+        return acceptSetter;
+    }
+
+    public ChannelListener.Setter<UnixSocketServer> getCloseSetter() {
+        return closeSetter;
+    }
+
+    public void suspendAccepts() {
+        resumed = false;
+    }
+
+    public void resumeAccepts() {
+        resumed = true;
+        selector.update(this);
+    }
+
+    public boolean isAcceptResumed() {
+        return resumed;
+    }
+
+    public void wakeupAccepts() {
+        resumed = true;
+        ready(SelectionKey.OP_ACCEPT);
+    }
+
+    public void awaitAcceptable() throws IOException {
+        awaitAcceptable(-1L, TimeUnit.MILLISECONDS);
+    }
+
+    public void awaitAcceptable(final long time, final TimeUnit timeUnit) throws IOException {
+        final Selector awaitSelector = Selector.open();
+        try {
+            channel.register(awaitSelector, SelectionKey.OP_ACCEPT);
+            if (time < 0L) {
+                awaitSelector.select();
+            } else {
+                awaitSelector.select(Math.max(1L, timeUnit.toMillis(time)));
+            }
+        } finally {
+            IoUtils.safeClose(awaitSelector);
+        }
+    }
+
+    @Deprecated
+    public XnioExecutor getAcceptThread() {
+        return thread;
+    }
+
+    public XnioIoThread getIoThread() {
+        return thread;
+    }
+
+    public XnioWorker getWorker() {
+        return worker;
+    }
+
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    public <A extends SocketAddress> A getLocalAddress(final Class<A> type) {
+        return type.isInstance(localAddress) ? type.cast(localAddress) : null;
+    }
+
+    public boolean isOpen() {
+        return open.get();
+    }
+
+    public void close() throws IOException {
+        if (open.compareAndSet(true, false)) {
+            try {
+                channel.close();
+            } finally {
+                file.delete();
+                ChannelListeners.invokeChannelListener(this, closeSetter.get());
+            }
+        }
+    }
+
+    public boolean supportsOption(final Option<?> option) {
+        return false;
+    }
+
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return null;
+    }
+
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return null;
+    }
+
+    public String toString() {
+        return "Unix domain socket server on " + file;
+    }
+}
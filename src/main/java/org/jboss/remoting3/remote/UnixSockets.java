@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Access to Unix domain socket channels, which the JDK has from Java 16.  They are reached reflectively so that
+ * this code still compiles for, and loads on, older JVMs.
+ */
+final class UnixSockets {
+
+    private static final Object UNIX;
+    private static final Method OPEN_CHANNEL;
+    private static final Method OPEN_SERVER_CHANNEL;
+    private static final Method ADDRESS_OF;
+
+    static {
+        Object unix = null;
+        Method openChannel = null;
+        Method openServerChannel = null;
+        Method addressOf = null;
+        try {
+            final Class<?> protocolFamily = Class.forName("java.net.ProtocolFamily");
+            openChannel = SocketChannel.class.getMethod("open", protocolFamily);
+            openServerChannel = ServerSocketChannel.class.getMethod("open", protocolFamily);
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            unix = Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+        } catch (Throwable ignored) {
+            unix = null;
+        }
+        UNIX = unix;
+        OPEN_CHANNEL = openChannel;
+        OPEN_SERVER_CHANNEL = openServerChannel;
+        ADDRESS_OF = addressOf;
+    }
+
+    private UnixSockets() {
+    }
+
+    static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    static SocketChannel openChannel() throws IOException {
+        return (SocketChannel) invoke(OPEN_CHANNEL, UNIX);
+    }
+
+    static ServerSocketChannel openServerChannel() throws IOException {
+        return (ServerSocketChannel) invoke(OPEN_SERVER_CHANNEL, UNIX);
+    }
+
+    static SocketAddress getAddress(final File file) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, file.getPath());
+    }
+
+    private static Object invoke(final Method method, final Object arg) throws IOException {
+        if (UNIX == null) {
+            throw new IOException("Unix domain sockets are not supported by this JVM");
+        }
+        try {
+            return method.invoke(null, arg);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -28,6 +28,8 @@ import java.security.Principal;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.NameCallback;
@@ -44,7 +46,10 @@ public final class SimpleServerAuthenticationProvider implements ServerAuthentic
 
     private static final RemotingPermission ADD_USER_PERM = new RemotingPermission("addServerUser");
 
-    private final Map<String, Map<String, Entry>> map = new HashMap<String, Map<String, Entry>>();
+    // realm maps are never modified once published, so lookups need no lock; writers hold the lock on this map
+    private final ConcurrentMap<String, Map<String, Entry>> map = new ConcurrentHashMap<String, Map<String, Entry>>();
+    // users by name alone, for lookups without a realm; holds the entry from the first realm the user was added to
+    private final ConcurrentMap<String, Entry> userIndex = new ConcurrentHashMap<String, Entry>();
 
     /** {@inheritDoc}
      * @param mechanismName*/
@@ -69,24 +74,14 @@ public final class SimpleServerAuthenticationProvider implements ServerAuthentic
                     } else if (callback instanceof PasswordCallback) {
                         final PasswordCallback passwordCallback = (PasswordCallback) callback;
                         // retrieve the record based on user and realm (if any)
-                        Entry entry = null;
-                        if (realmName == null) {
-                            // scan all realms
-                            synchronized (map) {
-                                for (Map<String, Entry> realmMap : map.values()) {
-                                    if (realmMap.containsKey(userName)) {
-                                        entry = realmMap.get(userName);
-                                        break;
-                                    }
-                                }
-                            }
+                        final Entry entry;
+                        if (userName == null) {
+                            entry = null;
+                        } else if (realmName == null) {
+                            entry = userIndex.get(userName);
                         } else {
-                            synchronized (map) {
-                                final Map<String, Entry> realmMap = map.get(realmName);
-                                if (realmMap != null) {
-                                    entry = realmMap.get(userName);
-                                }
-                            }
+                            final Map<String, Entry> realmMap = map.get(realmName);
+                            entry = realmMap == null ? null : realmMap.get(userName);
                         }
                         if (entry == null) {
                             throw new AuthenticationException("No matching user found");
@@ -135,13 +130,16 @@ public final class SimpleServerAuthenticationProvider implements ServerAuthentic
         }
         final String canonUserRealm = userRealm.toLowerCase().trim();
         final String canonUserName = userName.toLowerCase().trim();
+        final Entry entry = new Entry(canonUserName, canonUserRealm, password, keyPairs);
         synchronized (map) {
-            Map<String, Entry> realmMap = map.get(canonUserRealm);
-            if (realmMap == null) {
-                realmMap = new HashMap<String, Entry>();
-                map.put(canonUserRealm, realmMap);
+            final Map<String, Entry> oldRealmMap = map.get(canonUserRealm);
+            final Map<String, Entry> realmMap = oldRealmMap == null ? new HashMap<String, Entry>() : new HashMap<String, Entry>(oldRealmMap);
+            realmMap.put(canonUserName, entry);
+            map.put(canonUserRealm, realmMap);
+            final Entry indexed = userIndex.get(canonUserName);
+            if (indexed == null || indexed.getUserRealm().equals(canonUserRealm)) {
+                userIndex.put(canonUserName, entry);
             }
-            realmMap.put(canonUserName, new Entry(canonUserName, canonUserRealm, password, keyPairs));
         }
     }
 
@@ -26,11 +26,9 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
-import java.util.IdentityHashMap;
-import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.jboss.remoting3.CloseHandler;
 import org.jboss.remoting3.HandleableCloseable;
 import org.jboss.remoting3.NotOpenException;
@@ -47,37 +45,47 @@ import org.jboss.logging.Logger;
 public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<T>> implements HandleableCloseable<T> {
 
     private static final Logger log = Logger.getLogger("org.jboss.remoting.resource");
-    private static final boolean LEAK_DEBUGGING;
 
     private final Executor executor;
-    private final StackTraceElement[] backtrace;
+    private final LeakDetector.Tracker tracker;
     private final boolean autoClose;
 
-    private final Object closeLock = new Object();
-    private State state = State.OPEN;
-    private IOException failure = null;
-    private Map<Key, CloseHandler<? super T>> closeHandlers = null;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AbstractHandleableCloseable, State> stateUpdater = AtomicReferenceFieldUpdater.newUpdater(AbstractHandleableCloseable.class, State.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AbstractHandleableCloseable, IOException> failureUpdater = AtomicReferenceFieldUpdater.newUpdater(AbstractHandleableCloseable.class, IOException.class, "failure");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AbstractHandleableCloseable, Node> closeHandlersUpdater = AtomicReferenceFieldUpdater.newUpdater(AbstractHandleableCloseable.class, Node.class, "closeHandlers");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AbstractHandleableCloseable, CountDownLatch> closedLatchUpdater = AtomicReferenceFieldUpdater.newUpdater(AbstractHandleableCloseable.class, CountDownLatch.class, "closedLatch");
+
+    /**
+     * Marks the handler list once the handlers have been taken to be run.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final Node TAKEN = new Node(null, null, null);
+
+    private volatile State state = State.OPEN;
+    private volatile IOException failure = null;
+    /**
+     * The close handlers, newest first, as an immutable list which is replaced as a whole.
+     */
+    private volatile Node<T> closeHandlers = null;
+    /**
+     * Created by the first thread to wait for the close to complete.
+     */
+    private volatile CountDownLatch closedLatch = null;
 
     enum State {
         OPEN,
         CLOSING,
+        /**
+         * An asynchronous close has failed and its failure is being stored; waiters treat this like {@code CLOSING}.
+         */
+        FAILING,
         CLOSED,
     }
 
-    static {
-        boolean b;
-        try {
-            b = Boolean.parseBoolean(AccessController.doPrivileged(new PrivilegedAction<String>() {
-                public String run() {
-                    return System.getProperty("jboss.remoting.leakdebugging", "false");
-                }
-            }));
-        } catch (SecurityException se) {
-            b = false;
-        }
-        LEAK_DEBUGGING = b;
-    }
-
     /**
      * Basic constructor.
      *
@@ -94,11 +102,22 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
      * @param autoClose {@code true} if this instance should automatically close on finalize
      */
     protected AbstractHandleableCloseable(final Executor executor, final boolean autoClose) {
+        this(executor, autoClose, null);
+    }
+
+    /**
+     * Basic constructor.
+     *
+     * @param executor the executor used to execute the close notification handlers
+     * @param autoClose {@code true} if this instance should automatically close on finalize
+     * @param owner the owner of this resource, to name if it is reported as leaked, or {@code null} for none
+     */
+    protected AbstractHandleableCloseable(final Executor executor, final boolean autoClose, final Object owner) {
         if (executor == null) {
             throw new NullPointerException("executor is null");
         }
         this.executor = executor;
-        backtrace = LEAK_DEBUGGING ? Thread.currentThread().getStackTrace() : null;
+        tracker = LeakDetector.sample() ? LeakDetector.track(this, owner) : null;
         this.autoClose = autoClose;
     }
 
@@ -109,9 +128,7 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
      * @return {@code true} if the resource is still open
      */
     protected boolean isOpen() {
-        synchronized (closeLock) {
-            return state == State.OPEN;
-        }
+        return state == State.OPEN;
     }
 
     /**
@@ -135,35 +152,23 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
     public void close() throws IOException {
         log.tracef("Closing %s synchronously", this);
         boolean first = false;
-        synchronized (closeLock) {
-            switch (state) {
-                case OPEN: {
-                    first = true;
-                    state = State.CLOSING;
-                    break;
-                }
-                case CLOSING: {
-                    break;
-                }
-                case CLOSED: return;
-                default: throw new IllegalStateException();
+        for (;;) {
+            final State state = this.state;
+            if (state == State.CLOSED) {
+                return;
+            } else if (state != State.OPEN) {
+                break;
+            } else if (stateUpdater.compareAndSet(this, State.OPEN, State.CLOSING)) {
+                first = true;
+                break;
             }
         }
         if (first) try {
             closeAction();
         } catch (IOException e) {
             log.tracef(e, "Close of %s failed", this);
-            final Map<Key, CloseHandler<? super T>> closeHandlers;
-            synchronized (closeLock) {
-                state = State.CLOSED;
-                closeHandlers = this.closeHandlers;
-                this.closeHandlers = null;
-                closeLock.notifyAll();
-            }
-            if (closeHandlers != null) {
-                for (final CloseHandler<? super T> handler : closeHandlers.values()) {
-                    runCloseTask(new CloseHandlerTask(handler, e));
-                }
+            if (stateUpdater.compareAndSet(this, State.CLOSING, State.CLOSED)) {
+                closed(e);
             }
             throw e;
         } catch (Throwable t) {
@@ -171,17 +176,16 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
             throw new IllegalStateException(t);
         }
 
-        final IOException failure;
-        synchronized (closeLock) {
-            while (state != State.CLOSED) try {
-                closeLock.wait();
+        if (state != State.CLOSED) {
+            final CountDownLatch latch = getClosedLatch();
+            if (state != State.CLOSED) try {
+                latch.await();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new InterruptedIOException("Interrupted while waiting for close to complete");
             }
-            failure = this.failure;
-            this.failure = null;
         }
+        final IOException failure = failureUpdater.getAndSet(this, null);
         if (failure != null) {
             final IOException clone = clone(failure);
             if (failure != clone) {
@@ -249,32 +253,19 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
      * Call when close is complete.
      */
     protected void closeComplete() {
-        final Map<Key, CloseHandler<? super T>> closeHandlers;
-        synchronized (closeLock) {
-            switch (state) {
-                case OPEN: {
+        for (;;) {
+            final State state = this.state;
+            if (state == State.CLOSED || state == State.FAILING) {
+                // idempotent
+                return;
+            }
+            if (stateUpdater.compareAndSet(this, state, State.CLOSED)) {
+                if (state == State.OPEN) {
                     log.tracef("Closing %s asynchronously", this);
-                    // fall thru
                 }
-                case CLOSING: {
-                    log.tracef("Completed close of %s", this);
-                    state = State.CLOSED;
-                    closeHandlers = this.closeHandlers;
-                    this.closeHandlers = null;
-                    break;
-                }
-                case CLOSED: {
-                    // idempotent
-                    return;
-                }
-                default:
-                    throw new IllegalStateException();
-            }
-            closeLock.notifyAll();
-        }
-        if (closeHandlers != null) {
-            for (final CloseHandler<? super T> handler : closeHandlers.values()) {
-                runCloseTask(new CloseHandlerTask(handler, null));
+                log.tracef("Completed close of %s", this);
+                closed(null);
+                return;
             }
         }
     }
@@ -285,38 +276,67 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
      * @param cause the failure cause
      */
     protected void closeFailed(IOException cause) {
-        final Map<Key, CloseHandler<? super T>> closeHandlers;
-        synchronized (closeLock) {
-            switch (state) {
-                case CLOSING: {
-                    log.tracef(cause, "Completed close of %s with failure", this);
-                    state = State.CLOSED;
-                    failure = cause;
-                    closeHandlers = this.closeHandlers;
-                    this.closeHandlers = null;
-                    break;
-                }
-                case CLOSED: {
-                    // idempotent
-                    return;
-                }
-                default:
-                    throw new IllegalStateException();
+        for (;;) {
+            final State state = this.state;
+            if (state == State.CLOSED || state == State.FAILING) {
+                // idempotent
+                return;
+            } else if (state != State.CLOSING) {
+                throw new IllegalStateException();
             }
-            closeLock.notifyAll();
-        }
-        if (closeHandlers != null) {
-            for (final CloseHandler<? super T> handler : closeHandlers.values()) {
-                runCloseTask(new CloseHandlerTask(handler, cause));
+            if (stateUpdater.compareAndSet(this, State.CLOSING, State.FAILING)) {
+                // only the winner stores the failure, and it is stored before anyone can see the close completed
+                failure = cause;
+                this.state = State.CLOSED;
+                log.tracef(cause, "Completed close of %s with failure", this);
+                closed(cause);
+                return;
             }
         }
     }
 
+    /**
+     * Release waiters and run the close handlers, once the state has become {@code CLOSED}.
+     */
+    @SuppressWarnings("unchecked")
+    private void closed(final IOException cause) {
+        if (tracker != null) {
+            tracker.close();
+        }
+        final CountDownLatch latch = closedLatch;
+        if (latch != null) {
+            latch.countDown();
+        }
+        Node<T> node = closeHandlersUpdater.getAndSet(this, TAKEN);
+        if (node == null || node == TAKEN) {
+            return;
+        }
+        // run in the order they were added
+        Node<T> reversed = null;
+        for (; node != null; node = node.next) {
+            reversed = new Node<T>(node.key, node.handler, reversed);
+        }
+        for (node = reversed; node != null; node = node.next) {
+            runCloseTask(new CloseHandlerTask(node.handler, cause));
+        }
+    }
+
+    private CountDownLatch getClosedLatch() {
+        CountDownLatch latch = closedLatch;
+        if (latch == null) {
+            final CountDownLatch newLatch = new CountDownLatch(1);
+            latch = closedLatchUpdater.compareAndSet(this, null, newLatch) ? newLatch : closedLatch;
+        }
+        return latch;
+    }
+
     /** {@inheritDoc} */
     public void awaitClosed() throws InterruptedException {
-        synchronized (closeLock) {
-            while (state != State.CLOSED) {
-                closeLock.wait();
+        if (state != State.CLOSED) {
+            final CountDownLatch latch = getClosedLatch();
+            // the closing thread may have missed the new latch
+            if (state != State.CLOSED) {
+                latch.await();
             }
         }
     }
@@ -325,13 +345,11 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
     public void awaitClosedUninterruptibly() {
         boolean intr = false;
         try {
-            synchronized (closeLock) {
-                while (state != State.CLOSED) {
-                    try {
-                        closeLock.wait();
-                    } catch (InterruptedException e) {
-                        intr = true;
-                    }
+            while (state != State.CLOSED) {
+                try {
+                    awaitClosed();
+                } catch (InterruptedException e) {
+                    intr = true;
                 }
             }
         } finally {
@@ -342,34 +360,15 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
     /** {@inheritDoc} */
     public void closeAsync() {
         log.tracef("Closing %s asynchronously", this);
-        boolean first;
-        synchronized (closeLock) {
-            switch (state) {
-                case OPEN: {
-                    first = true;
-                    state = State.CLOSING;
-                    break;
-                }
-                case CLOSING:
-                case CLOSED: return;
-                default: throw new IllegalStateException();
-            }
+        if (! stateUpdater.compareAndSet(this, State.OPEN, State.CLOSING)) {
+            return;
         }
-        if (first) try {
+        try {
             closeAction();
         } catch (IOException e) {
             log.tracef(e, "Close of %s failed", this);
-            final Map<Key, CloseHandler<? super T>> closeHandlers;
-            synchronized (closeLock) {
-                state = State.CLOSED;
-                closeHandlers = this.closeHandlers;
-                this.closeHandlers = null;
-                closeLock.notifyAll();
-            }
-            if (closeHandlers != null) {
-                for (final CloseHandler<? super T> handler : closeHandlers.values()) {
-                    runCloseTask(new CloseHandlerTask(handler, e));
-                }
+            if (stateUpdater.compareAndSet(this, State.CLOSING, State.CLOSED)) {
+                closed(e);
             }
         } catch (Throwable t) {
             log.errorf(t, "Close action for %s failed to execute (resource may be left in an indeterminate state)", this);
@@ -383,17 +382,13 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
         if (handler == null) {
             throw new NullPointerException("handler is null");
         }
-        synchronized (closeLock) {
-            if (state == State.OPEN || state == State.CLOSING) {
-                final Key key = new KeyImpl<T>(this);
-                final Map<Key, CloseHandler<? super T>> closeHandlers = this.closeHandlers;
-                if (closeHandlers == null) {
-                    final IdentityHashMap<Key, CloseHandler<? super T>> newMap = new IdentityHashMap<Key, CloseHandler<? super T>>();
-                    this.closeHandlers = newMap;
-                    newMap.put(key, handler);
-                } else {
-                    closeHandlers.put(key, handler);
-                }
+        final KeyImpl<T> key = new KeyImpl<T>(this);
+        for (;;) {
+            final Node<T> head = closeHandlers;
+            if (head == TAKEN) {
+                break;
+            }
+            if (closeHandlersUpdater.compareAndSet(this, head, new Node<T>(key, handler, head))) {
                 return key;
             }
         }
@@ -422,17 +417,49 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
             this.instance = instance;
         }
 
+        @SuppressWarnings("unchecked")
         public void remove() {
-            synchronized (instance.closeLock) {
-                final Map<Key, CloseHandler<? super T>> closeHandlers = instance.closeHandlers;
-
-                if (closeHandlers != null) {
-                    closeHandlers.remove(this);
+            for (;;) {
+                final Node<T> head = instance.closeHandlers;
+                if (head == null || head == TAKEN) {
+                    return;
+                }
+                Node<T> node = head;
+                while (node != null && node.key != this) {
+                    node = node.next;
+                }
+                if (node == null) {
+                    return;
+                }
+                // copy the nodes in front of the removed one, and share the rest
+                Node<T> newHead = node.next;
+                Node<T> prefix = null;
+                for (Node<T> n = head; n != node; n = n.next) {
+                    prefix = new Node<T>(n.key, n.handler, prefix);
+                }
+                for (; prefix != null; prefix = prefix.next) {
+                    newHead = new Node<T>(prefix.key, prefix.handler, newHead);
+                }
+                if (closeHandlersUpdater.compareAndSet(instance, head, newHead)) {
+                    return;
                 }
             }
         }
     }
 
+    private static final class Node<T extends HandleableCloseable<T>> {
+
+        private final Key key;
+        private final CloseHandler<? super T> handler;
+        private final Node<T> next;
+
+        Node(final Key key, final CloseHandler<? super T> handler, final Node<T> next) {
+            this.key = key;
+            this.handler = handler;
+            this.next = next;
+        }
+    }
+
     /**
      * Get the executor to use for handler invocation.
      *
@@ -450,10 +477,8 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
             super.finalize();
         } finally {
             if (autoClose && isOpen()) {
-                if (LEAK_DEBUGGING) {
-                    final Throwable t = new LeakThrowable();
-                    t.setStackTrace(backtrace);
-                    log.warnf(t, "Leaked a %s instance: %s", getClass().getName(), this);
+                if (tracker != null) {
+                    tracker.leaked(this);
                 } else {
                     log.tracef("Leaked a %s instance: %s", getClass().getName(), this);
                 }
@@ -468,21 +493,8 @@ public abstract class AbstractHandleableCloseable<T extends HandleableCloseable<
      * @throws NotOpenException if not open
      */
     protected void checkOpen() throws NotOpenException {
-        synchronized (closeLock) {
-            if (state != State.OPEN) {
-                throw new NotOpenException(toString() + " is not open");
-            }
-        }
-    }
-
-    @SuppressWarnings({ "serial" })
-    static final class LeakThrowable extends Throwable {
-
-        LeakThrowable() {
-        }
-
-        public String toString() {
-            return "a leaked reference";
+        if (state != State.OPEN) {
+            throw new NotOpenException(toString() + " is not open");
         }
     }
 
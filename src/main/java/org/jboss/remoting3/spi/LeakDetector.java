@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.spi;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.logging.Logger;
+
+/**
+ * A sampling detector for resources which are never closed or freed.  One in every {@link #getSampleInterval() N}
+ * allocations is tracked with a phantom reference and the stack trace of its allocation; if a tracked resource becomes
+ * unreachable without having been closed, it is reported along with that trace and its owner.  Untracked allocations
+ * only cost a counter increment, so a large interval can be left on in production.
+ * <p>
+ * The interval is read from the {@code jboss.remoting.leakdetection.interval} system property and defaults to
+ * {@code 0}, which disables detection.  Setting {@code jboss.remoting.leakdebugging} to {@code true} tracks every
+ * allocation.
+ */
+public final class LeakDetector {
+
+    private static final Logger log = Logger.getLogger("org.jboss.remoting.resource");
+
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    private static final Set<Tracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<Tracker, Boolean>());
+    private static final AtomicInteger allocations = new AtomicInteger();
+    private static final AtomicLong leaks = new AtomicLong();
+
+    private static volatile int sampleInterval;
+
+    static {
+        sampleInterval = AccessController.doPrivileged(new PrivilegedAction<Integer>() {
+            public Integer run() {
+                try {
+                    if (Boolean.parseBoolean(System.getProperty("jboss.remoting.leakdebugging", "false"))) {
+                        return Integer.valueOf(1);
+                    }
+                    return Integer.valueOf(Math.max(0, Integer.parseInt(System.getProperty("jboss.remoting.leakdetection.interval", "0"))));
+                } catch (SecurityException e) {
+                    return Integer.valueOf(0);
+                } catch (NumberFormatException e) {
+                    return Integer.valueOf(0);
+                }
+            }
+        }).intValue();
+    }
+
+    private LeakDetector() {
+    }
+
+    /**
+     * Get the sampling interval.
+     *
+     * @return the number of allocations per tracked allocation, or {@code 0} if leak detection is disabled
+     */
+    public static int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Change the sampling interval.  Resources which are already tracked remain tracked.
+     *
+     * @param sampleInterval the number of allocations per tracked allocation, or {@code 0} to disable leak detection
+     */
+    public static void setSampleInterval(final int sampleInterval) {
+        if (sampleInterval < 0) {
+            throw new IllegalArgumentException("sampleInterval is negative");
+        }
+        LeakDetector.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Get the number of leaks reported so far.
+     *
+     * @return the number of leaks
+     */
+    public static long getLeakCount() {
+        return leaks.get();
+    }
+
+    /**
+     * Count an allocation, and decide whether it should be tracked.
+     *
+     * @return {@code true} if the allocation should be passed to {@link #track(Object, Object)}
+     */
+    public static boolean sample() {
+        final int interval = sampleInterval;
+        if (interval == 0) {
+            return false;
+        }
+        reportLeaks();
+        return interval == 1 || (allocations.incrementAndGet() & Integer.MAX_VALUE) % interval == 0;
+    }
+
+    /**
+     * Track a resource which has been chosen by {@link #sample()}.  The allocation trace is captured here.
+     *
+     * @param resource the resource
+     * @param owner the owner of the resource, to name in the report, or {@code null} for none
+     * @return the tracker, which must be {@linkplain Tracker#close() closed} when the resource is released
+     */
+    public static Tracker track(final Object resource, final Object owner) {
+        final Tracker tracker = new Tracker(resource, owner == null ? null : owner.toString());
+        trackers.add(tracker);
+        return tracker;
+    }
+
+    /**
+     * Report the tracked resources which have been collected without having been released.  This is done as a
+     * side effect of sampling, but may also be called directly.
+     */
+    public static void reportLeaks() {
+        Tracker tracker;
+        while ((tracker = (Tracker) queue.poll()) != null) {
+            if (trackers.remove(tracker)) {
+                tracker.report(null);
+            }
+        }
+    }
+
+    /**
+     * The tracking state of a sampled resource.
+     */
+    public static final class Tracker extends PhantomReference<Object> {
+
+        private final String type;
+        private final String owner;
+        private final Throwable trace;
+
+        Tracker(final Object resource, final String owner) {
+            super(resource, queue);
+            type = resource.getClass().getName();
+            this.owner = owner;
+            trace = new LeakThrowable();
+        }
+
+        /**
+         * Stop tracking, because the resource was released.
+         */
+        public void close() {
+            if (trackers.remove(this)) {
+                clear();
+            }
+        }
+
+        /**
+         * Report the resource as leaked right away, for example from its finalizer, and stop tracking it.
+         *
+         * @param description the description of the resource
+         */
+        public void leaked(final Object description) {
+            if (trackers.remove(this)) {
+                clear();
+                report(description);
+            }
+        }
+
+        void report(final Object description) {
+            leaks.incrementAndGet();
+            // start the trace at the allocation of the resource
+            final StackTraceElement[] stackTrace = trace.getStackTrace();
+            int i = 0;
+            while (i < stackTrace.length - 1 && stackTrace[i].getClassName().startsWith(LeakDetector.class.getName())) {
+                i ++;
+            }
+            trace.setStackTrace(Arrays.copyOfRange(stackTrace, i, stackTrace.length));
+            if (owner == null) {
+                log.warnf(trace, "Leaked a %s instance: %s", type, description == null ? "(collected)" : description);
+            } else {
+                log.warnf(trace, "Leaked a %s instance owned by %s: %s", type, owner, description == null ? "(collected)" : description);
+            }
+        }
+    }
+
+    @SuppressWarnings({ "serial" })
+    static final class LeakThrowable extends Throwable {
+
+        LeakThrowable() {
+        }
+
+        public String toString() {
+            return "a leaked reference";
+        }
+    }
+}
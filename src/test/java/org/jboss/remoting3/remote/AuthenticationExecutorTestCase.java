@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the authentication step executor.
+ */
+public final class AuthenticationExecutorTestCase {
+
+    @Test
+    public void testDiscardClosedStep() {
+        final List<Runnable> started = new ArrayList<Runnable>();
+        final AuthenticationExecutor executor = new AuthenticationExecutor(new Executor() {
+            public void execute(final Runnable command) {
+                started.add(command);
+            }
+        }, 1, 10);
+        final AtomicBoolean firstRan = new AtomicBoolean();
+        assertTrue(executor.admit(new Runnable() {
+            public void run() {
+                firstRan.set(true);
+            }
+        }));
+        final TestStep closed = new TestStep(false);
+        final TestStep open = new TestStep(true);
+        executor.execute(closed);
+        executor.execute(open);
+        // only one runner is started; it drains the queue
+        assertEquals(1, started.size());
+        started.get(0).run();
+        assertTrue(firstRan.get());
+        assertFalse(closed.ran);
+        assertTrue(closed.discarded);
+        assertTrue(open.ran);
+        assertFalse(open.discarded);
+    }
+
+    static final class TestStep implements AuthenticationExecutor.Step {
+        private final boolean live;
+        boolean ran;
+        boolean discarded;
+
+        TestStep(final boolean live) {
+            this.live = live;
+        }
+
+        public boolean isLive() {
+            return live;
+        }
+
+        public void discard() {
+            discarded = true;
+        }
+
+        public void run() {
+            ran = true;
+        }
+    }
+}
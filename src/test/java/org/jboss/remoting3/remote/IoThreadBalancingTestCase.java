@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.test.ServerTestBase;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.XnioIoThread;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for connections placed on I/O threads by traffic.
+ */
+public final class IoThreadBalancingTestCase extends ServerTestBase {
+
+    private static final int CONNECTIONS = 8;
+
+    private final CountDownLatch receivedLatch = new CountDownLatch(CONNECTIONS * 10);
+
+    @Before
+    public void create() throws Exception {
+        createEndpoint("test", OptionMap.create(Options.WORKER_IO_THREADS, Integer.valueOf(4)), OptionMap.create(Options.SSL_ENABLED, Boolean.FALSE, RemotingOptions.BALANCE_IO_THREADS, Boolean.TRUE));
+        startServer(OptionMap.EMPTY, createAuthenticationProvider());
+        registerService(new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                channel.receiveMessage(new Channel.Receiver() {
+                    public void handleError(final Channel channel, final IOException error) {
+                    }
+
+                    public void handleEnd(final Channel channel) {
+                    }
+
+                    public void handleMessage(final Channel channel, final MessageInputStream message) {
+                        IoUtils.safeClose(message);
+                        receivedLatch.countDown();
+                        channel.receiveMessage(this);
+                    }
+                });
+            }
+
+            public void registrationTerminated() {
+            }
+        });
+    }
+
+    @Test
+    public void testBalancedConnections() throws Exception {
+        final List<Connection> connections = new ArrayList<Connection>();
+        try {
+            for (int i = 0; i < CONNECTIONS; i ++) {
+                final Connection connection = connect(OptionMap.EMPTY).get();
+                connections.add(connection);
+                final Channel channel = connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+                // give each connection some traffic before the next one is placed
+                for (int j = 0; j < 10; j ++) {
+                    final MessageOutputStream outputStream = channel.writeMessage();
+                    outputStream.write(new byte[1000 * (i + 1)]);
+                    outputStream.close();
+                }
+            }
+            assertTrue(receivedLatch.await(10L, TimeUnit.SECONDS));
+        } finally {
+            for (Connection connection : connections) {
+                IoUtils.safeClose(connection);
+            }
+        }
+    }
+
+    @Test
+    public void testDeferEachAccept() throws Exception {
+        final IoThreadBalancer balancer = new IoThreadBalancer(endpoint.getXnioWorker());
+        final XnioIoThread busy = endpoint.getXnioWorker().getIoThread();
+        balancer.getLoad(busy).record(1 << 20);
+        // the first connection is passed on once, and taken on the next notification
+        assertTrue(balancer.deferAccept(busy));
+        assertFalse(balancer.deferAccept(busy));
+        balancer.accepted();
+        // each later connection is passed on once as well, whichever thread took the previous one
+        assertTrue(balancer.deferAccept(busy));
+        balancer.accepted();
+        assertTrue(balancer.deferAccept(busy));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jboss.remoting3.spi.AbstractHandleableCloseable;
+import org.jboss.remoting3.spi.LeakDetector;
+import org.junit.Test;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+
+/**
+ * Tests for the sampling leak detector.
+ */
+public final class LeakDetectorTestCase {
+
+    @Test
+    public void testLeaks() throws Exception {
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        final int oldInterval = LeakDetector.getSampleInterval();
+        LeakDetector.setSampleInterval(1);
+        try {
+            // anything left behind by earlier tests
+            collect();
+            final long leaks = LeakDetector.getLeakCount();
+            createClosed(executorService);
+            // reported by the finalizer
+            createLeaked(executorService, true);
+            // reported once the reference is enqueued
+            createLeaked(executorService, false);
+            awaitLeaks(leaks + 2);
+            collect();
+            assertEquals(leaks + 2, LeakDetector.getLeakCount());
+        } finally {
+            LeakDetector.setSampleInterval(oldInterval);
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        final int oldInterval = LeakDetector.getSampleInterval();
+        LeakDetector.setSampleInterval(0);
+        try {
+            collect();
+            final long leaks = LeakDetector.getLeakCount();
+            createLeaked(executorService, false);
+            collect();
+            assertEquals(leaks, LeakDetector.getLeakCount());
+        } finally {
+            LeakDetector.setSampleInterval(oldInterval);
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSampleInterval() throws Exception {
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        final int oldInterval = LeakDetector.getSampleInterval();
+        LeakDetector.setSampleInterval(4);
+        try {
+            collect();
+            final long leaks = LeakDetector.getLeakCount();
+            // any run of eight allocations holds exactly two sampled ones
+            for (int i = 0; i < 8; i ++) {
+                createLeaked(executorService, false);
+            }
+            awaitLeaks(leaks + 2);
+            collect();
+            assertEquals(leaks + 2, LeakDetector.getLeakCount());
+        } finally {
+            LeakDetector.setSampleInterval(oldInterval);
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLeakedBuffer() throws Exception {
+        final Pool<ByteBuffer> pool = new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 256, 4096);
+        final int oldInterval = LeakDetector.getSampleInterval();
+        LeakDetector.setSampleInterval(3);
+        try {
+            collect();
+            final long leaks = LeakDetector.getLeakCount();
+            int tracked = 0;
+            for (int i = 0; i < 6; i ++) {
+                final Pooled<ByteBuffer> pooled = RemoteConnection.track(pool.allocate(), null);
+                if (pooled instanceof RemoteConnection.TrackedPooled) {
+                    tracked ++;
+                    // free one of the sampled buffers, and leak the other
+                    if (tracked == 1) {
+                        pooled.free();
+                    }
+                } else {
+                    pooled.free();
+                }
+            }
+            assertEquals(2, tracked);
+            awaitLeaks(leaks + 1);
+            collect();
+            assertEquals(leaks + 1, LeakDetector.getLeakCount());
+            // untracked buffers are handed out as they are
+            LeakDetector.setSampleInterval(0);
+            final Pooled<ByteBuffer> pooled = RemoteConnection.track(pool.allocate(), null);
+            assertFalse(pooled instanceof RemoteConnection.TrackedPooled);
+            pooled.free();
+            LeakDetector.setSampleInterval(1);
+            final Pooled<ByteBuffer> trackedPooled = RemoteConnection.track(pool.allocate(), null);
+            assertTrue(trackedPooled instanceof RemoteConnection.TrackedPooled);
+            trackedPooled.free();
+        } finally {
+            LeakDetector.setSampleInterval(oldInterval);
+        }
+    }
+
+    private static void awaitLeaks(final long count) throws InterruptedException {
+        for (int i = 0; i < 100 && LeakDetector.getLeakCount() < count; i ++) {
+            System.gc();
+            System.runFinalization();
+            LeakDetector.reportLeaks();
+            Thread.sleep(10L);
+        }
+    }
+
+    private static void collect() {
+        for (int i = 0; i < 5; i ++) {
+            System.gc();
+            System.runFinalization();
+            LeakDetector.reportLeaks();
+        }
+    }
+
+    private static void createClosed(final ExecutorService executorService) throws IOException {
+        new TestCloseable(executorService, true).close();
+    }
+
+    private static void createLeaked(final ExecutorService executorService, final boolean autoClose) {
+        new TestCloseable(executorService, autoClose);
+    }
+
+    static final class TestCloseable extends AbstractHandleableCloseable<TestCloseable> {
+
+        TestCloseable(final ExecutorService executorService, final boolean autoClose) {
+            super(executorService, autoClose);
+        }
+    }
+}
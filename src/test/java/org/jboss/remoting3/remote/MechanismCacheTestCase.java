@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.security.sasl.Sasl;
+
+import org.junit.Test;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Sequence;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for the client and server SASL mechanism caches.
+ */
+public final class MechanismCacheTestCase {
+
+    private final ClassLoader classLoader = getClass().getClassLoader();
+
+    @Test
+    public void testClientHit() {
+        final ClientMechanismCache cache = new ClientMechanismCache(true);
+        final Map<String, Object> propertyMap = new HashMap<String, Object>();
+        propertyMap.put(Sasl.POLICY_NOANONYMOUS, "true");
+        final Object factories = cache.getFactories(classLoader, propertyMap);
+        // an equal property map hits
+        assertSame(factories, cache.getFactories(classLoader, new HashMap<String, Object>(propertyMap)));
+    }
+
+    @Test
+    public void testClientMiss() {
+        final ClientMechanismCache cache = new ClientMechanismCache(true);
+        final Map<String, Object> propertyMap = new HashMap<String, Object>();
+        propertyMap.put(Sasl.POLICY_NOANONYMOUS, "true");
+        final Object factories = cache.getFactories(classLoader, propertyMap);
+        // changing the caller's map afterwards neither corrupts the cached entry nor hits it
+        propertyMap.put(Sasl.POLICY_NOANONYMOUS, "false");
+        final Object changed = cache.getFactories(classLoader, propertyMap);
+        assertNotSame(factories, changed);
+        propertyMap.put(Sasl.POLICY_NOANONYMOUS, "true");
+        assertSame(factories, cache.getFactories(classLoader, propertyMap));
+        cache.clear();
+        assertNotSame(factories, cache.getFactories(classLoader, propertyMap));
+    }
+
+    @Test
+    public void testClientDisabled() {
+        final ClientMechanismCache cache = new ClientMechanismCache(false);
+        final Map<String, Object> propertyMap = new HashMap<String, Object>();
+        assertNotSame(cache.getFactories(classLoader, propertyMap), cache.getFactories(classLoader, propertyMap));
+    }
+
+    @Test
+    public void testClientProviderChange() {
+        final ClientMechanismCache cache = new ClientMechanismCache(true);
+        final Map<String, Object> propertyMap = new HashMap<String, Object>();
+        final Object factories = cache.getFactories(classLoader, propertyMap);
+        final Provider provider = new Provider("MechanismCacheTest", 1.0, "Test provider") {};
+        Security.addProvider(provider);
+        try {
+            assertNotSame(factories, cache.getFactories(classLoader, propertyMap));
+        } finally {
+            Security.removeProvider(provider.getName());
+        }
+    }
+
+    @Test
+    public void testServerHit() {
+        final ServerMechanismCache cache = new ServerMechanismCache(true);
+        final OptionMap optionMap = OptionMap.create(Options.SASL_MECHANISMS, Sequence.of("PLAIN"));
+        final Object mechanisms = cache.getMechanisms(optionMap, false, classLoader);
+        assertSame(mechanisms, cache.getMechanisms(OptionMap.create(Options.SASL_MECHANISMS, Sequence.of("PLAIN")), false, classLoader));
+    }
+
+    @Test
+    public void testServerMiss() {
+        final ServerMechanismCache cache = new ServerMechanismCache(true);
+        final OptionMap optionMap = OptionMap.create(Options.SASL_MECHANISMS, Sequence.of("PLAIN"));
+        final Object mechanisms = cache.getMechanisms(optionMap, false, classLoader);
+        assertNotSame(mechanisms, cache.getMechanisms(OptionMap.create(Options.SASL_MECHANISMS, Sequence.of("DIGEST-MD5")), false, classLoader));
+        // the same options on a secure channel are another configuration
+        assertNotSame(mechanisms, cache.getMechanisms(optionMap, true, classLoader));
+        cache.clear();
+        assertNotSame(mechanisms, cache.getMechanisms(optionMap, false, classLoader));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the auto-tuning of channel receive windows.
+ */
+public final class ReceiveWindowTuningTestCase {
+
+    private static final int MIN_WINDOW = 0x20000;
+    private static final int MAX_WINDOW = 0x200000;
+
+    @Test
+    public void testSmoothRtt() {
+        final long ms = TimeUnit.MILLISECONDS.toNanos(1L);
+        long rtt = RemoteConnectionChannel.smoothRtt(0L, 8L * ms);
+        // the first sample is taken as it is
+        assertEquals(8L * ms, rtt);
+        for (int i = 0; i < 100; i ++) {
+            rtt = RemoteConnectionChannel.smoothRtt(rtt, 16L * ms);
+        }
+        // repeated samples converge on the sample, from below
+        assertTrue(rtt <= 16L * ms && rtt > 15L * ms);
+        // a single outlier moves the estimate by an eighth
+        assertEquals((7L * rtt + 80L * ms) >> 3, RemoteConnectionChannel.smoothRtt(rtt, 80L * ms));
+    }
+
+    @Test
+    public void testGrowAndShrink() {
+        final long ms = TimeUnit.MILLISECONDS.toNanos(1L);
+        long rtt = 0L;
+        for (int i = 0; i < 4; i ++) {
+            rtt = RemoteConnectionChannel.smoothRtt(rtt, 10L * ms);
+        }
+        // a 100 MB/s consumer over a 10 ms round trip has a 1 MB bandwidth-delay product
+        int windowSize = MIN_WINDOW;
+        int previous;
+        do {
+            previous = windowSize;
+            windowSize = InboundMessage.tunedWindowSize(windowSize, MIN_WINDOW, MAX_WINDOW, 1000000L, rtt, rtt);
+            assertTrue(windowSize <= MAX_WINDOW);
+        } while (windowSize != previous);
+        // doubled until it covered twice the product, but no further than the maximum
+        assertEquals(MAX_WINDOW, windowSize);
+        // a steady consumer near the product keeps the window as it is
+        assertEquals(MAX_WINDOW, InboundMessage.tunedWindowSize(MAX_WINDOW, MIN_WINDOW, MAX_WINDOW, 800000L, rtt, rtt));
+        // a slow consumer lets it shrink, halving each period, but not below the negotiated size
+        int shrinks = 0;
+        do {
+            previous = windowSize;
+            windowSize = InboundMessage.tunedWindowSize(windowSize, MIN_WINDOW, MAX_WINDOW, 1000L, rtt, rtt);
+            assertTrue(windowSize >= MIN_WINDOW);
+            if (windowSize < previous) {
+                assertEquals(previous >> 1, windowSize);
+                shrinks ++;
+            }
+        } while (windowSize != previous);
+        assertEquals(MIN_WINDOW, windowSize);
+        assertEquals(4, shrinks);
+    }
+
+    @Test
+    public void testLongerRttGrowsFurther() {
+        final long ms = TimeUnit.MILLISECONDS.toNanos(1L);
+        // 128 KB consumed in 100 ms: with a 1 ms round trip the window is more than big enough
+        assertEquals(MIN_WINDOW, InboundMessage.tunedWindowSize(MIN_WINDOW, MIN_WINDOW, MAX_WINDOW, 0x20000L, 100L * ms, ms));
+        // with a 100 ms round trip the same rate needs a bigger window
+        assertEquals(MIN_WINDOW << 1, InboundMessage.tunedWindowSize(MIN_WINDOW, MIN_WINDOW, MAX_WINDOW, 0x20000L, 100L * ms, 100L * ms));
+    }
+}
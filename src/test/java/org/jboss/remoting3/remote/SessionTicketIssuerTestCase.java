@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for issuing and verifying session tickets.
+ */
+public final class SessionTicketIssuerTestCase {
+
+    private static final byte[] BINDING = "PCN=client".getBytes(Charset.forName("UTF-8"));
+
+    private final SessionTicketIssuer issuer = new SessionTicketIssuer(60000);
+
+    @Test
+    public void testVerify() throws Exception {
+        final InetAddress address = InetAddress.getByName("127.0.0.1");
+        final SessionTicketIssuer.Session session = issuer.verify(issuer.issue("CRAM-MD5", "bob", address, BINDING), address, BINDING);
+        assertNotNull(session);
+        assertEquals("CRAM-MD5", session.getMechanismName());
+        assertEquals("bob", session.getAuthorizationId());
+    }
+
+    @Test
+    public void testOtherPeer() throws Exception {
+        final InetAddress address = InetAddress.getByName("127.0.0.1");
+        final byte[] ticket = issuer.issue("CRAM-MD5", "bob", address, BINDING);
+        assertNull(issuer.verify(ticket, address, "PCN=other".getBytes(Charset.forName("UTF-8"))));
+        assertNull(issuer.verify(ticket, address, new byte[0]));
+        assertNull(issuer.verify(ticket, InetAddress.getByName("127.0.0.2"), BINDING));
+    }
+
+    @Test
+    public void testOtherIssuer() throws Exception {
+        final InetAddress address = InetAddress.getByName("127.0.0.1");
+        final byte[] ticket = issuer.issue("CRAM-MD5", "bob", address, BINDING);
+        final SessionTicketIssuer other = new SessionTicketIssuer(60000);
+        assertNull(other.verify(ticket, address, BINDING));
+        // only the issuer can derive the secret, so only the issuer can prove it accepted the ticket
+        final byte[] nonce = new byte[SessionTicketIssuer.NONCE_LENGTH];
+        final byte[] proof = SessionTicketIssuer.proof(issuer.secret(ticket), nonce);
+        assertFalse(Arrays.equals(proof, SessionTicketIssuer.proof(other.secret(ticket), nonce)));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the shared memory ring and server directory checks.
+ */
+public final class SharedMemoryTestCase {
+
+    private static final int CAPACITY = 4096;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(SharedMemoryRing.CONTROL_SIZE + CAPACITY);
+    private final SharedMemoryRing writer = new SharedMemoryRing(buffer, 0, SharedMemoryRing.CONTROL_SIZE, CAPACITY, true);
+    private final SharedMemoryRing reader = new SharedMemoryRing(buffer, 0, SharedMemoryRing.CONTROL_SIZE, CAPACITY, false);
+
+    @Test
+    public void testWrapAround() throws IOException {
+        for (int i = 0; i < 4; i ++) {
+            final ByteBuffer src = ByteBuffer.allocate(3000);
+            while (src.hasRemaining()) {
+                src.put((byte) (src.position() + i));
+            }
+            src.flip();
+            assertEquals(3000, writer.write(src));
+            assertEquals(3000, reader.available());
+            assertEquals(CAPACITY - 3000, writer.space());
+            final ByteBuffer dst = ByteBuffer.allocate(3000);
+            assertEquals(3000, reader.read(dst));
+            dst.flip();
+            while (dst.hasRemaining()) {
+                assertEquals((byte) (dst.position() + i), dst.get());
+            }
+            assertEquals(0, reader.available());
+        }
+    }
+
+    @Test
+    public void testWriteIndexBeyondCapacity() throws IOException {
+        writer.write(ByteBuffer.allocate(10));
+        // the writing process claims more than the ring holds
+        setIndex(0, CAPACITY + 1L);
+        try {
+            reader.read(ByteBuffer.allocate(10));
+            fail("Expected corrupt ring");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testReadIndexBeyondWriteIndex() throws IOException {
+        writer.write(ByteBuffer.allocate(10));
+        // the reading process claims to have read bytes which were never written
+        setIndex(64, 20L);
+        try {
+            writer.write(ByteBuffer.allocate(10));
+            fail("Expected corrupt ring");
+        } catch (IOException expected) {
+        }
+        try {
+            writer.space();
+            fail("Expected corrupt ring");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testSymbolicLinkDirectory() throws Exception {
+        final File target = createTempDirectory();
+        final File link = new File(target.getParentFile(), target.getName() + "-link");
+        try {
+            final Process process = Runtime.getRuntime().exec(new String[] { "ln", "-s", target.getPath(), link.getPath() });
+            Assume.assumeTrue(process.waitFor() == 0);
+            SharedMemoryServer.checkDirectory(target);
+            try {
+                SharedMemoryServer.checkDirectory(link);
+                fail("Expected symbolic link to be refused");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("symbolic link"));
+            }
+        } finally {
+            link.delete();
+            target.delete();
+        }
+    }
+
+    private void setIndex(final int offset, final long value) {
+        buffer.duplicate().order(ByteOrder.nativeOrder()).putLong(offset, value);
+    }
+
+    private static File createTempDirectory() throws IOException {
+        final File file = File.createTempFile("remoting-shm", "");
+        if (! file.delete() || ! file.mkdir()) {
+            throw new IOException("Failed to create " + file);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+import org.xnio.channels.Channels;
+import org.xnio.conduits.ConduitStreamSinkChannel;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the stream connection and selector of the Unix domain socket transport.  They only rely on a non-blocking
+ * {@code SocketChannel}, so a loopback TCP pair stands in for the Unix domain socket, and the tests run on JVMs which
+ * do not have those.  {@code UnixSocketChannelTest} covers the whole transport where the JVM has them.
+ */
+public final class UnixSocketConnectionTestCase {
+
+    private XnioWorker worker;
+    private UnixSocketSelector selector;
+    private UnixSocketConnection client;
+    private UnixSocketConnection server;
+
+    @Before
+    public void create() throws IOException {
+        worker = Xnio.getInstance().createWorker(OptionMap.EMPTY);
+        selector = new UnixSocketSelector("test selector");
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            final InetSocketAddress address = (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+            final SocketChannel clientChannel = SocketChannel.open(address);
+            final SocketChannel serverSide = serverChannel.accept();
+            client = new UnixSocketConnection(worker.getIoThread(), selector, clientChannel, new InetSocketAddress(address.getAddress(), 0), address);
+            server = new UnixSocketConnection(worker.getIoThread(), selector, serverSide, address, new InetSocketAddress(address.getAddress(), 0));
+        } finally {
+            IoUtils.safeClose(serverChannel);
+        }
+    }
+
+    @After
+    public void destroy() {
+        IoUtils.safeClose(client);
+        IoUtils.safeClose(server);
+        selector.shutdown();
+        worker.shutdown();
+    }
+
+    @Test
+    public void testTransfer() throws Exception {
+        final byte[] data = new byte[1 << 20];
+        for (int i = 0; i < data.length; i ++) {
+            data[i] = (byte) i;
+        }
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final CountDownLatch eofLatch = new CountDownLatch(1);
+        final ConduitStreamSourceChannel source = server.getSourceChannel();
+        source.getReadSetter().set(new ChannelListener<ConduitStreamSourceChannel>() {
+            public void handleEvent(final ConduitStreamSourceChannel channel) {
+                final ByteBuffer buffer = ByteBuffer.allocate(8192);
+                try {
+                    int res;
+                    while ((res = channel.read(buffer)) > 0) {
+                        received.write(buffer.array(), 0, res);
+                        buffer.clear();
+                    }
+                    if (res == -1) {
+                        channel.suspendReads();
+                        eofLatch.countDown();
+                    }
+                } catch (IOException e) {
+                    IoUtils.safeClose(channel);
+                }
+            }
+        });
+        source.resumeReads();
+        // more than the socket buffers hold, so the writer has to wait for the selector to report room
+        final ConduitStreamSinkChannel sink = client.getSinkChannel();
+        Channels.writeBlocking(sink, ByteBuffer.wrap(data));
+        sink.shutdownWrites();
+        Channels.flushBlocking(sink);
+        assertTrue("No end of stream", eofLatch.await(10L, TimeUnit.SECONDS));
+        assertArrayEquals(data, received.toByteArray());
+    }
+
+    @Test
+    public void testWriteReady() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final ConduitStreamSinkChannel sink = client.getSinkChannel();
+        sink.getWriteSetter().set(new ChannelListener<ConduitStreamSinkChannel>() {
+            public void handleEvent(final ConduitStreamSinkChannel channel) {
+                latch.countDown();
+                if (latch.getCount() == 0L) {
+                    channel.suspendWrites();
+                } else {
+                    // interest is restored after dispatch, so a still-writable channel is reported again
+                    channel.resumeWrites();
+                }
+            }
+        });
+        sink.resumeWrites();
+        assertTrue("Write readiness was not reported", latch.await(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPeerClose() throws Exception {
+        final CountDownLatch eofLatch = new CountDownLatch(1);
+        final ConduitStreamSourceChannel source = server.getSourceChannel();
+        source.getReadSetter().set(new ChannelListener<ConduitStreamSourceChannel>() {
+            public void handleEvent(final ConduitStreamSourceChannel channel) {
+                try {
+                    if (channel.read(ByteBuffer.allocate(16)) == -1) {
+                        channel.suspendReads();
+                        eofLatch.countDown();
+                    }
+                } catch (IOException e) {
+                    IoUtils.safeClose(channel);
+                }
+            }
+        });
+        source.resumeReads();
+        client.close();
+        assertTrue("Peer close was not seen", eofLatch.await(10L, TimeUnit.SECONDS));
+    }
+}
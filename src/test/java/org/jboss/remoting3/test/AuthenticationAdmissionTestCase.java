@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.security.AuthorizingCallbackHandler;
+import org.jboss.remoting3.security.ServerAuthenticationProvider;
+import org.jboss.remoting3.security.UserInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the admission control of inbound authentications.
+ */
+public final class AuthenticationAdmissionTestCase extends ServerTestBase {
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void create() throws Exception {
+        createEndpoint("test", OptionMap.EMPTY, OptionMap.builder()
+                .addAll(NO_SSL)
+                .set(RemotingOptions.AUTHENTICATION_THREADS, 1)
+                .set(RemotingOptions.AUTHENTICATION_QUEUE_SIZE, 0)
+                .getMap());
+        startServer(OptionMap.EMPTY, new BlockingAuthenticationProvider(createAuthenticationProvider()));
+    }
+
+    @After
+    public void destroy() {
+        release.countDown();
+    }
+
+    @Test
+    public void testTurnedAway() throws Exception {
+        final IoFuture<Connection> first = connect(OptionMap.EMPTY);
+        // the first authentication now occupies the only authentication thread
+        assertTrue(entered.await(10L, TimeUnit.SECONDS));
+        final IoFuture<Connection> second = connect(OptionMap.EMPTY);
+        assertSame(IoFuture.Status.FAILED, second.await(10L, TimeUnit.SECONDS));
+        final IOException exception = second.getException();
+        assertTrue(exception.toString(), String.valueOf(exception.getMessage()).contains("retry after"));
+        release.countDown();
+        assertSame(IoFuture.Status.DONE, first.await(10L, TimeUnit.SECONDS));
+        IoUtils.safeClose(first.get());
+        // once the thread is free again, new connections are admitted
+        final Connection third = connect(OptionMap.EMPTY).get();
+        IoUtils.safeClose(third);
+    }
+
+    final class BlockingAuthenticationProvider implements ServerAuthenticationProvider {
+        private final ServerAuthenticationProvider delegate;
+        private final AtomicBoolean blocked = new AtomicBoolean();
+
+        BlockingAuthenticationProvider(final ServerAuthenticationProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        public AuthorizingCallbackHandler getCallbackHandler(final String mechanismName) {
+            final AuthorizingCallbackHandler handler = delegate.getCallbackHandler(mechanismName);
+            return new AuthorizingCallbackHandler() {
+                public UserInfo createUserInfo(final Collection<Principal> remotingPrincipals) throws IOException {
+                    return handler.createUserInfo(remotingPrincipals);
+                }
+
+                public void handle(final Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                    if (blocked.compareAndSet(false, true)) {
+                        entered.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    handler.handle(callbacks);
+                }
+            };
+        }
+    }
+}
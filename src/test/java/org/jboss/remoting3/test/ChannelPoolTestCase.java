@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.ChannelPool;
+import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.NotOpenException;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.RemotingOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the connection channel pool.
+ */
+public final class ChannelPoolTestCase extends ServerTestBase {
+
+    private Registration serviceRegistration2;
+
+    @Before
+    public void create() throws Exception {
+        start();
+        serviceRegistration = endpoint.registerService("org.jboss.test1", IGNORE, OptionMap.EMPTY);
+        serviceRegistration2 = endpoint.registerService("org.jboss.test2", IGNORE, OptionMap.EMPTY);
+    }
+
+    @After
+    public void destroy() {
+        IoUtils.safeClose(serviceRegistration2);
+    }
+
+    private static CountDownLatch closeLatch(final Channel channel) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        channel.addCloseHandler(new CloseHandler<Channel>() {
+            public void handleClose(final Channel closed, final IOException exception) {
+                latch.countDown();
+            }
+        });
+        return latch;
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        final Connection connection = connect(OptionMap.EMPTY).get();
+        final ChannelPool pool = new ChannelPool(connection);
+        try {
+            final Channel channel1 = pool.lease("org.jboss.test1", OptionMap.EMPTY).get();
+            final Channel channel2 = pool.lease("org.jboss.test1", OptionMap.EMPTY).get();
+            assertNotSame(channel1, channel2);
+            pool.release(channel1);
+            assertSame(channel1, pool.lease("org.jboss.test1", OptionMap.EMPTY).get());
+            // different service, so a new channel
+            final Channel channel3 = pool.lease("org.jboss.test2", OptionMap.EMPTY).get();
+            assertNotSame(channel1, channel3);
+            assertNotSame(channel2, channel3);
+            // closed channels are not pooled
+            channel2.close();
+            pool.release(channel2);
+            assertNotSame(channel2, pool.lease("org.jboss.test1", OptionMap.EMPTY).get());
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        final Connection connection = connect(OptionMap.EMPTY).get();
+        final ChannelPool pool = new ChannelPool(connection);
+        try {
+            final OptionMap optionMap = OptionMap.create(RemotingOptions.CHANNEL_POOL_IDLE_TIMEOUT, Integer.valueOf(100));
+            final Channel channel = pool.lease("org.jboss.test1", optionMap).get();
+            final CountDownLatch latch = closeLatch(channel);
+            pool.release(channel);
+            assertTrue("Idle channel was not closed", latch.await(10L, TimeUnit.SECONDS));
+            assertNotSame(channel, pool.lease("org.jboss.test1", optionMap).get());
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testEvictionAtChannelLimit() throws Exception {
+        // the client's outbound channel limit is the server's inbound channel limit
+        final AcceptingChannel<? extends ConnectedStreamChannel> limitedServer = createServer(30124, OptionMap.create(RemotingOptions.MAX_INBOUND_CHANNELS, Integer.valueOf(2)), createAuthenticationProvider());
+        final Connection connection = connect(30124, OptionMap.EMPTY).get();
+        final ChannelPool pool = new ChannelPool(connection);
+        try {
+            final Channel channel1 = pool.lease("org.jboss.test1", OptionMap.EMPTY).get();
+            final Channel channel2 = pool.lease("org.jboss.test1", OptionMap.EMPTY).get();
+            final CountDownLatch latch1 = closeLatch(channel1);
+            pool.release(channel1);
+            pool.release(channel2);
+            // the limit is reached, so the longest-idle channel must make room
+            final Channel channel3 = pool.lease("org.jboss.test2", OptionMap.EMPTY).get();
+            assertTrue(latch1.await(10L, TimeUnit.SECONDS));
+            assertNotSame(channel1, channel3);
+            assertSame(channel2, pool.lease("org.jboss.test1", OptionMap.EMPTY).get());
+        } finally {
+            IoUtils.safeClose(connection);
+            IoUtils.safeClose(limitedServer);
+        }
+    }
+
+    @Test
+    public void testClosedWithConnection() throws Exception {
+        final Connection connection = connect(OptionMap.EMPTY).get();
+        final ChannelPool pool = new ChannelPool(connection);
+        final Channel channel = pool.lease("org.jboss.test1", OptionMap.EMPTY).get();
+        final CountDownLatch latch = closeLatch(channel);
+        pool.release(channel);
+        connection.close();
+        assertTrue(latch.await(10L, TimeUnit.SECONDS));
+        try {
+            pool.lease("org.jboss.test1", OptionMap.EMPTY).get();
+            fail("Expected lease to fail on a closed pool");
+        } catch (NotOpenException expected) {
+        }
+    }
+
+    @Test
+    public void testReleaseAfterClose() throws Exception {
+        final Connection connection = connect(OptionMap.EMPTY).get();
+        try {
+            final ChannelPool pool = new ChannelPool(connection);
+            final Channel channel = pool.lease("org.jboss.test1", OptionMap.EMPTY).get();
+            final CountDownLatch latch = closeLatch(channel);
+            pool.close();
+            assertFalse(latch.await(100L, TimeUnit.MILLISECONDS));
+            pool.release(channel);
+            assertTrue(latch.await(10L, TimeUnit.SECONDS));
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+}
@@ -22,18 +22,27 @@
 
 package org.jboss.remoting3.test;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jboss.logging.Logger;
 import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.HandleableCloseable;
 import org.jboss.remoting3.spi.AbstractHandleableCloseable;
 import org.junit.Test;
 import org.xnio.IoUtils;
@@ -72,4 +81,177 @@ public final class CloseableTestCase {
             executorService.shutdownNow();
         }
     }
+
+    @Test
+    public void testRemoveHandler() throws Throwable {
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            final AtomicInteger calls = new AtomicInteger();
+            final AbstractHandleableCloseable<?> closeable = new AbstractHandleableCloseable(executorService) {
+                // empty
+            };
+            final CloseHandler<Object> handler = new CloseHandler<Object>() {
+                public void handleClose(final Object x, final IOException exception) {
+                    calls.incrementAndGet();
+                }
+            };
+            closeable.addCloseHandler(handler);
+            final HandleableCloseable.Key key = closeable.addCloseHandler(handler);
+            closeable.addCloseHandler(handler);
+            key.remove();
+            key.remove();
+            closeable.close();
+            assertEquals(2, calls.get());
+            // after close, a new handler is run right away
+            closeable.addCloseHandler(handler).remove();
+            assertEquals(3, calls.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncCloseFailure() throws Throwable {
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            final IOException failure = new IOException("close failed");
+            final AtomicReference<IOException> handlerFailure = new AtomicReference<IOException>();
+            final CountDownLatch handled = new CountDownLatch(1);
+            final AsyncCloseable closeable = new AsyncCloseable(executorService);
+            closeable.addCloseHandler(new CloseHandler<Object>() {
+                public void handleClose(final Object x, final IOException exception) {
+                    handlerFailure.set(exception);
+                    handled.countDown();
+                }
+            });
+            executorService.execute(new Runnable() {
+                public void run() {
+                    try {
+                        assertTrue(closeable.closing.await(5L, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    closeable.fail(failure);
+                }
+            });
+            try {
+                closeable.close();
+                fail("Expected an exception");
+            } catch (IOException e) {
+                assertEquals(failure.getMessage(), e.getMessage());
+            }
+            assertTrue(handled.await(5L, TimeUnit.SECONDS));
+            assertSame(failure, handlerFailure.get());
+            // closed now, so the failure is reported once
+            closeable.close();
+            closeable.awaitClosed();
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCloseFailedWhileClosing() throws Throwable {
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            final IOException failure = new IOException("close failed");
+            for (int i = 0; i < 100; i ++) {
+                final AsyncCloseable closeable = new AsyncCloseable(executorService);
+                closeable.closeAsync();
+                final AtomicReference<Thread> closerThread = new AtomicReference<Thread>();
+                final Future<IOException> closer = executorService.submit(new Callable<IOException>() {
+                    public IOException call() throws Exception {
+                        closerThread.set(Thread.currentThread());
+                        try {
+                            closeable.close();
+                            return null;
+                        } catch (IOException e) {
+                            return e;
+                        }
+                    }
+                });
+                // wait for the closer to block on the close in progress
+                for (int j = 0; j < 5000; j ++) {
+                    final Thread thread = closerThread.get();
+                    if (thread != null && thread.getState() == Thread.State.WAITING) {
+                        break;
+                    }
+                    Thread.sleep(1L);
+                }
+                closeable.fail(failure);
+                final IOException result = closer.get(5L, TimeUnit.SECONDS);
+                assertNotNull("Close returned normally on iteration " + i, result);
+                assertEquals(failure.getMessage(), result.getMessage());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentAddAndClose() throws Throwable {
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            for (int i = 0; i < 100; i ++) {
+                final AbstractHandleableCloseable<?> closeable = new AbstractHandleableCloseable(executorService) {
+                    // empty
+                };
+                final int threads = 4;
+                final int handlers = 100;
+                final AtomicInteger calls = new AtomicInteger();
+                final CountDownLatch start = new CountDownLatch(1);
+                final CountDownLatch done = new CountDownLatch(threads);
+                final CloseHandler<Object> handler = new CloseHandler<Object>() {
+                    public void handleClose(final Object x, final IOException exception) {
+                        calls.incrementAndGet();
+                    }
+                };
+                for (int t = 0; t < threads; t ++) {
+                    executorService.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                start.await();
+                                for (int j = 0; j < handlers; j ++) {
+                                    closeable.addCloseHandler(handler);
+                                    closeable.addCloseHandler(handler).remove();
+                                }
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+                start.countDown();
+                closeable.closeAsync();
+                assertTrue(done.await(5L, TimeUnit.SECONDS));
+                closeable.awaitClosed();
+                // every handler that was not removed runs exactly once, whether added before or after the close
+                assertTrue(calls.get() >= threads * handlers);
+                assertTrue(calls.get() <= threads * handlers * 2);
+                final int seen = calls.get();
+                closeable.close();
+                assertEquals(seen, calls.get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    static final class AsyncCloseable extends AbstractHandleableCloseable<AsyncCloseable> {
+        final CountDownLatch closing = new CountDownLatch(1);
+
+        AsyncCloseable(final ExecutorService executorService) {
+            super(executorService);
+        }
+
+        protected void closeAction() throws IOException {
+            closing.countDown();
+        }
+
+        void fail(IOException cause) {
+            closeFailed(cause);
+        }
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the connection metrics of the remote connection provider management bean.
+ */
+public final class ConnectionMetricsTestCase extends ServerTestBase {
+
+    private static final int MESSAGES = 10;
+    private static final int MESSAGE_SIZE = 1000;
+
+    private Connection connection;
+
+    @Before
+    public void create() throws Exception {
+        start("metrics-test");
+    }
+
+    @After
+    public void destroy() {
+        IoUtils.safeClose(connection);
+    }
+
+    private static long get(final CompositeData data, final String key) {
+        return ((Number) data.get(key)).longValue();
+    }
+
+    @Test
+    public void testMessageCounts() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = null;
+        for (ObjectName candidate : server.queryNames(new ObjectName("jboss.remoting.handler:name=metrics-test-*"), null)) {
+            // the local provider registers its own bean under a "local" name
+            if (candidate.getKeyProperty("name").matches("metrics-test--?\\d+")) {
+                assertNull(name);
+                name = candidate;
+            }
+        }
+        assertNotNull(name);
+        final CountDownLatch received = new CountDownLatch(MESSAGES);
+        registerService(new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                channel.receiveMessage(new Channel.Receiver() {
+                    public void handleError(final Channel channel, final IOException error) {
+                    }
+
+                    public void handleEnd(final Channel channel) {
+                    }
+
+                    public void handleMessage(final Channel channel, final MessageInputStream message) {
+                        try {
+                            while (message.read() != -1) {}
+                            message.close();
+                            received.countDown();
+                        } catch (IOException ignored) {
+                        }
+                        channel.receiveMessage(this);
+                    }
+                });
+            }
+
+            public void registrationTerminated() {
+            }
+        });
+        connection = connect(OptionMap.EMPTY).get();
+        final Channel channel = connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+        for (int i = 0; i < MESSAGES; i ++) {
+            final MessageOutputStream message = channel.writeMessage();
+            message.write(new byte[MESSAGE_SIZE]);
+            message.close();
+        }
+        assertTrue(received.await(10L, TimeUnit.SECONDS));
+
+        final CompositeData total = (CompositeData) server.getAttribute(name, "TotalMetrics");
+        assertEquals("total", total.get("name"));
+        assertEquals(MESSAGES, get(total, "outboundMessagesOpened"));
+        assertEquals(MESSAGES, get(total, "outboundMessagesCompleted"));
+        assertEquals(MESSAGES, get(total, "inboundMessagesOpened"));
+        assertEquals(MESSAGES, get(total, "inboundMessagesCompleted"));
+        assertTrue(get(total, "bytesSent") >= MESSAGES * MESSAGE_SIZE);
+        assertTrue(get(total, "bytesReceived") >= MESSAGES * MESSAGE_SIZE);
+        assertTrue(get(total, "framesSent") >= MESSAGES);
+        assertTrue(get(total, "framesReceived") >= MESSAGES);
+        assertTrue(get(total, "buffersAllocated") > 0L);
+        assertEquals(1L, get(total, "inboundChannels"));
+        assertEquals(1L, get(total, "outboundChannels"));
+
+        // both ends of the connection belong to the same provider
+        final CompositeData[] connections = (CompositeData[]) server.getAttribute(name, "ConnectionMetrics");
+        assertEquals(2, connections.length);
+        long outboundCompleted = 0L, inboundCompleted = 0L;
+        for (CompositeData data : connections) {
+            outboundCompleted += get(data, "outboundMessagesCompleted");
+            inboundCompleted += get(data, "inboundMessagesCompleted");
+        }
+        assertEquals(MESSAGES, outboundCompleted);
+        assertEquals(MESSAGES, inboundCompleted);
+        channel.close();
+    }
+}
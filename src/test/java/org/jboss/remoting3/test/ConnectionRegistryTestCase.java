@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.Connection;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.OptionMap;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for connection churn against the endpoint and provider connection registries.
+ */
+public final class ConnectionRegistryTestCase extends ServerTestBase {
+
+    private static final int THREADS = 4;
+    private static final int CONNECTIONS = 10;
+
+    @Before
+    public void create() throws Exception {
+        start("registry-test");
+    }
+
+    @Test
+    public void testChurnAndClose() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = null;
+        for (ObjectName candidate : server.queryNames(new ObjectName("jboss.remoting.handler:name=registry-test-*"), null)) {
+            // the local provider registers its own bean under a "local" name
+            if (candidate.getKeyProperty("name").matches("registry-test--?\\d+")) {
+                assertNull(name);
+                name = candidate;
+            }
+        }
+        assertNotNull(name);
+        final ExecutorService executorService = Executors.newFixedThreadPool(THREADS + 1);
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch closed = new CountDownLatch(THREADS * CONNECTIONS);
+        try {
+            // dump the state over and over while connections come and go
+            final ObjectName providerName = name;
+            final Future<Integer> dumps = executorService.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    int count = 0;
+                    while (! done.get()) {
+                        assertTrue(((String) server.invoke(providerName, "dumpConnectionStateToString", null, null)).startsWith("Connection state for "));
+                        count ++;
+                    }
+                    return Integer.valueOf(count);
+                }
+            });
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < THREADS; t ++) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int i = 0; i < CONNECTIONS; i ++) {
+                            final Connection connection = connect(OptionMap.EMPTY).get();
+                            connection.addCloseHandler(new CloseHandler<Connection>() {
+                                public void handleClose(final Connection closed1, final IOException exception) {
+                                    closed.countDown();
+                                }
+                            });
+                            // leave every other connection open for the endpoint to close
+                            if ((i & 1) == 0) {
+                                connection.close();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(30L, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            assertTrue(dumps.get(10L, TimeUnit.SECONDS).intValue() > 0);
+            endpoint.close();
+            assertTrue(closed.await(10L, TimeUnit.SECONDS));
+        } finally {
+            done.set(true);
+            executorService.shutdownNow();
+        }
+    }
+}
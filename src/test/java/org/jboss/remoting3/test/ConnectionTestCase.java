@@ -29,9 +29,12 @@ import java.util.Random;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.CloseHandler;
 import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.ConnectionAttributes;
 import org.jboss.remoting3.Endpoint;
 import org.jboss.remoting3.MessageInputStream;
 import org.jboss.remoting3.MessageOutputStream;
@@ -39,6 +42,7 @@ import org.jboss.remoting3.OpenListener;
 import org.jboss.remoting3.Registration;
 import org.jboss.remoting3.Remoting;
 import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.ServiceOpenException;
 import org.jboss.remoting3.remote.RemoteConnectionProviderFactory;
 import org.jboss.remoting3.security.SimpleServerAuthenticationProvider;
 import org.jboss.remoting3.spi.NetworkServerProvider;
@@ -206,6 +210,125 @@ public class ConnectionTestCase {
         }
     }
 
+    @Test
+    public void testRoundTripTime() throws Exception {
+        final Connection connection = clientEndpoint.connect("remote", new InetSocketAddress("localhost", 0), new InetSocketAddress("localhost", 30123), OptionMap.EMPTY, "bob", "test", "pass".toCharArray()).get();
+        try {
+            // the client measures the round trip time as soon as the connection is established
+            Long rtt = null;
+            for (int i = 0; i < 100 && rtt == null; i ++) {
+                rtt = connection.getAttachments().getAttachment(ConnectionAttributes.ROUND_TRIP_TIME);
+                if (rtt == null) Thread.sleep(50L);
+            }
+            Assert.assertNotNull("round trip time", rtt);
+            Assert.assertTrue(rtt.longValue() >= 0L);
+            Assert.assertNotNull("round trip time variance", connection.getAttachments().getAttachment(ConnectionAttributes.ROUND_TRIP_TIME_VARIANCE));
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testOptimisticOpen() throws Exception {
+        final int messageSize = 0x30000;
+        final int messageCount = 3;
+        final Queue<Throwable> problems = new ConcurrentLinkedQueue<Throwable>();
+        final CountDownLatch messages = new CountDownLatch(messageCount);
+        serverEndpoint.registerService("test", new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                channel.receiveMessage(new Channel.Receiver() {
+                    public void handleError(final Channel channel, final IOException error) {
+                        problems.add(error);
+                    }
+
+                    public void handleEnd(final Channel channel) {
+                    }
+
+                    public void handleMessage(final Channel channel, final MessageInputStream message) {
+                        channel.receiveMessage(this);
+                        try {
+                            int total = 0, res;
+                            while ((res = message.read(junkBuffer)) != -1) {
+                                total += res;
+                            }
+                            Assert.assertEquals(messageSize, total);
+                            messages.countDown();
+                        } catch (Throwable t) {
+                            problems.add(t);
+                        } finally {
+                            IoUtils.safeClose(message);
+                        }
+                    }
+                });
+            }
+
+            public void registrationTerminated() {
+            }
+        }, OptionMap.EMPTY);
+        final Connection connection = clientEndpoint.connect("remote", new InetSocketAddress("localhost", 0), new InetSocketAddress("localhost", 30123), OptionMap.EMPTY, "bob", "test", "pass".toCharArray()).get();
+        try {
+            final Channel channel = connection.openChannel("test", OptionMap.create(RemotingOptions.OPTIMISTIC_CHANNEL_OPEN, Boolean.TRUE)).get();
+            try {
+                // the first message is written before the open is acknowledged, the others may have to wait for it
+                for (int i = 0; i < messageCount; i ++) {
+                    final MessageOutputStream outputStream = channel.writeMessage();
+                    try {
+                        for (int j = 0; j < messageSize; j += junkBuffer.length) {
+                            outputStream.write(junkBuffer);
+                        }
+                        outputStream.close();
+                    } finally {
+                        IoUtils.safeClose(outputStream);
+                    }
+                }
+                Assert.assertTrue(messages.await(10L, TimeUnit.SECONDS));
+                Assert.assertTrue(problems.toString(), problems.isEmpty());
+            } finally {
+                IoUtils.safeClose(channel);
+            }
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void rejectUnknownServiceOptimistic() throws Exception {
+        final Connection connection = clientEndpoint.connect("remote", new InetSocketAddress("localhost", 0), new InetSocketAddress("localhost", 30123), OptionMap.EMPTY, "bob", "test", "pass".toCharArray()).get();
+        try {
+            final Channel channel = connection.openChannel("unknown", OptionMap.create(RemotingOptions.OPTIMISTIC_CHANNEL_OPEN, Boolean.TRUE)).get();
+            final CountDownLatch closed = new CountDownLatch(1);
+            channel.addCloseHandler(new CloseHandler<Channel>() {
+                public void handleClose(final Channel closedChannel, final IOException exception) {
+                    closed.countDown();
+                }
+            });
+            MessageOutputStream outputStream = null;
+            try {
+                // the refusal may already have arrived
+                outputStream = channel.writeMessage();
+                // more than the optimistic window, so the refusal must release the writer
+                for (int j = 0; j < 0x10000; j += junkBuffer.length) {
+                    outputStream.write(junkBuffer);
+                }
+                outputStream.close();
+                fail("Expected write failure");
+            } catch (IOException e) {
+                // ok
+            } finally {
+                IoUtils.safeClose(outputStream);
+            }
+            Assert.assertTrue(closed.await(10L, TimeUnit.SECONDS));
+            try {
+                channel.writeMessage();
+                fail("Expected refusal");
+            } catch (ServiceOpenException e) {
+                // ok
+            }
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
     private static final int MAX_SERVER_RECEIVE = 0x18000;
     private static final int MAX_SERVER_TRANSMIT = 0x14000;
 
@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.RemotingOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that many channels can share a connection window which is much smaller than the total amount of data sent.
+ */
+public final class ConnectionWindowTestCase extends ServerTestBase {
+
+    private static final int CONNECTION_WINDOW = 0x4000;
+    private static final int CHANNELS = 4;
+    private static final int MESSAGE_SIZE = 0x40000;
+
+    private Connection connection;
+
+    private final AtomicLong received = new AtomicLong();
+    private final CountDownLatch messagesLatch = new CountDownLatch(CHANNELS);
+
+    @Before
+    public void create() throws Exception {
+        createEndpoint("test", OptionMap.EMPTY, NO_SSL);
+        startServer(OptionMap.create(RemotingOptions.CONNECTION_RECEIVE_WINDOW_SIZE, Integer.valueOf(CONNECTION_WINDOW)), createAuthenticationProvider());
+        registerService(new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                channel.receiveMessage(new Channel.Receiver() {
+                    public void handleError(final Channel channel, final IOException error) {
+                    }
+
+                    public void handleEnd(final Channel channel) {
+                    }
+
+                    public void handleMessage(final Channel channel, final MessageInputStream message) {
+                        final byte[] bytes = new byte[1024];
+                        try {
+                            int res;
+                            while ((res = message.read(bytes)) != -1) {
+                                received.addAndGet(res);
+                            }
+                            message.close();
+                            messagesLatch.countDown();
+                        } catch (IOException e) {
+                            IoUtils.safeClose(message);
+                        }
+                    }
+                });
+            }
+
+            public void registrationTerminated() {
+            }
+        });
+        connection = connect(OptionMap.create(RemotingOptions.CONNECTION_RECEIVE_WINDOW_SIZE, Integer.valueOf(CONNECTION_WINDOW))).get();
+    }
+
+    @After
+    public void destroy() {
+        IoUtils.safeClose(connection);
+    }
+
+    @Test
+    public void testConcurrentChannels() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(CHANNELS);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < CHANNELS; i ++) {
+                final Channel channel = connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+                futures.add(executorService.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        final byte[] bytes = new byte[1000];
+                        final MessageOutputStream outputStream = channel.writeMessage();
+                        try {
+                            int remaining = MESSAGE_SIZE;
+                            while (remaining > 0) {
+                                final int cnt = Math.min(remaining, bytes.length);
+                                outputStream.write(bytes, 0, cnt);
+                                remaining -= cnt;
+                            }
+                            outputStream.close();
+                        } finally {
+                            IoUtils.safeClose(outputStream);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(30L, TimeUnit.SECONDS);
+            }
+            assertTrue(messagesLatch.await(30L, TimeUnit.SECONDS));
+            assertEquals((long) CHANNELS * MESSAGE_SIZE, received.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
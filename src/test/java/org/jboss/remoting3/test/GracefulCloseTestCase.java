@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.Remoting;
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.remote.RemoteConnectionProviderFactory;
+import org.junit.After;
+import org.junit.Test;
+import org.xnio.FutureResult;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for draining connections before they are closed.
+ */
+public final class GracefulCloseTestCase extends ServerTestBase {
+
+    private Endpoint clientEndpoint;
+    private Registration clientProviderRegistration;
+    private Connection clientConnection;
+    private Channel clientChannel;
+    private Channel serverChannel;
+    private final BlockingQueue<MessageInputStream> serverMessages = new LinkedBlockingQueue<MessageInputStream>();
+    private final BlockingQueue<MessageInputStream> clientMessages = new LinkedBlockingQueue<MessageInputStream>();
+    private final CountDownLatch clientClosed = new CountDownLatch(1);
+
+    private void start(final OptionMap serverEndpointOptions, final OptionMap drainOptions) throws Exception {
+        createEndpoint("server", serverEndpointOptions, NO_SSL);
+        startServer(drainOptions, createAuthenticationProvider());
+        final FutureResult<Channel> passer = new FutureResult<Channel>();
+        registerService(new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                channel.receiveMessage(new QueueingReceiver(serverMessages));
+                passer.setResult(channel);
+            }
+
+            public void registrationTerminated() {
+            }
+        });
+        clientEndpoint = Remoting.createEndpoint("client", OptionMap.EMPTY);
+        clientProviderRegistration = clientEndpoint.addConnectionProvider("remote", new RemoteConnectionProviderFactory(), NO_SSL);
+        clientConnection = connect(clientEndpoint, PORT, OptionMap.EMPTY).get();
+        clientConnection.addCloseHandler(new CloseHandler<Connection>() {
+            public void handleClose(final Connection closed, final IOException exception) {
+                clientClosed.countDown();
+            }
+        });
+        clientChannel = clientConnection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+        clientChannel.receiveMessage(new QueueingReceiver(clientMessages));
+        serverChannel = passer.getIoFuture().get();
+    }
+
+    private static OptionMap drainFor(final int millis) {
+        return OptionMap.create(RemotingOptions.GRACEFUL_CLOSE_TIMEOUT, Integer.valueOf(millis));
+    }
+
+    @After
+    public void destroy() {
+        IoUtils.safeClose(clientConnection);
+        IoUtils.safeClose(clientEndpoint);
+        IoUtils.safeClose(clientProviderRegistration);
+    }
+
+    private MessageInputStream startRequest(final MessageOutputStream request) throws Exception {
+        request.write(1);
+        request.flush();
+        final MessageInputStream received = serverMessages.poll(5L, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertEquals(1, received.read());
+        return received;
+    }
+
+    private void sendReply(final int value) throws Exception {
+        final MessageOutputStream reply = serverChannel.writeMessage();
+        reply.write(value);
+        reply.close();
+        final MessageInputStream replyReceived = clientMessages.poll(5L, TimeUnit.SECONDS);
+        assertNotNull(replyReceived);
+        assertEquals(value, replyReceived.read());
+        assertEquals(-1, replyReceived.read());
+        replyReceived.close();
+    }
+
+    @Test
+    public void testDrain() throws Exception {
+        start(OptionMap.EMPTY, drainFor(30000));
+        final MessageOutputStream request = clientChannel.writeMessage();
+        final MessageInputStream received = startRequest(request);
+        serverChannel.getConnection().closeAsync();
+        try {
+            clientConnection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+            fail("Expected the channel to be refused");
+        } catch (IOException expected) {
+        }
+        // the reply to a request in progress still gets through
+        sendReply(2);
+        assertFalse(clientClosed.await(200L, TimeUnit.MILLISECONDS));
+        // finishing the last message closes the connection well before the deadline
+        request.write(3);
+        request.close();
+        assertEquals(3, received.read());
+        assertEquals(-1, received.read());
+        received.close();
+        assertTrue(clientClosed.await(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReplyAfterRequest() throws Exception {
+        start(OptionMap.EMPTY, drainFor(30000));
+        final MessageOutputStream request = clientChannel.writeMessage();
+        final MessageInputStream received = startRequest(request);
+        request.close();
+        assertEquals(-1, received.read());
+        received.close();
+        // no message is open, but the request has not been answered yet
+        serverChannel.getConnection().closeAsync();
+        assertFalse(clientClosed.await(200L, TimeUnit.MILLISECONDS));
+        sendReply(2);
+        assertTrue(clientClosed.await(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDrainDeadline() throws Exception {
+        start(OptionMap.EMPTY, drainFor(300));
+        final MessageOutputStream request = clientChannel.writeMessage();
+        startRequest(request);
+        final long start = System.nanoTime();
+        serverChannel.getConnection().closeAsync();
+        assertTrue(clientClosed.await(10L, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300L));
+        IoUtils.safeClose(request);
+    }
+
+    @Test
+    public void testCloseAgain() throws Exception {
+        start(OptionMap.EMPTY, drainFor(30000));
+        final MessageOutputStream request = clientChannel.writeMessage();
+        startRequest(request);
+        final Connection serverConnection = serverChannel.getConnection();
+        serverConnection.closeAsync();
+        assertFalse(clientClosed.await(200L, TimeUnit.MILLISECONDS));
+        // a second close ends the drain
+        serverConnection.close();
+        assertTrue(clientClosed.await(10L, TimeUnit.SECONDS));
+        IoUtils.safeClose(request);
+    }
+
+    @Test
+    public void testEndpointDrain() throws Exception {
+        start(drainFor(30000), OptionMap.EMPTY);
+        final MessageOutputStream request = clientChannel.writeMessage();
+        final MessageInputStream received = startRequest(request);
+        IoUtils.safeClose(streamServer);
+        endpoint.closeAsync();
+        assertFalse(clientClosed.await(200L, TimeUnit.MILLISECONDS));
+        request.write(2);
+        request.close();
+        assertEquals(2, received.read());
+        assertEquals(-1, received.read());
+        received.close();
+        sendReply(3);
+        assertTrue(clientClosed.await(10L, TimeUnit.SECONDS));
+        endpoint.awaitClosed();
+    }
+
+    private static final class QueueingReceiver implements Channel.Receiver {
+        private final BlockingQueue<MessageInputStream> queue;
+
+        QueueingReceiver(final BlockingQueue<MessageInputStream> queue) {
+            this.queue = queue;
+        }
+
+        public void handleError(final Channel channel, final IOException error) {
+        }
+
+        public void handleEnd(final Channel channel) {
+        }
+
+        public void handleMessage(final Channel channel, final MessageInputStream message) {
+            queue.add(message);
+            channel.receiveMessage(this);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.Remoting;
+import org.jboss.remoting3.remote.RemoteConnectionProviderFactory;
+import org.jboss.remoting3.security.SimpleServerAuthenticationProvider;
+import org.jboss.remoting3.spi.NetworkServerProvider;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Sequence;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * Measures connection handshakes per second, with and without the server-side SASL mechanism cache.  This is not
+ * part of the regular test run; run it with {@code mvn test -Dtest=HandshakeBenchmark}.
+ */
+public final class HandshakeBenchmark {
+
+    private static final String CACHE_PROPERTY = "jboss.remoting.cache-sasl-mechanisms";
+    private static final int WARMUP = 200;
+    private static final int HANDSHAKES = 1000;
+
+    @Test
+    public void benchmarkHandshakes() throws Exception {
+        final double uncached = run(false);
+        final double cached = run(true);
+        System.out.printf("Handshakes per second: %.1f without mechanism cache, %.1f with mechanism cache%n", Double.valueOf(uncached), Double.valueOf(cached));
+    }
+
+    private static double run(final boolean cache) throws Exception {
+        System.setProperty(CACHE_PROPERTY, Boolean.toString(cache));
+        final Endpoint endpoint = Remoting.createEndpoint("benchmark", OptionMap.EMPTY);
+        Registration registration = null;
+        AcceptingChannel<? extends ConnectedStreamChannel> streamServer = null;
+        try {
+            registration = endpoint.addConnectionProvider("remote", new RemoteConnectionProviderFactory(), OptionMap.create(Options.SSL_ENABLED, Boolean.FALSE));
+            final NetworkServerProvider networkServerProvider = endpoint.getConnectionProviderInterface("remote", NetworkServerProvider.class);
+            final SimpleServerAuthenticationProvider provider = new SimpleServerAuthenticationProvider();
+            provider.addUser("bob", "test", "pass".toCharArray());
+            streamServer = networkServerProvider.createServer(new InetSocketAddress("localhost", 30123), OptionMap.create(Options.SASL_MECHANISMS, Sequence.of("CRAM-MD5")), provider, null);
+            final URI uri = new URI("remote://localhost:30123");
+            for (int i = 0; i < WARMUP; i ++) {
+                handshake(endpoint, uri);
+            }
+            final long start = System.nanoTime();
+            for (int i = 0; i < HANDSHAKES; i ++) {
+                handshake(endpoint, uri);
+            }
+            final long elapsed = System.nanoTime() - start;
+            return HANDSHAKES / ((double) elapsed / TimeUnit.SECONDS.toNanos(1L));
+        } finally {
+            System.clearProperty(CACHE_PROPERTY);
+            IoUtils.safeClose(streamServer);
+            IoUtils.safeClose(endpoint);
+            IoUtils.safeClose(registration);
+        }
+    }
+
+    private static void handshake(final Endpoint endpoint, final URI uri) throws Exception {
+        final Connection connection = endpoint.connect(uri, OptionMap.EMPTY, "bob", "test", "pass".toCharArray()).get();
+        connection.close();
+    }
+}
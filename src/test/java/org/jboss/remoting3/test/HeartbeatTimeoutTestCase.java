@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.RemotingOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that a connection to a peer which stops responding is torn down once the heartbeat times out, and that
+ * writers blocked on the dead connection are released with an error.
+ */
+public final class HeartbeatTimeoutTestCase extends ServerTestBase {
+
+    private FreezingProxy proxy;
+
+    @Before
+    public void create() throws Exception {
+        start();
+        registerService(new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                channel.receiveMessage(new Channel.Receiver() {
+                    public void handleError(final Channel channel, final IOException error) {
+                    }
+
+                    public void handleEnd(final Channel channel) {
+                    }
+
+                    public void handleMessage(final Channel channel, final MessageInputStream message) {
+                        IoUtils.safeClose(message);
+                    }
+                });
+            }
+
+            public void registrationTerminated() {
+            }
+        });
+        proxy = new FreezingProxy(new InetSocketAddress("localhost", 30124), new InetSocketAddress("localhost", PORT));
+    }
+
+    @After
+    public void destroy() {
+        IoUtils.safeClose(proxy);
+    }
+
+    @Test
+    public void testDeadPeer() throws Exception {
+        final OptionMap options = OptionMap.create(RemotingOptions.HEARTBEAT_INTERVAL, Integer.valueOf(200), RemotingOptions.HEARTBEAT_TIMEOUT, Integer.valueOf(1000));
+        final Connection connection = connect(30124, options).get();
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+        connection.addCloseHandler(new CloseHandler<Connection>() {
+            public void handleClose(final Connection closed, final IOException exception) {
+                closeLatch.countDown();
+            }
+        });
+        final Channel channel = connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+        proxy.freeze();
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Void> future = executorService.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    final byte[] bytes = new byte[1000];
+                    final MessageOutputStream outputStream = channel.writeMessage();
+                    try {
+                        // far more than the transmit window, so the writer must block
+                        for (;;) {
+                            outputStream.write(bytes);
+                        }
+                    } finally {
+                        IoUtils.safeClose(outputStream);
+                    }
+                }
+            });
+            assertTrue("Connection was not closed", closeLatch.await(10L, TimeUnit.SECONDS));
+            try {
+                future.get(10L, TimeUnit.SECONDS);
+                fail("Expected write failure");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            executorService.shutdownNow();
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testDeadPeerWithoutInterval() throws Exception {
+        // heartbeats must be sent on an idle connection even though only the timeout is given
+        final OptionMap options = OptionMap.create(RemotingOptions.HEARTBEAT_TIMEOUT, Integer.valueOf(500));
+        final Connection connection = connect(30124, options).get();
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+        connection.addCloseHandler(new CloseHandler<Connection>() {
+            public void handleClose(final Connection closed, final IOException exception) {
+                closeLatch.countDown();
+            }
+        });
+        try {
+            proxy.freeze();
+            assertTrue("Connection was not closed", closeLatch.await(10L, TimeUnit.SECONDS));
+        } finally {
+            // a synchronous close would wait forever on the frozen peer
+            connection.closeAsync();
+        }
+    }
+
+    /**
+     * A TCP proxy which can be told to stop forwarding traffic, simulating a peer which has silently gone away.
+     */
+    static final class FreezingProxy implements java.io.Closeable {
+        private final ServerSocket serverSocket;
+        private final InetSocketAddress target;
+        private volatile boolean frozen;
+        private volatile boolean closed;
+        private Socket client;
+        private Socket server;
+
+        FreezingProxy(final InetSocketAddress bindAddress, final InetSocketAddress target) throws IOException {
+            this.target = target;
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(bindAddress);
+            final Thread acceptThread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        accept();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }, "Proxy accept");
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        private void accept() throws IOException {
+            final Socket client = serverSocket.accept();
+            final Socket server = new Socket(target.getAddress(), target.getPort());
+            synchronized (this) {
+                this.client = client;
+                this.server = server;
+            }
+            pump(client, server, "Proxy client->server");
+            pump(server, client, "Proxy server->client");
+        }
+
+        private void pump(final Socket from, final Socket to, final String name) {
+            final Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    final byte[] bytes = new byte[8192];
+                    try {
+                        final InputStream is = from.getInputStream();
+                        final OutputStream os = to.getOutputStream();
+                        int res;
+                        while ((res = is.read(bytes)) != -1) {
+                            while (frozen && ! closed) {
+                                Thread.sleep(50L);
+                            }
+                            if (closed) {
+                                return;
+                            }
+                            os.write(bytes, 0, res);
+                            os.flush();
+                        }
+                    } catch (IOException e) {
+                        // closed
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void freeze() {
+            frozen = true;
+        }
+
+        public void close() {
+            closed = true;
+            IoUtils.safeClose(serverSocket);
+            synchronized (this) {
+                IoUtils.safeClose(client);
+                IoUtils.safeClose(server);
+            }
+        }
+    }
+}
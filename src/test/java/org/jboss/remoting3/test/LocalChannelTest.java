@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.xnio.IoUtils.safeClose;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.Remoting;
+import org.jboss.remoting3.RemotingOptions;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xnio.FutureResult;
+import org.xnio.OptionMap;
+
+/**
+ * Test for local (in-VM) channel communication.
+ */
+public final class LocalChannelTest extends ChannelTestBase {
+    private static Endpoint endpoint;
+    private Connection connection;
+    private Registration serviceRegistration;
+
+    @BeforeClass
+    public static void create() throws IOException {
+        endpoint = Remoting.createEndpoint("local-test", OptionMap.EMPTY);
+    }
+
+    @Before
+    public void testStart() throws Exception {
+        final FutureResult<Channel> passer = new FutureResult<Channel>();
+        serviceRegistration = endpoint.registerService("org.jboss.test", new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                passer.setResult(channel);
+            }
+
+            public void registrationTerminated() {
+            }
+        }, OptionMap.EMPTY);
+        connection = endpoint.connect(new URI("local:///"), OptionMap.EMPTY).get();
+        sendChannel = connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+        recvChannel = passer.getIoFuture().get();
+        assertNotNull(recvChannel);
+    }
+
+    @After
+    public void testFinish() {
+        safeClose(sendChannel);
+        safeClose(recvChannel);
+        safeClose(connection);
+        serviceRegistration.close();
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        final Channel channel = connection.openChannel("org.jboss.test", OptionMap.builder()
+                .set(RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH, 32)
+                .set(RemotingOptions.LOCAL_CHANNEL_BUFFER_SIZE, 65536)
+                .getMap()).get();
+        try {
+            assertEquals(Integer.valueOf(32), channel.getOption(RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH));
+            assertEquals(Integer.valueOf(65536), channel.getOption(RemotingOptions.LOCAL_CHANNEL_BUFFER_SIZE));
+            assertEquals(Integer.valueOf(RemotingOptions.DEFAULT_LOCAL_CHANNEL_QUEUE_LENGTH), recvChannel.getOption(RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH));
+        } finally {
+            safeClose(channel);
+        }
+    }
+
+    @Test
+    public void testQueueBlockedTime() throws Exception {
+        final long before = getBlockedTime("QueueBlockedTime");
+        for (int i = 0; i < RemotingOptions.DEFAULT_LOCAL_CHANNEL_QUEUE_LENGTH; i ++) {
+            sendChannel.writeMessage().close();
+        }
+        final CountDownLatch written = new CountDownLatch(1);
+        final Thread writer = new Thread() {
+            public void run() {
+                try {
+                    sendChannel.writeMessage().close();
+                    written.countDown();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        writer.start();
+        // the queue is full, so the writer has to wait for the receiver
+        assertFalse(written.await(100L, TimeUnit.MILLISECONDS));
+        recvChannel.receiveMessage(new Channel.Receiver() {
+            public void handleError(final Channel channel, final IOException error) {
+            }
+
+            public void handleEnd(final Channel channel) {
+            }
+
+            public void handleMessage(final Channel channel, final MessageInputStream message) {
+                safeClose(message);
+                channel.receiveMessage(this);
+            }
+        });
+        assertTrue(written.await(5L, TimeUnit.SECONDS));
+        writer.join();
+        assertTrue(getBlockedTime("QueueBlockedTime") - before >= TimeUnit.MILLISECONDS.toMicros(50L));
+    }
+
+    private static long getBlockedTime(final String attribute) throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final Set<ObjectName> names = server.queryNames(new ObjectName("jboss.remoting.handler:name=local-test-local-*"), null);
+        assertEquals(1, names.size());
+        return ((Long) server.getAttribute(names.iterator().next(), attribute)).longValue();
+    }
+
+    @AfterClass
+    public static void destroy() throws IOException {
+        safeClose(endpoint);
+    }
+}
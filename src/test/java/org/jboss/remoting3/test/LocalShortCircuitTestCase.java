@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.HandleableCloseable;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.Remoting;
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.remote.RemoteConnectionProviderFactory;
+import org.jboss.remoting3.security.InetAddressPrincipal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Sequence;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * Tests for connections which bypass the network to reach a server in the same JVM.
+ */
+public final class LocalShortCircuitTestCase extends ServerTestBase {
+
+    private static final OptionMap SHORT_CIRCUIT = OptionMap.create(RemotingOptions.LOCAL_SHORT_CIRCUIT, Boolean.TRUE);
+
+    private final BlockingQueue<Channel> opened = new LinkedBlockingQueue<Channel>();
+    private Endpoint clientEndpoint;
+    private Registration clientRegistration;
+
+    @Before
+    public void create() throws Exception {
+        start("server");
+        registerService(new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                opened.add(channel);
+            }
+
+            public void registrationTerminated() {
+            }
+        });
+        clientEndpoint = Remoting.createEndpoint("client", OptionMap.EMPTY);
+        clientRegistration = clientEndpoint.addConnectionProvider("remote", new RemoteConnectionProviderFactory(), NO_SSL);
+    }
+
+    @After
+    public void destroy() {
+        IoUtils.safeClose(clientEndpoint);
+        IoUtils.safeClose(clientRegistration);
+    }
+
+    private IoFuture<Connection> connect(final OptionMap optionMap, final String password) throws Exception {
+        return clientEndpoint.connect(new URI("remote://localhost:" + PORT), optionMap, "bob", "test", password.toCharArray());
+    }
+
+    @Test
+    public void testShortCircuit() throws Exception {
+        final Connection connection = connect(SHORT_CIRCUIT, "pass").get();
+        try {
+            assertEquals("server", connection.getRemoteEndpointName());
+            final Channel channel = connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+            final Channel serverChannel = opened.poll(5L, TimeUnit.SECONDS);
+            // the channels are local channels
+            assertTrue(channel.supportsOption(RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH));
+            assertEquals("bob", serverChannel.getConnection().getUserInfo().getUserName());
+            assertEquals("client", serverChannel.getConnection().getRemoteEndpointName());
+            // the client is seen at the loopback address, as over the network
+            assertTrue(serverChannel.getConnection().getPrincipals().contains(new InetAddressPrincipal(InetAddress.getByName(null))));
+            final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+            serverChannel.receiveMessage(new Channel.Receiver() {
+                public void handleError(final Channel channel, final IOException error) {
+                }
+
+                public void handleEnd(final Channel channel) {
+                }
+
+                public void handleMessage(final Channel channel, final MessageInputStream message) {
+                    try {
+                        final byte[] bytes = new byte[5];
+                        int cnt = 0;
+                        int res;
+                        while (cnt < bytes.length && (res = message.read(bytes, cnt, bytes.length - cnt)) != -1) {
+                            cnt += res;
+                        }
+                        received.add(bytes);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        IoUtils.safeClose(message);
+                    }
+                }
+            });
+            final MessageOutputStream message = channel.writeMessage();
+            message.write(new byte[] { 1, 2, 3, 4, 5 });
+            message.close();
+            assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, received.poll(5L, TimeUnit.SECONDS));
+            // closing a channel closes the other side but not the connection
+            channel.close();
+            awaitClosed(serverChannel);
+            IoUtils.safeClose(connection.openChannel("org.jboss.test", OptionMap.EMPTY).get());
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testConnectionClose() throws Exception {
+        final Connection connection = connect(SHORT_CIRCUIT, "pass").get();
+        connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+        final Channel serverChannel = opened.poll(5L, TimeUnit.SECONDS);
+        connection.close();
+        awaitClosed(serverChannel);
+        awaitClosed(serverChannel.getConnection());
+    }
+
+    @Test
+    public void testWrongPassword() throws Exception {
+        assertSame(IoFuture.Status.FAILED, connect(SHORT_CIRCUIT, "wrong").await(5L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNotRequested() throws Exception {
+        final Connection connection = connect(OptionMap.EMPTY, "pass").get();
+        try {
+            final Channel channel = connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+            assertFalse(channel.supportsOption(RemotingOptions.LOCAL_CHANNEL_QUEUE_LENGTH));
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testNoCommonMechanism() throws Exception {
+        // nothing can be authenticated in memory, so the connection goes over the network and fails there
+        final IoFuture<Connection> future = connect(OptionMap.builder()
+                .set(RemotingOptions.LOCAL_SHORT_CIRCUIT, true)
+                .set(Options.SASL_MECHANISMS, Sequence.of("DIGEST-MD5"))
+                .getMap(), "pass");
+        assertSame(IoFuture.Status.FAILED, future.await(5L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPlaintextPolicy() throws Exception {
+        // without SSL, the default SASL policy forbids PLAIN over the network, and so it does in memory
+        final AcceptingChannel<? extends ConnectedStreamChannel> plainServer = createServer(30124, OptionMap.create(Options.SASL_MECHANISMS, Sequence.of("PLAIN")), createAuthenticationProvider());
+        try {
+            final IoFuture<Connection> future = connect(clientEndpoint, 30124, SHORT_CIRCUIT);
+            assertSame(IoFuture.Status.FAILED, future.await(5L, TimeUnit.SECONDS));
+        } finally {
+            IoUtils.safeClose(plainServer);
+        }
+    }
+
+    private static <T> void awaitClosed(final HandleableCloseable<T> closeable) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        closeable.addCloseHandler(new CloseHandler<T>() {
+            public void handleClose(final T closed, final IOException exception) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5L, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.remote.RemoteConnectionProviderFactory;
+import org.jboss.remoting3.security.AuthorizingCallbackHandler;
+import org.jboss.remoting3.security.ServerAuthenticationProvider;
+import org.jboss.remoting3.security.UserInfo;
+import org.jboss.remoting3.spi.NetworkServerProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Property;
+import org.xnio.Sequence;
+import org.xnio.SslClientAuthMode;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the pipelined client handshake.
+ */
+public final class PipelinedHandshakeTestCase extends ServerTestBase {
+
+    private final AtomicInteger saslCallbacks = new AtomicInteger();
+
+    @Before
+    public void create() throws Exception {
+        createEndpoint("test", OptionMap.EMPTY, NO_SSL);
+        startServer(OptionMap.EMPTY, new CountingAuthenticationProvider(createAuthenticationProvider()));
+        registerService(IGNORE);
+    }
+
+    private static void checkConnection(final Connection connection) throws Exception {
+        IoUtils.safeClose(connection.openChannel("org.jboss.test", OptionMap.EMPTY).get());
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        final Connection connection = connect(OptionMap.builder()
+                .set(RemotingOptions.PIPELINE_HANDSHAKE, true)
+                .set(Options.SASL_MECHANISMS, Sequence.of("CRAM-MD5"))
+                .getMap()).get();
+        try {
+            checkConnection(connection);
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testCapabilitiesOnly() throws Exception {
+        // without a preferred mechanism only the capabilities are sent ahead
+        final Connection connection = connect(OptionMap.create(RemotingOptions.PIPELINE_HANDSHAKE, Boolean.TRUE)).get();
+        try {
+            checkConnection(connection);
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        // the server does not offer the preferred mechanism, so the client falls back to the usual sequence
+        final Connection connection = connect(OptionMap.builder()
+                .set(RemotingOptions.PIPELINE_HANDSHAKE, true)
+                .set(Options.SASL_MECHANISMS, Sequence.of("DIGEST-MD5", "CRAM-MD5"))
+                .getMap()).get();
+        try {
+            checkConnection(connection);
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testWrongPassword() throws Exception {
+        final IoFuture<Connection> future = endpoint.connect(new URI("remote://localhost:" + PORT), OptionMap.builder()
+                .set(RemotingOptions.PIPELINE_HANDSHAKE, true)
+                .set(Options.SASL_MECHANISMS, Sequence.of("CRAM-MD5"))
+                .getMap(), "bob", "test", "wrong".toCharArray());
+        assertSame(IoFuture.Status.FAILED, future.await());
+    }
+
+    @Test
+    public void testPipelinedResumption() throws Exception {
+        // tickets are only issued on secure channels, bound to the client's certificate
+        SslHelper.setKeyStoreAndTrustStore();
+        final Registration sslRegistration = endpoint.addConnectionProvider("remote-ssl", new RemoteConnectionProviderFactory(), OptionMap.EMPTY);
+        try {
+            final NetworkServerProvider networkServerProvider = endpoint.getConnectionProviderInterface("remote-ssl", NetworkServerProvider.class);
+            final AcceptingChannel<? extends ConnectedStreamChannel> sslServer = networkServerProvider.createServer(new InetSocketAddress("localhost", 30124), OptionMap.builder()
+                    .set(Options.SSL_ENABLED, true)
+                    .set(Options.SSL_STARTTLS, false)
+                    .set(Options.SSL_CLIENT_AUTH_MODE, SslClientAuthMode.REQUIRED)
+                    .set(Options.SASL_MECHANISMS, Sequence.of("CRAM-MD5"))
+                    .set(RemotingOptions.SESSION_TICKET_LIFETIME, 60000)
+                    .getMap(), new CountingAuthenticationProvider(createAuthenticationProvider()), null);
+            try {
+                final OptionMap optionMap = OptionMap.builder()
+                        .set(Options.SSL_STARTTLS, false)
+                        .set(RemotingOptions.PIPELINE_HANDSHAKE, true)
+                        .set(RemotingOptions.SESSION_RESUMPTION, true)
+                        .set(Options.SASL_MECHANISMS, Sequence.of("CRAM-MD5"))
+                        .getMap();
+                final Connection first = endpoint.connect(new URI("remote-ssl://localhost:30124"), optionMap, "bob", "test", "pass".toCharArray()).get();
+                try {
+                    // the reply to the open follows the session ticket
+                    checkConnection(first);
+                } finally {
+                    IoUtils.safeClose(first);
+                }
+                final int callbacks = saslCallbacks.get();
+                assertTrue(callbacks > 0);
+                final Connection second = endpoint.connect(new URI("remote-ssl://localhost:30124"), optionMap, "bob", "test", "pass".toCharArray()).get();
+                try {
+                    checkConnection(second);
+                    assertEquals(callbacks, saslCallbacks.get());
+                } finally {
+                    IoUtils.safeClose(second);
+                }
+            } finally {
+                IoUtils.safeClose(sslServer);
+            }
+        } finally {
+            IoUtils.safeClose(sslRegistration);
+        }
+    }
+
+    @Test
+    public void testWrongServerName() throws Exception {
+        // DIGEST-MD5 binds the server name, which the client guesses wrongly before the greeting; the mechanism is tried
+        // again under the name in the greeting
+        final AcceptingChannel<? extends ConnectedStreamChannel> digestServer = createServer(30124, OptionMap.builder()
+                .set(Options.SASL_MECHANISMS, Sequence.of("DIGEST-MD5"))
+                .set(Options.SASL_PROPERTIES, Sequence.of(Property.of("com.sun.security.sasl.digest.realm", "test")))
+                .set(RemotingOptions.SERVER_NAME, "server.example.com")
+                .getMap(), createAuthenticationProvider());
+        try {
+            final Connection connection = connect(30124, OptionMap.builder()
+                    .set(RemotingOptions.PIPELINE_HANDSHAKE, true)
+                    .set(Options.SASL_MECHANISMS, Sequence.of("DIGEST-MD5"))
+                    .getMap()).get();
+            try {
+                checkConnection(connection);
+            } finally {
+                IoUtils.safeClose(connection);
+            }
+        } finally {
+            IoUtils.safeClose(digestServer);
+        }
+    }
+
+    @Test
+    public void testAuthenticationBeforeCapabilities() throws Exception {
+        final Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(10000);
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            // skip the greeting
+            in.readFully(new byte[in.readInt()]);
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            // an authentication request, without asking for capabilities first
+            out.writeInt(1);
+            out.writeByte(2);
+            out.flush();
+            try {
+                assertEquals(-1, in.read());
+            } catch (SocketException e) {
+                // reset
+            }
+        } finally {
+            IoUtils.safeClose(socket);
+        }
+    }
+
+    final class CountingAuthenticationProvider implements ServerAuthenticationProvider {
+        private final ServerAuthenticationProvider delegate;
+
+        CountingAuthenticationProvider(final ServerAuthenticationProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        public AuthorizingCallbackHandler getCallbackHandler(final String mechanismName) {
+            final AuthorizingCallbackHandler handler = delegate.getCallbackHandler(mechanismName);
+            return handler == null ? null : new AuthorizingCallbackHandler() {
+                public UserInfo createUserInfo(final Collection<Principal> remotingPrincipals) throws IOException {
+                    return handler.createUserInfo(remotingPrincipals);
+                }
+
+                public void handle(final Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                    saslCallbacks.incrementAndGet();
+                    handler.handle(callbacks);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.Remoting;
+import org.jboss.remoting3.remote.RemoteConnectionProviderFactory;
+import org.jboss.remoting3.security.ServerAuthenticationProvider;
+import org.jboss.remoting3.security.SimpleServerAuthenticationProvider;
+import org.jboss.remoting3.spi.NetworkServerProvider;
+import org.junit.After;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Sequence;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * Base for tests which run a remote server on an endpoint and connect to it as user "bob".  Subclasses set up what
+ * they need in their own {@code @Before} method; everything created here is closed after their {@code @After} method.
+ */
+public abstract class ServerTestBase {
+
+    protected static final int PORT = 30123;
+    protected static final String SERVICE_TYPE = "org.jboss.test";
+
+    /**
+     * Provider options which disable SSL.
+     */
+    protected static final OptionMap NO_SSL = OptionMap.create(Options.SSL_ENABLED, Boolean.FALSE);
+
+    /**
+     * A listener which accepts channels and does nothing with them.
+     */
+    protected static final OpenListener IGNORE = new OpenListener() {
+        public void channelOpened(final Channel channel) {
+        }
+
+        public void registrationTerminated() {
+        }
+    };
+
+    protected Endpoint endpoint;
+    protected Registration registration;
+    protected AcceptingChannel<? extends ConnectedStreamChannel> streamServer;
+    protected Registration serviceRegistration;
+
+    /**
+     * Create the endpoint "test" and its remote connection provider, and start a CRAM-MD5 server knowing user "bob" on
+     * {@link #PORT}, with SSL disabled.
+     */
+    protected void start() throws Exception {
+        start("test");
+    }
+
+    /**
+     * Create the endpoint and its remote connection provider, and start a CRAM-MD5 server knowing user "bob" on
+     * {@link #PORT}, with SSL disabled.
+     *
+     * @param endpointName the endpoint name
+     */
+    protected void start(final String endpointName) throws Exception {
+        createEndpoint(endpointName, OptionMap.EMPTY, NO_SSL);
+        startServer(OptionMap.EMPTY, createAuthenticationProvider());
+    }
+
+    /**
+     * Create the endpoint and its remote connection provider.
+     *
+     * @param endpointName the endpoint name
+     * @param endpointOptions the endpoint options
+     * @param providerOptions the connection provider options
+     */
+    protected void createEndpoint(final String endpointName, final OptionMap endpointOptions, final OptionMap providerOptions) throws Exception {
+        endpoint = Remoting.createEndpoint(endpointName, endpointOptions);
+        registration = endpoint.addConnectionProvider("remote", new RemoteConnectionProviderFactory(), providerOptions);
+    }
+
+    /**
+     * Start the server on {@link #PORT}.  CRAM-MD5 is offered unless the server options name other mechanisms.
+     *
+     * @param serverOptions the server options
+     * @param authenticationProvider the server authentication provider
+     */
+    protected void startServer(final OptionMap serverOptions, final ServerAuthenticationProvider authenticationProvider) throws Exception {
+        streamServer = createServer(PORT, serverOptions, authenticationProvider);
+    }
+
+    /**
+     * Create another server, which the caller must close.  CRAM-MD5 is offered unless the server options name other
+     * mechanisms.
+     *
+     * @param port the port to listen on
+     * @param serverOptions the server options
+     * @param authenticationProvider the server authentication provider
+     * @return the server
+     */
+    protected AcceptingChannel<? extends ConnectedStreamChannel> createServer(final int port, final OptionMap serverOptions, final ServerAuthenticationProvider authenticationProvider) throws Exception {
+        final NetworkServerProvider networkServerProvider = endpoint.getConnectionProviderInterface("remote", NetworkServerProvider.class);
+        final OptionMap.Builder builder = OptionMap.builder().set(Options.SASL_MECHANISMS, Sequence.of("CRAM-MD5"));
+        return networkServerProvider.createServer(new InetSocketAddress("localhost", port), builder.addAll(serverOptions).getMap(), authenticationProvider, null);
+    }
+
+    /**
+     * Register the test service on the endpoint.
+     *
+     * @param openListener the service open listener
+     */
+    protected void registerService(final OpenListener openListener) throws Exception {
+        serviceRegistration = endpoint.registerService(SERVICE_TYPE, openListener, OptionMap.EMPTY);
+    }
+
+    /**
+     * Create a server authentication provider which knows user "bob" with password "pass".
+     *
+     * @return the authentication provider
+     */
+    protected static SimpleServerAuthenticationProvider createAuthenticationProvider() {
+        final SimpleServerAuthenticationProvider provider = new SimpleServerAuthenticationProvider();
+        provider.addUser("bob", "test", "pass".toCharArray());
+        return provider;
+    }
+
+    /**
+     * Connect to the server as user "bob".
+     *
+     * @param optionMap the connect options
+     * @return the future connection
+     */
+    protected IoFuture<Connection> connect(final OptionMap optionMap) throws Exception {
+        return connect(endpoint, PORT, optionMap);
+    }
+
+    /**
+     * Connect to a server as user "bob".
+     *
+     * @param port the server port
+     * @param optionMap the connect options
+     * @return the future connection
+     */
+    protected IoFuture<Connection> connect(final int port, final OptionMap optionMap) throws Exception {
+        return connect(endpoint, port, optionMap);
+    }
+
+    /**
+     * Connect to a server from the given endpoint as user "bob".
+     *
+     * @param endpoint the endpoint to connect from
+     * @param port the server port
+     * @param optionMap the connect options
+     * @return the future connection
+     */
+    protected static IoFuture<Connection> connect(final Endpoint endpoint, final int port, final OptionMap optionMap) throws Exception {
+        return endpoint.connect(new URI("remote://localhost:" + port), optionMap, "bob", "test", "pass".toCharArray());
+    }
+
+    @After
+    public void stop() {
+        IoUtils.safeClose(serviceRegistration);
+        IoUtils.safeClose(streamServer);
+        IoUtils.safeClose(endpoint);
+        IoUtils.safeClose(registration);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.security.AuthorizingCallbackHandler;
+import org.jboss.remoting3.security.ServerAuthenticationProvider;
+import org.jboss.remoting3.security.UserInfo;
+import org.jboss.remoting3.security.UserPrincipal;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.SslClientAuthMode;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for resuming connections with session tickets.  Tickets are only issued on secure channels, so the server
+ * uses SSL.
+ */
+public final class SessionResumptionTestCase extends ServerTestBase {
+
+    private static final OptionMap RESUME = OptionMap.create(RemotingOptions.SESSION_RESUMPTION, Boolean.TRUE);
+
+    private final AtomicInteger saslCallbacks = new AtomicInteger();
+    private final BlockingQueue<Channel> serverChannels = new ArrayBlockingQueue<Channel>(10);
+
+    @Before
+    public void create() throws Exception {
+        SslHelper.setKeyStoreAndTrustStore();
+        createEndpoint("test", OptionMap.EMPTY, OptionMap.EMPTY);
+        final OptionMap serverOptions = OptionMap.builder()
+                .set(Options.SSL_ENABLED, true)
+                .set(Options.SSL_CLIENT_AUTH_MODE, SslClientAuthMode.REQUIRED)
+                .set(RemotingOptions.SESSION_TICKET_LIFETIME, 60000)
+                .getMap();
+        startServer(serverOptions, new CountingAuthenticationProvider(createAuthenticationProvider()));
+        registerService(new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                serverChannels.add(channel);
+            }
+
+            public void registrationTerminated() {
+            }
+        });
+    }
+
+    private IoFuture<Connection> connect(final OptionMap optionMap, final String password) throws Exception {
+        return endpoint.connect(new URI("remote://localhost:" + PORT), optionMap, "bob", "test", password.toCharArray());
+    }
+
+    private Collection<Principal> openChannel(final Connection connection) throws Exception {
+        // the reply to the open follows any session ticket
+        IoUtils.safeClose(connection.openChannel("org.jboss.test", OptionMap.EMPTY).get());
+        final Channel serverChannel = serverChannels.poll(10L, TimeUnit.SECONDS);
+        assertNotNull(serverChannel);
+        return serverChannel.getConnection().getPrincipals();
+    }
+
+    @Test
+    public void testResumption() throws Exception {
+        final Connection first = connect(RESUME, "pass").get();
+        final Collection<Principal> firstPrincipals;
+        try {
+            firstPrincipals = openChannel(first);
+        } finally {
+            IoUtils.safeClose(first);
+        }
+        final int callbacks = saslCallbacks.get();
+        assertTrue(callbacks > 0);
+        final Connection second = connect(RESUME, "pass").get();
+        try {
+            // the second connection is resumed without a SASL exchange, with the same authorization identity
+            assertEquals(callbacks, saslCallbacks.get());
+            final Collection<Principal> secondPrincipals = openChannel(second);
+            assertTrue(secondPrincipals.contains(new UserPrincipal("bob")));
+            assertEquals(new HashSet<Principal>(firstPrincipals), new HashSet<Principal>(secondPrincipals));
+        } finally {
+            IoUtils.safeClose(second);
+        }
+    }
+
+    @Test
+    public void testCredentialsMustMatch() throws Exception {
+        final Connection first = connect(RESUME, "pass").get();
+        try {
+            openChannel(first);
+        } finally {
+            IoUtils.safeClose(first);
+        }
+        // the ticket belongs to other credentials, so the wrong password is checked and refused
+        final IoFuture<Connection> wrong = connect(RESUME, "wrong");
+        assertSame(IoFuture.Status.FAILED, wrong.await(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNotRequested() throws Exception {
+        final Connection first = connect(OptionMap.EMPTY, "pass").get();
+        try {
+            openChannel(first);
+        } finally {
+            IoUtils.safeClose(first);
+        }
+        final int callbacks = saslCallbacks.get();
+        final Connection second = connect(OptionMap.EMPTY, "pass").get();
+        try {
+            assertTrue(saslCallbacks.get() > callbacks);
+        } finally {
+            IoUtils.safeClose(second);
+        }
+    }
+
+    @Test
+    public void testPlainChannel() throws Exception {
+        final OptionMap serverOptions = OptionMap.builder()
+                .set(Options.SSL_ENABLED, false)
+                .set(RemotingOptions.SESSION_TICKET_LIFETIME, 60000)
+                .getMap();
+        final AcceptingChannel<? extends ConnectedStreamChannel> plainServer = createServer(30124, serverOptions, new CountingAuthenticationProvider(createAuthenticationProvider()));
+        try {
+            final OptionMap optionMap = OptionMap.create(RemotingOptions.SESSION_RESUMPTION, Boolean.TRUE, Options.SSL_ENABLED, Boolean.FALSE);
+            final Connection first = connect(30124, optionMap).get();
+            try {
+                openChannel(first);
+            } finally {
+                IoUtils.safeClose(first);
+            }
+            final int callbacks = saslCallbacks.get();
+            // no ticket is issued in the clear, so the second connection authenticates again
+            final Connection second = connect(30124, optionMap).get();
+            try {
+                assertTrue(saslCallbacks.get() > callbacks);
+            } finally {
+                IoUtils.safeClose(second);
+            }
+        } finally {
+            IoUtils.safeClose(plainServer);
+        }
+    }
+
+    final class CountingAuthenticationProvider implements ServerAuthenticationProvider {
+        private final ServerAuthenticationProvider delegate;
+
+        CountingAuthenticationProvider(final ServerAuthenticationProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        public AuthorizingCallbackHandler getCallbackHandler(final String mechanismName) {
+            final AuthorizingCallbackHandler handler = delegate.getCallbackHandler(mechanismName);
+            return new AuthorizingCallbackHandler() {
+                public UserInfo createUserInfo(final Collection<Principal> remotingPrincipals) throws IOException {
+                    return handler.createUserInfo(remotingPrincipals);
+                }
+
+                public void handle(final Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                    saslCallbacks.incrementAndGet();
+                    handler.handle(callbacks);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.RemotingOptions;
+import org.jboss.remoting3.security.SimpleServerAuthenticationProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for connections shared through the endpoint connection cache.
+ */
+public final class SharedConnectionTestCase extends ServerTestBase {
+
+    private static final OptionMap SHARED = OptionMap.create(RemotingOptions.SHARE_CONNECTION, Boolean.TRUE);
+
+    @Before
+    public void create() throws Exception {
+        createEndpoint("test", OptionMap.EMPTY, NO_SSL);
+        final SimpleServerAuthenticationProvider provider = createAuthenticationProvider();
+        provider.addUser("alice", "test", "secret".toCharArray());
+        startServer(OptionMap.EMPTY, provider);
+        registerService(IGNORE);
+    }
+
+    private IoFuture<Connection> connect(final OptionMap optionMap, final String userName, final String password) throws Exception {
+        return endpoint.connect(new URI("remote://localhost:" + PORT), optionMap, userName, "test", password.toCharArray());
+    }
+
+    private static CountDownLatch closeLatch(final Connection connection) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        connection.addCloseHandler(new CloseHandler<Connection>() {
+            public void handleClose(final Connection closed, final IOException exception) {
+                latch.countDown();
+            }
+        });
+        return latch;
+    }
+
+    @Test
+    public void testSharing() throws Exception {
+        // the second request joins the first while it is still in progress
+        final IoFuture<Connection> future1 = connect(SHARED, "bob", "pass");
+        final IoFuture<Connection> future2 = connect(SHARED, "bob", "pass");
+        final Connection lease1 = future1.get();
+        final Connection lease2 = future2.get();
+        final Connection lease3 = connect(SHARED, "bob", "pass").get();
+        try {
+            assertNotSame(lease1, lease2);
+            // the attachments belong to the shared connection
+            assertSame(lease1.getAttachments(), lease2.getAttachments());
+            assertSame(lease1.getAttachments(), lease3.getAttachments());
+            lease1.close();
+            lease2.close();
+            // the connection is still usable through the remaining lease
+            lease3.openChannel("org.jboss.test", OptionMap.EMPTY).get().close();
+            final CountDownLatch latch = closeLatch(lease3);
+            lease3.close();
+            assertTrue(latch.await(10L, TimeUnit.SECONDS));
+            final Connection lease4 = connect(SHARED, "bob", "pass").get();
+            try {
+                assertNotSame(lease3.getAttachments(), lease4.getAttachments());
+            } finally {
+                IoUtils.safeClose(lease4);
+            }
+        } finally {
+            IoUtils.safeClose(lease1);
+            IoUtils.safeClose(lease2);
+            IoUtils.safeClose(lease3);
+        }
+    }
+
+    @Test
+    public void testIdentity() throws Exception {
+        final Connection bob = connect(SHARED, "bob", "pass").get();
+        final Connection alice = connect(SHARED, "alice", "secret").get();
+        final Connection unshared = connect(OptionMap.EMPTY, "bob", "pass").get();
+        try {
+            assertNotSame(bob.getAttachments(), alice.getAttachments());
+            assertNotSame(bob.getAttachments(), unshared.getAttachments());
+            // a wrong password must not reuse the authenticated connection
+            final IoFuture<Connection> wrong = connect(SHARED, "bob", "wrong");
+            assertSame(IoFuture.Status.FAILED, wrong.await(10L, TimeUnit.SECONDS));
+        } finally {
+            IoUtils.safeClose(bob);
+            IoUtils.safeClose(alice);
+            IoUtils.safeClose(unshared);
+        }
+    }
+
+    @Test
+    public void testEndpointClose() throws Exception {
+        final Connection lease1 = connect(SHARED, "bob", "pass").get();
+        final Connection lease2 = connect(SHARED, "bob", "pass").get();
+        final CountDownLatch latch1 = closeLatch(lease1);
+        final CountDownLatch latch2 = closeLatch(lease2);
+        // closing the endpoint closes the shared connection, and with it every lease
+        streamServer.close();
+        IoUtils.safeClose(endpoint);
+        assertTrue(latch1.await(10L, TimeUnit.SECONDS));
+        assertTrue(latch2.await(10L, TimeUnit.SECONDS));
+    }
+}
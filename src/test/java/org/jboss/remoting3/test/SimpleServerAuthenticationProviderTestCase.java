@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.sasl.AuthenticationException;
+import javax.security.sasl.RealmCallback;
+
+import org.jboss.remoting3.security.AuthorizingCallbackHandler;
+import org.jboss.remoting3.security.SimpleServerAuthenticationProvider;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the user lookups of {@link SimpleServerAuthenticationProvider}.
+ */
+public final class SimpleServerAuthenticationProviderTestCase {
+
+    private static char[] lookup(final SimpleServerAuthenticationProvider provider, final String userName, final String realmName) throws Exception {
+        final AuthorizingCallbackHandler handler = provider.getCallbackHandler("PLAIN");
+        final PasswordCallback passwordCallback = new PasswordCallback("Password", false);
+        final Callback[] callbacks;
+        if (realmName == null) {
+            callbacks = new Callback[] { new NameCallback("User", userName), passwordCallback };
+        } else {
+            callbacks = new Callback[] { new NameCallback("User", userName), new RealmCallback("Realm", realmName), passwordCallback };
+        }
+        try {
+            handler.handle(callbacks);
+        } catch (AuthenticationException e) {
+            return null;
+        }
+        return passwordCallback.getPassword();
+    }
+
+    @Test
+    public void testRealmLookup() throws Exception {
+        final SimpleServerAuthenticationProvider provider = new SimpleServerAuthenticationProvider();
+        provider.addUser("bob", "test", "pass".toCharArray());
+        provider.addUser("Bob", "Other", "other".toCharArray());
+        assertArrayEquals("pass".toCharArray(), lookup(provider, "bob", "test"));
+        assertArrayEquals("other".toCharArray(), lookup(provider, "BOB ", "other"));
+        assertNull(lookup(provider, "bob", "missing"));
+        assertNull(lookup(provider, "alice", "test"));
+    }
+
+    @Test
+    public void testLookupWithoutRealm() throws Exception {
+        final SimpleServerAuthenticationProvider provider = new SimpleServerAuthenticationProvider();
+        provider.addUser("bob", "test", "pass".toCharArray());
+        provider.addUser("bob", "other", "other".toCharArray());
+        assertArrayEquals("pass".toCharArray(), lookup(provider, "bob", null));
+        // replacing the user in the same realm replaces the realm-less entry too
+        provider.addUser("bob", "test", "changed".toCharArray());
+        assertArrayEquals("changed".toCharArray(), lookup(provider, "bob", null));
+        assertArrayEquals("other".toCharArray(), lookup(provider, "bob", "other"));
+        assertNull(lookup(provider, "alice", null));
+    }
+
+    @Test
+    public void testAddUserRejectsNull() {
+        try {
+            new SimpleServerAuthenticationProvider().addUser("bob", null, "pass".toCharArray());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.CloseHandler;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.RemotingOptions;
+import org.junit.Before;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for connections striped over several sockets.
+ */
+public final class StripedConnectionTestCase extends ServerTestBase {
+
+    private final Set<Connection> serverConnections = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>()));
+    private final CountDownLatch receivedLatch = new CountDownLatch(6);
+
+    @Before
+    public void create() throws Exception {
+        start();
+        registerService(new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                serverConnections.add(channel.getConnection());
+                channel.receiveMessage(new Channel.Receiver() {
+                    public void handleError(final Channel channel, final IOException error) {
+                    }
+
+                    public void handleEnd(final Channel channel) {
+                    }
+
+                    public void handleMessage(final Channel channel, final MessageInputStream message) {
+                        IoUtils.safeClose(message);
+                        receivedLatch.countDown();
+                    }
+                });
+            }
+
+            public void registrationTerminated() {
+            }
+        });
+    }
+
+    @Test
+    public void testStriping() throws Exception {
+        final OptionMap optionMap = OptionMap.create(RemotingOptions.CONNECTION_STRIPES, Integer.valueOf(3));
+        final Connection connection = connect(optionMap).get();
+        final List<Channel> channels = new ArrayList<Channel>();
+        try {
+            for (int i = 0; i < 6; i ++) {
+                channels.add(connection.openChannel("org.jboss.test", OptionMap.EMPTY).get());
+            }
+            for (Channel channel : channels) {
+                // the channels report the striped connection, not their stripe
+                assertSame(connection, channel.getConnection());
+                final MessageOutputStream outputStream = channel.writeMessage();
+                outputStream.write(new byte[] { 1, 2, 3 });
+                outputStream.close();
+            }
+            assertTrue(receivedLatch.await(10L, TimeUnit.SECONDS));
+            // the channels are spread evenly over the stripes
+            assertEquals(3, serverConnections.size());
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testStripeLoss() throws Exception {
+        final OptionMap optionMap = OptionMap.create(RemotingOptions.CONNECTION_STRIPES, Integer.valueOf(2));
+        final Connection connection = connect(optionMap).get();
+        final CountDownLatch latch = new CountDownLatch(1);
+        connection.addCloseHandler(new CloseHandler<Connection>() {
+            public void handleClose(final Connection closed, final IOException exception) {
+                latch.countDown();
+            }
+        });
+        connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+        final Channel channel2 = connection.openChannel("org.jboss.test", OptionMap.EMPTY).get();
+        try {
+            // the open listener runs after the open is acknowledged
+            final long deadline = System.currentTimeMillis() + 10000L;
+            while (serverConnections.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            // losing a single stripe closes the whole connection
+            serverConnections.iterator().next().close();
+            assertTrue(latch.await(10L, TimeUnit.SECONDS));
+            final CountDownLatch channelLatch = new CountDownLatch(1);
+            channel2.addCloseHandler(new CloseHandler<Channel>() {
+                public void handleClose(final Channel closed, final IOException exception) {
+                    channelLatch.countDown();
+                }
+            });
+            assertTrue(channelLatch.await(10L, TimeUnit.SECONDS));
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+}
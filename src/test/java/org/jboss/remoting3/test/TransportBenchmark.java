@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.MessageInputStream;
+import org.jboss.remoting3.MessageOutputStream;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.Remoting;
+import org.jboss.remoting3.remote.RemoteConnectionProviderFactory;
+import org.jboss.remoting3.remote.SharedMemoryConnectionProviderFactory;
+import org.jboss.remoting3.remote.UnixSocketConnectionProviderFactory;
+import org.jboss.remoting3.security.SimpleServerAuthenticationProvider;
+import org.jboss.remoting3.spi.ConnectionProviderFactory;
+import org.jboss.remoting3.spi.NetworkServerProvider;
+import org.junit.Test;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Sequence;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * Measures message round trip latency and one-way throughput over a channel for each transport: loopback TCP, Unix
+ * domain sockets (where the JVM has them), shared memory and local connections.  This is not part of the regular test
+ * run; run it with {@code mvn test -Dtest=TransportBenchmark}.
+ */
+public final class TransportBenchmark {
+
+    private static final int WARMUP = 2000;
+    private static final int ROUND_TRIPS = 20000;
+    private static final int SMALL_MESSAGE_SIZE = 32;
+    private static final int LARGE_MESSAGE_SIZE = 65536;
+    private static final int LARGE_MESSAGES = 2000;
+
+    @Test
+    public void benchmarkTransports() throws Exception {
+        run("remote", new RemoteConnectionProviderFactory(), 30123);
+        if (isUnixSocketSupported()) {
+            run("unix", new UnixSocketConnectionProviderFactory(), 30123);
+        } else {
+            System.out.println("unix: not supported by this JVM");
+        }
+        run("shm", new SharedMemoryConnectionProviderFactory(), 30123);
+        run("local", null, 0);
+    }
+
+    private static boolean isUnixSocketSupported() {
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static void run(final String scheme, final ConnectionProviderFactory factory, final int port) throws Exception {
+        final Endpoint endpoint = Remoting.createEndpoint("benchmark", OptionMap.EMPTY);
+        Registration registration = null;
+        Registration serviceRegistration = null;
+        AcceptingChannel<? extends ConnectedStreamChannel> streamServer = null;
+        Connection connection = null;
+        try {
+            final URI uri;
+            if (factory != null) {
+                registration = endpoint.addConnectionProvider(scheme, factory, OptionMap.create(Options.SSL_ENABLED, Boolean.FALSE));
+                final NetworkServerProvider networkServerProvider = endpoint.getConnectionProviderInterface(scheme, NetworkServerProvider.class);
+                final SimpleServerAuthenticationProvider provider = new SimpleServerAuthenticationProvider();
+                provider.addUser("bob", "test", "pass".toCharArray());
+                streamServer = networkServerProvider.createServer(new InetSocketAddress("localhost", port), OptionMap.create(Options.SASL_MECHANISMS, Sequence.of("CRAM-MD5")), provider, null);
+                uri = new URI(scheme + "://localhost:" + port);
+            } else {
+                uri = new URI(scheme + ":///");
+            }
+            serviceRegistration = endpoint.registerService("org.jboss.benchmark", new OpenListener() {
+                public void channelOpened(final Channel channel) {
+                    channel.receiveMessage(new Responder());
+                }
+
+                public void registrationTerminated() {
+                }
+            }, OptionMap.EMPTY);
+            connection = endpoint.connect(uri, OptionMap.EMPTY, "bob", "test", "pass".toCharArray()).get();
+            final Channel channel = connection.openChannel("org.jboss.benchmark", OptionMap.EMPTY).get();
+            final Semaphore replies = new Semaphore(0);
+            channel.receiveMessage(new Channel.Receiver() {
+                public void handleError(final Channel channel, final IOException error) {
+                }
+
+                public void handleEnd(final Channel channel) {
+                }
+
+                public void handleMessage(final Channel channel, final MessageInputStream message) {
+                    IoUtils.safeClose(message);
+                    replies.release();
+                    channel.receiveMessage(this);
+                }
+            });
+            final byte[] small = new byte[SMALL_MESSAGE_SIZE];
+            for (int i = 0; i < WARMUP; i ++) {
+                roundTrip(channel, small, replies);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUND_TRIPS; i ++) {
+                roundTrip(channel, small, replies);
+            }
+            final double latency = (double) (System.nanoTime() - start) / ROUND_TRIPS / 1000.0;
+            final byte[] large = new byte[LARGE_MESSAGE_SIZE];
+            start = System.nanoTime();
+            for (int i = 0; i < LARGE_MESSAGES; i ++) {
+                final MessageOutputStream message = channel.writeMessage();
+                message.write(large);
+                message.close();
+            }
+            // an empty message asks for a reply once everything before it is read
+            channel.writeMessage().close();
+            replies.acquire();
+            final double seconds = (double) (System.nanoTime() - start) / TimeUnit.SECONDS.toNanos(1L);
+            final double throughput = (double) LARGE_MESSAGES * LARGE_MESSAGE_SIZE / seconds / (1024 * 1024);
+            System.out.printf("%s: %.1f us round trip, %.1f MB/s%n", scheme, Double.valueOf(latency), Double.valueOf(throughput));
+            channel.close();
+        } finally {
+            IoUtils.safeClose(connection);
+            IoUtils.safeClose(serviceRegistration);
+            IoUtils.safeClose(streamServer);
+            IoUtils.safeClose(endpoint);
+            IoUtils.safeClose(registration);
+        }
+    }
+
+    private static void roundTrip(final Channel channel, final byte[] bytes, final Semaphore replies) throws Exception {
+        final MessageOutputStream message = channel.writeMessage();
+        message.write(bytes);
+        message.close();
+        replies.acquire();
+    }
+
+    /**
+     * Replies to every message of at most the small size, and discards the rest.
+     */
+    private static final class Responder implements Channel.Receiver {
+
+        private final byte[] buffer = new byte[8192];
+
+        public void handleError(final Channel channel, final IOException error) {
+            IoUtils.safeClose(channel);
+        }
+
+        public void handleEnd(final Channel channel) {
+            IoUtils.safeClose(channel);
+        }
+
+        public void handleMessage(final Channel channel, final MessageInputStream message) {
+            try {
+                int length = 0;
+                int n;
+                while ((n = message.read(buffer)) != -1) {
+                    length += n;
+                }
+                message.close();
+                if (length <= SMALL_MESSAGE_SIZE) {
+                    final MessageOutputStream reply = channel.writeMessage();
+                    reply.write(buffer, 0, length);
+                    reply.close();
+                }
+                channel.receiveMessage(this);
+            } catch (IOException e) {
+                IoUtils.safeClose(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.remoting3.test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.xnio.IoUtils.safeClose;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.remoting3.Channel;
+import org.jboss.remoting3.Connection;
+import org.jboss.remoting3.Endpoint;
+import org.jboss.remoting3.OpenListener;
+import org.jboss.remoting3.Registration;
+import org.jboss.remoting3.Remoting;
+import org.jboss.remoting3.remote.UnixSocketConnectionProviderFactory;
+import org.jboss.remoting3.security.SimpleServerAuthenticationProvider;
+import org.jboss.remoting3.spi.NetworkServerProvider;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Sequence;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * Test for channel communication over Unix domain sockets.  Skipped on JVMs without them; the stream connection
+ * underneath is also covered by {@code UnixSocketConnectionTestCase}, which runs everywhere.
+ */
+public final class UnixSocketChannelTest extends ChannelTestBase {
+    protected static Endpoint endpoint;
+    private static AcceptingChannel<? extends ConnectedStreamChannel> streamServer;
+    private static Registration registration;
+    private Connection connection;
+    private Registration serviceRegistration;
+
+    @BeforeClass
+    public static void create() throws IOException {
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        endpoint = Remoting.createEndpoint("unix-test", OptionMap.EMPTY);
+        registration = endpoint.addConnectionProvider("unix", new UnixSocketConnectionProviderFactory(), OptionMap.EMPTY);
+        NetworkServerProvider networkServerProvider = endpoint.getConnectionProviderInterface("unix", NetworkServerProvider.class);
+        SimpleServerAuthenticationProvider provider = new SimpleServerAuthenticationProvider();
+        provider.addUser("bob", "test", "pass".toCharArray());
+        streamServer = networkServerProvider.createServer(new InetSocketAddress("localhost", 30125), OptionMap.create(Options.SASL_MECHANISMS, Sequence.of("CRAM-MD5")), provider, null);
+    }
+
+    @Before
+    public void testStart() throws IOException, URISyntaxException, InterruptedException {
+        final FutureResult<Channel> passer = new FutureResult<Channel>();
+        serviceRegistration = endpoint.registerService("org.jboss.test", new OpenListener() {
+            public void channelOpened(final Channel channel) {
+                passer.setResult(channel);
+            }
+
+            public void registrationTerminated() {
+            }
+        }, OptionMap.EMPTY);
+        IoFuture<Connection> futureConnection = endpoint.connect(new URI("unix://localhost:30125"), OptionMap.EMPTY, "bob", "test", "pass".toCharArray());
+        connection = futureConnection.get();
+        IoFuture<Channel> futureChannel = connection.openChannel("org.jboss.test", OptionMap.EMPTY);
+        sendChannel = futureChannel.get();
+        recvChannel = passer.getIoFuture().get();
+        assertNotNull(recvChannel);
+        assertEquals("bob",recvChannel.getConnection().getUserInfo().getUserName());        
+    }
+
+    @After
+    public void testFinish() {
+        safeClose(sendChannel);
+        safeClose(recvChannel);
+        safeClose(connection);
+        serviceRegistration.close();
+    }
+
+    @AfterClass
+    public static void destroy() throws IOException, InterruptedException {
+        safeClose(streamServer);
+        safeClose(endpoint);
+        safeClose(registration);
+    }
+
+    @Test
+    public void testRefused() throws Exception {
+        IoFuture<Connection> futureConnection = endpoint.connect(new URI("unix://localhost:33125"), OptionMap.EMPTY, "bob", "test", "pass".toCharArray());
+        try {
+            futureConnection.awaitInterruptibly(2L, TimeUnit.SECONDS);
+            if (futureConnection.getStatus() == IoFuture.Status.WAITING) {
+                futureConnection.cancel();
+            } else {
+                safeClose(futureConnection.get());
+            }
+        } catch (IOException expected) {
+            if (expected.getMessage().toLowerCase(Locale.US).contains("refused")) {
+                return;
+            }
+        }
+        fail("Expected an IOException with 'refused' in the string");
+    }
+}